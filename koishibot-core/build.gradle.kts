@@ -2,6 +2,7 @@ import java.security.MessageDigest
 
 plugins {
     `java-library`
+    id("me.champeau.jmh") version "0.7.0"
 }
 
 repositories {
@@ -29,9 +30,22 @@ dependencies {
     api("org.apache.logging.log4j:log4j-api:2.19.0")
     api("org.apache.logging.log4j:log4j-core:2.19.0")
     api("org.apache.logging.log4j:log4j-slf4j-impl:2.19.0")
+
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.8.1")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.8.1")
 }
 
 tasks {
+    test {
+        useJUnitPlatform()
+        // Temp files and the data store are relative to the working directory
+        workingDir = layout.buildDirectory.dir("test-run").get().asFile
+        doFirst {
+            delete(workingDir)
+            workingDir.mkdirs()
+        }
+    }
+
     jar {
         manifest.attributes["Main-Class"] = "io.github.nickid2018.koishibot.core.BotStart"
         manifest.attributes["Class-Path"] = configurations.runtimeClasspath.get()
@@ -0,0 +1,133 @@
+package io.github.nickid2018.koishibot.filter;
+
+import io.github.nickid2018.koishibot.util.value.MutableBoolean;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// The trie-of-lists matcher SensitiveWordFilter used before the automaton, kept as a baseline
+public final class LegacySensitiveWordFilter {
+
+    private final List<SingleChar> singleCharList = new ArrayList<>();
+    private final static char REPLACE_CHARACTER = '*';
+    private final static char[] SKIP_CHARACTERS = new char[]{
+            '!', '*', '-', '+', '_', '=', ',', '.'
+    };
+
+    public LegacySensitiveWordFilter(List<String> words) {
+        for (String word : words) {
+            List<SingleChar> now = singleCharList;
+            SingleChar singleCharData = null;
+            for (char ch : word.toCharArray()) {
+                if (singleCharData != null) {
+                    if (singleCharData.next == null)
+                        singleCharData.next = new ArrayList<>();
+                    now = singleCharData.next;
+                }
+                singleCharData = null;
+                for (SingleChar next : now) {
+                    if (next.character == ch) {
+                        singleCharData = next;
+                        break;
+                    }
+                }
+                if (singleCharData == null)
+                    now.add(singleCharData = new SingleChar(ch));
+            }
+        }
+        sort(singleCharList);
+    }
+
+    public String filter(String text, MutableBoolean filtered) {
+        if (singleCharList.size() == 0)
+            return text;
+        char[] chars = text.toCharArray();
+        int matchSize;
+        boolean matchFlag;
+        for (int offset = 0; offset < chars.length; offset++) {
+            char c = chars[offset];
+            SingleChar single = binarySearch(c, singleCharList);
+            if (single != null) {
+                matchFlag = false;
+                matchSize = offset + 1;
+                while (matchSize < chars.length) {
+                    if (skip(chars[matchSize])) {
+                        matchSize++;
+                        continue;
+                    }
+                    if (single.next != null) {
+                        single = binarySearch(chars[matchSize], single.next);
+                        if (single == null)
+                            break;
+                        matchSize++;
+                    } else {
+                        matchFlag = true;
+                        break;
+                    }
+                }
+                if (single != null && single.next == null)
+                    matchFlag = true;
+                if (matchFlag) {
+                    while (offset < matchSize) {
+                        if (skip(chars[offset])) {
+                            offset++;
+                            continue;
+                        }
+                        chars[offset] = REPLACE_CHARACTER;
+                        filtered.setValue(true);
+                        offset++;
+                    }
+                    offset--;
+                }
+            }
+        }
+        return new String(chars);
+    }
+
+    private static void sort(List<SingleChar> singleChars) {
+        if (singleChars == null)
+            return;
+        Collections.sort(singleChars);
+        for (SingleChar single : singleChars)
+            sort(single.next);
+    }
+
+    private static boolean skip(char c) {
+        for (char c1 : SKIP_CHARACTERS)
+            if (c1 == c)
+                return true;
+        return false;
+    }
+
+    private static SingleChar binarySearch(char c, List<SingleChar> singleCharList) {
+        int left = 0;
+        int right = singleCharList.size() - 1;
+        while (left <= right) {
+            int key = (left + right) / 2;
+            SingleChar single = singleCharList.get(key);
+            if (single.character == c)
+                return single;
+            else if (single.character > c)
+                right = key - 1;
+            else
+                left = key + 1;
+        }
+        return null;
+    }
+
+    private static class SingleChar implements Comparable<SingleChar> {
+
+        private final char character;
+        private List<SingleChar> next = null;
+
+        private SingleChar(char c) {
+            this.character = c;
+        }
+
+        @Override
+        public int compareTo(SingleChar single) {
+            return character - single.character;
+        }
+    }
+}
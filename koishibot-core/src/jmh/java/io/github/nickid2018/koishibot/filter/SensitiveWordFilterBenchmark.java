@@ -0,0 +1,70 @@
+package io.github.nickid2018.koishibot.filter;
+
+import io.github.nickid2018.koishibot.util.value.MutableBoolean;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SensitiveWordFilterBenchmark {
+
+    private static final int WORD_COUNT = 10000;
+
+    @Param({"64", "1024"})
+    public int textLength;
+
+    private SensitiveWordFilter filter;
+    private LegacySensitiveWordFilter legacy;
+    private String text;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(20230301);
+        List<String> words = new ArrayList<>(WORD_COUNT);
+        for (int i = 0; i < WORD_COUNT; i++) {
+            StringBuilder word = new StringBuilder();
+            int length = 2 + random.nextInt(4);
+            for (int j = 0; j < length; j++)
+                word.append(randomHan(random));
+            words.add(word.toString());
+        }
+        SensitiveWordFilter.loadWords(words);
+        filter = new SensitiveWordFilter();
+        legacy = new LegacySensitiveWordFilter(words);
+
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < textLength) {
+            int roll = random.nextInt(20);
+            if (roll == 0) {
+                String word = words.get(random.nextInt(WORD_COUNT));
+                builder.append(word.charAt(0)).append('-').append(word, 1, word.length());
+            } else if (roll < 3)
+                builder.append(' ');
+            else
+                builder.append(randomHan(random));
+        }
+        text = builder.substring(0, textLength);
+    }
+
+    private static char randomHan(Random random) {
+        return (char) (0x4E00 + random.nextInt(3000));
+    }
+
+    @Benchmark
+    public String automaton() {
+        return filter.filter(text, new MutableBoolean(false));
+    }
+
+    @Benchmark
+    public String legacy() {
+        return legacy.filter(text, new MutableBoolean(false));
+    }
+}
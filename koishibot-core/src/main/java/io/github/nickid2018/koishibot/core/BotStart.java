@@ -42,6 +42,7 @@ public class BotStart {
 
     private static void start() throws IOException {
         PluginProcessor.initProcess();
+        TempFileSystem.init();
         Settings.load();
         MonitorListener.startLink();
         Environments.startServer();
@@ -1,13 +1,22 @@
 package io.github.nickid2018.koishibot.core;
 
 import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.filter.RequestFrequencyFilter;
 import io.github.nickid2018.koishibot.filter.SensitiveFilter;
+import io.github.nickid2018.koishibot.message.AudioSender;
+import io.github.nickid2018.koishibot.message.AwaitTimer;
+import io.github.nickid2018.koishibot.message.SendScheduler;
 import io.github.nickid2018.koishibot.module.ModuleManager;
 import io.github.nickid2018.koishibot.permission.PermissionManager;
 import io.github.nickid2018.koishibot.server.ServerManager;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
 import io.github.nickid2018.koishibot.util.FormatTransformer;
 import io.github.nickid2018.koishibot.util.ImageRenderer;
+import io.github.nickid2018.koishibot.util.TranscodeCache;
+import io.github.nickid2018.koishibot.util.storage.DataStorage;
+import io.github.nickid2018.koishibot.util.web.HttpCache;
+import io.github.nickid2018.koishibot.util.web.RenderCache;
+import io.github.nickid2018.koishibot.util.web.WebClients;
 import io.github.nickid2018.koishibot.util.web.WebPageRenderer;
 import io.github.nickid2018.koishibot.util.web.WebUtil;
 import org.slf4j.Logger;
@@ -33,8 +42,20 @@ public class PluginProcessor {
             EXIT_PROCESS.add(TempFileSystem.class.getMethod("close"));
             EXIT_PROCESS.add(ServerManager.class.getMethod("stop"));
             EXIT_PROCESS.add(AsyncUtil.class.getMethod("terminate"));
+            EXIT_PROCESS.add(WebClients.class.getMethod("close"));
+            EXIT_PROCESS.add(DataStorage.class.getMethod("close"));
+            SETTING_LOAD.add(TempFileSystem.class.getMethod("loadTempSettings", JsonObject.class));
+            SETTING_LOAD.add(DataStorage.class.getMethod("loadStorageSettings", JsonObject.class));
+            SETTING_LOAD.add(AsyncUtil.class.getMethod("loadAsyncSettings", JsonObject.class));
             SETTING_LOAD.add(WebUtil.class.getMethod("loadMirror", JsonObject.class));
+            SETTING_LOAD.add(SendScheduler.class.getMethod("loadSendSettings", JsonObject.class));
+            SETTING_LOAD.add(AwaitTimer.class.getMethod("loadAwaitSettings", JsonObject.class));
+            SETTING_LOAD.add(RequestFrequencyFilter.class.getMethod("loadFrequencySettings", JsonObject.class));
             SETTING_LOAD.add(Settings.class.getMethod("loadProxy", JsonObject.class));
+            SETTING_LOAD.add(WebClients.class.getMethod("loadHttpSettings", JsonObject.class));
+            SETTING_LOAD.add(HttpCache.class.getMethod("loadCacheSettings", JsonObject.class));
+            SETTING_LOAD.add(RenderCache.class.getMethod("loadRenderCache", JsonObject.class));
+            SETTING_LOAD.add(TranscodeCache.class.getMethod("loadTranscodeCache", JsonObject.class));
         } catch (NoSuchMethodException ignored) {
         }
         if (!PLUGIN_FILE.exists()) {
@@ -46,6 +67,7 @@ public class PluginProcessor {
                 SETTING_LOAD.add(SensitiveFilter.class.getMethod("loadSensitiveSettings", JsonObject.class));
                 SETTING_LOAD.add(ImageRenderer.class.getMethod("loadImageSettings", JsonObject.class));
                 SETTING_LOAD.add(FormatTransformer.class.getMethod("loadFFmpeg", JsonObject.class));
+                SETTING_LOAD.add(AudioSender.class.getMethod("loadAudioSettings", JsonObject.class));
                 SETTING_LOAD.add(PermissionManager.class.getMethod("init", JsonObject.class));
                 SETTING_LOAD.add(WebPageRenderer.class.getMethod("loadWebDriver", JsonObject.class));
                 SETTING_LOAD.add(ModuleManager.class.getMethod("settingLoad", JsonObject.class));
@@ -3,6 +3,8 @@ package io.github.nickid2018.koishibot.core;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonPrimitive;
+import io.github.nickid2018.koishibot.network.Connection;
+import io.github.nickid2018.koishibot.network.handler.SplitterHandler;
 import io.github.nickid2018.koishibot.util.JsonUtil;
 import org.apache.commons.io.IOUtils;
 
@@ -32,6 +34,10 @@ public class Settings {
         OPEN_PORT = JsonUtil.getIntOrElse(settingsRoot, "port", -1);
         DELEGATE_PORT = JsonUtil.getIntOrElse(settingsRoot, "delegate_port", 52514);
         CORE_PORT = JsonUtil.getIntOrElse(settingsRoot, "core_port", 23333);
+        SplitterHandler.setMaxFrameLength(JsonUtil.getIntOrElse(
+                settingsRoot, "max_frame_length", SplitterHandler.DEFAULT_MAX_FRAME_LENGTH));
+        Connection.setCompressionThreshold(JsonUtil.getIntOrElse(
+                settingsRoot, "compression_threshold", Connection.DEFAULT_COMPRESSION_THRESHOLD));
 
         PluginProcessor.set(settingsRoot);
     }
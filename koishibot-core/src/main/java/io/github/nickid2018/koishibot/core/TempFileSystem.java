@@ -1,103 +1,336 @@
 package io.github.nickid2018.koishibot.core;
 
+import com.google.gson.JsonObject;
 import io.github.nickid2018.koishibot.util.InternalStack;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 @InternalStack
 public class TempFileSystem {
 
     public static final Logger TEMP_LOGGER = LoggerFactory.getLogger("Temp File System");
 
-    private static final Set<File> FILES_NOT_DELETE = Collections.synchronizedSet(new HashSet<>());
-    private static final Map<String, Map<String, File>> BUFFERED = Collections.synchronizedMap(new HashMap<>());
+    public static final File TEMP_DIR = new File("temp");
+
+    // Access ordered, so eviction walks from the least recently used file and never lists the directory
+    private static final LinkedHashMap<File, Entry> INDEX = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<String, Map<String, Entry>> BUFFERED = new HashMap<>();
     private static final Random NAME_RANDOM = new Random();
 
-    public static final File TEMP_DIR = new File("temp");
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder EVICTIONS = new LongAdder();
+    private static final LongAdder EVICTED_BYTES = new LongAdder();
+
+    private static final ScheduledExecutorService CLEANER = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (t, e) -> ErrorRecord.enqueueError("temp.clean", e)
+            ).daemon(true).namingPattern("Temp File Cleaner").build());
+    private static ScheduledFuture<?> cleanTask;
+
+    private static long quota = 1L << 30;
+    private static long maxAge = 7200_000;
+    private static long leaseTimeout = 7200_000;
+    private static long usage;
 
-    static {
-        Thread cleaner = new Thread(() -> {
-            if (!TEMP_DIR.isDirectory())
-                TEMP_DIR.mkdir();
-            while (true) {
-                try {
-                    Thread.sleep(7200_000);
-                    if (System.getProperty("bot.temp_clean", "true").equalsIgnoreCase("true")) {
-                        Stream.of(Objects.requireNonNull(TEMP_DIR.listFiles())).filter(
-                                file -> !FILES_NOT_DELETE.contains(file)
-                        ).forEach(File::delete);
-                        TEMP_LOGGER.info("Ran scheduled temporary files deleting.");
-                    }
-                } catch (InterruptedException ignored) {
-                }
-            }
-        }, "Temp File Cleaner");
-        cleaner.setDaemon(true);
-        cleaner.start();
+    // Called once at startup before anything takes a temp file
+    public static synchronized void init() {
+        // The index does not survive restarts, so whatever is left belongs to nobody
+        if (shouldDelete())
+            deleteContents(TEMP_DIR);
+        TEMP_DIR.mkdirs();
+        if (cleanTask == null)
+            scheduleClean(60_000);
+    }
+
+    public static synchronized void loadTempSettings(JsonObject settingsRoot) {
+        JsonObject temp = JsonUtil.getData(settingsRoot, "temp", JsonObject.class).orElseGet(JsonObject::new);
+        quota = JsonUtil.getLongOrElse(temp, "quota", 1L << 30);
+        maxAge = JsonUtil.getLongOrElse(temp, "max_age", 7200_000);
+        leaseTimeout = JsonUtil.getLongOrElse(temp, "lease_timeout", 7200_000);
+        scheduleClean(Math.max(1000, JsonUtil.getLongOrElse(temp, "clean_interval", 60_000)));
+        enforceQuota(System.currentTimeMillis());
     }
 
     public static File createTmpFile(String prefix, String suffix) {
         File file = new File(TEMP_DIR, name(prefix, suffix));
-        FILES_NOT_DELETE.add(file);
+        register(file, null, null);
         return file;
     }
 
     public static File createTmpFileAndCreate(String prefix, String suffix) throws IOException {
         File file = new File(TEMP_DIR, name(prefix, suffix));
         file.createNewFile();
-        FILES_NOT_DELETE.add(file);
+        register(file, null, null);
         return file;
     }
 
     public static File createTmpFileBuffered(
             String module, String name, String prefix, String suffix, boolean create) throws IOException {
-        File file = new File(TEMP_DIR, name(prefix, suffix));
+        File directory = new File(TEMP_DIR, namespace(module));
+        directory.mkdirs();
+        File file = new File(directory, name(prefix, suffix));
         if (create)
             file.createNewFile();
-        FILES_NOT_DELETE.add(file);
-        BUFFERED.computeIfAbsent(module, s -> new HashMap<>()).put(name, file);
+        register(file, module, name);
         return file;
     }
 
-    public static File getTmpFileBuffered(String module, String name) {
-        File file = BUFFERED.containsKey(module) ? BUFFERED.get(module).get(name) : null;
-        if (file == null)
+    // A hit takes a lease on the file, give it back with unlockFile when done
+    public static synchronized File getTmpFileBuffered(String module, String name) {
+        Map<String, Entry> names = BUFFERED.get(module);
+        Entry entry = names == null ? null : names.get(name);
+        if (entry == null) {
+            MISSES.increment();
             return null;
-        if (file.exists()) {
-            FILES_NOT_DELETE.add(file);
-            return file;
-        } else {
-            BUFFERED.get(module).remove(name);
+        }
+        if (!entry.file.exists()) {
+            names.remove(name, entry);
+            // Still leased means it is being written, keep tracking it until it is released
+            if (entry.leases == 0)
+                forget(entry);
+            MISSES.increment();
             return null;
         }
+        HITS.increment();
+        long now = System.currentTimeMillis();
+        touch(entry, now);
+        entry.leases++;
+        entry.leasedAt = now;
+        refresh(entry);
+        return entry.file;
     }
 
     private static String name(String prefix, String suffix) {
         return prefix + NAME_RANDOM.nextLong() + "." + suffix;
     }
 
-    public static void unlockFileAndDelete(File file) {
-        FILES_NOT_DELETE.remove(file);
-        if (System.getProperty("bot.temp_clean", "true").equalsIgnoreCase("true"))
+    private static String namespace(String module) {
+        return module.replaceAll("[^A-Za-z0-9_-]", "_");
+    }
+
+    public static synchronized void unlockFileAndDelete(File file) {
+        Entry entry = INDEX.get(file);
+        if (entry != null)
+            forget(entry);
+        if (shouldDelete())
             file.delete();
     }
 
-    public static void unlockFile(File file) {
-        FILES_NOT_DELETE.remove(file);
+    // Takes a lease on a file that something else, like an external process, wrote into the temp directory
+    public static synchronized File lockFile(File file) {
+        Entry entry = INDEX.get(file);
+        if (entry == null) {
+            register(file, null, null);
+            return file;
+        }
+        long now = System.currentTimeMillis();
+        entry.accessedAt = now;
+        entry.leases++;
+        entry.leasedAt = now;
+        refresh(entry);
+        return file;
+    }
+
+    public static synchronized void unlockFile(File file) {
+        Entry entry = INDEX.get(file);
+        if (entry == null)
+            return;
+        long now = System.currentTimeMillis();
+        entry.accessedAt = now;
+        if (entry.leases > 0)
+            entry.leases--;
+        refresh(entry);
+        enforceQuota(now);
     }
 
     public static void close() {
-        Stream.of(Objects.requireNonNull(TEMP_DIR.listFiles())).forEach(File::delete);
+        CLEANER.shutdownNow();
+        synchronized (TempFileSystem.class) {
+            INDEX.clear();
+            BUFFERED.clear();
+            usage = 0;
+        }
+        deleteContents(TEMP_DIR);
+    }
+
+    // Drops every file nobody holds, files still leased only leave the buffered index
+    public static synchronized void cleanCache() {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> iterator = INDEX.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (isEvictable(entry, now))
+                evict(iterator, entry);
+            else
+                unbuffer(entry);
+        }
+        TEMP_LOGGER.info("Cleaned temporary files, {} files ({} bytes) still in use.", INDEX.size(), usage);
+    }
+
+    public static synchronized long getDiskUsage() {
+        return usage;
+    }
+
+    public static synchronized long getDiskUsage(String module) {
+        return INDEX.values().stream().filter(entry -> Objects.equals(entry.module, module))
+                .mapToLong(entry -> entry.size).sum();
+    }
+
+    public static synchronized int getFileCount() {
+        return INDEX.size();
+    }
+
+    public static long getHitCount() {
+        return HITS.sum();
+    }
+
+    public static long getMissCount() {
+        return MISSES.sum();
+    }
+
+    public static long getEvictionCount() {
+        return EVICTIONS.sum();
     }
 
-    public static void cleanCache() {
-        FILES_NOT_DELETE.clear();
-        BUFFERED.clear();
-        Stream.of(Objects.requireNonNull(TEMP_DIR.listFiles())).forEach(File::delete);
+    public static long getEvictedBytes() {
+        return EVICTED_BYTES.sum();
+    }
+
+    private static synchronized void register(File file, String module, String name) {
+        long now = System.currentTimeMillis();
+        Entry entry = new Entry(file, module, name);
+        entry.leases = 1;
+        entry.leasedAt = now;
+        entry.accessedAt = now;
+        Entry old = INDEX.put(file, entry);
+        if (old != null)
+            forget(old);
+        refresh(entry);
+        if (module != null)
+            BUFFERED.computeIfAbsent(module, s -> new HashMap<>()).put(name, entry);
+        enforceQuota(now);
+    }
+
+    private static synchronized void clean() {
+        long now = System.currentTimeMillis();
+        // Files are written by their holders after registration, so sizes are only known by checking again
+        INDEX.values().forEach(TempFileSystem::refresh);
+        Iterator<Entry> iterator = INDEX.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.accessedAt < maxAge)
+                break;
+            if (isEvictable(entry, now))
+                evict(iterator, entry);
+        }
+        enforceQuota(now);
+        TEMP_LOGGER.debug("Temporary files: {} files, {} bytes, {} hits, {} misses, {} evicted.",
+                INDEX.size(), usage, HITS.sum(), MISSES.sum(), EVICTIONS.sum());
+    }
+
+    private static void enforceQuota(long now) {
+        if (usage <= quota)
+            return;
+        long target = quota / 10 * 9;
+        Iterator<Entry> iterator = INDEX.values().iterator();
+        while (usage > target && iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (isEvictable(entry, now))
+                evict(iterator, entry);
+        }
+        if (usage > quota)
+            TEMP_LOGGER.warn("Temporary files use {} bytes, over the quota of {} bytes, but all of them are in use.",
+                    usage, quota);
+    }
+
+    // A lease that was never given back stops protecting the file after the lease timeout
+    private static boolean isEvictable(Entry entry, long now) {
+        return entry.leases == 0 || now - entry.leasedAt > leaseTimeout;
+    }
+
+    private static void evict(Iterator<Entry> iterator, Entry entry) {
+        iterator.remove();
+        usage -= entry.size;
+        unbuffer(entry);
+        EVICTIONS.increment();
+        EVICTED_BYTES.add(entry.size);
+        if (shouldDelete())
+            entry.file.delete();
+    }
+
+    private static void forget(Entry entry) {
+        INDEX.remove(entry.file, entry);
+        usage -= entry.size;
+        entry.size = 0;
+        unbuffer(entry);
+    }
+
+    private static void unbuffer(Entry entry) {
+        if (entry.module == null)
+            return;
+        Map<String, Entry> names = BUFFERED.get(entry.module);
+        if (names != null)
+            names.remove(entry.name, entry);
+    }
+
+    private static void touch(Entry entry, long now) {
+        INDEX.get(entry.file);
+        entry.accessedAt = now;
+    }
+
+    private static void refresh(Entry entry) {
+        long length = entry.file.length();
+        usage += length - entry.size;
+        entry.size = length;
+    }
+
+    private static synchronized void scheduleClean(long interval) {
+        if (cleanTask != null)
+            cleanTask.cancel(false);
+        cleanTask = CLEANER.scheduleWithFixedDelay(TempFileSystem::clean, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean shouldDelete() {
+        return System.getProperty("bot.temp_clean", "true").equalsIgnoreCase("true");
+    }
+
+    private static void deleteContents(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (file.isDirectory())
+                deleteContents(file);
+            file.delete();
+        }
+    }
+
+    private static class Entry {
+
+        private final File file;
+        private final String module;
+        private final String name;
+        private int leases;
+        private long leasedAt;
+        private long accessedAt;
+        private long size;
+
+        private Entry(File file, String module, String name) {
+            this.file = file;
+            this.module = module;
+            this.name = name;
+        }
     }
 }
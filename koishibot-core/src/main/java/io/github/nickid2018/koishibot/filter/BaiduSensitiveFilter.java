@@ -3,89 +3,211 @@ package io.github.nickid2018.koishibot.filter;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.util.AsyncUtil;
+import io.github.nickid2018.koishibot.util.ExpiringCache;
 import io.github.nickid2018.koishibot.util.value.MutableBoolean;
 import io.github.nickid2018.koishibot.util.web.WebUtil;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.entity.UrlEncodedFormEntity;
 import org.apache.hc.core5.http.NameValuePair;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.message.BasicNameValuePair;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class BaiduSensitiveFilter extends SensitiveFilter {
 
+    // Baidu accepts up to 20000 bytes per request
+    public static final int MAX_BATCH_LENGTH = 6000;
+
     private final String apiKey;
     private final String apiSecret;
+    private final long timeout;
+    private final ExpiringCache<String, String> verdicts;
+    private final SensitiveWordFilter localFilter = new SensitiveWordFilter();
 
     private String accessToken;
     private long expireTime;
 
     public BaiduSensitiveFilter(String apiKey, String apiSecret) {
+        this(apiKey, apiSecret, 3600_000, 4096, 3000);
+    }
+
+    public BaiduSensitiveFilter(String apiKey, String apiSecret, long cacheTTL, int cacheSize, long timeout) {
         this.apiKey = apiKey;
         this.apiSecret = apiSecret;
+        this.timeout = timeout;
+        verdicts = new ExpiringCache<>(cacheTTL, TimeUnit.MILLISECONDS, cacheSize);
         getAccessToken();
     }
 
     @Override
     protected String filter(String text, MutableBoolean filtered) {
-        if (System.currentTimeMillis() > expireTime)
-            getAccessToken();
-        if (accessToken == null)
-            return text;
+        return filterBatch(List.of(text), filtered).get(0);
+    }
+
+    @Override
+    protected List<String> filterBatch(List<String> texts, MutableBoolean filtered) {
+        String[] results = texts.toArray(String[]::new);
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            String text = results[i];
+            if (isObviouslyClean(text))
+                continue;
+            // The word list masks what it knows first, Baidu still checks the rest for what the list lacks
+            MutableBoolean local = new MutableBoolean(false);
+            text = localFilter.filter(text, local);
+            if (local.getValue()) {
+                results[i] = text;
+                filtered.setValue(true);
+            }
+            String cached = verdicts.get(hash(text));
+            if (cached != null) {
+                if (!cached.equals(text))
+                    filtered.setValue(true);
+                results[i] = cached;
+                continue;
+            }
+            pending.add(i);
+        }
+
+        int from = 0;
+        while (from < pending.size()) {
+            int to = from;
+            int length = 0;
+            do {
+                length += results[pending.get(to++)].length() + 1;
+            } while (to < pending.size() && length + results[pending.get(to)].length() <= MAX_BATCH_LENGTH);
+            censor(results, pending.subList(from, to), filtered);
+            from = to;
+        }
+        return Arrays.asList(results);
+    }
+
+    // One request for several segments; masks have the same length as the hit, so offsets stay valid
+    private void censor(String[] results, List<Integer> indices, MutableBoolean filtered) {
+        StringBuilder builder = new StringBuilder();
+        int[] offsets = new int[indices.size() + 1];
+        for (int i = 0; i < indices.size(); i++) {
+            if (i > 0)
+                builder.append('\n');
+            offsets[i] = builder.length();
+            builder.append(results[indices.get(i)]);
+        }
+        offsets[indices.size()] = builder.length() + 1;
+        String combined = builder.toString();
+
+        String censored = requestCensor(combined);
+        if (censored == null)
+            return;
+        for (int i = 0; i < indices.size(); i++) {
+            String original = results[indices.get(i)];
+            String result = censored.substring(offsets[i], offsets[i + 1] - 1);
+            verdicts.put(hash(original), result);
+            if (!result.equals(original))
+                filtered.setValue(true);
+            results[indices.get(i)] = result;
+        }
+    }
+
+    // Returns null when the verdict is unknown, the caller then passes the text through
+    private String requestCensor(String text) {
+        Future<String> future = AsyncUtil.submit("censor", () -> {
+            synchronized (this) {
+                if (System.currentTimeMillis() > expireTime)
+                    getAccessToken();
+            }
+            if (accessToken == null)
+                return null;
+            return doRequestCensor(text);
+        });
+        if (future == null)
+            return null;
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            SENSITIVE_LOGGER.warn("Baidu Sensitive Filter timed out after {}ms, passing text through.", timeout);
+        } catch (Exception e) {
+            SENSITIVE_LOGGER.error("Baidu Sensitive Filter failed, passing text through.", e);
+        }
+        return null;
+    }
 
+    private String doRequestCensor(String text) throws IOException {
         HttpPost post = new HttpPost("https://aip.baidubce.com/rest/2.0/solution/v1/text_censor/v2/user_defined?access_token=" + accessToken);
         post.setHeader("Accept", "application/json");
-        StringEntity entity = new StringEntity("text=" + text, StandardCharsets.UTF_8);
-        post.setEntity(entity);
+        post.setEntity(new UrlEncodedFormEntity(
+                List.of(new BasicNameValuePair("text", text)), StandardCharsets.UTF_8));
 
-        try {
-            JsonObject object = WebUtil.fetchDataInJson(post).getAsJsonObject();
-            if (object.has("error_code")) {
-                SENSITIVE_LOGGER.error("Baidu Sensitive Filter Error: " + object.get("error_msg").getAsString());
-                return text;
-            }
-            if (object.get("conclusionType").getAsInt() == 1)
-                return text;
-            filtered.setValue(true);
-            for (JsonElement element : object.get("data").getAsJsonArray()) {
-                JsonObject obj = element.getAsJsonObject();
-                JsonArray hits = obj.getAsJsonArray("hits");
-                if (hits.size() == 0)
+        JsonObject object = WebUtil.fetchDataInJson(post).getAsJsonObject();
+        if (object.has("error_code")) {
+            SENSITIVE_LOGGER.error("Baidu Sensitive Filter Error: " + object.get("error_msg").getAsString());
+            return null;
+        }
+        int conclusion = object.get("conclusionType").getAsInt();
+        if (conclusion == 1)
+            return text;
+        if (conclusion == 4)
+            return null;
+        char[] chars = text.toCharArray();
+        if (!object.has("data"))
+            return text;
+        for (JsonElement element : object.get("data").getAsJsonArray()) {
+            JsonObject obj = element.getAsJsonObject();
+            JsonArray hits = obj.getAsJsonArray("hits");
+            if (hits == null || hits.size() == 0)
+                continue;
+            for (JsonElement hit : hits) {
+                JsonObject hitObj = hit.getAsJsonObject();
+                JsonArray wordHitPositions = hitObj.getAsJsonArray("wordHitPositions");
+                if (wordHitPositions == null || wordHitPositions.size() == 0)
                     continue;
-                for (JsonElement hit : hits) {
-                    JsonObject hitObj = hit.getAsJsonObject();
-                    JsonArray words = hitObj.getAsJsonArray("words");
-                    if (words.size() == 0)
-                        continue;
-                    JsonArray wordHitPositions = hitObj.getAsJsonArray("wordHitPositions");
-                    if (wordHitPositions.size() == 0)
-                        continue;
-                    for (JsonElement wordHit : wordHitPositions) {
-                        JsonObject wordHitObj = wordHit.getAsJsonObject();
-                        String keyword = wordHitObj.get("keyword").getAsString();
-                        JsonArray positions = wordHitObj.getAsJsonArray("positions");
-                        if (positions.size() == 0)
-                            text = "*".repeat(keyword.length()) + text.substring(keyword.length());
-                        else {
-                            for (JsonElement position : positions) {
-                                JsonArray positionObj = position.getAsJsonArray();
-                                int start = positionObj.get(0).getAsInt();
-                                int end = positionObj.get(1).getAsInt();
-                                text = text.substring(0, start) + "*".repeat(end - start) + text.substring(end);
-                            }
+                for (JsonElement wordHit : wordHitPositions) {
+                    JsonObject wordHitObj = wordHit.getAsJsonObject();
+                    String keyword = wordHitObj.get("keyword").getAsString();
+                    JsonArray positions = wordHitObj.getAsJsonArray("positions");
+                    if (positions == null || positions.size() == 0) {
+                        for (int at = text.indexOf(keyword); at >= 0 && !keyword.isEmpty(); at = text.indexOf(keyword, at + 1))
+                            mask(chars, at, at + keyword.length());
+                    } else {
+                        for (JsonElement position : positions) {
+                            JsonArray positionObj = position.getAsJsonArray();
+                            mask(chars, positionObj.get(0).getAsInt(), positionObj.get(1).getAsInt());
                         }
                     }
                 }
             }
-        } catch (IOException e) {
-            return text;
         }
+        return new String(chars);
+    }
+
+    private static void mask(char[] chars, int start, int end) {
+        for (int i = Math.max(0, start); i < Math.min(end, chars.length); i++)
+            if (chars[i] != '\n')
+                chars[i] = '*';
+    }
 
-        return text;
+    private static boolean isObviouslyClean(String text) {
+        for (int i = 0; i < text.length(); i++)
+            if (Character.isLetter(text.charAt(i)))
+                return false;
+        return true;
+    }
+
+    private static String hash(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            return text;
+        }
     }
 
     private void getAccessToken() {
@@ -0,0 +1,162 @@
+package io.github.nickid2018.koishibot.filter;
+
+import it.unimi.dsi.fastutil.chars.Char2ObjectMap;
+import it.unimi.dsi.fastutil.chars.Char2ObjectRBTreeMap;
+import it.unimi.dsi.fastutil.chars.Char2ObjectSortedMap;
+
+import java.util.*;
+
+// Aho-Corasick automaton over UTF-16 code units, goto function stored as a double array
+public final class DoubleArrayAutomaton {
+
+    public static final DoubleArrayAutomaton EMPTY = new DoubleArrayAutomaton(Collections.emptyList());
+
+    private static final int ROOT = 0;
+
+    private final int[] base;
+    private final int[] check;
+    private final int[] fail;
+    // Length of the longest word ending at the state, 0 if none
+    private final int[] output;
+    private final int wordCount;
+
+    public DoubleArrayAutomaton(Collection<String> words) {
+        BuildNode root = new BuildNode();
+        int count = 0;
+        for (String word : words) {
+            BuildNode node = root;
+            for (char c : word.toCharArray())
+                node = node.children.computeIfAbsent(c, ch -> new BuildNode());
+            if (node != root && node.wordLength == 0) {
+                node.wordLength = word.length();
+                count++;
+            }
+        }
+        wordCount = count;
+
+        int capacity = 1 << 16;
+        int[] base = new int[capacity];
+        int[] check = new int[capacity];
+        Arrays.fill(check, -1);
+        check[ROOT] = ROOT;
+        BitSet used = new BitSet();
+        used.set(ROOT);
+
+        List<BuildNode> order = new ArrayList<>();
+        Deque<BuildNode> queue = new ArrayDeque<>();
+        root.index = ROOT;
+        queue.add(root);
+        int searchFrom = 1;
+        while (!queue.isEmpty()) {
+            BuildNode node = queue.poll();
+            order.add(node);
+            if (node.children.isEmpty())
+                continue;
+            int firstCode = code(node.children.firstCharKey());
+            int position = Math.max(used.nextClearBit(searchFrom), firstCode + 1);
+            int offset;
+            while (true) {
+                offset = position - firstCode;
+                boolean fits = true;
+                for (char c : node.children.keySet()) {
+                    if (used.get(offset + code(c))) {
+                        fits = false;
+                        break;
+                    }
+                }
+                if (fits)
+                    break;
+                position = used.nextClearBit(position + 1);
+            }
+            int last = offset + code(node.children.lastCharKey());
+            if (last >= capacity) {
+                capacity = Math.max(capacity * 2, last + 1);
+                base = Arrays.copyOf(base, capacity);
+                int oldLength = check.length;
+                check = Arrays.copyOf(check, capacity);
+                Arrays.fill(check, oldLength, capacity, -1);
+            }
+            base[node.index] = offset;
+            for (Char2ObjectMap.Entry<BuildNode> entry : node.children.char2ObjectEntrySet()) {
+                int index = offset + code(entry.getCharKey());
+                used.set(index);
+                check[index] = node.index;
+                entry.getValue().index = index;
+                queue.add(entry.getValue());
+            }
+            searchFrom = used.nextClearBit(searchFrom);
+        }
+
+        int size = used.length();
+        this.base = Arrays.copyOf(base, size);
+        this.check = Arrays.copyOf(check, size);
+        fail = new int[size];
+        output = new int[size];
+
+        // BFS order guarantees fail targets are finished before their dependents
+        for (BuildNode node : order) {
+            for (Char2ObjectMap.Entry<BuildNode> entry : node.children.char2ObjectEntrySet()) {
+                BuildNode child = entry.getValue();
+                int state = node.index;
+                int target = ROOT;
+                if (state != ROOT) {
+                    state = fail[state];
+                    while (true) {
+                        int next = transition(state, entry.getCharKey());
+                        if (next >= 0) {
+                            target = next;
+                            break;
+                        }
+                        if (state == ROOT)
+                            break;
+                        state = fail[state];
+                    }
+                }
+                fail[child.index] = target;
+                output[child.index] = child.wordLength > 0 ? child.wordLength : output[target];
+            }
+        }
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public boolean isEmpty() {
+        return wordCount == 0;
+    }
+
+    public int next(int state, char c) {
+        while (true) {
+            int next = transition(state, c);
+            if (next >= 0)
+                return next;
+            if (state == ROOT)
+                return ROOT;
+            state = fail[state];
+        }
+    }
+
+    public int matchLength(int state) {
+        return output[state];
+    }
+
+    public int start() {
+        return ROOT;
+    }
+
+    private int transition(int state, char c) {
+        int index = base[state] + code(c);
+        return index < check.length && check[index] == state && index != ROOT ? index : -1;
+    }
+
+    private static int code(char c) {
+        return c + 1;
+    }
+
+    private static class BuildNode {
+        private final Char2ObjectSortedMap<BuildNode> children = new Char2ObjectRBTreeMap<>();
+        private int wordLength;
+        private int index;
+    }
+}
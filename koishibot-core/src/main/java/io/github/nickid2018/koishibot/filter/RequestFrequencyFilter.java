@@ -1,50 +1,166 @@
 package io.github.nickid2018.koishibot.filter;
 
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.message.DelegateEnvironment;
 import io.github.nickid2018.koishibot.message.MessageManager;
 import io.github.nickid2018.koishibot.message.api.*;
 import io.github.nickid2018.koishibot.permission.PermissionLevel;
 import io.github.nickid2018.koishibot.permission.PermissionManager;
+import io.github.nickid2018.koishibot.util.JsonUtil;
 import io.github.nickid2018.koishibot.util.LogUtils;
 import io.github.nickid2018.koishibot.util.value.MutableBoolean;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 public class RequestFrequencyFilter implements PreFilter, PostFilter {
 
-    private static final Map<UserInfo, Long> USER_REQUEST_TIME = new ConcurrentHashMap<>();
-    private static final Map<UserInfo, Integer> USER_REQUEST_FAIL = new ConcurrentHashMap<>();
+    // Per user state packed as (last request time << FAIL_BITS) | fail count
+    private static final Map<String, AtomicLong> USER_STATES = new ConcurrentHashMap<>();
 
-    private static final int REQUEST_MAX_FAIL = 5;
-    private static final long REQUEST_DURATION = 3000;
-    private static final long AUTO_BAN_TIME = 3600_000;
+    private static final int FAIL_BITS = 8;
+    private static final long FAIL_MASK = (1L << FAIL_BITS) - 1;
 
-    public static synchronized boolean shouldNotResponse(UserInfo member, MutableBoolean nowBan) {
+    private static final LongAdder CHECKED = new LongAdder();
+    private static final LongAdder THROTTLED = new LongAdder();
+    private static final LongAdder BANNED = new LongAdder();
+    private static final LongAdder EVICTED = new LongAdder();
+
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (th, t) -> ErrorRecord.enqueueError("filter.frequency", t)
+            ).daemon(true).namingPattern("Request Frequency Evictor").build());
+
+    private static volatile FrequencySettings settings = new FrequencySettings(3000, 5, 3600_000, 600_000);
+    private static ScheduledFuture<?> evictTask;
+
+    static {
+        scheduleEviction(settings.idleTime());
+    }
+
+    public static void loadFrequencySettings(JsonObject settingsRoot) {
+        JsonObject frequency = JsonUtil.getData(settingsRoot, "frequency", JsonObject.class).orElseGet(JsonObject::new);
+        FrequencySettings loaded = new FrequencySettings(
+                JsonUtil.getLongOrElse(frequency, "duration", 3000),
+                (int) Math.min(FAIL_MASK, Math.max(1, JsonUtil.getIntOrElse(frequency, "max_fail", 5))),
+                JsonUtil.getLongOrElse(frequency, "ban_time", 3600_000),
+                Math.max(1000, JsonUtil.getLongOrElse(frequency, "idle_time", 600_000))
+        );
+        settings = loaded;
+        scheduleEviction(loaded.idleTime());
+    }
+
+    public static boolean shouldNotResponse(UserInfo member, MutableBoolean nowBan) {
+        if (member == null)
+            return false;
+        CHECKED.increment();
+        AtomicLong state = USER_STATES.get(member.getUserId());
+        if (state == null)
+            return false;
+        FrequencySettings now = settings;
         long nowTime = System.currentTimeMillis();
-        if (USER_REQUEST_TIME.containsKey(member) && nowTime - USER_REQUEST_TIME.get(member) <= REQUEST_DURATION) {
-            int times = USER_REQUEST_FAIL.getOrDefault(member, 0);
+        while (true) {
+            long current = state.get();
+            long lastTime = current >>> FAIL_BITS;
+            int times = (int) (current & FAIL_MASK);
+            if (nowTime - lastTime > now.duration()) {
+                if (times == 0 || state.compareAndSet(current, pack(lastTime, 0)))
+                    return false;
+                continue;
+            }
             times++;
-            if (times >= REQUEST_MAX_FAIL) {
+            boolean ban = times >= now.maxFail();
+            if (!state.compareAndSet(current, pack(nowTime, ban ? 0 : times)))
+                continue;
+            THROTTLED.increment();
+            if (ban) {
+                BANNED.increment();
                 LogUtils.info(LogUtils.FontColor.RED, MessageManager.LOGGER,
-                        "User {} has been banned for {} seconds", member, AUTO_BAN_TIME / 1000);
-                PermissionManager.setLevel(member.getUserId(), PermissionLevel.BANNED, nowTime + AUTO_BAN_TIME, false);
-                USER_REQUEST_FAIL.remove(member);
+                        "User {} has been banned for {} seconds", member, now.banTime() / 1000);
+                PermissionManager.setLevel(member.getUserId(), PermissionLevel.BANNED, nowTime + now.banTime(), false);
                 nowBan.setValue(true);
-            } else
-                USER_REQUEST_FAIL.put(member, times);
-            USER_REQUEST_TIME.put(member, nowTime);
+            }
             return true;
         }
-        USER_REQUEST_FAIL.remove(member);
-        return false;
     }
 
-    public static synchronized void refreshRequestTime(UserInfo member) {
-        if (member != null)
-            USER_REQUEST_TIME.put(member, System.currentTimeMillis());
+    public static void refreshRequestTime(UserInfo member) {
+        if (member == null)
+            return;
+        long nowTime = System.currentTimeMillis();
+        // Updated inside compute, so the evictor cannot drop the state between the lookup and the update
+        USER_STATES.compute(member.getUserId(), (id, state) -> {
+            if (state == null)
+                return new AtomicLong(pack(nowTime, 0));
+            state.getAndUpdate(current -> pack(Math.max(nowTime, current >>> FAIL_BITS), (int) (current & FAIL_MASK)));
+            return state;
+        });
+    }
+
+    public static int getTrackedUserCount() {
+        return USER_STATES.size();
+    }
+
+    public static long getCheckedCount() {
+        return CHECKED.sum();
+    }
+
+    public static long getThrottledCount() {
+        return THROTTLED.sum();
+    }
+
+    public static long getBannedCount() {
+        return BANNED.sum();
+    }
+
+    public static long getEvictedCount() {
+        return EVICTED.sum();
+    }
+
+    private static long pack(long time, int times) {
+        return (time << FAIL_BITS) | times;
+    }
+
+    private static synchronized void scheduleEviction(long idleTime) {
+        if (evictTask != null)
+            evictTask.cancel(false);
+        long period = Math.max(1000, idleTime / 2);
+        evictTask = EVICTOR.scheduleWithFixedDelay(
+                RequestFrequencyFilter::evictIdleUsers, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static void evictIdleUsers() {
+        FrequencySettings now = settings;
+        long deadline = System.currentTimeMillis() - Math.max(now.idleTime(), now.duration());
+        USER_STATES.forEach((id, state) -> USER_STATES.computeIfPresent(id, (key, current) -> {
+            if ((current.get() >>> FAIL_BITS) >= deadline)
+                return current;
+            EVICTED.increment();
+            return null;
+        }));
+    }
+
+    private static String formatDuration(long millis) {
+        long seconds = Math.max(1, millis / 1000);
+        StringBuilder builder = new StringBuilder();
+        if (seconds >= 86400)
+            builder.append(seconds / 86400).append("天");
+        if (seconds % 86400 >= 3600)
+            builder.append(seconds % 86400 / 3600).append("小时");
+        if (seconds % 3600 >= 60)
+            builder.append(seconds % 3600 / 60).append("分钟");
+        if (seconds % 60 > 0)
+            builder.append(seconds % 60).append("秒");
+        return builder.toString();
+    }
+
+    private record FrequencySettings(long duration, int maxFail, long banTime, long idleTime) {
     }
 
     @Nonnull
@@ -62,14 +178,14 @@ public class RequestFrequencyFilter implements PreFilter, PostFilter {
         MutableBoolean ban = new MutableBoolean(false);
         if (shouldNotResponse(context.user(), ban)) {
             if (ban.getValue()) {
+                String message = "被自动封禁" + formatDuration(settings.banTime()) + "，原因: 过于频繁的操作";
                 if (context.group() != null)
                     environment.getMessageSender().sendMessage(context, environment.newChain(
                             environment.newAt(context.user()),
-                            environment.newText(" 被自动封禁一小时，原因: 过于频繁的操作")
+                            environment.newText(" " + message)
                     ));
                 else
-                    environment.getMessageSender().sendMessage(context,
-                            environment.newText("被自动封禁一小时，原因: 过于频繁的操作"));
+                    environment.getMessageSender().sendMessage(context, environment.newText(message));
             }
             return null;
         }
@@ -11,9 +11,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
-import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 public abstract class SensitiveFilter implements PostFilter {
 
@@ -24,16 +25,25 @@ public abstract class SensitiveFilter implements PostFilter {
     public static void loadSensitiveSettings(JsonObject settingsRoot) {
         JsonUtil.getData(settingsRoot, "sensitives", JsonObject.class).ifPresent(s -> {
             boolean baiduAPI = JsonUtil.getString(s, "type").map(l -> l.equalsIgnoreCase("baidu")).orElse(false);
+            // The first load blocks so that no message goes out unfiltered, reloads keep the old words live
+            CompletableFuture<Void> load = JsonUtil.getString(s, "file")
+                    .map(SensitiveWordFilter::loadWordFromFile)
+                    .orElseGet(() -> CompletableFuture.completedFuture(null))
+                    .exceptionally(t -> {
+                        SENSITIVE_LOGGER.error("Failed to load sensitive words.", t);
+                        return null;
+                    });
+            if (!SensitiveWordFilter.isLoaded())
+                load.join();
             if (baiduAPI) {
                 String appId = JsonUtil.getStringOrNull(s, "appId");
                 String appKey = JsonUtil.getStringOrNull(s, "appKey");
-                INSTANCE = new BaiduSensitiveFilter(appId, appKey);
+                INSTANCE = new BaiduSensitiveFilter(appId, appKey,
+                        JsonUtil.getLongOrElse(s, "cache_ttl", 3600_000),
+                        JsonUtil.getIntOrElse(s, "cache_size", 4096),
+                        JsonUtil.getLongOrElse(s, "timeout", 3000));
                 SENSITIVE_LOGGER.info("Sensitive filter is using Baidu API.");
             } else {
-                try {
-                    SensitiveWordFilter.loadWordFromFile(JsonUtil.getStringOrNull(s, "file"));
-                } catch (IOException ignored) {
-                }
                 INSTANCE = new SensitiveWordFilter();
                 SENSITIVE_LOGGER.info("Sensitive word filter initialized.");
             }
@@ -45,13 +55,18 @@ public abstract class SensitiveFilter implements PostFilter {
     public AbstractMessage filterMessagePost(AbstractMessage input, MessageContext context, DelegateEnvironment environment) {
         MutableBoolean filtered = new MutableBoolean(false);
         if (input instanceof ChainMessage) {
-            List<AbstractMessage> messages = new ArrayList<>();
-            for (AbstractMessage mess : ((ChainMessage) input).getMessages()) {
+            AbstractMessage[] messages = ((ChainMessage) input).getMessages().clone();
+            List<String> texts = new ArrayList<>();
+            for (AbstractMessage mess : messages)
                 if (mess instanceof TextMessage text)
-                    mess = environment.newText(filter(text.getText(), filtered));
-                messages.add(mess);
+                    texts.add(text.getText());
+            if (!texts.isEmpty()) {
+                Iterator<String> results = filterBatch(texts, filtered).iterator();
+                for (int i = 0; i < messages.length; i++)
+                    if (messages[i] instanceof TextMessage)
+                        messages[i] = environment.newText(results.next());
             }
-            input = environment.newChain(messages.toArray(new AbstractMessage[0]));
+            input = environment.newChain(messages);
         } else if (input instanceof TextMessage text)
             input = environment.newText(filter(text.getText(), filtered));
         if (filtered.getValue() && PermissionLevel.TRUSTED.levelGreaterOrEquals(PermissionManager.getLevel(context.user().getUserId())))
@@ -61,4 +76,11 @@ public abstract class SensitiveFilter implements PostFilter {
     }
 
     protected abstract String filter(String text, MutableBoolean filtered);
+
+    protected List<String> filterBatch(List<String> texts, MutableBoolean filtered) {
+        List<String> results = new ArrayList<>(texts.size());
+        for (String text : texts)
+            results.add(filter(text, filtered));
+        return results;
+    }
 }
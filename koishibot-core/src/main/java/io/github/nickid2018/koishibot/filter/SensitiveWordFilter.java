@@ -1,118 +1,95 @@
 package io.github.nickid2018.koishibot.filter;
 
+import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.util.value.MutableBoolean;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
 
 public final class SensitiveWordFilter extends SensitiveFilter {
 
-    private static final List<SingleChar> SINGLE_CHAR_LIST = new ArrayList<>();
+    private static final ExecutorService BUILDER = Executors.newSingleThreadExecutor(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (th, t) -> ErrorRecord.enqueueError("sensitive", t)
+            ).daemon(true).namingPattern("Sensitive Word Builder").build());
+
+    private static volatile DoubleArrayAutomaton automaton = DoubleArrayAutomaton.EMPTY;
     private final static char REPLACE_CHARACTER = '*';
     private final static char[] SKIP_CHARACTERS = new char[]{
             '!', '*', '-', '+', '_', '=', ',', '.'
     };
 
+    // Skip characters are transparent inside a word, so the automaton only sees the others
     public String filter(String text, MutableBoolean filtered) {
-        if (SINGLE_CHAR_LIST.size() == 0)
+        DoubleArrayAutomaton now = automaton;
+        if (now.isEmpty())
             return text;
         char[] chars = text.toCharArray();
-        int matchSize;
-        boolean matchFlag;
-        for (int offset = 0; offset < chars.length; offset++) {
-            char c = chars[offset];
-            SingleChar single = binarySearch(c, SINGLE_CHAR_LIST);
-            if (single != null) {
-                matchFlag = false;
-                matchSize = offset + 1;
-                while (matchSize < chars.length) {
-                    if (skip(chars[matchSize])) {
-                        matchSize++;
-                        continue;
-                    }
-                    if (single.next != null) {
-                        single = binarySearch(chars[matchSize], single.next);
-                        if (single == null)
-                            break;
-                        matchSize++;
-                    } else {
-                        matchFlag = true;
-                        break;
-                    }
-                }
-                if (single != null && single.next == null)
-                    matchFlag = true;
-                if (matchFlag) {
-                    while (offset < matchSize) {
-                        if (skip(chars[offset])) {
-                            offset++;
-                            continue;
-                        }
-                        chars[offset] = REPLACE_CHARACTER;
-                        filtered.setValue(true);
-                        offset++;
-                    }
-                    offset--;
-                }
+        int[] positions = new int[chars.length];
+        int count = 0;
+        int state = now.start();
+        int maskedTo = 0;
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (skip(c))
+                continue;
+            positions[count++] = i;
+            state = now.next(state, c);
+            int length = now.matchLength(state);
+            if (length > 0) {
+                for (int j = Math.max(positions[count - length], maskedTo); j <= i; j++)
+                    if (!skip(chars[j]))
+                        chars[j] = REPLACE_CHARACTER;
+                maskedTo = i + 1;
+                filtered.setValue(true);
             }
         }
         return new String(chars);
     }
 
-    public static void loadWordFromFile(String path) throws IOException {
+    public static CompletableFuture<Void> loadWordFromFile(String path) {
         File file = new File(path);
-        if (file.isFile() && file.exists()) {
+        if (!file.isFile())
+            return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> {
             try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
                     new FileInputStream(file), StandardCharsets.UTF_8
             ))) {
                 loadWords(bufferedReader.lines().collect(Collectors.toList()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
-        }
+        }, BUILDER);
+    }
+
+    public static boolean isLoaded() {
+        return !automaton.isEmpty();
     }
 
     public static void loadWords(List<String> words) {
         if (words == null)
             return;
-        SINGLE_CHAR_LIST.clear();
+        List<String> cleaned = new ArrayList<>(words.size());
         for (String word : words) {
             if (word == null)
                 continue;
-            word = word.trim();
-            if (word.isEmpty())
-                continue;
-            List<SingleChar> now = SINGLE_CHAR_LIST;
-            SingleChar singleCharData = null;
-            for (char ch : word.toCharArray()) {
-                if (singleCharData != null) {
-                    if (singleCharData.next == null)
-                        singleCharData.next = new ArrayList<>();
-                    now = singleCharData.next;
-                }
-                singleCharData = null;
-                for (SingleChar next : now) {
-                    if (next.character == ch) {
-                        singleCharData = next;
-                        break;
-                    }
-                }
-                if (singleCharData == null)
-                    now.add(singleCharData = new SingleChar(ch));
-            }
+            StringBuilder builder = new StringBuilder(word.length());
+            for (char c : word.trim().toCharArray())
+                if (!skip(c))
+                    builder.append(c);
+            if (!builder.isEmpty())
+                cleaned.add(builder.toString());
         }
-        sort(SINGLE_CHAR_LIST);
-        SENSITIVE_LOGGER.info("Sensitive Library loaded with {} words.", SINGLE_CHAR_LIST.size());
-    }
-
-    private static void sort(List<SingleChar> singleChars) {
-        if (singleChars == null)
-            return;
-        Collections.sort(singleChars);
-        for (SingleChar single : singleChars)
-            sort(single.next);
+        DoubleArrayAutomaton built = new DoubleArrayAutomaton(cleaned);
+        automaton = built;
+        SENSITIVE_LOGGER.info("Sensitive Library loaded with {} words.", built.getWordCount());
     }
 
     private static boolean skip(char c) {
@@ -121,21 +98,4 @@ public final class SensitiveWordFilter extends SensitiveFilter {
                 return true;
         return false;
     }
-
-    private static SingleChar binarySearch(char c, List<SingleChar> singleCharList) {
-        int left = 0;
-        int right = singleCharList.size() - 1;
-        while (left <= right) {
-            int key = (left + right) / 2;
-            SingleChar single = singleCharList.get(key);
-            if (single.character == c)
-                return single;
-            else if (single.character > c)
-                right = key - 1;
-            else
-                left = key + 1;
-        }
-        return null;
-    }
-
 }
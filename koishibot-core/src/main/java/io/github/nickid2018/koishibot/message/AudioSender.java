@@ -1,47 +1,220 @@
 package io.github.nickid2018.koishibot.message;
 
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.core.TempFileSystem;
 import io.github.nickid2018.koishibot.message.api.MessageContext;
+import io.github.nickid2018.koishibot.util.AudioChunks;
 import io.github.nickid2018.koishibot.util.FormatTransformer;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
 import java.io.File;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.stream.Stream;
+import java.util.*;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+// One queue per group or private chat, destinations play side by side up to max_playing at once
 public class AudioSender {
 
-    public static final AtomicBoolean PAUSE_FLAG = new AtomicBoolean(false);
-
-    private static final ExecutorService EXECUTOR =
-            Executors.newSingleThreadExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
-
-    public static void sendAudio(Future<File[]> filesToSend, MessageContext context, DelegateEnvironment environment) {
-        if (context.group() != null || environment.audioToFriendSupported())
-            EXECUTOR.execute(() -> {
-                if (PAUSE_FLAG.get()) {
-                    try {
-                        Stream.of(filesToSend.get()).forEach(TempFileSystem::unlockFile);
-                    } catch (Exception ignored) {
-                    }
-                    return;
-                }
-                try {
-                    File[] audios = filesToSend.get();
-                    for (File file : audios) {
-                        Thread.sleep((FormatTransformer.QQ_VOICE_TRANSFORM_MAX_LENGTH + 10) * 1000);
-                        if (PAUSE_FLAG.get())
-                            break;
-                        environment.getMessageSender().sendMessage(
-                                context, environment.newAudio(context.group(), file.toURI().toURL()));
-                    }
-                    Stream.of(audios).forEach(TempFileSystem::unlockFile);
-                } catch (Exception e) {
-                    environment.getMessageSender().onError(e, "audio", context, false);
-                }
-            });
+    // A clip has to finish playing before the next one is sent
+    public static final long CHUNK_INTERVAL = (FormatTransformer.QQ_VOICE_TRANSFORM_MAX_LENGTH + 10) * 1000L;
+
+    private static final ScheduledThreadPoolExecutor EXECUTOR = new ScheduledThreadPoolExecutor(2,
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (t, e) -> ErrorRecord.enqueueError("message.audio", e)
+            ).daemon(true).namingPattern("Audio Sender #%d").build());
+
+    private static final Map<String, Destination> DESTINATIONS = new HashMap<>();
+    // Outlives the queue of a destination, so the next song still waits for the last clip to finish playing
+    private static final Map<String, Long> NEXT_SEND_TIMES = new HashMap<>();
+    private static final Deque<Destination> WAITING = new ArrayDeque<>();
+    private static int maxPlaying = 4;
+    private static int playing;
+
+    public static synchronized void loadAudioSettings(JsonObject settingsRoot) {
+        JsonObject audio = JsonUtil.getData(settingsRoot, "audio", JsonObject.class).orElseGet(JsonObject::new);
+        maxPlaying = Math.max(1, JsonUtil.getIntOrElse(audio, "max_playing", 4));
+        EXECUTOR.setCorePoolSize(Math.max(2, maxPlaying));
+        admitWaiting();
+    }
+
+    public static void sendAudio(AudioChunks filesToSend, MessageContext context, DelegateEnvironment environment) {
+        if (filesToSend == null || (context.group() == null && !environment.audioToFriendSupported()))
+            return;
+        synchronized (AudioSender.class) {
+            Destination destination = DESTINATIONS.computeIfAbsent(destinationOf(context, environment), Destination::new);
+            destination.queue.add(new Playback(filesToSend, context, environment));
+            if (!destination.active) {
+                destination.active = true;
+                if (playing < maxPlaying) {
+                    playing++;
+                    EXECUTOR.execute(() -> advance(destination));
+                } else
+                    WAITING.add(destination);
+            }
+        }
+    }
+
+    // Drops everything queued for the destination, returns whether anything was playing
+    public static synchronized boolean stop(MessageContext context, DelegateEnvironment environment) {
+        Destination destination = DESTINATIONS.get(destinationOf(context, environment));
+        if (destination == null)
+            return false;
+        for (Playback playback : destination.queue)
+            discard(playback.chunks, 0);
+        destination.queue.clear();
+        if (destination.current != null)
+            destination.current.skipped = true;
+        return true;
+    }
+
+    public static synchronized boolean skip(MessageContext context, DelegateEnvironment environment) {
+        Destination destination = DESTINATIONS.get(destinationOf(context, environment));
+        if (destination == null || destination.current == null)
+            return false;
+        destination.current.skipped = true;
+        return true;
+    }
+
+    public static synchronized int getPlayingCount() {
+        return playing;
+    }
+
+    public static synchronized int getQueuedCount() {
+        return DESTINATIONS.values().stream().mapToInt(destination -> destination.queue.size()).sum();
+    }
+
+    private static String destinationOf(MessageContext context, DelegateEnvironment environment) {
+        return environment.getEnvironmentName() + (context.group() != null ?
+                ":group:" + context.group().getGroupId() : ":user:" + context.user().getUserId());
+    }
+
+    private static void advance(Destination destination) {
+        Playback playback;
+        int index;
+        synchronized (AudioSender.class) {
+            if (destination.current == null || destination.current.skipped) {
+                if (destination.current != null)
+                    discard(destination.current.chunks, destination.index);
+                destination.current = destination.queue.poll();
+                destination.index = 0;
+            }
+            if (destination.current == null) {
+                release(destination);
+                return;
+            }
+            playback = destination.current;
+            index = destination.index;
+        }
+        playback.chunks.getFuture(index).whenComplete(
+                (file, t) -> EXECUTOR.execute(() -> deliver(destination, playback, index, file, t)));
+    }
+
+    private static void deliver(Destination destination, Playback playback, int index, File file, Throwable t) {
+        if (t != null) {
+            playback.environment.getMessageSender().onError(
+                    t instanceof Exception e ? e : new RuntimeException(t), "audio", playback.context, false);
+            finish(destination, playback);
+            return;
+        }
+        if (file == null) {
+            finish(destination, playback);
+            return;
+        }
+        long wait;
+        synchronized (AudioSender.class) {
+            if (playback.skipped) {
+                TempFileSystem.unlockFile(file);
+                discard(playback.chunks, index + 1);
+                finish(destination, playback);
+                return;
+            }
+            wait = destination.nextSendTime - System.currentTimeMillis();
+        }
+        if (wait > 0) {
+            EXECUTOR.schedule(() -> deliver(destination, playback, index, file, null), wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+        try {
+            playback.environment.getMessageSender().sendMessage(playback.context,
+                    playback.environment.newAudio(playback.context.group(), file.toURI().toURL()));
+        } catch (Exception e) {
+            playback.environment.getMessageSender().onError(e, "audio", playback.context, false);
+        } finally {
+            TempFileSystem.unlockFile(file);
+        }
+        synchronized (AudioSender.class) {
+            destination.nextSendTime = System.currentTimeMillis() + CHUNK_INTERVAL;
+            if (destination.current == playback)
+                destination.index = index + 1;
+        }
+        advance(destination);
+    }
+
+    private static void finish(Destination destination, Playback playback) {
+        synchronized (AudioSender.class) {
+            if (destination.current == playback)
+                destination.current = null;
+        }
+        advance(destination);
+    }
+
+    private static void release(Destination destination) {
+        destination.active = false;
+        DESTINATIONS.remove(destination.key, destination);
+        long now = System.currentTimeMillis();
+        NEXT_SEND_TIMES.values().removeIf(time -> time <= now);
+        if (destination.nextSendTime > now)
+            NEXT_SEND_TIMES.put(destination.key, destination.nextSendTime);
+        playing--;
+        admitWaiting();
+    }
+
+    private static void admitWaiting() {
+        while (playing < maxPlaying && !WAITING.isEmpty()) {
+            Destination next = WAITING.poll();
+            playing++;
+            EXECUTOR.execute(() -> advance(next));
+        }
+    }
+
+    // Chunks still being encoded are released as they arrive
+    private static void discard(AudioChunks chunks, int index) {
+        chunks.getFuture(index).whenComplete((file, t) -> {
+            if (t == null && file != null) {
+                TempFileSystem.unlockFile(file);
+                discard(chunks, index + 1);
+            }
+        });
+    }
+
+    private static class Destination {
+
+        private final String key;
+        private final Deque<Playback> queue = new ArrayDeque<>();
+        private boolean active;
+        private Playback current;
+        private int index;
+        private long nextSendTime;
+
+        private Destination(String key) {
+            this.key = key;
+            nextSendTime = NEXT_SEND_TIMES.getOrDefault(key, 0L);
+        }
+    }
+
+    private static class Playback {
+
+        private final AudioChunks chunks;
+        private final MessageContext context;
+        private final DelegateEnvironment environment;
+        private volatile boolean skipped;
+
+        private Playback(AudioChunks chunks, MessageContext context, DelegateEnvironment environment) {
+            this.chunks = chunks;
+            this.context = context;
+            this.environment = environment;
+        }
     }
 }
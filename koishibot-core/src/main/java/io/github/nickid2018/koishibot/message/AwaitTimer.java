@@ -0,0 +1,40 @@
+package io.github.nickid2018.koishibot.message;
+
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+// Shared deadline timer of pending await and reply prompts
+public class AwaitTimer {
+
+    private static final HashedWheelTimer TIMER = new HashedWheelTimer(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (th, t) -> ErrorRecord.enqueueError("message.await", t)
+            ).daemon(true).namingPattern("Await Timer").build(), 1, TimeUnit.SECONDS);
+
+    private static volatile long awaitTimeout = 600_000;
+    private static volatile long replyTimeout = 86400_000;
+
+    public static void loadAwaitSettings(JsonObject settingsRoot) {
+        JsonObject await = JsonUtil.getData(settingsRoot, "await", JsonObject.class).orElseGet(JsonObject::new);
+        awaitTimeout = JsonUtil.getLongOrElse(await, "await_timeout", 600_000);
+        replyTimeout = JsonUtil.getLongOrElse(await, "reply_timeout", 86400_000);
+    }
+
+    public static long getAwaitTimeout() {
+        return awaitTimeout;
+    }
+
+    public static long getReplyTimeout() {
+        return replyTimeout;
+    }
+
+    public static Timeout schedule(Runnable task, long timeout) {
+        return TIMER.newTimeout(t -> task.run(), Math.max(1, timeout), TimeUnit.MILLISECONDS);
+    }
+}
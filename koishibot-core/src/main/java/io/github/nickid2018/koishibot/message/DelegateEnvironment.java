@@ -1,16 +1,15 @@
 package io.github.nickid2018.koishibot.message;
 
 import io.github.nickid2018.koishibot.core.BotStart;
+import io.github.nickid2018.koishibot.message.action.CompressionAction;
 import io.github.nickid2018.koishibot.message.api.Environment;
 import io.github.nickid2018.koishibot.network.ByteData;
 import io.github.nickid2018.koishibot.network.Connection;
-import io.github.nickid2018.koishibot.util.AsyncUtil;
+import io.github.nickid2018.koishibot.util.AudioChunks;
 import io.github.nickid2018.koishibot.util.FormatTransformer;
 import io.github.nickid2018.koishibot.util.LogUtils;
 
-import java.io.File;
 import java.net.URL;
-import java.util.concurrent.Future;
 
 public class DelegateEnvironment extends Environment {
 
@@ -29,11 +28,15 @@ public class DelegateEnvironment extends Environment {
         return manager;
     }
 
-    public Future<File[]> parseAudioFile(String suffix, URL url) {
+    public AudioChunks parseAudioFile(String suffix, URL url) {
+        return parseAudioFile(suffix, url, url.toString());
+    }
+
+    public AudioChunks parseAudioFile(String suffix, URL url, String cacheKey) {
         if (audioSilk)
-            return AsyncUtil.submit(() -> FormatTransformer.transformWebAudioToSilks(suffix, url));
+            return FormatTransformer.transformWebAudioToSilks(suffix, url, cacheKey);
         else
-            return AsyncUtil.submit(() -> FormatTransformer.transformWebAudioToMP3(suffix, url));
+            return FormatTransformer.transformWebAudioToMP3(suffix, url, cacheKey);
     }
 
     @Override
@@ -44,5 +47,12 @@ public class DelegateEnvironment extends Environment {
 
         Environments.putEnvironment(getEnvironmentName(), this);
         LogUtils.info(LogUtils.FontColor.GREEN, BotStart.LOGGER, "Delegate environment {} created.", getEnvironmentName());
+
+        if (compressionThreshold >= 0 && Connection.getCompressionThreshold() >= 0) {
+            CompressionAction action = new CompressionAction(this);
+            action.threshold = Math.max(compressionThreshold, Connection.getCompressionThreshold());
+            connection.sendPacket(action);
+            connection.enableCompressionOutbound(action.threshold);
+        }
     }
 }
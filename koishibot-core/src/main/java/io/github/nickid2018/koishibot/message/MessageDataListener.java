@@ -6,10 +6,20 @@ import io.github.nickid2018.koishibot.message.event.*;
 import io.github.nickid2018.koishibot.message.network.DataPacketListener;
 import io.github.nickid2018.koishibot.network.Connection;
 import io.github.nickid2018.koishibot.network.SerializableData;
+import io.github.nickid2018.koishibot.util.Constructors;
 import io.github.nickid2018.koishibot.util.LogUtils;
 
+import java.util.function.Function;
+
 public class MessageDataListener extends DataPacketListener {
 
+    private static final ClassValue<Function<Environment, ?>> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Function<Environment, ?> computeValue(Class<?> type) {
+            return Constructors.oneArg(type, Environment.class);
+        }
+    };
+
     public MessageDataListener() {
         super((c, cn) -> {
             try {
@@ -18,7 +28,7 @@ public class MessageDataListener extends DataPacketListener {
                 Environment environment = Environments.getEnvironment(cn);
                 if (environment == null)
                     return null;
-                return c.getConstructor(Environment.class).newInstance(environment);
+                return (SerializableData) CONSTRUCTORS.get(c).apply(environment);
             } catch (Exception e) {
                 return null;
             }
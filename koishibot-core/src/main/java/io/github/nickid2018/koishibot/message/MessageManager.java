@@ -6,6 +6,7 @@ import io.github.nickid2018.koishibot.filter.PreFilter;
 import io.github.nickid2018.koishibot.filter.RequestFrequencyFilter;
 import io.github.nickid2018.koishibot.message.api.*;
 import io.github.nickid2018.koishibot.module.ModuleManager;
+import io.github.nickid2018.koishibot.permission.PermissionLevel;
 import io.github.nickid2018.koishibot.permission.PermissionManager;
 import io.github.nickid2018.koishibot.permission.PermissionResolver;
 import io.github.nickid2018.koishibot.resolver.BilibiliDataResolver;
@@ -73,7 +74,7 @@ public class MessageManager {
                 return;
         }
 
-        UserAwaitData.onMessage(group, user, message);
+        UserAwaitData.onMessage(context, environment, message);
 
         List<String> strings = new ArrayList<>();
         ServiceMessage service = null;
@@ -94,26 +95,39 @@ public class MessageManager {
         }
 
         if (replyMe != null)
-            MessageReplyData.onMessage(group, user, replyMe, message);
+            MessageReplyData.onMessage(context, environment, replyMe, message);
 
         if (service == null) {
             if (strings.isEmpty() || strings.get(0).startsWith("!"))
                 return;
 
-            MutableBoolean bool = new MutableBoolean(false);
-            boolean finalAtt = att;
-
-            ModuleManager.getAvailableResolvers(context.getSendDest()).stream()
-                    .filter(predicate)
-                    .filter(resolver -> !inGroup || !resolver.needAt() || finalAtt)
-                    .filter(resolver -> PermissionManager.getLevel(user.getUserId()).levelGreaterOrEquals(resolver.getPermissionLevel()))
-                    .forEach(resolver -> strings.forEach(string -> {
-                        if (!bool.getValue() && resolver.resolve(string, context, environment)) {
-                            bool.setValue(true);
-                            LOGGER.info("Command detected: {}.", resolver.getClass().getName());
-                        }
-                    }));
-            if (!bool.getValue() && att && inGroup && replyMe == null &&
+            ResolverIndex index = ModuleManager.getResolverIndex();
+            BitSet mask = ModuleManager.getResolverMask(context.getSendDest());
+            String[] segments = new String[strings.size()];
+            BitSet[] matched = new BitSet[segments.length];
+            BitSet candidates = new BitSet(index.size());
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = strings.get(i).trim();
+                matched[i] = index.match(segments[i], mask);
+                candidates.or(matched[i]);
+            }
+
+            boolean resolved = false;
+            PermissionLevel level = candidates.isEmpty() ? null : PermissionManager.getLevel(user.getUserId());
+            for (int id = candidates.nextSetBit(0); id >= 0 && !resolved; id = candidates.nextSetBit(id + 1)) {
+                MessageResolver resolver = index.getResolver(id);
+                if (!predicate.test(resolver) || (inGroup && resolver.needAt() && !att) ||
+                        !level.levelGreaterOrEquals(resolver.getPermissionLevel()))
+                    continue;
+                for (int i = 0; i < segments.length; i++) {
+                    if (matched[i].get(id) && resolver.resolve(segments[i], context, environment)) {
+                        resolved = true;
+                        LOGGER.info("Command detected: {}.", resolver.getClass().getName());
+                        break;
+                    }
+                }
+            }
+            if (!resolved && att && inGroup && replyMe == null &&
                     ModuleManager.isOpened(group.getGroupId(), "interact")) {
                 environment.getMessageSender().sendMessage(context, environment.newChain(
                         environment.newQuote(message),
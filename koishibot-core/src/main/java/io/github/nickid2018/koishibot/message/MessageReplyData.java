@@ -2,48 +2,79 @@ package io.github.nickid2018.koishibot.message;
 
 import io.github.nickid2018.koishibot.message.api.*;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
-import io.github.nickid2018.koishibot.util.Pair;
+import io.netty.util.Timeout;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 public class MessageReplyData {
 
-    private static final Map<Pair<MessageData, Boolean>, BiConsumer<AbstractMessage, ChainMessage>> REPLIES = new HashMap<>();
-    private static final ReentrantLock lock = new ReentrantLock();
+    private static final Map<ReplyKey, ReplyEntry> REPLIES = new ConcurrentHashMap<>();
 
     public static void add(GroupInfo group, UserInfo user, AbstractMessage sent,
                            BiConsumer<AbstractMessage, ChainMessage> consumer, boolean once) {
-        lock.lock();
-        REPLIES.put(new Pair<>(new MessageData(group, user, sent), once), consumer);
-        lock.unlock();
+        add(group, user, sent, consumer, once, AwaitTimer.getReplyTimeout());
     }
 
-    public static void onMessage(GroupInfo group, UserInfo user, QuoteMessage reply, ChainMessage chain) {
-        Pair<MessageData, Boolean> find = null;
-        lock.lock();
-        for (Pair<MessageData, Boolean> data : REPLIES.keySet()) {
-            if (group == null ^ data.first().group() == null)
-                continue;
-            if (group != null && !group.equals(data.first().group()))
-                continue;
-            if (group == null && !user.equals(data.first().user()))
-                continue;
-            if (!data.first().sent().getSource().equals(reply.getQuoteFrom()))
-                continue;
-            find = data;
-            break;
-        }
-        lock.unlock();
-        if (find == null)
+    public static void add(GroupInfo group, UserInfo user, AbstractMessage sent,
+                           BiConsumer<AbstractMessage, ChainMessage> consumer, boolean once, long timeout) {
+        ReplyKey key = ReplyKey.of(group, user, sent.getSource());
+        if (key == null)
+            return;
+        ReplyEntry entry = new ReplyEntry(new MessageData(group, user, sent), consumer, once);
+        ReplyEntry old = REPLIES.put(key, entry);
+        if (old != null && old.timeout != null)
+            old.timeout.cancel();
+        entry.timeout = AwaitTimer.schedule(() -> REPLIES.remove(key, entry), timeout);
+    }
+
+    public static void onMessage(MessageContext context, DelegateEnvironment environment,
+                                 QuoteMessage reply, ChainMessage chain) {
+        ReplyKey key = ReplyKey.of(context.group(), context.user(), reply.getQuoteFrom());
+        if (key == null)
             return;
-        BiConsumer<AbstractMessage, ChainMessage> dataConsumer;
-        lock.lock();
-        dataConsumer = find.second() ? REPLIES.remove(find) :  REPLIES.get(find);
-        lock.unlock();
-        MessageData finalFind = find.first();
-        AsyncUtil.execute(() -> dataConsumer.accept(finalFind.sent(), chain));
+        ReplyEntry entry = REPLIES.get(key);
+        if (entry == null)
+            return;
+        if (entry.once) {
+            if (!REPLIES.remove(key, entry))
+                return;
+            if (entry.timeout != null)
+                entry.timeout.cancel();
+        }
+        AsyncUtil.execute(context, environment, () -> entry.consumer.accept(entry.data.sent(), chain));
+    }
+
+    public static int getPendingCount() {
+        return REPLIES.size();
+    }
+
+    // Replies in a group may come from anyone, private replies only from the user
+    private record ReplyKey(Environment environment, String groupId, String userId, String sourceId) {
+
+        private static ReplyKey of(GroupInfo group, UserInfo user, MessageSource source) {
+            if (source == null || source.getMessageUniqueID() == null)
+                return null;
+            if (group != null)
+                return new ReplyKey(group.getEnvironment(), group.getGroupId(), null, source.getMessageUniqueID());
+            if (user == null)
+                return null;
+            return new ReplyKey(user.getEnvironment(), null, user.getUserId(), source.getMessageUniqueID());
+        }
+    }
+
+    private static class ReplyEntry {
+
+        private final MessageData data;
+        private final BiConsumer<AbstractMessage, ChainMessage> consumer;
+        private final boolean once;
+        private volatile Timeout timeout;
+
+        private ReplyEntry(MessageData data, BiConsumer<AbstractMessage, ChainMessage> consumer, boolean once) {
+            this.data = data;
+            this.consumer = consumer;
+            this.once = once;
+        }
     }
 }
@@ -13,13 +13,19 @@ public abstract class MessageResolver {
 
     private final Function<String, Pair<String, Object>> resolverTrigger;
     private final boolean inline;
+    private final String prefix;
+    private final Pattern[] patterns;
 
     public MessageResolver(Function<String, Pair<String, Object>> resolverTrigger, boolean inline) {
         this.resolverTrigger = resolverTrigger;
         this.inline = inline;
+        prefix = null;
+        patterns = null;
     }
 
     public MessageResolver(Pattern... patterns) {
+        this.patterns = patterns.clone();
+        prefix = null;
         resolverTrigger = s -> {
             for (Pattern pattern : patterns) {
                 Matcher matcher = pattern.matcher(s);
@@ -32,9 +38,10 @@ public abstract class MessageResolver {
     }
 
     public MessageResolver(String prefix) {
-        String lowCased = prefix.toLowerCase(Locale.ROOT);
-        resolverTrigger = s ->
-                s.toLowerCase(Locale.ROOT).startsWith(lowCased) ? new Pair<>(s.substring(prefix.length()).trim(), null) : null;
+        this.prefix = prefix.toLowerCase(Locale.ROOT);
+        patterns = null;
+        resolverTrigger = s -> s.regionMatches(true, 0, this.prefix, 0, this.prefix.length()) ?
+                new Pair<>(s.substring(this.prefix.length()).trim(), null) : null;
         inline = false;
     }
 
@@ -58,6 +65,14 @@ public abstract class MessageResolver {
         return inline;
     }
 
+    String getPrefix() {
+        return prefix;
+    }
+
+    Pattern[] getPatterns() {
+        return patterns;
+    }
+
     public boolean friendEnabled() {
         return true;
     }
@@ -13,9 +13,8 @@ import io.github.nickid2018.koishibot.util.web.WebUtil;
 import java.io.IOException;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.atomic.AtomicLong;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 
 public class MessageSender {
@@ -27,8 +26,7 @@ public class MessageSender {
     public static final int SEND_INTERVAL = 1000;
 
     private final Random random = new Random();
-    private final ReentrantLock sendLock = new ReentrantLock();
-    private final AtomicLong lastSentTime = new AtomicLong(System.currentTimeMillis());
+    private final SendScheduler scheduler = new SendScheduler();
     private final Queue<Pair<MessageContext, AbstractMessage>> sentQueue = new ConcurrentLinkedDeque<>();
 
     private final DelegateEnvironment environment;
@@ -48,22 +46,24 @@ public class MessageSender {
         postFilters.add(new RequestFrequencyFilter());
     }
 
-    public void sendMessage(MessageContext context, AbstractMessage message) {
-        send(context, message, false);
+    public CompletableFuture<MessageSource> sendMessage(MessageContext context, AbstractMessage message) {
+        return send(context, message, false);
     }
 
-    public void sendMessageRecallable(MessageContext context, AbstractMessage message) {
-        send(context, message, true);
+    public CompletableFuture<MessageSource> sendMessageRecallable(MessageContext context, AbstractMessage message) {
+        return send(context, message, true);
     }
 
     public void sendMessageAwait(MessageContext context, AbstractMessage message,
                                  BiConsumer<AbstractMessage, ChainMessage> consumer) {
-        UserAwaitData.add(context.group(), context.user(), send(context, message, true), consumer);
+        enqueue(context, message, true).thenAccept(
+                sent -> UserAwaitData.add(context.group(), context.user(), sent, consumer));
     }
 
     public void sendMessageReply(MessageContext context, AbstractMessage message, boolean once,
                                  BiConsumer<AbstractMessage, ChainMessage> consumer) {
-        MessageReplyData.add(context.group(), context.user(), send(context, message, false), consumer, once);
+        enqueue(context, message, false).thenAccept(
+                sent -> MessageReplyData.add(context.group(), context.user(), sent, consumer, once));
     }
 
     public void onError(Throwable t, String module, MessageContext context, boolean recall) {
@@ -100,31 +100,31 @@ public class MessageSender {
         send(context, chain, recall);
     }
 
-    public AbstractMessage send(MessageContext context, AbstractMessage message, boolean recall) {
+    public CompletableFuture<MessageSource> send(MessageContext context, AbstractMessage message, boolean recall) {
+        return enqueue(context, message, recall).thenApply(AbstractMessage::getSource);
+    }
+
+    public int getPendingCount() {
+        return scheduler.getPendingCount();
+    }
+
+    private CompletableFuture<AbstractMessage> enqueue(MessageContext context, AbstractMessage message, boolean recall) {
         for (PostFilter filter : postFilters)
             message = filter.filterMessagePost(message, context, environment);
-        sendLock.lock();
-        try {
-            long sleepTime = SEND_INTERVAL - (System.currentTimeMillis() - lastSentTime.get());
-            if (sleepTime > 0)
-                try {
-                    Thread.sleep(sleepTime);
-                } catch (InterruptedException ignored) {
-                }
-            context.getSendDest().send(message);
-            if (recall)
-                sentQueue.offer(new Pair<>(context, message));
-            while (sentQueue.size() > 100)
-                sentQueue.poll();
-            lastSentTime.set(System.currentTimeMillis());
-        } finally {
-            sendLock.unlock();
-        }
-        return message;
+        CompletableFuture<AbstractMessage> future = scheduler.submit(context.getSendDest(), message);
+        future.whenComplete((sent, t) -> {
+            if (t != null)
+                MessageManager.LOGGER.error("Error when sending message", t);
+            else if (recall) {
+                sentQueue.offer(new Pair<>(context, sent));
+                while (sentQueue.size() > 100)
+                    sentQueue.poll();
+            }
+        });
+        return future;
     }
 
     public void onRecall(GroupInfo groupInfo, UserInfo user, long time) {
-        sendLock.lock();
         try {
             List<Pair<MessageContext, AbstractMessage>> messagesToRecall = new ArrayList<>();
             for (Pair<MessageContext, AbstractMessage> entry : sentQueue) {
@@ -141,8 +141,6 @@ public class MessageSender {
             });
         } catch (Exception e) {
             MessageManager.LOGGER.error("Error when recalling message", e);
-        } finally {
-            sendLock.unlock();
         }
     }
 
@@ -0,0 +1,183 @@
+package io.github.nickid2018.koishibot.message;
+
+import it.unimi.dsi.fastutil.chars.Char2ObjectMap;
+import it.unimi.dsi.fastutil.chars.Char2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Built once per module set, read concurrently by every message dispatch
+public final class ResolverIndex {
+
+    private static final Pattern UNSAFE_TO_COMBINE = Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]");
+    private static final int COMBINABLE_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.MULTILINE | Pattern.DOTALL |
+            Pattern.UNICODE_CASE | Pattern.UNIX_LINES | Pattern.UNICODE_CHARACTER_CLASS;
+
+    private final MessageResolver[] resolvers;
+    private final Map<String, BitSet> moduleResolvers;
+    private final BitSet allResolvers = new BitSet();
+    private final Map<String, BitSet> groupMasks = new ConcurrentHashMap<>();
+
+    private final PrefixNode prefixRoot = new PrefixNode();
+    private final BitSet fallbackResolvers = new BitSet();
+
+    private final Pattern inlinePattern;
+    private final Pattern[] inlineAlternatives;
+    private final int[] alternativeGroups;
+    private final int[] alternativeResolvers;
+
+    public ResolverIndex(Map<String, List<MessageResolver>> resolversByModule) {
+        List<MessageResolver> resolverList = new ArrayList<>();
+        moduleResolvers = new HashMap<>();
+        resolversByModule.forEach((module, list) -> {
+            BitSet bits = new BitSet();
+            for (MessageResolver resolver : list) {
+                bits.set(resolverList.size());
+                resolverList.add(resolver);
+            }
+            moduleResolvers.put(module, bits);
+            allResolvers.or(bits);
+        });
+        resolvers = resolverList.toArray(MessageResolver[]::new);
+
+        StringBuilder combined = new StringBuilder();
+        List<Pattern> alternatives = new ArrayList<>();
+        IntList groups = new IntArrayList();
+        IntList owners = new IntArrayList();
+        int groupCount = 0;
+        for (int id = 0; id < resolvers.length; id++) {
+            MessageResolver resolver = resolvers[id];
+            if (resolver.getPrefix() != null) {
+                insertPrefix(resolver.getPrefix(), id);
+                continue;
+            }
+            Pattern[] patterns = resolver.getPatterns();
+            if (patterns == null || Arrays.stream(patterns).anyMatch(p -> !canCombine(p))) {
+                fallbackResolvers.set(id);
+                continue;
+            }
+            for (Pattern pattern : patterns) {
+                if (!combined.isEmpty())
+                    combined.append('|');
+                String flags = inlineFlags(pattern.flags());
+                combined.append(flags.isEmpty() ? "(" : "(?" + flags + ":(").append(pattern.pattern())
+                        .append(flags.isEmpty() ? ")" : "))");
+                groups.add(groupCount + 1);
+                owners.add(id);
+                alternatives.add(pattern);
+                groupCount += 1 + pattern.matcher("").groupCount();
+            }
+        }
+        inlinePattern = alternatives.isEmpty() ? null : Pattern.compile(combined.toString());
+        inlineAlternatives = alternatives.toArray(Pattern[]::new);
+        alternativeGroups = groups.toIntArray();
+        alternativeResolvers = owners.toIntArray();
+    }
+
+    public MessageResolver getResolver(int id) {
+        return resolvers[id];
+    }
+
+    public int size() {
+        return resolvers.length;
+    }
+
+    public BitSet getModuleResolvers(String module) {
+        return moduleResolvers.getOrDefault(module, new BitSet());
+    }
+
+    public BitSet getAllResolvers() {
+        return allResolvers;
+    }
+
+    public BitSet getGroupMask(String group, Predicate<String> moduleEnabled) {
+        return groupMasks.computeIfAbsent(group, g -> {
+            BitSet mask = new BitSet(resolvers.length);
+            moduleResolvers.forEach((module, bits) -> {
+                if (moduleEnabled.test(module))
+                    mask.or(bits);
+            });
+            return mask;
+        });
+    }
+
+    public void invalidateGroupMask(String group) {
+        groupMasks.remove(group);
+    }
+
+    // Returns ids of resolvers in mask whose trigger can accept the (trimmed) segment
+    public BitSet match(String segment, BitSet mask) {
+        BitSet matched = new BitSet(resolvers.length);
+
+        PrefixNode node = prefixRoot;
+        for (int i = 0; i < segment.length() && node != null; i++) {
+            node = node.children.get(Character.toLowerCase(segment.charAt(i)));
+            if (node != null)
+                node.terminals.forEach(id -> {
+                    if (mask.get(id))
+                        matched.set(id);
+                });
+        }
+
+        if (inlinePattern != null) {
+            Matcher matcher = inlinePattern.matcher(segment);
+            int from = 0;
+            while (from <= segment.length() && matcher.find(from)) {
+                int start = matcher.start();
+                for (int alt = 0; alt < inlineAlternatives.length; alt++) {
+                    int id = alternativeResolvers[alt];
+                    if (matched.get(id) || !mask.get(id))
+                        continue;
+                    if (matcher.start(alternativeGroups[alt]) == start ||
+                            inlineAlternatives[alt].matcher(segment).region(start, segment.length())
+                                    .useTransparentBounds(true).useAnchoringBounds(false).lookingAt())
+                        matched.set(id);
+                }
+                from = start + 1;
+            }
+        }
+
+        for (int id = fallbackResolvers.nextSetBit(0); id >= 0; id = fallbackResolvers.nextSetBit(id + 1))
+            if (mask.get(id))
+                matched.set(id);
+        return matched;
+    }
+
+    private void insertPrefix(String prefix, int id) {
+        PrefixNode node = prefixRoot;
+        for (char c : prefix.toCharArray())
+            node = node.children.computeIfAbsent(Character.toLowerCase(c), ch -> new PrefixNode());
+        node.terminals.add(id);
+    }
+
+    private static boolean canCombine(Pattern pattern) {
+        return (pattern.flags() & ~COMBINABLE_FLAGS) == 0 && !UNSAFE_TO_COMBINE.matcher(pattern.pattern()).find();
+    }
+
+    private static String inlineFlags(int flags) {
+        StringBuilder builder = new StringBuilder();
+        if ((flags & Pattern.UNIX_LINES) != 0)
+            builder.append('d');
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0)
+            builder.append('i');
+        if ((flags & Pattern.MULTILINE) != 0)
+            builder.append('m');
+        if ((flags & Pattern.DOTALL) != 0)
+            builder.append('s');
+        if ((flags & Pattern.UNICODE_CASE) != 0)
+            builder.append('u');
+        if ((flags & Pattern.UNICODE_CHARACTER_CLASS) != 0)
+            builder.append('U');
+        return builder.toString();
+    }
+
+    private static class PrefixNode {
+        private final Char2ObjectMap<PrefixNode> children = new Char2ObjectOpenHashMap<>();
+        private final IntList terminals = new IntArrayList();
+    }
+}
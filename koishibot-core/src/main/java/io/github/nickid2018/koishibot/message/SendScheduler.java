@@ -0,0 +1,165 @@
+package io.github.nickid2018.koishibot.message;
+
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
+import io.github.nickid2018.koishibot.message.api.AbstractMessage;
+import io.github.nickid2018.koishibot.message.api.ContactInfo;
+import io.github.nickid2018.koishibot.message.api.GroupInfo;
+import io.github.nickid2018.koishibot.message.api.MessageSource;
+import io.github.nickid2018.koishibot.message.api.UserInfo;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import io.github.nickid2018.koishibot.util.TokenBucket;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+public class SendScheduler {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (th, t) -> ErrorRecord.enqueueError("message.schedule", t)
+            ).daemon(true).namingPattern("Message Send Scheduler").build());
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private static volatile SendSettings settings = new SendSettings(
+            MessageSender.SEND_INTERVAL / 3, 3, MessageSender.SEND_INTERVAL, 1);
+
+    private final Map<String, Destination> destinations = new HashMap<>();
+    private final Deque<Destination> ready = new ArrayDeque<>();
+    private SendSettings bucketSettings;
+    private TokenBucket environmentBucket;
+    private ScheduledFuture<?> wakeup;
+    private long lastSweep = System.nanoTime();
+
+    public static void loadSendSettings(JsonObject settingsRoot) {
+        JsonObject send = JsonUtil.getData(settingsRoot, "send", JsonObject.class).orElseGet(JsonObject::new);
+        settings = new SendSettings(
+                JsonUtil.getLongOrElse(send, "environment_interval", MessageSender.SEND_INTERVAL / 3),
+                JsonUtil.getIntOrElse(send, "environment_burst", 3),
+                JsonUtil.getLongOrElse(send, "destination_interval", MessageSender.SEND_INTERVAL),
+                JsonUtil.getIntOrElse(send, "destination_burst", 1)
+        );
+    }
+
+    public CompletableFuture<AbstractMessage> submit(ContactInfo target, AbstractMessage message) {
+        CompletableFuture<AbstractMessage> future = new CompletableFuture<>();
+        synchronized (this) {
+            Destination destination = destinations.computeIfAbsent(keyOf(target), key -> new Destination());
+            destination.queue.offer(new Outgoing(target, message, future));
+            if (!destination.inFlight && destination.queue.size() == 1)
+                ready.offer(destination);
+        }
+        TIMER.execute(this::drain);
+        return future;
+    }
+
+    public synchronized int getPendingCount() {
+        return destinations.values().stream().mapToInt(d -> d.queue.size()).sum();
+    }
+
+    private synchronized void drain() {
+        SendSettings now = settings;
+        if (bucketSettings != now) {
+            bucketSettings = now;
+            environmentBucket = new TokenBucket(now.environmentInterval(), TimeUnit.MILLISECONDS, now.environmentBurst());
+        }
+
+        long time = System.nanoTime();
+        if (time - lastSweep >= IDLE_NANOS) {
+            lastSweep = time;
+            destinations.values().removeIf(destination -> destination.isIdle(time));
+        }
+
+        long nextWake = Long.MAX_VALUE;
+        for (int i = ready.size(); i > 0; i--) {
+            Destination destination = ready.poll();
+            destination.refreshBucket(now);
+            long wait = destination.bucket.delayNanos(time);
+            if (wait > 0) {
+                ready.offer(destination);
+                nextWake = Math.min(nextWake, wait);
+                continue;
+            }
+            if (!environmentBucket.tryAcquire(time)) {
+                ready.offerFirst(destination);
+                nextWake = Math.min(nextWake, environmentBucket.delayNanos(time));
+                break;
+            }
+            destination.bucket.tryAcquire(time);
+            destination.inFlight = true;
+            destination.lastUsed = time;
+            Outgoing outgoing = destination.queue.poll();
+            dispatch(outgoing).whenComplete((source, t) -> {
+                if (t != null)
+                    outgoing.future().completeExceptionally(t);
+                else
+                    outgoing.future().complete(outgoing.message());
+                release(destination);
+            });
+        }
+
+        if (nextWake != Long.MAX_VALUE && (wakeup == null || wakeup.isDone() ||
+                wakeup.getDelay(TimeUnit.NANOSECONDS) > nextWake)) {
+            if (wakeup != null)
+                wakeup.cancel(false);
+            wakeup = TIMER.schedule(this::drain, nextWake, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static CompletableFuture<MessageSource> dispatch(Outgoing outgoing) {
+        try {
+            return outgoing.target().sendAsync(outgoing.message());
+        } catch (Throwable t) {
+            return CompletableFuture.failedFuture(t);
+        }
+    }
+
+    private void release(Destination destination) {
+        synchronized (this) {
+            destination.inFlight = false;
+            if (!destination.queue.isEmpty())
+                ready.offer(destination);
+        }
+        TIMER.execute(this::drain);
+    }
+
+    private static String keyOf(ContactInfo contact) {
+        if (contact instanceof GroupInfo group)
+            return "group:" + group.getGroupId();
+        return "user:" + ((UserInfo) contact).getUserId();
+    }
+
+    private record SendSettings(long environmentInterval, int environmentBurst,
+                                long destinationInterval, int destinationBurst) {
+    }
+
+    private record Outgoing(ContactInfo target, AbstractMessage message, CompletableFuture<AbstractMessage> future) {
+    }
+
+    private static class Destination {
+
+        private final Queue<Outgoing> queue = new ArrayDeque<>();
+        private SendSettings bucketSettings;
+        private TokenBucket bucket;
+        private boolean inFlight;
+        private long lastUsed = System.nanoTime();
+
+        private Destination() {
+            refreshBucket(settings);
+        }
+
+        // A reload applies to contacts that are already known, their next send uses the new limits
+        private void refreshBucket(SendSettings now) {
+            if (bucketSettings == now)
+                return;
+            bucketSettings = now;
+            bucket = new TokenBucket(now.destinationInterval(), TimeUnit.MILLISECONDS, now.destinationBurst());
+        }
+
+        // Only dropped once the bucket is full again, so a new destination for the key starts the same
+        private boolean isIdle(long now) {
+            return !inFlight && queue.isEmpty() && now - lastUsed >= IDLE_NANOS && bucket.delayNanos(now) == 0;
+        }
+    }
+}
@@ -2,50 +2,90 @@ package io.github.nickid2018.koishibot.message;
 
 import io.github.nickid2018.koishibot.message.api.AbstractMessage;
 import io.github.nickid2018.koishibot.message.api.ChainMessage;
+import io.github.nickid2018.koishibot.message.api.Environment;
 import io.github.nickid2018.koishibot.message.api.GroupInfo;
+import io.github.nickid2018.koishibot.message.api.MessageContext;
 import io.github.nickid2018.koishibot.message.api.UserInfo;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
+import io.netty.util.Timeout;
 
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 
 public class UserAwaitData {
 
-    public static final Map<MessageData, BiConsumer<AbstractMessage, ChainMessage>> AWAIT_MAP = new HashMap<>();
-    private static final ReentrantLock lock = new ReentrantLock();
+    // Oldest prompt of a (environment, group, user) is answered first
+    private static final Map<AwaitKey, Deque<AwaitEntry>> AWAIT_MAP = new ConcurrentHashMap<>();
 
     public static void add(GroupInfo group, UserInfo user, AbstractMessage sent, BiConsumer<AbstractMessage, ChainMessage> consumer) {
-        lock.lock();
-        AWAIT_MAP.put(new MessageData(group, user, sent), consumer);
-        lock.unlock();
+        add(group, user, sent, consumer, AwaitTimer.getAwaitTimeout());
     }
 
-    public static void onMessage(GroupInfo group, UserInfo user, ChainMessage reply) {
-        MessageData find = null;
-        lock.lock();
-        for (MessageData data : AWAIT_MAP.keySet()) {
-            if (group == null ^ data.group() == null)
-                continue;
-            if (group != null && !group.equals(data.group()))
-                continue;
-            if (user == null ^ data.user() == null)
-                continue;
-            if (user != null && !user.equals(data.user()))
-                continue;
-            find = data;
-            break;
-        }
-        lock.unlock();
-        if (find == null)
+    public static void add(GroupInfo group, UserInfo user, AbstractMessage sent,
+                           BiConsumer<AbstractMessage, ChainMessage> consumer, long timeout) {
+        AwaitKey key = AwaitKey.of(group, user);
+        if (key == null)
             return;
-        BiConsumer<AbstractMessage, ChainMessage> dataConsumer;
-        lock.lock();
-        dataConsumer = AWAIT_MAP.remove(find);
-        lock.unlock();
-        MessageData finalFind = find;
-        AsyncUtil.execute(() -> dataConsumer.accept(finalFind.sent(), reply));
+        AwaitEntry entry = new AwaitEntry(new MessageData(group, user, sent), consumer);
+        AWAIT_MAP.compute(key, (k, queue) -> {
+            if (queue == null)
+                queue = new ArrayDeque<>();
+            queue.offer(entry);
+            return queue;
+        });
+        entry.timeout = AwaitTimer.schedule(() -> remove(key, entry), timeout);
+    }
+
+    public static void onMessage(MessageContext context, DelegateEnvironment environment, ChainMessage reply) {
+        AwaitKey key = AwaitKey.of(context.group(), context.user());
+        if (key == null)
+            return;
+        AwaitEntry[] found = new AwaitEntry[1];
+        AWAIT_MAP.computeIfPresent(key, (k, queue) -> {
+            found[0] = queue.poll();
+            return queue.isEmpty() ? null : queue;
+        });
+        AwaitEntry entry = found[0];
+        if (entry == null)
+            return;
+        if (entry.timeout != null)
+            entry.timeout.cancel();
+        AsyncUtil.execute(context, environment, () -> entry.consumer.accept(entry.data.sent(), reply));
+    }
+
+    public static int getPendingCount() {
+        return AWAIT_MAP.values().stream().mapToInt(Deque::size).sum();
+    }
+
+    private static void remove(AwaitKey key, AwaitEntry entry) {
+        AWAIT_MAP.computeIfPresent(key, (k, queue) -> {
+            queue.remove(entry);
+            return queue.isEmpty() ? null : queue;
+        });
     }
-}
 
+    private record AwaitKey(Environment environment, String groupId, String userId) {
+
+        private static AwaitKey of(GroupInfo group, UserInfo user) {
+            Environment environment = group != null ? group.getEnvironment() : user != null ? user.getEnvironment() : null;
+            if (environment == null)
+                return null;
+            return new AwaitKey(environment, group == null ? null : group.getGroupId(), user == null ? null : user.getUserId());
+        }
+    }
+
+    private static class AwaitEntry {
+
+        private final MessageData data;
+        private final BiConsumer<AbstractMessage, ChainMessage> consumer;
+        private volatile Timeout timeout;
+
+        private AwaitEntry(MessageData data, BiConsumer<AbstractMessage, ChainMessage> consumer) {
+            this.data = data;
+            this.consumer = consumer;
+        }
+    }
+}
@@ -12,7 +12,7 @@ public abstract class KoishiBotModule {
     private final boolean closable;
     private final List<MessageResolver> resolverList;
 
-    private ModuleStatus status = ModuleStatus.READY;
+    private volatile ModuleStatus status = ModuleStatus.READY;
 
     public KoishiBotModule(String name, List<MessageResolver> resolvers, boolean closable) {
         this.name = name;
@@ -32,6 +32,16 @@ public abstract class KoishiBotModule {
         return closable;
     }
 
+    // Started only after these modules, and not at all if one of them fails
+    public List<String> getDependencies() {
+        return List.of();
+    }
+
+    // Rough weight of onStart, heavier modules get a starter thread first
+    public int getStartupCost() {
+        return 0;
+    }
+
     public void onStart() throws Exception {
         onStartInternal();
         status = ModuleStatus.INITIALIZED;
@@ -41,7 +41,7 @@ public class ModuleManageResolver extends MessageResolver {
         String[] split = key.split(" ");
         assert context.group() != null;
         if (split.length == 2) {
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute(context, environment, () -> {
                 try {
                     switch (split[0].toLowerCase(Locale.ROOT)) {
                         case "open" -> {
@@ -68,7 +68,9 @@ public class ModuleManageResolver extends MessageResolver {
                                 environment.getMessageSender().sendMessage(context, environment.newText("不存在模块" + split[1]));
                             else
                                 environment.getMessageSender().sendMessage(context, environment.newText(
-                                        "模块" + split[1] + "目前状态为" + module.getStatus()));
+                                        "模块" + split[1] + "目前状态为" + module.getStatus() +
+                                                (ModuleManager.getStartTime(split[1]) >= 0 ?
+                                                        "，启动耗时" + ModuleManager.getStartTime(split[1]) + "ms" : "")));
                         }
                     }
                 } catch (Exception e) {
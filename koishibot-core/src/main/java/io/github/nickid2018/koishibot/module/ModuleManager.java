@@ -1,7 +1,9 @@
 package io.github.nickid2018.koishibot.module;
 
 import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.message.MessageResolver;
+import io.github.nickid2018.koishibot.message.ResolverIndex;
 import io.github.nickid2018.koishibot.message.api.ContactInfo;
 import io.github.nickid2018.koishibot.message.api.GroupInfo;
 import io.github.nickid2018.koishibot.module.calc.CalcModule;
@@ -20,13 +22,14 @@ import io.github.nickid2018.koishibot.module.wiki.WikiModule;
 import io.github.nickid2018.koishibot.permission.PermissionResolver;
 import io.github.nickid2018.koishibot.resolver.*;
 import io.github.nickid2018.koishibot.util.GroupDataReader;
+import io.github.nickid2018.koishibot.util.storage.Codec;
 import io.github.nickid2018.koishibot.util.value.MutableBoolean;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static io.github.nickid2018.koishibot.module.PlainModule.NOP;
 
@@ -34,18 +37,28 @@ public class ModuleManager {
 
     public static final Logger LOGGER = LoggerFactory.getLogger("KoishiBotModule Manager");
 
+    private static final int MODULE_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
     private static final Map<String, KoishiBotModule> MODULE_MAP = new LinkedHashMap<>();
+    private static volatile ResolverIndex resolverIndex;
+
+    private static final ThreadPoolExecutor STARTER = new ThreadPoolExecutor(
+            MODULE_THREADS, MODULE_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (t, e) -> ErrorRecord.enqueueError("module.start", e)
+            ).daemon(true).namingPattern("Module Starter #%d").build());
+    private static final Map<String, Long> START_TIME = new ConcurrentHashMap<>();
+    private static final Set<String> READY_MODULES = ConcurrentHashMap.newKeySet();
+    // Null until start() runs, everything is dispatched then
+    private static volatile ReadyMask readyMask;
+    private static volatile CompletableFuture<Void> startup = CompletableFuture.completedFuture(null);
 
-    @SuppressWarnings("unchecked")
     private static final GroupDataReader<Set<String>> DATA_READER = new GroupDataReader<>(
-            "module",
-            reader -> (Set<String>) new ObjectInputStream(reader).readObject(),
-            (writer, data) -> new ObjectOutputStream(writer).writeObject(data),
-            () -> new HashSet<>(MODULE_MAP.keySet())
-    );
+            "module", Codec.setOf(Codec.STRING), () -> new HashSet<>(MODULE_MAP.keySet()));
 
     // KoishiBotModule List
     static {
+        STARTER.allowCoreThreadTimeOut(true);
         addModule(new PlainModule("help", false, NOP, NOP, "帮助模块", new HelpResolver()));
         addModule(new PlainModule("info", false, NOP, NOP, "信息模块", new InfoResolver()));
         addModule(new PlainModule("system", false, NOP, NOP, "系统模块",
@@ -75,17 +88,70 @@ public class ModuleManager {
     }
 
     public static void start() {
-        MODULE_MAP.forEach((name, module) -> {
-            try {
-                module.onStart();
-                LOGGER.info("Started {}.", name);
-            } catch (Exception e) {
-                LOGGER.error("Starting failure: " + name + ". The module will be removed.", e);
-                module.setStatus(ModuleStatus.ERROR);
-            }
-        });
+        rebuildResolverIndex();
+        readyMask = new ReadyMask(new BitSet(), false);
+        long begin = System.nanoTime();
+        startup = startModules(MODULE_MAP)
+                .thenRun(() -> LOGGER.info("Module startup finished in {} ms, {} of {} modules started.",
+                        (System.nanoTime() - begin) / 1_000_000, READY_MODULES.size(), MODULE_MAP.size()));
     }
 
+    // Completes once every module has either started or failed
+    static CompletableFuture<Void> startModules(Map<String, KoishiBotModule> moduleMap) {
+        Map<String, CompletableFuture<Void>> scheduled = new HashMap<>();
+        List<KoishiBotModule> modules = new ArrayList<>(moduleMap.values());
+        modules.sort(Comparator.comparingInt(KoishiBotModule::getStartupCost).reversed());
+        for (KoishiBotModule module : modules)
+            scheduleStart(module, moduleMap, scheduled, new HashSet<>());
+        return CompletableFuture.allOf(scheduled.values().toArray(CompletableFuture[]::new))
+                .handle((v, t) -> null);
+    }
+
+    // Each module starts as soon as its dependencies have, and serves commands from then on
+    private static CompletableFuture<Void> scheduleStart(KoishiBotModule module, Map<String, KoishiBotModule> moduleMap,
+                                                         Map<String, CompletableFuture<Void>> scheduled,
+                                                         Set<String> visiting) {
+        String name = module.getName();
+        CompletableFuture<Void> future = scheduled.get(name);
+        if (future != null)
+            return future;
+        if (!visiting.add(name))
+            return CompletableFuture.failedFuture(new IllegalStateException("Circular module dependency at " + name));
+        List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+        for (String dependency : module.getDependencies()) {
+            KoishiBotModule required = moduleMap.get(dependency);
+            dependencies.add(required == null ? CompletableFuture.failedFuture(
+                    new IllegalStateException("Missing dependency " + dependency)) :
+                    scheduleStart(required, moduleMap, scheduled, visiting));
+        }
+        visiting.remove(name);
+        future = CompletableFuture.allOf(dependencies.toArray(CompletableFuture[]::new))
+                .thenRunAsync(() -> startModule(module), STARTER)
+                .whenComplete((v, t) -> {
+                    if (t != null) {
+                        LOGGER.error("Starting failure: " + name + ". The module is kept with the error status.",
+                                t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+                        module.setStatus(ModuleStatus.ERROR);
+                    }
+                });
+        scheduled.put(name, future);
+        return future;
+    }
+
+    private static void startModule(KoishiBotModule module) {
+        long begin = System.nanoTime();
+        try {
+            module.onStart();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+        long time = (System.nanoTime() - begin) / 1_000_000;
+        START_TIME.put(module.getName(), time);
+        setReady(module.getName(), true);
+        LOGGER.info("Started {} in {} ms.", module.getName(), time);
+    }
+
+    // Run one after another, the hooks share static state and were never written to be thread-safe
     public static void settingLoad(JsonObject setting) {
         MODULE_MAP.forEach((name, module) -> {
             try {
@@ -98,20 +164,43 @@ public class ModuleManager {
         });
     }
 
+    // Dependents go down before what they depend on
     public static void stop() {
-        MODULE_MAP.forEach((name, module) -> {
+        try {
+            startup.get(30, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            LOGGER.warn("Modules are still starting, terminating them anyway.");
+        }
+        List<KoishiBotModule> modules = new ArrayList<>(MODULE_MAP.values());
+        modules.sort(Comparator.comparingInt(module -> -dependencyDepth(module, new HashSet<>())));
+        modules.forEach(module -> {
+            setReady(module.getName(), false);
             try {
                 module.onTerminate();
-                LOGGER.info("Terminated {}.", name);
+                LOGGER.info("Terminated {}.", module.getName());
             } catch (Exception e) {
-                LOGGER.error("Terminate failure: " + name, e);
+                LOGGER.error("Terminate failure: " + module.getName(), e);
                 module.setStatus(ModuleStatus.ERROR);
             }
         });
     }
 
+    private static int dependencyDepth(KoishiBotModule module, Set<String> visiting) {
+        if (!visiting.add(module.getName()))
+            return 0;
+        int depth = 0;
+        for (String dependency : module.getDependencies()) {
+            KoishiBotModule required = MODULE_MAP.get(dependency);
+            if (required != null)
+                depth = Math.max(depth, dependencyDepth(required, visiting) + 1);
+        }
+        visiting.remove(module.getName());
+        return depth;
+    }
+
     public static void addModule(KoishiBotModule module) {
         MODULE_MAP.put(module.getName(), module);
+        resolverIndex = null;
     }
 
     public static Set<String> getModuleNames() {
@@ -140,6 +229,7 @@ public class ModuleManager {
             success.setValue(true);
             return set;
         });
+        getResolverIndex().invalidateGroupMask(group.getGroupId());
         return success.getValue();
     }
 
@@ -155,27 +245,83 @@ public class ModuleManager {
             success.setValue(true);
             return set;
         });
+        getResolverIndex().invalidateGroupMask(group.getGroupId());
         return success.getValue();
     }
 
+    // Only this module stops answering meanwhile, the index and every other module stay as they are
     public static boolean reload(String moduleName) throws Exception {
         KoishiBotModule module = MODULE_MAP.get(moduleName);
         if (module == null)
             return false;
-        module.onTerminate();
-        module.onStart();
+        synchronized (module) {
+            setReady(moduleName, false);
+            try {
+                module.onTerminate();
+                long begin = System.nanoTime();
+                module.onStart();
+                START_TIME.put(moduleName, (System.nanoTime() - begin) / 1_000_000);
+            } catch (Exception e) {
+                module.setStatus(ModuleStatus.ERROR);
+                throw e;
+            }
+            setReady(moduleName, true);
+        }
         return true;
     }
 
-    public static List<MessageResolver> getAvailableResolvers(ContactInfo contact) {
-        List<MessageResolver> available = new ArrayList<>();
-        if (contact instanceof GroupInfo group)
-            MODULE_MAP.keySet().stream()
-                    .filter(val -> isOpened(group.getGroupId(), val))
-                    .map(MODULE_MAP::get)
-                    .forEach(m -> available.addAll(m.getResolvers()));
+    // Milliseconds the last start of the module took, -1 if it never started
+    public static long getStartTime(String moduleName) {
+        return START_TIME.getOrDefault(moduleName, -1L);
+    }
+
+    public static synchronized void rebuildResolverIndex() {
+        Map<String, List<MessageResolver>> resolvers = new LinkedHashMap<>();
+        MODULE_MAP.forEach((name, module) -> resolvers.put(name, module.getResolvers()));
+        resolverIndex = new ResolverIndex(resolvers);
+        LOGGER.info("Built resolver index with {} resolvers.", resolverIndex.size());
+        if (readyMask != null)
+            updateReadyMask();
+    }
+
+    private static synchronized void setReady(String moduleName, boolean ready) {
+        if (ready)
+            READY_MODULES.add(moduleName);
         else
-            MODULE_MAP.values().forEach(m -> available.addAll(m.getResolvers()));
+            READY_MODULES.remove(moduleName);
+        if (readyMask != null)
+            updateReadyMask();
+    }
+
+    private static void updateReadyMask() {
+        ResolverIndex index = getResolverIndex();
+        BitSet bits = new BitSet(index.size());
+        READY_MODULES.forEach(name -> bits.or(index.getModuleResolvers(name)));
+        readyMask = new ReadyMask(bits, bits.equals(index.getAllResolvers()));
+    }
+
+    public static ResolverIndex getResolverIndex() {
+        ResolverIndex index = resolverIndex;
+        if (index == null) {
+            rebuildResolverIndex();
+            index = resolverIndex;
+        }
+        return index;
+    }
+
+    public static BitSet getResolverMask(ContactInfo contact) {
+        ResolverIndex index = getResolverIndex();
+        BitSet mask = contact instanceof GroupInfo group ?
+                index.getGroupMask(group.getGroupId(), name -> isOpened(group.getGroupId(), name)) :
+                index.getAllResolvers();
+        ReadyMask ready = readyMask;
+        if (ready == null || ready.all())
+            return mask;
+        BitSet available = (BitSet) mask.clone();
+        available.and(ready.bits());
         return available;
     }
+
+    private record ReadyMask(BitSet bits, boolean all) {
+    }
 }
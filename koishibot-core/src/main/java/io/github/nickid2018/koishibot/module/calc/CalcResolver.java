@@ -8,7 +8,6 @@ import io.github.nickid2018.koishibot.message.api.MessageContext;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
 import io.github.nickid2018.smcl.StatementParseException;
 
-import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -24,11 +23,15 @@ public class CalcResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
-            Future<Double> future = AsyncUtil.submit(() ->
+        AsyncUtil.execute("calc", context, environment, () -> {
+            Future<Double> future = AsyncUtil.submit(AsyncUtil.CPU, () ->
                     CalcModule.getContext().parse(key).calculate(CalcModule.DEFAULT_VARIABLES).toStdNumber());
+            if (future == null) {
+                environment.getMessageSender().sendMessage(context, environment.newText(AsyncUtil.BUSY_MESSAGE));
+                return;
+            }
             try {
-                double number = Objects.requireNonNull(future).get(5, TimeUnit.SECONDS);
+                double number = future.get(5, TimeUnit.SECONDS);
                 environment.getMessageSender().sendMessage(context, environment.newText(key + " = " +
                         (number > 10000 ? "%.2f".formatted(number) : number)));
             } catch (ExecutionException e) {
@@ -39,6 +42,7 @@ public class CalcResolver extends MessageResolver {
                 else
                     environment.getMessageSender().onError(e.getCause(), "calc", context, false);
             } catch (TimeoutException e) {
+                future.cancel(true);
                 environment.getMessageSender().sendMessage(context, environment.newText("计算的时间超出了限制（5s）。"));
             } catch (Exception e) {
                 environment.getMessageSender().onError(e, "calc", context, false);
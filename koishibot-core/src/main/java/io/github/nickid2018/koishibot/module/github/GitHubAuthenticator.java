@@ -65,19 +65,20 @@ public class GitHubAuthenticator {
 
     public void authenticateOperation(Consumer<String> operation,
                                       MessageContext context, DelegateEnvironment environment, String... needScopes) {
-        if (enableOAuth2())
-            authenticator.authenticate(context.user().getUserId(),
+        if (enableOAuth2()) {
+            if (!authenticator.authenticate(context.user().getUserId(),
                     str -> environment.getMessageSender().sendMessage(context, environment.newText("请点击链接授权：\n" + str)),
-                    operation, List.of(needScopes), Map.of());
-        else {
+                    operation, List.of(needScopes), Map.of()))
+                environment.getMessageSender().sendMessage(context, environment.newText(AsyncUtil.BUSY_MESSAGE));
+        } else {
             AbstractMessage message = environment.newText(
                     "警告: 此操作需要授权，请发送私人访问令牌用于授权。\n" +
                             "本次操作需要" + String.join(", ", needScopes) + "权限。"
             );
-            AsyncUtil.execute(() -> environment.getMessageSender().sendMessageAwait(context, message, (sent, reply) -> {
+            AsyncUtil.execute(context, environment, () -> environment.getMessageSender().sendMessageAwait(context, message, (sent, reply) -> {
                 String token = MessageUtil.getFirstText(reply);
                 if (token != null && !token.equalsIgnoreCase("N"))
-                    AsyncUtil.execute(() -> operation.accept(token));
+                    AsyncUtil.execute("github", context, environment, () -> operation.accept(token));
                 else
                     environment.getMessageSender().sendMessage(context, environment.newText("已取消授权"));
             }));
@@ -5,6 +5,7 @@ import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.module.KoishiBotModule;
 import io.github.nickid2018.koishibot.util.DataReader;
 import io.github.nickid2018.koishibot.util.GroupDataReader;
+import io.github.nickid2018.koishibot.util.storage.Codec;
 import io.github.nickid2018.koishibot.util.value.MutableBoolean;
 import io.github.nickid2018.koishibot.util.web.ErrorCodeException;
 import io.github.nickid2018.koishibot.util.web.WebUtil;
@@ -14,8 +15,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.*;
 
 public class GitHubModule extends KoishiBotModule {
@@ -40,12 +39,8 @@ public class GitHubModule extends KoishiBotModule {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void onStartInternal() throws IOException {
-        groupData = new GroupDataReader<>("github",
-                reader -> (Set<String>) new ObjectInputStream(reader).readObject(),
-                (writer, data) -> new ObjectOutputStream(writer).writeObject(data),
-                HashSet::new);
+        groupData = new GroupDataReader<>("github", Codec.setOf(Codec.STRING), HashSet::new);
         groupData.loadAll();
 
         webHookListener = new GitHubWebHookListener(
@@ -70,6 +65,11 @@ public class GitHubModule extends KoishiBotModule {
     public void onTerminateInternal() {
     }
 
+    @Override
+    public int getStartupCost() {
+        return 10;
+    }
+
     @Override
     public String getDescription() {
         return "GitHub相关模块";
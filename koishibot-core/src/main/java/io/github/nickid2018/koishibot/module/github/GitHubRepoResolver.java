@@ -28,6 +28,7 @@ import java.util.Objects;
 public class GitHubRepoResolver extends MessageResolver {
 
     public static final String GITHUB_API = "https://api.github.com/";
+    public static final long CACHE_TTL = 60_000;
 
     public GitHubRepoResolver() {
         super("~github repo");
@@ -38,7 +39,7 @@ public class GitHubRepoResolver extends MessageResolver {
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         key = key.trim();
         String[] data = key.split(" ");
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("github", context, environment, () -> {
             try {
                 if (data.length == 1)
                     doRepoInfoGet(data[0], context, environment);
@@ -84,7 +85,7 @@ public class GitHubRepoResolver extends MessageResolver {
     private void doRepoIssueGet(String repo, String issue, MessageContext context, DelegateEnvironment environment) throws IOException {
         HttpGet get = new HttpGet(GITHUB_API + "repos/" + repo + "/issues/" + issue);
         GitHubModule.INSTANCE.getAuthenticator().acceptGitHubJSON(get);
-        JsonObject object = WebUtil.fetchDataInJson(get).getAsJsonObject();
+        JsonObject object = WebUtil.fetchDataInJsonCached(get, CACHE_TTL).getAsJsonObject();
 
         StringBuilder builder = new StringBuilder();
         builder.append(repo).append(" #").append(issue).append("\n");
@@ -136,7 +137,7 @@ public class GitHubRepoResolver extends MessageResolver {
             return;
 
         String[] split = command.split(" ", 2);
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("github", context, environment, () -> {
             switch (split[0].toLowerCase(Locale.ROOT)) {
                 case "~star" -> doAuthenticatedOperation(new HttpPut("https://api.github.com/user/starred/" + repo),
                         environment, context, WebUtil::sendReturnNoContent,
@@ -157,7 +158,7 @@ public class GitHubRepoResolver extends MessageResolver {
             return;
 
         String[] split = command.split(" ", 2);
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("github", context, environment, () -> {
             switch (split[0].toLowerCase(Locale.ROOT)) {
                 case "~comment" -> {
                     if (split.length != 2)
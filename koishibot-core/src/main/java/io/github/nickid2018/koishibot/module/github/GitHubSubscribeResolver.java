@@ -38,7 +38,7 @@ public class GitHubSubscribeResolver extends MessageResolver {
     }
 
     private void addRepo(String repo, MessageContext context, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("github", context, environment, () -> {
             try {
                 GitHubModule.INSTANCE.addRepo(context.group().getGroupId(), repo);
                 environment.getMessageSender().sendMessage(context, environment.newText("已添加仓库"));
@@ -49,7 +49,7 @@ public class GitHubSubscribeResolver extends MessageResolver {
     }
 
     private void removeRepo(String repo, MessageContext context, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("github", context, environment, () -> {
             try {
                 GitHubModule.INSTANCE.removeRepo(context.group().getGroupId(), repo);
                 environment.getMessageSender().sendMessage(context, environment.newText("已移除仓库"));
@@ -16,6 +16,7 @@ import io.github.nickid2018.koishibot.server.ServerManager;
 import io.github.nickid2018.koishibot.util.DataReader;
 import io.github.nickid2018.koishibot.util.GroupDataReader;
 import io.github.nickid2018.koishibot.util.JsonUtil;
+import io.github.nickid2018.koishibot.util.storage.Codec;
 import io.github.nickid2018.koishibot.util.web.WebUtil;
 import org.apache.commons.io.IOUtils;
 import org.apache.hc.client5.http.classic.methods.HttpDelete;
@@ -60,7 +61,7 @@ public class GitHubWebHookListener implements HttpHandler {
 
     protected GitHubWebHookListener(File webhookData, GroupDataReader<Set<String>> groupData) throws IOException {
         this.groupData = groupData;
-        webHooks = new DataReader<>(webhookData, HashMap::new);
+        webHooks = new DataReader<>(webhookData, Codec.mapOf(Codec.STRING, Codec.INT), HashMap::new);
         ServerManager.addHandle("/github", this);
     }
 
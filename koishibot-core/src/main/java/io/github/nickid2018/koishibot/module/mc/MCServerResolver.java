@@ -35,7 +35,7 @@ public class MCServerResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("mc", context, environment, () -> {
             String[] split = key.split(" ");
             String addr;
             boolean je = true;
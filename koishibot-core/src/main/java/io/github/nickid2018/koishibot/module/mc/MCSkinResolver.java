@@ -25,7 +25,7 @@ public class MCSkinResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("mc", context, environment, () -> {
             JsonObject object;
             try {
                 object = WebUtil.fetchDataInJson(new HttpGet(
@@ -7,13 +7,13 @@ import io.github.nickid2018.koishibot.message.api.UserInfo;
 import io.github.nickid2018.koishibot.module.KoishiBotModule;
 import io.github.nickid2018.koishibot.util.DataReader;
 import io.github.nickid2018.koishibot.util.GroupDataReader;
+import io.github.nickid2018.koishibot.util.storage.Codec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.stream.Stream;
@@ -24,6 +24,22 @@ public class MCChatBridgeModule extends KoishiBotModule {
 
     public static MCChatBridgeModule INSTANCE;
 
+    // Keeps resolved addresses resolved without a DNS lookup, so they still equal the ones in the settings
+    private static final Codec<InetSocketAddress> ADDRESS_CODEC = Codec.of((output, address) -> {
+        output.writeUTF(address.getHostString());
+        output.writeShort(address.getPort());
+        byte[] raw = address.isUnresolved() ? new byte[0] : address.getAddress().getAddress();
+        output.writeByte(raw.length);
+        output.write(raw);
+    }, input -> {
+        String host = input.readUTF();
+        int port = input.readUnsignedShort();
+        byte[] raw = new byte[input.readUnsignedByte()];
+        input.readFully(raw);
+        return raw.length == 0 ? InetSocketAddress.createUnresolved(host, port) :
+                new InetSocketAddress(InetAddress.getByAddress(host, raw), port);
+    });
+
     private GroupDataReader<Set<InetSocketAddress>> groupChatBridges;
     private DataReader<Set<ChatBridgeSetting>> settings;
 
@@ -92,12 +108,8 @@ public class MCChatBridgeModule extends KoishiBotModule {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public void onStartInternal() throws Exception {
-        groupChatBridges = new GroupDataReader<>("mcchat",
-                reader -> (Set<InetSocketAddress>) new ObjectInputStream(reader).readObject(),
-                (writer, data) -> new ObjectOutputStream(writer).writeObject(data),
-                HashSet::new);
+        groupChatBridges = new GroupDataReader<>("mcchat", Codec.setOf(ADDRESS_CODEC), HashSet::new);
         groupChatBridges.loadAll();
 
         settings = new DataReader<>(new File(groupChatBridges.getFolder(), "chat.settings"), HashSet::new);
@@ -124,6 +136,11 @@ public class MCChatBridgeModule extends KoishiBotModule {
     public void onTerminateInternal() {
     }
 
+    @Override
+    public int getStartupCost() {
+        return 10;
+    }
+
     @Override
     public String getDescription() {
         return "MC聊天连接相关模块";
@@ -38,7 +38,7 @@ public class MCChatBridgeServerResolver extends MessageResolver {
             return false;
         if (!split[0].equalsIgnoreCase("add") && !split[0].equalsIgnoreCase("del"))
             return false;
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("mc", context, environment, () -> {
             try {
                 HostAndPort hostAndPort = HostAndPort.fromString(split[1]);
                 InetSocketAddress addr = new InetSocketAddress(hostAndPort.getHost(), hostAndPort.getPort());
@@ -30,7 +30,7 @@ public class MusicInfoResolver extends MessageResolver {
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         try {
             int id = Integer.parseInt(key);
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute("music", context, environment, () -> {
                 try {
                     Optional<JsonObject> data = NeteaseMusicProtocol.getMusicInfo(id);
                     if (data.isPresent()) {
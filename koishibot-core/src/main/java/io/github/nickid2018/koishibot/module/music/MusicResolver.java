@@ -5,12 +5,11 @@ import io.github.nickid2018.koishibot.message.*;
 import io.github.nickid2018.koishibot.message.api.MessageContext;
 import io.github.nickid2018.koishibot.permission.PermissionLevel;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
+import io.github.nickid2018.koishibot.util.AudioChunks;
 import io.github.nickid2018.koishibot.util.Pair;
 
-import java.io.File;
 import java.net.URL;
 import java.util.Optional;
-import java.util.concurrent.Future;
 
 @ResolverName("music")
 @Syntax(syntax = "~music [网易云音乐ID]", help = "播放网易云音乐")
@@ -29,7 +28,7 @@ public class MusicResolver extends MessageResolver {
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         try {
             int id = Integer.parseInt(key);
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute("music", context, environment, () -> {
                 try {
                     Optional<JsonObject> data = NeteaseMusicProtocol.getMusicInfo(id);
                     if (data.isPresent()) {
@@ -37,7 +36,7 @@ public class MusicResolver extends MessageResolver {
                         String url = NeteaseMusicProtocol.getMusicDataURL(id);
                         Pair<String, URL> pair = MusicInfoResolver.getMusicInfo(obj);
                         if (url != null) {
-                            Future<File[]> fileToSend = environment.parseAudioFile("mp3", new URL(url));
+                            AudioChunks fileToSend = environment.parseAudioFile("mp3", new URL(url), "netease:" + id);
                             environment.getMessageSender().sendMessage(context, environment.newChain(
                                     environment.newText(pair.first()),
                                     environment.newText("\n(源URL: " + url + ")"),
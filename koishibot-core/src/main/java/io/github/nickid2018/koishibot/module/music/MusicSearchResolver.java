@@ -27,7 +27,7 @@ public class MusicSearchResolver extends MessageResolver {
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         if (!key.isEmpty()) {
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute("music", context, environment, () -> {
                 try {
                     JsonObject obj = NeteaseMusicProtocol.searchMusic(key);
                     StringBuilder builder = new StringBuilder();
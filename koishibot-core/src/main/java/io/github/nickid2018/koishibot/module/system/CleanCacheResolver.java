@@ -27,7 +27,7 @@ public class CleanCacheResolver extends MessageResolver {
         if (!key.isEmpty())
             return false;
         TempFileSystem.cleanCache();
-        AsyncUtil.execute(() -> environment.getMessageSender().sendMessage(context, environment.newText("缓存已清空")));
+        AsyncUtil.execute(context, environment, () -> environment.getMessageSender().sendMessage(context, environment.newText("缓存已清空")));
         return true;
     }
 }
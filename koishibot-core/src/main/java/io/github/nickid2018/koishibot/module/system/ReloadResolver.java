@@ -24,7 +24,7 @@ public class ReloadResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute(context, environment, () -> {
             try {
                 for (String name : ModuleManager.getModuleNames())
                     ModuleManager.reload(name);
@@ -27,7 +27,7 @@ public class RuntimeArgResolver extends MessageResolver {
         if (split.length != 2)
             return false;
         System.setProperty(split[0], split[1]);
-        AsyncUtil.execute(() -> environment.getMessageSender().sendMessage(context, environment.newText("设置成功。")));
+        AsyncUtil.execute(context, environment, () -> environment.getMessageSender().sendMessage(context, environment.newText("设置成功。")));
         return true;
     }
 }
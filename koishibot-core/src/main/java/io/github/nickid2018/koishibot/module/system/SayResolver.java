@@ -23,7 +23,7 @@ public class SayResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> environment.getMessageSender().sendMessage(context, environment.newText(key)));
+        AsyncUtil.execute(context, environment, () -> environment.getMessageSender().sendMessage(context, environment.newText(key)));
         return true;
     }
 }
@@ -6,7 +6,8 @@ import io.github.nickid2018.koishibot.permission.PermissionLevel;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
 
 @ResolverName("stopmusicqueue")
-@Syntax(syntax = "~stopmusic", help = "停止播放音乐")
+@Syntax(syntax = "~stopmusic", help = "停止播放本群的音乐并清空队列")
+@Syntax(syntax = "~stopmusic skip", help = "跳过本群正在播放的音乐")
 public class StopMusicQueueResolver extends MessageResolver {
 
     public StopMusicQueueResolver() {
@@ -20,15 +21,15 @@ public class StopMusicQueueResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AudioSender.PAUSE_FLAG.set(true);
-        AsyncUtil.execute(() -> {
-            environment.getMessageSender().sendMessage(context, environment.newText("已暂停播放"));
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException ignored) {
-            }
-            AudioSender.PAUSE_FLAG.set(false);
-        });
+        key = key.trim();
+        String reply;
+        if (key.isEmpty())
+            reply = AudioSender.stop(context, environment) ? "已停止播放" : "当前没有正在播放的音乐";
+        else if (key.equalsIgnoreCase("skip"))
+            reply = AudioSender.skip(context, environment) ? "已跳过当前音乐" : "当前没有正在播放的音乐";
+        else
+            return false;
+        AsyncUtil.execute(context, environment, () -> environment.getMessageSender().sendMessage(context, environment.newText(reply)));
         return true;
     }
 }
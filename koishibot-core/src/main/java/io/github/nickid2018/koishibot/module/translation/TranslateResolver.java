@@ -25,7 +25,7 @@ public class TranslateResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("translate", context, environment, () -> {
             String[] splits = key.split(":", 3);
             String from = null, to = null;
             if (!splits[1].isEmpty()) {
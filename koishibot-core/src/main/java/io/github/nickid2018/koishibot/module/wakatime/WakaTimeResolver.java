@@ -41,7 +41,7 @@ public class WakaTimeResolver extends MessageResolver {
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         key = key.trim();
         if (key.isEmpty()) {
-            WakaTimeModule.INSTANCE.getAuthenticator().authenticate(context.user().getUserId(),
+            boolean accepted = WakaTimeModule.INSTANCE.getAuthenticator().authenticate(context.user().getUserId(),
                     str -> environment.getMessageSender().sendMessage(context, environment.newText("请点击链接授权：\n" + str)),
                     accessToken -> {
                         try {
@@ -80,12 +80,14 @@ public class WakaTimeResolver extends MessageResolver {
                             environment.getMessageSender().onError(e, "wakatime", context, false);
                         }
                     }, List.of("read_stats"), Map.of());
+            if (!accepted)
+                environment.getMessageSender().sendMessage(context, environment.newText(AsyncUtil.BUSY_MESSAGE));
             return true;
         } else if (key.equalsIgnoreCase("revoke")) {
             OAuth2Authenticator authenticator = WakaTimeModule.INSTANCE.getAuthenticator();
             if (authenticator.authenticated(context.user().getUserId())) {
-                authenticator.revoke(context.user().getUserId());
-                environment.getMessageSender().sendMessage(context, environment.newText("已撤销对此bot的授权"));
+                environment.getMessageSender().sendMessage(context, environment.newText(
+                        authenticator.revoke(context.user().getUserId()) ? "已撤销对此bot的授权" : AsyncUtil.BUSY_MESSAGE));
             } else
                 environment.getMessageSender().sendMessage(context, environment.newText("用户未授权"));
             return true;
@@ -96,7 +98,7 @@ public class WakaTimeResolver extends MessageResolver {
             formatSummary("https://wakatime.com/api/v1/users/current/summaries?range=Yesterday", context, environment);
             return true;
         } else if (key.equalsIgnoreCase("tomorrow")) {
-            AsyncUtil.execute(() -> environment.getMessageSender().sendMessage(
+            AsyncUtil.execute(context, environment, () -> environment.getMessageSender().sendMessage(
                     context, environment.newText("你明天的编程时间为：\n11 hrs 45 mins 14 secs！")));
             return true;
         } else {
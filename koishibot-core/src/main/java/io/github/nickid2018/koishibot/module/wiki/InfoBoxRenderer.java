@@ -0,0 +1,557 @@
+package io.github.nickid2018.koishibot.module.wiki;
+
+import io.github.nickid2018.koishibot.util.ImageRenderer;
+import io.github.nickid2018.koishibot.util.web.WebUtil;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.core5.util.Timeout;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.LineBreakMeasurer;
+import java.awt.font.TextAttribute;
+import java.awt.font.TextLayout;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.List;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Draws plain table infoboxes with Java2D, anything outside the supported markup is left to the browser
+public class InfoBoxRenderer {
+
+    public static final Logger INFOBOX_LOGGER = LoggerFactory.getLogger("Infobox Renderer");
+
+    private static final int MAX_WIDTH = 640;
+    private static final int MAX_CELL_WIDTH = MAX_WIDTH * 2 / 3;
+    private static final int MAX_HEIGHT = 8000;
+    private static final int MAX_COLUMNS = 4;
+    private static final int MAX_ROWS = 120;
+    private static final int MAX_IMAGES = 32;
+    private static final int MIN_COLUMN = 48;
+    private static final int PADDING = 6;
+    private static final int BLOCK_GAP = 2;
+    private static final float FONT_SIZE = 15f;
+    private static final long IMAGE_TIMEOUT = 5000;
+
+    private static final Color TEXT = new Color(32, 33, 34);
+    private static final Color LINK = new Color(51, 102, 204);
+    private static final Color BORDER = new Color(162, 169, 177);
+    private static final Color HEADER = new Color(234, 236, 240);
+    private static final Color TABLE = new Color(248, 249, 250);
+
+    private static final Pattern BACKGROUND = Pattern.compile(
+            "background(?:-color)?\\s*:\\s*(#[0-9a-f]{3,6}|rgba?\\([^)]*\\))", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TEXT_ALIGN = Pattern.compile(
+            "text-align\\s*:\\s*(left|center|right)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern DISPLAY_NONE = Pattern.compile(
+            "display\\s*:\\s*none", Pattern.CASE_INSENSITIVE);
+
+    private static final FontRenderContext FRC = new FontRenderContext(new AffineTransform(), true, true);
+
+    // Returns null when the infobox needs a real browser
+    public static BufferedImage render(Element infobox, String baseURI, Map<String, String> headers) {
+        if (ImageRenderer.IMAGE_FONT == null)
+            return null;
+        long start = System.currentTimeMillis();
+        Table table;
+        try {
+            table = parseTable(unwrap(infobox), new URL(baseURI), headers);
+        } catch (UnsupportedMarkupException | MalformedURLException e) {
+            INFOBOX_LOGGER.debug("Infobox is left to the browser: {}", e.getMessage());
+            return null;
+        }
+        try {
+            CompletableFuture.allOf(table.pictures.stream().map(picture -> picture.data).toArray(CompletableFuture[]::new))
+                    .get(IMAGE_TIMEOUT, TimeUnit.MILLISECONDS);
+            for (Picture picture : table.pictures) {
+                picture.image = ImageIO.read(new ByteArrayInputStream(picture.data.join()));
+                if (picture.image == null)
+                    throw new IOException("Unsupported image format: " + picture.url);
+            }
+        } catch (Exception e) {
+            table.pictures.forEach(picture -> picture.data.cancel(true));
+            INFOBOX_LOGGER.debug("Infobox images are unavailable, leaving it to the browser.", e);
+            return null;
+        }
+        BufferedImage image = draw(table);
+        if (image != null)
+            INFOBOX_LOGGER.info("Rendered an infobox in {} ms.", System.currentTimeMillis() - start);
+        return image;
+    }
+
+    private static Element unwrap(Element element) {
+        while (!element.normalName().equals("table") && element.children().size() == 1 &&
+                element.ownText().isBlank())
+            element = element.child(0);
+        return element;
+    }
+
+    private static Table parseTable(Element element, URL base, Map<String, String> headers)
+            throws UnsupportedMarkupException {
+        if (!element.normalName().equals("table"))
+            throw new UnsupportedMarkupException("not a table: " + element.normalName());
+        Table table = new Table(Objects.requireNonNullElse(color(element), TABLE), base, headers);
+        for (Element child : element.children()) {
+            switch (child.normalName()) {
+                case "caption" -> {
+                    Cell caption = new Cell(0, null, ImageRenderer.Alignment.CENTER);
+                    walk(child, Style.PLAIN.withBold(), caption, table);
+                    caption.flush();
+                    table.rows.add(List.of(caption));
+                }
+                case "thead", "tbody", "tfoot" -> {
+                    for (Element row : child.children())
+                        parseRow(row, table);
+                }
+                case "colgroup" -> {
+                }
+                default -> parseRow(child, table);
+            }
+        }
+        if (table.rows.size() > MAX_ROWS)
+            throw new UnsupportedMarkupException("too many rows");
+        return table;
+    }
+
+    private static void parseRow(Element row, Table table) throws UnsupportedMarkupException {
+        if (!row.normalName().equals("tr"))
+            throw new UnsupportedMarkupException("unexpected " + row.normalName() + " in table");
+        if (isHidden(row))
+            return;
+        Color rowBackground = color(row);
+        ImageRenderer.Alignment rowAlign = alignment(row);
+        List<Cell> cells = new ArrayList<>();
+        for (Element element : row.children()) {
+            boolean header = element.normalName().equals("th");
+            if (!header && !element.normalName().equals("td"))
+                throw new UnsupportedMarkupException("unexpected " + element.normalName() + " in row");
+            if (intAttr(element, "rowspan", 1) > 1)
+                throw new UnsupportedMarkupException("rowspan");
+            if (isHidden(element))
+                continue;
+            Color background = color(element);
+            ImageRenderer.Alignment align = alignment(element);
+            background = background == null ? rowBackground : background;
+            align = align == null ? rowAlign : align;
+            Cell cell = new Cell(Math.max(1, intAttr(element, "colspan", 1)),
+                    background == null && header ? HEADER : background,
+                    align == null ? header ? ImageRenderer.Alignment.CENTER : ImageRenderer.Alignment.LEFT : align);
+            walk(element, header ? Style.PLAIN.withBold() : Style.PLAIN, cell, table);
+            cell.flush();
+            cells.add(cell);
+        }
+        if (!cells.isEmpty())
+            table.rows.add(cells);
+    }
+
+    private static void walk(Element parent, Style style, Cell cell, Table table) throws UnsupportedMarkupException {
+        for (Node node : parent.childNodes()) {
+            if (node instanceof TextNode text) {
+                cell.append(text.getWholeText(), style);
+                continue;
+            }
+            if (!(node instanceof Element element) || isHidden(element))
+                continue;
+            switch (element.normalName()) {
+                case "br" -> cell.flush();
+                case "img" -> cell.picture(picture(element, table));
+                case "p", "div", "center", "ul", "ol" -> {
+                    cell.flush();
+                    walk(element, style, cell, table);
+                    cell.flush();
+                }
+                case "li" -> {
+                    cell.flush();
+                    cell.append("• ", style);
+                    walk(element, style, cell, table);
+                    cell.flush();
+                }
+                case "b", "strong" -> walk(element, style.withBold(), cell, table);
+                case "i", "em" -> walk(element, style.withItalic(), cell, table);
+                case "a" -> walk(element, style.withLink(), cell, table);
+                case "s", "del" -> walk(element, style.withStrike(), cell, table);
+                case "u", "ins" -> walk(element, style.withUnderline(), cell, table);
+                case "small" -> walk(element, style.withScale(0.85f), cell, table);
+                case "big" -> walk(element, style.withScale(1.2f), cell, table);
+                case "sup" -> walk(element, style.withScript(TextAttribute.SUPERSCRIPT_SUPER), cell, table);
+                case "sub" -> walk(element, style.withScript(TextAttribute.SUPERSCRIPT_SUB), cell, table);
+                case "span", "abbr", "code", "font", "bdi", "time", "wbr" -> walk(element, style, cell, table);
+                default -> throw new UnsupportedMarkupException("unsupported tag " + element.normalName());
+            }
+        }
+    }
+
+    private static Picture picture(Element element, Table table) throws UnsupportedMarkupException {
+        // Lazy-loading skins keep the real source aside and a placeholder in src
+        String source = element.hasAttr("data-src") ? element.attr("data-src") : element.attr("src");
+        if (source.isEmpty() || source.startsWith("data:"))
+            throw new UnsupportedMarkupException("inline image");
+        if (table.pictures.size() >= MAX_IMAGES)
+            throw new UnsupportedMarkupException("too many images");
+        String url;
+        try {
+            url = new URL(table.base, source).toString();
+        } catch (MalformedURLException e) {
+            throw new UnsupportedMarkupException("bad image url " + source);
+        }
+        SimpleHttpRequest request = SimpleRequestBuilder.get(url).build();
+        table.headers.forEach(request::setHeader);
+        // Cancelling is not always seen by an exchange already in flight, a stalled download still ends here
+        request.setConfig(RequestConfig.custom().setResponseTimeout(Timeout.ofMilliseconds(IMAGE_TIMEOUT)).build());
+        Picture picture = new Picture(url, WebUtil.fetchDataInBytesAsync(request),
+                intAttr(element, "width", -1), intAttr(element, "height", -1));
+        table.pictures.add(picture);
+        return picture;
+    }
+
+    private static BufferedImage draw(Table table) {
+        int columns = 0;
+        for (List<Cell> row : table.rows)
+            columns = Math.max(columns, row.stream().mapToInt(cell -> cell.colspan).sum());
+        if (columns == 0)
+            return null;
+        if (columns > MAX_COLUMNS) {
+            INFOBOX_LOGGER.debug("Infobox has {} columns, leaving it to the browser.", columns);
+            return null;
+        }
+
+        for (List<Cell> row : table.rows) {
+            int column = 0;
+            for (Cell cell : row) {
+                cell.column = column;
+                cell.colspan = cell.colspan == 0 ? columns : Math.min(cell.colspan, columns - column);
+                column += cell.colspan;
+            }
+        }
+
+        int[] widths = new int[columns];
+        Arrays.fill(widths, MIN_COLUMN);
+        for (List<Cell> row : table.rows)
+            for (Cell cell : row)
+                if (cell.colspan == 1)
+                    widths[cell.column] = Math.max(widths[cell.column], Math.min(cell.preferredWidth(), MAX_CELL_WIDTH));
+        for (List<Cell> row : table.rows)
+            for (Cell cell : row) {
+                if (cell.colspan <= 1)
+                    continue;
+                int current = 0;
+                for (int i = cell.column; i < cell.column + cell.colspan; i++)
+                    current += widths[i];
+                int extra = Math.min(cell.preferredWidth(), MAX_WIDTH) - current;
+                for (int i = cell.column; extra > 0 && i < cell.column + cell.colspan; i++)
+                    widths[i] += extra / cell.colspan + (i == cell.column ? extra % cell.colspan : 0);
+            }
+        int total = Arrays.stream(widths).sum();
+        if (total > MAX_WIDTH)
+            for (int i = 0; i < columns; i++)
+                widths[i] = Math.max(MIN_COLUMN, widths[i] * MAX_WIDTH / total);
+
+        int[] offsets = new int[columns + 1];
+        for (int i = 0; i < columns; i++)
+            offsets[i + 1] = offsets[i] + widths[i];
+        int[] heights = new int[table.rows.size()];
+        for (int i = 0; i < heights.length; i++)
+            for (Cell cell : table.rows.get(i))
+                heights[i] = Math.max(heights[i], cell.layout(offsets[cell.column + cell.colspan] - offsets[cell.column]));
+        int height = Arrays.stream(heights).sum();
+        if (height > MAX_HEIGHT) {
+            INFOBOX_LOGGER.debug("Infobox is too tall, leaving it to the browser.");
+            return null;
+        }
+
+        BufferedImage image = new BufferedImage(offsets[columns] + 1, height + 1, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2 = image.createGraphics();
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_FRACTIONALMETRICS, RenderingHints.VALUE_FRACTIONALMETRICS_ON);
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2.setColor(table.background);
+        g2.fillRect(0, 0, image.getWidth(), image.getHeight());
+
+        int top = 0;
+        for (int i = 0; i < heights.length; i++) {
+            for (Cell cell : table.rows.get(i)) {
+                int left = offsets[cell.column];
+                int width = offsets[cell.column + cell.colspan] - left;
+                if (cell.background != null) {
+                    g2.setColor(cell.background);
+                    g2.fillRect(left, top, width, heights[i]);
+                }
+                int y = top + (heights[i] - cell.height) / 2 + PADDING;
+                for (Placed placed : cell.placed) {
+                    int x = left + cell.align.compute(width, placed.width, PADDING);
+                    if (placed.text != null)
+                        placed.text.draw(g2, x, y + placed.text.getAscent());
+                    else
+                        g2.drawImage(placed.image, x, y, placed.width, placed.height, null);
+                    y += placed.height + BLOCK_GAP;
+                }
+                g2.setColor(BORDER);
+                g2.drawRect(left, top, width, heights[i]);
+            }
+            top += heights[i];
+        }
+        g2.dispose();
+        return image;
+    }
+
+    private static boolean isHidden(Element element) {
+        return element.hasAttr("hidden") || DISPLAY_NONE.matcher(element.attr("style")).find();
+    }
+
+    private static int intAttr(Element element, String name, int other) {
+        try {
+            return Integer.parseInt(element.attr(name).trim());
+        } catch (NumberFormatException e) {
+            return other;
+        }
+    }
+
+    private static ImageRenderer.Alignment alignment(Element element) {
+        Matcher matcher = TEXT_ALIGN.matcher(element.attr("style"));
+        String value = matcher.find() ? matcher.group(1) : element.attr("align");
+        return switch (value.toLowerCase(Locale.ROOT)) {
+            case "left" -> ImageRenderer.Alignment.LEFT;
+            case "center" -> ImageRenderer.Alignment.CENTER;
+            case "right" -> ImageRenderer.Alignment.RIGHT;
+            default -> null;
+        };
+    }
+
+    private static Color color(Element element) {
+        Matcher matcher = BACKGROUND.matcher(element.attr("style"));
+        String value = matcher.find() ? matcher.group(1) : element.attr("bgcolor").trim();
+        try {
+            if (value.startsWith("#")) {
+                String hex = value.substring(1);
+                if (hex.length() == 3)
+                    hex = "" + hex.charAt(0) + hex.charAt(0) + hex.charAt(1) + hex.charAt(1) + hex.charAt(2) + hex.charAt(2);
+                return hex.length() == 6 ? new Color(Integer.parseInt(hex, 16)) : null;
+            }
+            if (value.startsWith("rgb")) {
+                String[] parts = value.substring(value.indexOf('(') + 1, value.indexOf(')')).split(",");
+                return new Color(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()),
+                        Integer.parseInt(parts[2].trim()));
+            }
+        } catch (RuntimeException ignored) {
+        }
+        return null;
+    }
+
+    private static class UnsupportedMarkupException extends Exception {
+
+        private static final long serialVersionUID = 1L;
+
+        private UnsupportedMarkupException(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private static class Table {
+
+        private final List<List<Cell>> rows = new ArrayList<>();
+        private final List<Picture> pictures = new ArrayList<>();
+        private final Color background;
+        private final URL base;
+        private final Map<String, String> headers;
+
+        private Table(Color background, URL base, Map<String, String> headers) {
+            this.background = background;
+            this.base = base;
+            this.headers = headers;
+        }
+    }
+
+    private static class Picture {
+
+        private final String url;
+        private final CompletableFuture<byte[]> data;
+        private final int width;
+        private final int height;
+        private BufferedImage image;
+
+        private Picture(String url, CompletableFuture<byte[]> data, int width, int height) {
+            this.url = url;
+            this.data = data;
+            this.width = width;
+            this.height = height;
+        }
+
+        // Declared size wins, as in the browser, and the image shrinks to fit the cell
+        private int displayWidth(int available) {
+            int width = this.width > 0 ? this.width :
+                    this.height > 0 ? image.getWidth() * this.height / Math.max(1, image.getHeight()) : image.getWidth();
+            return Math.max(1, Math.min(width, available));
+        }
+
+        private int displayHeight(int displayWidth) {
+            if (this.width > 0 && this.height > 0 && displayWidth == this.width)
+                return this.height;
+            return Math.max(1, image.getHeight() * displayWidth / Math.max(1, image.getWidth()));
+        }
+    }
+
+    private record Placed(TextLayout text, BufferedImage image, int width, int height) {
+    }
+
+    private record Span(int start, int end, Style style) {
+    }
+
+    private static class Cell {
+
+        private final Color background;
+        private final ImageRenderer.Alignment align;
+        private final List<Object> blocks = new ArrayList<>();
+        private final StringBuilder text = new StringBuilder();
+        private final List<Span> spans = new ArrayList<>();
+        private final List<Placed> placed = new ArrayList<>();
+        private int colspan;
+        private int column;
+        private int height;
+
+        private Cell(int colspan, Color background, ImageRenderer.Alignment align) {
+            this.colspan = colspan;
+            this.background = background;
+            this.align = align;
+        }
+
+        // Collapses whitespace the way the browser does for normal text
+        private void append(String raw, Style style) {
+            int start = text.length();
+            for (int i = 0; i < raw.length(); i++) {
+                char c = raw.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    if (!text.isEmpty() && text.charAt(text.length() - 1) != ' ')
+                        text.append(' ');
+                } else
+                    text.append(c);
+            }
+            if (text.length() > start)
+                spans.add(new Span(start, text.length(), style));
+        }
+
+        private void picture(Picture picture) {
+            flush();
+            blocks.add(picture);
+        }
+
+        private void flush() {
+            int end = text.length();
+            if (end > 0 && text.charAt(end - 1) == ' ')
+                end--;
+            if (end > 0) {
+                AttributedString paragraph = new AttributedString(text.substring(0, end));
+                for (Span span : spans) {
+                    int spanEnd = Math.min(span.end, end);
+                    if (span.start >= spanEnd)
+                        continue;
+                    paragraph.addAttribute(TextAttribute.FONT, span.style.font(), span.start, spanEnd);
+                    paragraph.addAttribute(TextAttribute.FOREGROUND, span.style.link ? LINK : TEXT, span.start, spanEnd);
+                }
+                blocks.add(paragraph);
+            }
+            text.setLength(0);
+            spans.clear();
+        }
+
+        private int preferredWidth() {
+            int width = 0;
+            for (Object block : blocks) {
+                if (block instanceof AttributedString paragraph)
+                    width = Math.max(width, (int) Math.ceil(new TextLayout(paragraph.getIterator(), FRC).getAdvance()));
+                else if (block instanceof Picture picture)
+                    width = Math.max(width, picture.displayWidth(MAX_WIDTH));
+            }
+            return width + PADDING * 2;
+        }
+
+        private int layout(int width) {
+            int available = Math.max(1, width - PADDING * 2);
+            placed.clear();
+            for (Object block : blocks) {
+                if (block instanceof AttributedString paragraph) {
+                    AttributedCharacterIterator iterator = paragraph.getIterator();
+                    LineBreakMeasurer measurer = new LineBreakMeasurer(iterator, FRC);
+                    while (measurer.getPosition() < iterator.getEndIndex()) {
+                        TextLayout line = measurer.nextLayout(available);
+                        placed.add(new Placed(line, null, (int) Math.ceil(line.getAdvance()),
+                                (int) Math.ceil(line.getAscent() + line.getDescent() + line.getLeading())));
+                    }
+                } else if (block instanceof Picture picture) {
+                    int displayWidth = picture.displayWidth(available);
+                    placed.add(new Placed(null, picture.image, displayWidth, picture.displayHeight(displayWidth)));
+                }
+            }
+            height = placed.stream().mapToInt(Placed::height).sum() + Math.max(0, placed.size() - 1) * BLOCK_GAP;
+            if (placed.isEmpty())
+                height = (int) Math.ceil(FONT_SIZE * 1.2f);
+            height += PADDING * 2;
+            return height;
+        }
+    }
+
+    private record Style(boolean bold, boolean italic, boolean link, boolean strike, boolean underline,
+                         float scale, int script) {
+
+        private static final Style PLAIN = new Style(false, false, false, false, false, 1, 0);
+
+        private Style withBold() {
+            return new Style(true, italic, link, strike, underline, scale, script);
+        }
+
+        private Style withItalic() {
+            return new Style(bold, true, link, strike, underline, scale, script);
+        }
+
+        private Style withLink() {
+            return new Style(bold, italic, true, strike, underline, scale, script);
+        }
+
+        private Style withStrike() {
+            return new Style(bold, italic, link, true, underline, scale, script);
+        }
+
+        private Style withUnderline() {
+            return new Style(bold, italic, link, strike, true, scale, script);
+        }
+
+        private Style withScale(float factor) {
+            return new Style(bold, italic, link, strike, underline, scale * factor, script);
+        }
+
+        private Style withScript(int script) {
+            return new Style(bold, italic, link, strike, underline, scale, script);
+        }
+
+        private Font font() {
+            Map<TextAttribute, Object> attributes = new HashMap<>();
+            attributes.put(TextAttribute.SIZE, FONT_SIZE * scale);
+            attributes.put(TextAttribute.WEIGHT, bold ? TextAttribute.WEIGHT_BOLD : TextAttribute.WEIGHT_REGULAR);
+            attributes.put(TextAttribute.POSTURE, italic ? TextAttribute.POSTURE_OBLIQUE : TextAttribute.POSTURE_REGULAR);
+            if (script != 0)
+                attributes.put(TextAttribute.SUPERSCRIPT, script);
+            if (strike)
+                attributes.put(TextAttribute.STRIKETHROUGH, TextAttribute.STRIKETHROUGH_ON);
+            if (underline)
+                attributes.put(TextAttribute.UNDERLINE, TextAttribute.UNDERLINE_ON);
+            return ImageRenderer.IMAGE_FONT.deriveFont(attributes);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package io.github.nickid2018.koishibot.module.wiki;
 
+import io.github.nickid2018.koishibot.util.AudioChunks;
+
 import java.io.File;
 import java.net.URL;
 import java.util.List;
@@ -14,12 +16,30 @@ public class PageInfo {
     public String titlePast;
     public String shortDescription;
     public URL imageURL;
-    public Future<File[]> audioFiles;
+    public AudioChunks audioFiles;
     public Future<File> infobox;
     public boolean isSearched;
     public boolean isRandom;
     public List<String> searchTitles;
 
+    public PageInfo copy() {
+        PageInfo copy = new PageInfo();
+        copy.info = info;
+        copy.prefix = prefix;
+        copy.title = title;
+        copy.url = url;
+        copy.redirected = redirected;
+        copy.titlePast = titlePast;
+        copy.shortDescription = shortDescription;
+        copy.imageURL = imageURL;
+        copy.audioFiles = audioFiles;
+        copy.infobox = infobox;
+        copy.isSearched = isSearched;
+        copy.isRandom = isRandom;
+        copy.searchTitles = searchTitles;
+        return copy;
+    }
+
     public enum RedirectType {
         REDIRECT, NORMALIZED
     }
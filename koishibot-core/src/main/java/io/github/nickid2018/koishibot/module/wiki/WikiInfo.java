@@ -3,10 +3,12 @@ package io.github.nickid2018.koishibot.module.wiki;
 import com.google.gson.*;
 import io.github.nickid2018.koishibot.core.TempFileSystem;
 import io.github.nickid2018.koishibot.message.DelegateEnvironment;
+import io.github.nickid2018.koishibot.util.AsyncUtil;
 import io.github.nickid2018.koishibot.util.FormatTransformer;
 import io.github.nickid2018.koishibot.util.ImageRenderer;
 import io.github.nickid2018.koishibot.util.JsonUtil;
 import io.github.nickid2018.koishibot.util.RegexUtil;
+import io.github.nickid2018.koishibot.util.TinyLfuCache;
 import io.github.nickid2018.koishibot.util.web.WebUtil;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.jsoup.Jsoup;
@@ -23,6 +25,11 @@ import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 public class WikiInfo {
@@ -46,20 +53,33 @@ public class WikiInfo {
     );
     public static final Map<String, WikiInfo> SUPPORT_WIKIS = new HashMap<>();
 
-    private static final Map<String, WikiInfo> STORED_WIKI_INFO = new HashMap<>();
-    private static final Map<WikiInfo, String> STORED_INTERWIKI_SOURCE_URL = new HashMap<>();
+    private static final Map<String, WikiInfo> STORED_WIKI_INFO = new ConcurrentHashMap<>();
+    private static final Map<WikiInfo, String> STORED_INTERWIKI_SOURCE_URL = new ConcurrentHashMap<>();
     public static String BASE_WIKI;
 
+    // Resolved pages keyed by wiki, prefix, title and section; fresh for PAGE_TTL, then served stale while reloading
+    private static final Map<String, CompletableFuture<PageInfo>> PAGE_LOADS = new ConcurrentHashMap<>();
+    private static final TinyLfuCache<String, CachedPage> PAGE_CACHE = new TinyLfuCache<>(512);
+    private static volatile long pageTTL = 60_000;
+    private static volatile long pageStaleTTL = 600_000;
+    private static volatile long metaTTL = 3600_000;
+    private static final long META_FAILURE_TTL = 300_000;
+
     private final Map<String, String> additionalHeaders;
     private final WikiRenderSettings renderSettings;
-    private String url;
+    private volatile String url;
+
+    private volatile boolean available;
+    private volatile boolean useTextExtracts;
+    private volatile String baseURI;
+    private volatile String articleURL;
+    private volatile String script;
+    private volatile Map<String, String> interWikiMap = Map.of();
 
-    private boolean available;
-    private boolean useTextExtracts;
-    private String baseURI;
-    private String articleURL;
-    private String script;
-    private final Map<String, String> interWikiMap = new HashMap<>();
+    private volatile long metaLoadTime;
+    private final AtomicBoolean metaRefreshing = new AtomicBoolean();
+    private IOException metaFailure;
+    private long metaFailureTime;
 
     public WikiInfo(String url) {
         this.url = url;
@@ -82,7 +102,14 @@ public class WikiInfo {
     public static void loadWiki(JsonObject settingsRoot) {
         SUPPORT_WIKIS.clear();
         STORED_WIKI_INFO.clear();
+        STORED_INTERWIKI_SOURCE_URL.clear();
         JsonUtil.getData(settingsRoot, "wiki", JsonObject.class).ifPresent(wikiRoot -> {
+            JsonObject cache = JsonUtil.getData(wikiRoot, "cache", JsonObject.class).orElseGet(JsonObject::new);
+            // Resized in place, a reload keeps the pages already cached
+            PAGE_CACHE.setMaximumSize(JsonUtil.getIntOrElse(cache, "page_size", 512));
+            pageTTL = JsonUtil.getLongOrElse(cache, "page_ttl", 60_000);
+            pageStaleTTL = JsonUtil.getLongOrElse(cache, "page_stale_ttl", 600_000);
+            metaTTL = JsonUtil.getLongOrElse(cache, "meta_ttl", 3600_000);
             JsonObject wikisArray = wikiRoot.getAsJsonObject("wikis");
             for (Map.Entry<String, JsonElement> en : wikisArray.entrySet())
                 if (!SUPPORT_WIKIS.containsKey(en.getKey())) {
@@ -122,69 +149,113 @@ public class WikiInfo {
     }
 
     public void checkAvailable() throws IOException {
-        if (!available) {
-            JsonObject object;
-            String data = checkAndGet(url + WIKI_META);
+        if (available) {
+            // Serve the loaded metadata and refresh it in the background once it gets old
+            if (System.currentTimeMillis() - metaLoadTime > metaTTL && metaRefreshing.compareAndSet(false, true))
+                AsyncUtil.execute("wiki", () -> {
+                    try {
+                        synchronized (this) {
+                            loadMeta();
+                        }
+                    } catch (IOException e) {
+                        WikiPageShooter.WIKI_PAGE_LOGGER.warn("Failed to refresh wiki metadata of {}", url, e);
+                    } finally {
+                        metaRefreshing.set(false);
+                    }
+                });
+            return;
+        }
+        synchronized (this) {
+            if (available)
+                return;
+            long now = System.currentTimeMillis();
+            if (metaFailure != null && now - metaFailureTime < META_FAILURE_TTL)
+                throw new IOException(metaFailure.getMessage(), metaFailure);
+            try {
+                loadMeta();
+                metaFailure = null;
+            } catch (IOException e) {
+                metaFailure = e;
+                metaFailureTime = now;
+                throw e;
+            }
+        }
+    }
+
+    private void loadMeta() throws IOException {
+        JsonObject object;
+        String data = checkAndGet(url + WIKI_META);
+        try {
+            object = JsonParser.parseString(data).getAsJsonObject();
+        } catch (JsonSyntaxException e) {
+            // Not a valid API entrance, try to get the api.php
+            Document doc = Jsoup.parse(data);
+            Elements elements = doc.select("link[rel=EditURI]");
+            if (elements.size() == 0)
+                throw new IOException("无法获取信息，可能网站不是一个MediaWiki或被验证码阻止");
+            String sub = elements.get(0).attr("href");
+            url = sub.substring(0, sub.indexOf("?") + 1);
+            STORED_WIKI_INFO.put(url, this);
+            data = checkAndGet(url + WIKI_META);
             try {
                 object = JsonParser.parseString(data).getAsJsonObject();
-            } catch (JsonSyntaxException e) {
-                // Not a valid API entrance, try to get the api.php
-                Document doc = Jsoup.parse(data);
-                Elements elements = doc.select("link[rel=EditURI]");
-                if (elements.size() == 0)
-                    throw new IOException("无法获取信息，可能网站不是一个MediaWiki或被验证码阻止");
-                String sub = elements.get(0).attr("href");
-                url = sub.substring(0, sub.indexOf("?") + 1);
-                STORED_WIKI_INFO.put(url, this);
-                data = checkAndGet(url + WIKI_META);
-                try {
-                    object = JsonParser.parseString(data).getAsJsonObject();
-                } catch (JsonSyntaxException ex) {
-                    throw new IOException("无法获取信息，可能网站不是一个MediaWiki或被验证码阻止", ex);
-                }
+            } catch (JsonSyntaxException ex) {
+                throw new IOException("无法获取信息，可能网站不是一个MediaWiki或被验证码阻止", ex);
             }
+        }
 
-            JsonUtil.getDataInPath(object, "query.extensions", JsonArray.class).ifPresent(extensions -> {
-                for (JsonElement element : extensions) {
-                    String name = element.getAsJsonObject().get("name").getAsString();
-                    if (name.equals("TextExtracts")) {
-                        useTextExtracts = true;
-                        break;
-                    }
+        boolean textExtracts = JsonUtil.getDataInPath(object, "query.extensions", JsonArray.class)
+                .map(extensions -> {
+                    for (JsonElement element : extensions)
+                        if (element.getAsJsonObject().get("name").getAsString().equals("TextExtracts"))
+                            return true;
+                    return false;
+                }).orElse(false);
+
+        String server = JsonUtil.getStringInPathOrNull(object, "query.general.server");
+        String realURL;
+        if (server != null && server.startsWith("/"))
+            realURL = url.split("/")[0] + server;
+        else
+            realURL = server;
+        String article = realURL + JsonUtil.getStringInPathOrNull(object, "query.general.articlepath");
+        if (article.startsWith("//"))
+            article = "https:" + article;
+        String scriptURL = realURL + JsonUtil.getStringInPathOrNull(object, "query.general.script");
+        if (scriptURL.startsWith("//"))
+            scriptURL = "https:" + scriptURL;
+
+        Map<String, String> interWiki = new ConcurrentHashMap<>();
+        if (!getInterWikiDataFromPage(article, interWiki)) {
+            JsonUtil.getDataInPath(object, "query.interwikiMap", JsonArray.class).ifPresent(interwikiMap -> {
+                for (JsonElement element : interwikiMap) {
+                    JsonObject obj = element.getAsJsonObject();
+                    String url = JsonUtil.getStringOrNull(obj, "url");
+                    String prefix = JsonUtil.getStringOrNull(obj, "prefix");
+                    interWiki.put(prefix, url);
+                    storeInterWiki(url, new HashMap<>());
                 }
             });
+        }
 
-            String server = JsonUtil.getStringInPathOrNull(object, "query.general.server");
-            String realURL;
-            if (server != null && server.startsWith("/"))
-                realURL = url.split("/")[0] + server;
-            else
-                realURL = server;
-            articleURL = realURL + JsonUtil.getStringInPathOrNull(object, "query.general.articlepath");
-            if (articleURL.startsWith("//"))
-                articleURL = "https:" + articleURL;
-            script = realURL + JsonUtil.getStringInPathOrNull(object, "query.general.script");
-            if (script.startsWith("//"))
-                script = "https:" + script;
-            baseURI = "https://" + new URL(articleURL).getHost();
-
-            if (!getInterWikiDataFromPage()) {
-                JsonUtil.getDataInPath(object, "query.interwikiMap", JsonArray.class).ifPresent(interwikiMap -> {
-                    for (JsonElement element : interwikiMap) {
-                        JsonObject obj = element.getAsJsonObject();
-                        String url = JsonUtil.getStringOrNull(obj, "url");
-                        String prefix = JsonUtil.getStringOrNull(obj, "prefix");
-                        interWikiMap.put(prefix, url);
-                        WikiInfo info = new WikiInfo(url.contains("?") ?
-                                url.substring(0, url.lastIndexOf('?') + 1) : url + "?");
-                        STORED_WIKI_INFO.put(url, info);
-                        STORED_INTERWIKI_SOURCE_URL.put(info, url);
-                    }
-                });
-            }
+        useTextExtracts = textExtracts;
+        articleURL = article;
+        script = scriptURL;
+        baseURI = "https://" + new URL(article).getHost();
+        interWikiMap = interWiki;
+        metaLoadTime = System.currentTimeMillis();
+        available = true;
+    }
 
-            available = true;
+    // Keep the known interwiki target so that its metadata survives a refresh of this wiki
+    private void storeInterWiki(String url, Map<String, String> headers) {
+        WikiInfo info = STORED_WIKI_INFO.get(url);
+        if (info == null) {
+            info = new WikiInfo(url.contains("?") ?
+                    url.substring(0, url.lastIndexOf('?') + 1) : url + "?", headers, renderSettings);
+            STORED_WIKI_INFO.put(url, info);
         }
+        STORED_INTERWIKI_SOURCE_URL.put(info, url);
     }
 
     public PageInfo parsePageInfo(String title, int pageID, String prefix, DelegateEnvironment environment) throws Exception {
@@ -217,8 +288,9 @@ public class WikiInfo {
 
         if (title != null && !forceNoInterwiki && title.contains(":")) {
             String namespace = title.split(":")[0];
-            if (interWikiMap.containsKey(namespace)) {
-                WikiInfo skip = STORED_WIKI_INFO.get(interWikiMap.get(namespace));
+            String interWikiURL = interWikiMap.get(namespace);
+            WikiInfo skip = interWikiURL == null ? null : STORED_WIKI_INFO.get(interWikiURL);
+            if (skip != null) {
                 return skip.parsePageInfo(title.split(":", 2)[1], 0,
                         (prefix == null ? "" : prefix + ":") + namespace, environment);
             }
@@ -247,6 +319,16 @@ public class WikiInfo {
                 section = titleSplit[1];
         }
 
+        String finalTitle = title;
+        String finalSection = section;
+        boolean finalTakeFullPage = takeFullPage;
+        String key = url + "\n" + prefix + "\n" + (title == null ? "#" + pageID : normalizeTitle(title)) + "\n" +
+                (takeFullPage ? "#" : section == null ? "" : normalizeTitle(section)) + "\n" + environment.audioSupported();
+        return loadPage(key, () -> queryPage(finalTitle, pageID, prefix, finalSection, finalTakeFullPage, environment)).copy();
+    }
+
+    private PageInfo queryPage(String title, int pageID, String prefix, String section, boolean takeFullPage,
+                               DelegateEnvironment environment) throws Exception {
         JsonObject query;
         String queryFormat = useTextExtracts ? QUERY_PAGE : QUERY_PAGE_NOE;
         try {
@@ -322,7 +404,7 @@ public class WikiInfo {
                     if (SUPPORTED_IMAGE.contains(suffix))
                         pageInfo.imageURL = link;
                     else if (NEED_TRANSFORM_IMAGE.contains(suffix))
-                        pageInfo.imageURL = FormatTransformer.transformImageToPNG(link.openStream(), suffix);
+                        pageInfo.imageURL = FormatTransformer.transformImageToPNG(link, suffix);
                     else if (NEED_TRANSFORM_AUDIO.contains(suffix)) {
                         if (environment.audioSupported()) {
                             pageInfo.shortDescription = "音频信息，将分割后发送";
@@ -340,6 +422,75 @@ public class WikiInfo {
         return pageInfo;
     }
 
+    private static PageInfo loadPage(String key, Callable<PageInfo> loader) throws Exception {
+        CachedPage cached = PAGE_CACHE.get(key);
+        if (cached != null && isReusable(cached.page())) {
+            long age = System.currentTimeMillis() - cached.loadTime();
+            if (age < pageTTL)
+                return cached.page();
+            if (age < pageTTL + pageStaleTTL) {
+                if (!PAGE_LOADS.containsKey(key))
+                    AsyncUtil.execute("wiki", () -> {
+                        try {
+                            loadPageSingleFlight(key, loader);
+                        } catch (Exception e) {
+                            WikiPageShooter.WIKI_PAGE_LOGGER.debug("Failed to refresh cached page {}", key, e);
+                        }
+                    });
+                return cached.page();
+            }
+        }
+        return loadPageSingleFlight(key, loader);
+    }
+
+    private static PageInfo loadPageSingleFlight(String key, Callable<PageInfo> loader) throws Exception {
+        CompletableFuture<PageInfo> mine = new CompletableFuture<>();
+        CompletableFuture<PageInfo> flight = PAGE_LOADS.putIfAbsent(key, mine);
+        if (flight != null) {
+            try {
+                return flight.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        try {
+            long loadTime = System.currentTimeMillis();
+            PageInfo page = loader.call();
+            // Audio conversions belong to the asking environment
+            if (page.audioFiles == null)
+                PAGE_CACHE.put(key, new CachedPage(page, loadTime));
+            mine.complete(page);
+            return page;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            PAGE_LOADS.remove(key, mine);
+        }
+    }
+
+    // Rendered files may have been cleaned from the temp directory meanwhile
+    private static boolean isReusable(PageInfo page) {
+        try {
+            if (page.infobox != null && page.infobox.isDone()) {
+                File file = page.infobox.get();
+                if (file != null && !file.exists())
+                    return false;
+            }
+            return page.imageURL == null || !page.imageURL.getProtocol().equals("file") ||
+                    new File(page.imageURL.toURI()).exists();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String normalizeTitle(String title) {
+        return title.replace('_', ' ').trim().replaceAll("\\s+", " ");
+    }
+
+    private record CachedPage(PageInfo page, long loadTime) {
+    }
+
     private PageInfo random(String prefix, DelegateEnvironment environment) throws Exception {
         JsonObject data = WebUtil.fetchDataInJson(getWithHeader(url + WIKI_RANDOM)).getAsJsonObject();
         PageInfo info = parsePageInfo(Objects.requireNonNull(
@@ -493,10 +644,10 @@ public class WikiInfo {
                 WikiPageShooter.getInfoBoxShot(info.url, baseURI, document, this);
     }
 
-    private boolean getInterWikiDataFromPage() {
+    private boolean getInterWikiDataFromPage(String article, Map<String, String> interWiki) {
         try {
             String data = WebUtil.fetchDataInText(
-                    getWithHeader(articleURL.replace("$1", "Special:Interwiki")));
+                    getWithHeader(article.replace("$1", "Special:Interwiki")));
             Document page = Jsoup.parse(data);
             Elements interWikiSection = page.getElementsByClass("mw-interwikitable-row");
             for (Element entry : interWikiSection) {
@@ -504,11 +655,8 @@ public class WikiInfo {
                 Element urlEntry = entry.getElementsByClass("mw-interwikitable-url").get(0);
                 String prefix = prefixEntry.ownText();
                 String url = urlEntry.ownText();
-                interWikiMap.put(prefix, url);
-                WikiInfo info = new WikiInfo(url.contains("?") ?
-                        url.substring(0, url.lastIndexOf('?') + 1) : url + "?", new HashMap<>(), renderSettings);
-                STORED_WIKI_INFO.put(url, info);
-                STORED_INTERWIKI_SOURCE_URL.put(info, url);
+                interWiki.put(prefix, url);
+                storeInterWiki(url, new HashMap<>());
             }
             return true;
         } catch (Exception ignored) {
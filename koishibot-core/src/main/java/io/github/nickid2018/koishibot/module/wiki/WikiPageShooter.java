@@ -1,7 +1,10 @@
 package io.github.nickid2018.koishibot.module.wiki;
 
 import io.github.nickid2018.koishibot.core.TempFileSystem;
+import io.github.nickid2018.koishibot.util.AsyncUtil;
 import io.github.nickid2018.koishibot.util.RegexUtil;
+import io.github.nickid2018.koishibot.util.func.SupplierE;
+import io.github.nickid2018.koishibot.util.web.RenderCache;
 import io.github.nickid2018.koishibot.util.web.WebPageRenderer;
 import io.github.nickid2018.koishibot.util.web.WebUtil;
 import org.apache.commons.io.IOUtils;
@@ -12,6 +15,7 @@ import org.jsoup.select.Elements;
 import org.openqa.selenium.By;
 import org.openqa.selenium.Dimension;
 import org.openqa.selenium.OutputType;
+import org.openqa.selenium.WebDriver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,6 +29,7 @@ import java.util.LinkedList;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
@@ -45,6 +50,8 @@ public class WikiPageShooter {
             String data;
             try (FileReader reader = new FileReader(buffered)) {
                 data = IOUtils.toString(reader);
+            } finally {
+                TempFileSystem.unlockFile(buffered);
             }
             return Jsoup.parse(data);
         }
@@ -59,6 +66,7 @@ public class WikiPageShooter {
         try (FileWriter writer = new FileWriter(tmp)) {
             IOUtils.write(htmlData, writer);
         }
+        TempFileSystem.unlockFile(tmp);
         Document document = Jsoup.parse(htmlData);
         if (document.getElementById("mw-content-text") == null)
             throw new IOException("将要渲染的页面无效，可能机器人收到了错误的页面。");
@@ -66,39 +74,76 @@ public class WikiPageShooter {
     }
 
     public static Future<File> getInfoBoxShot(String url, String baseURI, WikiInfo info) {
-        if (info.getRenderSettings().enable() && WebPageRenderer.getExecutor() != null)
-            return WebPageRenderer.getExecutor().submit(() -> getInfoBoxShotInternal(url, baseURI, null, info));
-        return null;
+        return schedule(info, WebPageRenderer.Priority.HIGH, false, () -> getInfoBoxShotInternal(url, baseURI, null, info));
     }
 
     public static Future<File> getInfoBoxShot(String url, String baseURI, Document document, WikiInfo info) {
-        if (info.getRenderSettings().enable() && WebPageRenderer.getExecutor() != null)
-            return WebPageRenderer.getExecutor().submit(() -> getInfoBoxShotInternal(url, baseURI, document, info));
-        return null;
+        return schedule(info, WebPageRenderer.Priority.HIGH, false, () -> getInfoBoxShotInternal(url, baseURI, document, info));
     }
 
     public static Future<File> getFullPageShot(String url, String baseURI, WikiInfo info) {
-        if (info.getRenderSettings().enable() && WebPageRenderer.getExecutor() != null)
-            return WebPageRenderer.getExecutor().submit(() -> getFullPageShotInternal(url, baseURI, null, info));
-        return null;
+        return schedule(info, WebPageRenderer.Priority.LOW, true, () -> getFullPageShotInternal(url, baseURI, null, info));
     }
 
     public static Future<File> getFullPageShot(String url, String baseURI, Document document, WikiInfo info) {
-        if (info.getRenderSettings().enable() && WebPageRenderer.getExecutor() != null)
-            return WebPageRenderer.getExecutor().submit(() -> getFullPageShotInternal(url, baseURI, document, info));
-        return null;
+        return schedule(info, WebPageRenderer.Priority.LOW, true, () -> getFullPageShotInternal(url, baseURI, document, info));
     }
 
     public static Future<File> getSectionShot(String url, Document doc, String baseURI, String section, WikiInfo info) {
-        if (info.getRenderSettings().enable() && WebPageRenderer.getExecutor() != null)
-            return WebPageRenderer.getExecutor().submit(() -> getSectionShotInternal(url, doc, baseURI, section, info));
-        return null;
+        return schedule(info, WebPageRenderer.Priority.NORMAL, true, () -> getSectionShotInternal(url, doc, baseURI, section, info));
     }
 
-    private static File getInfoBoxShotInternal(String url, String baseURI, Document doc, WikiInfo info) throws IOException {
+    // Pages are fetched and cleaned off the browser threads, only the screenshot occupies a browser
+    private static Future<File> schedule(WikiInfo info, WebPageRenderer.Priority priority, boolean browserOnly,
+                                         SupplierE<RenderTarget, IOException> prepare) {
+        if (!info.getRenderSettings().enable() || browserOnly && !WebPageRenderer.isAvailable())
+            return null;
+        CompletableFuture<File> future = new CompletableFuture<>();
+        // Kept apart from the wiki lookups, which may wait on these shots
+        boolean accepted = AsyncUtil.execute("wiki.render", () -> {
+            try {
+                RenderTarget target = prepare.get();
+                if (target == null)
+                    future.complete(null);
+                else if (target.html() == null)
+                    complete(future, target.png());
+                else if (RenderCache.fetch(target.key(), target.png())) {
+                    TempFileSystem.unlockFileAndDelete(target.html());
+                    WIKI_PAGE_LOGGER.info("Render cache hit, target={}.", target.png());
+                    complete(future, target.png());
+                } else if (!WebPageRenderer.isAvailable()) {
+                    TempFileSystem.unlockFileAndDelete(target.html());
+                    TempFileSystem.unlockFileAndDelete(target.png());
+                    future.complete(null);
+                } else
+                    WebPageRenderer.submit(priority, driver -> render(driver, target),
+                            () -> TempFileSystem.unlockFileAndDelete(target.html())).whenComplete((file, t) -> {
+                        if (t != null) {
+                            TempFileSystem.unlockFileAndDelete(target.png());
+                            future.completeExceptionally(t);
+                        } else {
+                            RenderCache.store(target.key(), file);
+                            complete(future, file);
+                        }
+                    });
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return accepted ? future : null;
+    }
+
+    // The lease taken while preparing ends here. The future is shared by cached pages,
+    // so whoever sends the file takes a lease of its own with lockFile
+    private static void complete(CompletableFuture<File> future, File png) {
+        TempFileSystem.unlockFile(png);
+        future.complete(png);
+    }
+
+    private static RenderTarget getInfoBoxShotInternal(String url, String baseURI, Document doc, WikiInfo info) throws IOException {
         File data = TempFileSystem.getTmpFileBuffered("infobox", url);
         if (data != null)
-            return data;
+            return RenderTarget.done(data);
         doc = doc == null ? fetchWikiPage(url, info.getAdditionalHeaders()) : doc;
         Element element = null;
         String className = null;
@@ -117,14 +162,23 @@ public class WikiPageShooter {
         } else
             WIKI_PAGE_LOGGER.info("URL {} has an infobox, element class is {}", url, className);
         File png = TempFileSystem.createTmpFileBuffered("infobox", url, "infobox", "png", false);
-        cleanAndRender(baseURI, doc, element, By.className(className), png, info.getRenderSettings());
-        return png;
+        try {
+            BufferedImage image = InfoBoxRenderer.render(element, baseURI, info.getAdditionalHeaders());
+            if (image != null) {
+                ImageIO.write(image, "png", png);
+                return RenderTarget.done(png);
+            }
+            return clean(baseURI, doc, element, By.className(className), png, info.getRenderSettings());
+        } catch (IOException | RuntimeException e) {
+            TempFileSystem.unlockFileAndDelete(png);
+            throw e;
+        }
     }
 
-    private static File getFullPageShotInternal(String url, String baseURI, Document doc, WikiInfo info) throws IOException {
+    private static RenderTarget getFullPageShotInternal(String url, String baseURI, Document doc, WikiInfo info) throws IOException {
         File data = TempFileSystem.getTmpFileBuffered("full", url);
         if (data != null)
-            return data;
+            return RenderTarget.done(data);
         doc = doc == null ? fetchWikiPage(url, info.getAdditionalHeaders()) : doc;
         Element element = doc.getElementById("mw-content-text");
         if (element == null)
@@ -132,15 +186,14 @@ public class WikiPageShooter {
         File png = TempFileSystem.createTmpFileBuffered(
                 "full", url, "full", "png", false);
 
-        cleanAndRender(baseURI, doc, element, By.id("mw-content-text"), png, info.getRenderSettings());
-        WIKI_PAGE_LOGGER.info("Rendered a full page, url = {}.", url);
-        return png;
+        WIKI_PAGE_LOGGER.info("Prepared a full page, url = {}.", url);
+        return cleanOrRelease(baseURI, doc, element, By.id("mw-content-text"), png, info.getRenderSettings());
     }
 
-    private static File getSectionShotInternal(String url, Document doc, String baseURI, String section, WikiInfo info) throws IOException {
+    private static RenderTarget getSectionShotInternal(String url, Document doc, String baseURI, String section, WikiInfo info) throws IOException {
         File data = TempFileSystem.getTmpFileBuffered("section", url + "-" + section);
         if (data != null)
-            return data;
+            return RenderTarget.done(data);
 
         Elements elements = doc.getElementsByClass("mw-headline");
         Element found = null;
@@ -174,13 +227,22 @@ public class WikiPageShooter {
         File png = TempFileSystem.createTmpFileBuffered(
                 "section", url + "-" + section, "section", "png", false);
 
-        cleanAndRender(baseURI, doc, element, By.id("mw-content-text"), png, info.getRenderSettings());
-        WIKI_PAGE_LOGGER.info("Rendered section: {} of {}.", section, url);
-        return png;
+        WIKI_PAGE_LOGGER.info("Prepared section: {} of {}.", section, url);
+        return cleanOrRelease(baseURI, doc, element, By.id("mw-content-text"), png, info.getRenderSettings());
+    }
+
+    private static RenderTarget cleanOrRelease(String baseURI, Document doc, Element element,
+                                               By by, File png, WikiRenderSettings settings) throws IOException {
+        try {
+            return clean(baseURI, doc, element, by, png, settings);
+        } catch (IOException | RuntimeException e) {
+            TempFileSystem.unlockFileAndDelete(png);
+            throw e;
+        }
     }
 
-    private static void cleanAndRender(String baseURI, Document doc, Element element,
-                                       By by, File png, WikiRenderSettings settings) throws IOException {
+    private static RenderTarget clean(String baseURI, Document doc, Element element,
+                                      By by, File png, WikiRenderSettings settings) throws IOException {
         while (!element.equals(doc.body())) {
             Element parent = element.parent();
             for (Element child : parent.children())
@@ -218,20 +280,31 @@ public class WikiPageShooter {
         doc.getElementsByClass("custom-modal").forEach(Element::remove);
         WIKI_PAGE_LOGGER.info("Removed modals, url = {}.", baseURI);
 
+        String content = doc.html();
         File html = TempFileSystem.createTmpFileAndCreate("htm", "html");
         try (Writer writer = new FileWriter(html)) {
-            IOUtils.write(doc.html(), writer);
+            IOUtils.write(content, writer);
         }
-        WebPageRenderer.getDriver().manage().window().setSize(new Dimension(settings.width(), settings.height()));
-        WebPageRenderer.getDriver().get(html.toURI().toURL().toString());
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException ignored) {
-        }
-        TempFileSystem.unlockFileAndDelete(html);
-        byte[] imageData = WebPageRenderer.getDriver().findElement(by).getScreenshotAs(OutputType.BYTES);
+        // Same cleaned page under the same viewport and target element always renders the same image
+        String key = RenderCache.key(content, settings.width() + "x" + settings.height(), by.toString());
+        return new RenderTarget(html, by, png, settings, key);
+    }
+
+    private static File render(WebDriver driver, RenderTarget target) throws Exception {
+        driver.manage().window().setSize(new Dimension(target.settings().width(), target.settings().height()));
+        driver.get(target.html().toURI().toURL().toString());
+        WebPageRenderer.waitForReady(driver);
+        byte[] imageData = driver.findElement(target.by()).getScreenshotAs(OutputType.BYTES);
         BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
-        ImageIO.write(image, "png", png);
-        WIKI_PAGE_LOGGER.info("Rendered page, target={}.", png);
+        ImageIO.write(image, "png", target.png());
+        WIKI_PAGE_LOGGER.info("Rendered page, target={}.", target.png());
+        return target.png();
+    }
+
+    private record RenderTarget(File html, By by, File png, WikiRenderSettings settings, String key) {
+
+        private static RenderTarget done(File png) {
+            return new RenderTarget(null, null, png, null, null);
+        }
     }
 }
@@ -28,7 +28,7 @@ public class WikiResolver extends MessageResolver {
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         key = key.substring(2, key.length() - 2);
         String finalKey = key;
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("wiki", context, environment, () -> {
             String[] splits = finalKey.split(":", 2);
             try {
                 if (splits.length == 1 || !WikiInfo.SUPPORT_WIKIS.containsKey(splits[0].toLowerCase(Locale.ROOT)))
@@ -147,14 +147,18 @@ public class WikiResolver extends MessageResolver {
             if (page.audioFiles != null)
                 AudioSender.sendAudio(page.audioFiles, context, environment);
             if (page.infobox != null) {
-                AsyncUtil.execute(() -> {
+                AsyncUtil.execute("wiki", context, environment, () -> {
                     try {
                         File file = page.infobox.get();
                         if (file == null)
                             return;
-                        environment.getMessageSender().sendMessageRecallable(
-                                context, environment.newImage(file.toURI().toURL()));
-                        TempFileSystem.unlockFile(file);
+                        TempFileSystem.lockFile(file);
+                        try {
+                            environment.getMessageSender().sendMessageRecallable(
+                                    context, environment.newImage(file.toURI().toURL()));
+                        } finally {
+                            TempFileSystem.unlockFile(file);
+                        }
                     } catch (Exception e) {
                         environment.getMessageSender().onError(e, "wiki.infobox", context, false);
                     }
@@ -32,7 +32,7 @@ public class WikiSettingResolver extends MessageResolver {
             return false;
         switch (data[0].toLowerCase(Locale.ROOT)) {
             case "prefix" -> {
-                AsyncUtil.execute(() -> {
+                AsyncUtil.execute("wiki", context, environment, () -> {
                     try {
                         Map<String, String> render = new HashMap<>();
                         WikiInfo.SUPPORT_WIKIS.forEach((name, info) -> render.put(name, info.getUrl()));
@@ -49,7 +49,7 @@ public class WikiSettingResolver extends MessageResolver {
                 return true;
             }
             case "base" -> {
-                AsyncUtil.execute(() -> environment.getMessageSender()
+                AsyncUtil.execute(context, environment, () -> environment.getMessageSender()
                         .sendMessage(context, environment.newText("目前的基础wiki为%s".formatted(WikiInfo.BASE_WIKI))));
                 return true;
             }
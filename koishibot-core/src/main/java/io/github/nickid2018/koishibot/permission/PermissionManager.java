@@ -5,6 +5,11 @@ import com.google.gson.JsonObject;
 import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.util.DataReader;
 import io.github.nickid2018.koishibot.util.JsonUtil;
+import io.github.nickid2018.koishibot.util.KeyedDataReader;
+import io.github.nickid2018.koishibot.util.storage.Codec;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 
 import java.io.File;
 import java.io.IOException;
@@ -12,60 +17,103 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 public class PermissionManager {
 
-    private static final DataReader<Set<UserPermissionEntry>> DATA_READER = new DataReader<>(new File("permission.dat"), HashSet::new);
+    private static final Codec<UserPermissionEntry> ENTRY_CODEC = Codec.of((output, entry) -> {
+        output.writeUTF(entry.user());
+        output.writeUTF(entry.level().name());
+        output.writeLong(entry.expired());
+    }, input -> new UserPermissionEntry(
+            input.readUTF(), PermissionLevel.valueOf(input.readUTF()), input.readLong()));
+    private static final KeyedDataReader<UserPermissionEntry> DATA_READER =
+            new KeyedDataReader<>("permission", ENTRY_CODEC, () -> null);
     private static final Map<String, UserPermissionEntry> PERMISSION_ENTRY_MAP = new ConcurrentHashMap<>();
 
-    public static void init(JsonObject settingsRoot) throws IOException {
+    // Expired entries are dropped by the timer, reads only compare the deadline and never write
+    private static final HashedWheelTimer EXPIRY_TIMER = new HashedWheelTimer(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (th, t) -> ErrorRecord.enqueueError("permission.expire", t)
+            ).daemon(true).namingPattern("Permission Expiry Timer").build(), 1, TimeUnit.SECONDS);
+    private static final Map<String, Timeout> EXPIRY_MAP = new ConcurrentHashMap<>();
+
+    public static synchronized void init(JsonObject settingsRoot) throws IOException {
         JsonUtil.getData(settingsRoot, "owner", JsonArray.class).ifPresent(array -> array.forEach(element -> {
             if (element.isJsonPrimitive())
-                PERMISSION_ENTRY_MAP.put(element.getAsString(),
-                        UserPermissionEntry.permanentPermission(element.getAsString(), PermissionLevel.OWNER));
+                putEntry(UserPermissionEntry.permanentPermission(element.getAsString(), PermissionLevel.OWNER));
         }));
-        DATA_READER.getData().forEach(entry -> PERMISSION_ENTRY_MAP.put(entry.user(), entry));
+        migrateLegacyData();
+        DATA_READER.loadAll();
+        DATA_READER.getKeys().forEach(user -> putEntry(DATA_READER.getData(user)));
+    }
+
+    // permission.dat held the whole set, every entry now has a key of its own
+    private static void migrateLegacyData() throws IOException {
+        DataReader<Set<UserPermissionEntry>> legacy = new DataReader<>(new File("permission.dat"), HashSet::new);
+        Set<UserPermissionEntry> entries = legacy.getData();
+        if (entries.isEmpty())
+            return;
+        for (UserPermissionEntry entry : entries)
+            DATA_READER.putData(entry.user(), entry);
+        legacy.deleteData();
     }
 
     public static UserPermissionEntry getPermissionEntry(String user) {
-        updateLevel(user);
-        return PERMISSION_ENTRY_MAP.getOrDefault(user, UserPermissionEntry.permanentPermission(user, PermissionLevel.TRUSTED));
+        UserPermissionEntry entry = PERMISSION_ENTRY_MAP.get(user);
+        return entry == null || entry.isExpired() ?
+                UserPermissionEntry.permanentPermission(user, PermissionLevel.TRUSTED) : entry;
     }
 
+    // Between the deadline and the next timer tick the entry is still in the map, but already ignored
     public static PermissionLevel getLevel(String user) {
-        return getPermissionEntry(user).level();
+        UserPermissionEntry entry = PERMISSION_ENTRY_MAP.get(user);
+        return entry == null || entry.expired() < System.currentTimeMillis() ? PermissionLevel.TRUSTED : entry.level();
     }
 
-    private static void updateLevel(String user) {
-        try {
-            if (PERMISSION_ENTRY_MAP.containsKey(user) && PERMISSION_ENTRY_MAP.get(user).isExpired()) {
-                UserPermissionEntry entry = PERMISSION_ENTRY_MAP.remove(user);
-                DATA_READER.getData().remove(entry);
-                DATA_READER.saveData();
-            }
-        } catch (IOException e) {
-            ErrorRecord.enqueueError("permission.update", e);
-        }
+    private static void putEntry(UserPermissionEntry entry) {
+        PERMISSION_ENTRY_MAP.put(entry.user(), entry);
+        Timeout old = entry.expired() == Long.MAX_VALUE ? EXPIRY_MAP.remove(entry.user()) :
+                EXPIRY_MAP.put(entry.user(), EXPIRY_TIMER.newTimeout(t -> expire(entry, t),
+                        Math.max(1, entry.expired() - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+        if (old != null)
+            old.cancel();
     }
 
-    public static void setLevel(String target, PermissionLevel level, long expired, boolean userOperation) {
+    private static void removeEntry(String user) {
+        PERMISSION_ENTRY_MAP.remove(user);
+        Timeout old = EXPIRY_MAP.remove(user);
+        if (old != null)
+            old.cancel();
+    }
+
+    // Runs on the timer thread, under the same lock as setLevel so a fresh entry is never removed with an old one
+    private static synchronized void expire(UserPermissionEntry entry, Timeout timeout) {
+        String user = entry.user();
+        // A newer entry for the user has its own timeout, equal entries are told apart by identity
+        if (PERMISSION_ENTRY_MAP.get(user) != entry)
+            return;
+        PERMISSION_ENTRY_MAP.remove(user);
+        EXPIRY_MAP.remove(user, timeout);
+        DATA_READER.removeData(user);
+    }
+
+    public static synchronized void setLevel(String target, PermissionLevel level, long expired, boolean userOperation) {
         try {
-            UserPermissionEntry entry = PERMISSION_ENTRY_MAP.remove(target);
+            UserPermissionEntry entry = PERMISSION_ENTRY_MAP.get(target);
+            if (entry != null && entry.isExpired())
+                entry = null;
             if (entry != null && !userOperation &&
-                    ((entry.level() == level && entry.expired() >= expired) || level.levelGreater(entry.level()))) {
-                PERMISSION_ENTRY_MAP.put(target, entry);
+                    ((entry.level() == level && entry.expired() >= expired) || level.levelGreater(entry.level())))
                 return;
-            }
-            if (entry != null) {
-                DATA_READER.getData().remove(entry);
-                DATA_READER.saveData();
-            }
-            if (level == PermissionLevel.TRUSTED)
+            if (level == PermissionLevel.TRUSTED) {
+                removeEntry(target);
+                DATA_READER.removeData(target);
                 return;
+            }
             entry = new UserPermissionEntry(target, level, expired);
-            PERMISSION_ENTRY_MAP.put(target, entry);
-            DATA_READER.getData().add(entry);
-            DATA_READER.saveData();
+            putEntry(entry);
+            DATA_READER.putData(target, entry);
         } catch (IOException e) {
             ErrorRecord.enqueueError("permission.set", e);
         }
@@ -49,7 +49,7 @@ public class PermissionResolver extends MessageResolver {
                         .map(AtMessage::getId).findFirst().orElse(null);
             if (user == null)
                 return false;
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute(context, environment, () -> {
                 UserPermissionEntry entry = PermissionManager.getPermissionEntry(user);
                 String builder = "用户 " + entry.user() + "\n" +
                         "权限 " + entry.level().name() + "\n" +
@@ -80,7 +80,7 @@ public class PermissionResolver extends MessageResolver {
             if (user == null)
                 return false;
             long finalTime = time;
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute(context, environment, () -> {
                 if (PermissionManager.tryGrantPermission(context.user().getUserId(), user, level, finalTime)) {
                     UserPermissionEntry entry = PermissionManager.getPermissionEntry(user);
                     String builder = "已设置成功\n用户 " + entry.user() + "\n" +
@@ -44,6 +44,7 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
     public static final String BILIBILI_EPISODE_API = "https://api.bilibili.com/pgc/view/web/season";
 
     public static final String[] EPISODE_TYPE = {null, "番剧", "电影", "纪录片", "国创", "电视剧", null, "综艺"};
+    public static final long CACHE_TTL = 60_000;
 
     public BilibiliDataResolver() {
         super(B_SHORT_LINK_PATTERN, B_BV_VIDEO_PATTERN, B_AV_VIDEO_PATTERN, B_CV_ARTICLE_PATTERN, B_AU_AUDIO_PATTERN,
@@ -52,7 +53,7 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("bilibili", () -> {
             try {
                 if (resolvedArguments == B_SHORT_LINK_PATTERN)
                     fromShortLink(key, context, environment);
@@ -87,8 +88,8 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
     }
 
     private void doEpisodeDisplay(String key, MessageContext contact, boolean isSSID, DelegateEnvironment environment) throws IOException {
-        JsonObject articleData = WebUtil.fetchDataInJson(new HttpGet(
-                BILIBILI_EPISODE_API + (isSSID ? "?season_id=" : "?ep_id=") + key.substring(2))).getAsJsonObject();
+        JsonObject articleData = WebUtil.fetchDataInJsonCached(new HttpGet(
+                BILIBILI_EPISODE_API + (isSSID ? "?season_id=" : "?ep_id=") + key.substring(2)), CACHE_TTL).getAsJsonObject();
         int code = JsonUtil.getIntOrZero(articleData, "code");
         if (code != 0)
             throw new IOException("API接口返回" + code + "(" + JsonUtil.getStringOrNull(articleData, "message") + ")");
@@ -146,8 +147,8 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
     }
 
     private void doAudioDisplay(String key, MessageContext contact, DelegateEnvironment environment) throws IOException {
-        JsonObject articleData = WebUtil.fetchDataInJson(new HttpGet(
-                BILIBILI_AUDIO_API + "info?sid=" + key.substring(2))).getAsJsonObject();
+        JsonObject articleData = WebUtil.fetchDataInJsonCached(new HttpGet(
+                BILIBILI_AUDIO_API + "info?sid=" + key.substring(2)), CACHE_TTL).getAsJsonObject();
         int code = JsonUtil.getIntOrZero(articleData, "code");
         if (code != 0)
             throw new IOException("API接口返回" + code + "(" + JsonUtil.getStringOrNull(articleData, "msg") + ")");
@@ -176,8 +177,8 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
     }
 
     private void doArticleDisplay(String key, MessageContext contact, DelegateEnvironment environment) throws IOException {
-        JsonObject articleData = WebUtil.fetchDataInJson(new HttpGet(
-                BILIBILI_ARTICLE_API + "viewinfo?id=" + key.substring(2))).getAsJsonObject();
+        JsonObject articleData = WebUtil.fetchDataInJsonCached(new HttpGet(
+                BILIBILI_ARTICLE_API + "viewinfo?id=" + key.substring(2)), CACHE_TTL).getAsJsonObject();
         int code = JsonUtil.getIntOrZero(articleData, "code");
         if (code != 0)
             throw new IOException("API接口返回" + code + "(" + JsonUtil.getStringOrNull(articleData, "message") + ")");
@@ -212,11 +213,11 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
         boolean useAVID = false;
         if (RegexUtil.match(B_AV_VIDEO_PATTERN, key)) {
             useAVID = true;
-            videoData = WebUtil.fetchDataInJson(new HttpGet(
-                    BILIBILI_VIDEO_API + "view?aid=" + key.substring(2))).getAsJsonObject();
+            videoData = WebUtil.fetchDataInJsonCached(new HttpGet(
+                    BILIBILI_VIDEO_API + "view?aid=" + key.substring(2)), CACHE_TTL).getAsJsonObject();
         } else
-            videoData = WebUtil.fetchDataInJson(new HttpGet(
-                    BILIBILI_VIDEO_API + "view?bvid=" + key)).getAsJsonObject();
+            videoData = WebUtil.fetchDataInJsonCached(new HttpGet(
+                    BILIBILI_VIDEO_API + "view?bvid=" + key), CACHE_TTL).getAsJsonObject();
 
         int code = JsonUtil.getIntOrZero(videoData, "code");
         if (code != 0)
@@ -312,7 +313,7 @@ public class BilibiliDataResolver extends MessageResolver implements JSONService
     @Override
     public void resolveService(JsonObject content, MessageContext context, DelegateEnvironment environment) {
         if (context.group() == null || ModuleManager.isOpened(context.group().getGroupId(), "bilibili"))
-            AsyncUtil.execute(() -> {
+            AsyncUtil.execute("bilibili", () -> {
                 if (environment.getEnvironmentName().equals("QQ")) {
                     try {
                         String url = JsonUtil.getStringInPathOrNull(content, "meta.news.jumpUrl");
@@ -35,6 +35,7 @@ public class BugTrackerResolver extends MessageResolver {
 
     public static final String MOJIRA_API_URL = "https://bugs.mojang.com/rest/api/2/issue/";
     public static final String MOJIRA_SEARCH_API_URL = "https://bugs.mojang.com/rest/api/2/search?jql=";
+    public static final long CACHE_TTL = 300_000;
 
     public BugTrackerResolver() {
         super(BUG_TRACKER_PATTERN);
@@ -47,7 +48,7 @@ public class BugTrackerResolver extends MessageResolver {
         boolean isSearch = RegexUtil.match(BUG_SEARCH_PATTERN, resolve);
         if (!isDisplay && !isSearch)
             return false;
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("bugtracker", context, environment, () -> {
             try {
                 if (isDisplay)
                     doBugDisplay(resolve, context, environment);
@@ -76,7 +77,7 @@ public class BugTrackerResolver extends MessageResolver {
 
         HttpGet get = new HttpGet(MOJIRA_SEARCH_API_URL + searchKey
                 + "&fields=key,summary&maxResults=10&startAt=" + page * bufferSize);
-        JsonObject data = WebUtil.fetchDataInJson(get).getAsJsonObject();
+        JsonObject data = WebUtil.fetchDataInJsonCached(get, CACHE_TTL).getAsJsonObject();
         if (data.has("errorMessages"))
             // Error while getting
             throw new IOException(data.get("errorMessages").getAsString());
@@ -107,7 +108,7 @@ public class BugTrackerResolver extends MessageResolver {
 
     private static void doBugDisplay(String id, MessageContext context, DelegateEnvironment environment) throws IOException {
         HttpGet get = new HttpGet(MOJIRA_API_URL + id);
-        JsonObject data = WebUtil.fetchDataInJson(get).getAsJsonObject();
+        JsonObject data = WebUtil.fetchDataInJsonCached(get, CACHE_TTL).getAsJsonObject();
         if (data.has("errorMessage"))
             // Error while getting
             throw new IOException(data.get("errorMessage").getAsString());
@@ -32,6 +32,7 @@ public class CurseForgeResolver extends MessageResolver {
     public static final Pattern MOD_PATTERN = Pattern.compile("<cur:.+?>");
     public static final Pattern MOD_FILES_PATTERN = Pattern.compile("<cur:files:.+?>");
     public static final Pattern MINECRAFT_VERSION = Pattern.compile("1\\.\\d{1,2}(\\.\\d)?");
+    public static final long CACHE_TTL = 600_000;
 
     public CurseForgeResolver() {
         super(MOD_FILES_PATTERN, MOD_PATTERN);
@@ -39,7 +40,7 @@ public class CurseForgeResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("curseforge", context, environment, () -> {
             try {
                 if (resolvedArguments == MOD_FILES_PATTERN)
                     displayFiles(key.substring(11, key.length() - 1), context, environment);
@@ -53,8 +54,8 @@ public class CurseForgeResolver extends MessageResolver {
     }
 
     private static void displayFiles(String key, MessageContext context, DelegateEnvironment environment) throws IOException {
-        JsonObject mod = WebUtil.fetchDataInJson(new HttpGet("https://api.cfwidget.com/minecraft/mc-mods/"
-                + URLEncoder.encode(key.replace(" ", "-"), StandardCharsets.UTF_8))).getAsJsonObject();
+        JsonObject mod = WebUtil.fetchDataInJsonCached(new HttpGet("https://api.cfwidget.com/minecraft/mc-mods/"
+                + URLEncoder.encode(key.replace(" ", "-"), StandardCharsets.UTF_8)), CACHE_TTL).getAsJsonObject();
 
         StringBuilder builder = new StringBuilder();
         JsonObject gameVersions = mod.getAsJsonObject("versions");
@@ -80,8 +81,8 @@ public class CurseForgeResolver extends MessageResolver {
     }
 
     private static void displayMod(String id, MessageContext context, DelegateEnvironment environment) throws IOException {
-        JsonObject mod = WebUtil.fetchDataInJson(new HttpGet("https://api.cfwidget.com/minecraft/mc-mods/"
-                + URLEncoder.encode(id.replace(" ", "-"), StandardCharsets.UTF_8))).getAsJsonObject();
+        JsonObject mod = WebUtil.fetchDataInJsonCached(new HttpGet("https://api.cfwidget.com/minecraft/mc-mods/"
+                + URLEncoder.encode(id.replace(" ", "-"), StandardCharsets.UTF_8)), CACHE_TTL).getAsJsonObject();
 
         String modName = JsonUtil.getStringOrNull(mod, "title");
         StringBuilder builder = new StringBuilder();
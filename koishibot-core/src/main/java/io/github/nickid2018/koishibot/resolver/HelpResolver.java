@@ -44,7 +44,7 @@ public class HelpResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String str, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute(context, environment, () -> {
             try {
                 String key = str.trim();
                 if (key.isEmpty()) {
@@ -120,12 +120,27 @@ public class HelpResolver extends MessageResolver {
 
                         File png = TempFileSystem.createTmpFileBuffered(
                                 "help", bufferedName, "help", "png", false);
+                        // The renderer calls exactly one of these, and the one it calls gives the lease back
                         MarkdownRenderer.render(writer.toString(), png, () -> {
-                            environment.getMessageSender().sendMessage(context, environment.newImage(png.toURI().toURL()));
+                            try {
+                                environment.getMessageSender().sendMessage(context, environment.newImage(png.toURI().toURL()));
+                            } catch (Exception e) {
+                                environment.getMessageSender().onError(e, "help", context, false);
+                            } finally {
+                                TempFileSystem.unlockFile(png);
+                            }
                             return null;
-                        }, e -> environment.getMessageSender().onError(e, "help.render", context, false));
-                    } else
-                        environment.getMessageSender().sendMessage(context, environment.newImage(helpImage.toURI().toURL()));
+                        }, e -> {
+                            TempFileSystem.unlockFileAndDelete(png);
+                            environment.getMessageSender().onError(e, "help.render", context, false);
+                        });
+                    } else {
+                        try {
+                            environment.getMessageSender().sendMessage(context, environment.newImage(helpImage.toURI().toURL()));
+                        } finally {
+                            TempFileSystem.unlockFile(helpImage);
+                        }
+                    }
                 }
             } catch (Exception e) {
                 environment.getMessageSender().onError(e, "help", context, false);
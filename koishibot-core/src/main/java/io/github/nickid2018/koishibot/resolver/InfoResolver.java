@@ -11,6 +11,7 @@ import io.github.nickid2018.koishibot.message.api.Environment;
 import io.github.nickid2018.koishibot.message.api.MessageContext;
 import io.github.nickid2018.koishibot.permission.PermissionLevel;
 import io.github.nickid2018.koishibot.util.AsyncUtil;
+import io.github.nickid2018.koishibot.util.Bulkhead;
 
 import java.util.Date;
 import java.util.Locale;
@@ -18,6 +19,7 @@ import java.util.Locale;
 @ResolverName("info")
 @Syntax(syntax = "~info", help = "显示bot运行状态")
 @Syntax(syntax = "~info error", help = "显示bot错误记录")
+@Syntax(syntax = "~info async", help = "显示异步任务队列状态")
 public class InfoResolver extends MessageResolver {
 
     public InfoResolver() {
@@ -37,6 +39,7 @@ public class InfoResolver extends MessageResolver {
         else {
             AbstractMessage message = switch (key) {
                 case "error" -> getError(environment);
+                case "async" -> getAsync(environment);
                 default -> null;
             };
             environment.getMessageSender().sendMessage(context, message);
@@ -65,10 +68,18 @@ public class InfoResolver extends MessageResolver {
         builder.append("占比").append(String.format("%.2f", (total - free) / max * 100)).append("%\n");
         builder.append("系统信息: ").append(System.getProperty("os.name")).append("\n");
         builder.append("项目已在Github上开源: https://github.com/Nickid2018/KoishiBot (AGPL v3)");
-        AsyncUtil.execute(
+        AsyncUtil.execute(context, environment,
                 () -> environment.getMessageSender().sendMessage(context, environment.newText(builder.toString())));
     }
 
+    private AbstractMessage getAsync(DelegateEnvironment environment) {
+        StringBuilder builder = new StringBuilder("异步任务队列状态");
+        for (Bulkhead bulkhead : AsyncUtil.getBulkheads())
+            builder.append("\n").append(bulkhead);
+        builder.append("\n消息发送队列: ").append(environment.getMessageSender().getPendingCount()).append("条待发送");
+        return environment.newText(builder.toString());
+    }
+
     private AbstractMessage getError(Environment environment) {
         AbstractMessage message;
         if (environment.forwardMessageSupported())
@@ -42,7 +42,7 @@ public class LaTeXResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("latex", context, environment, () -> {
             String latex = key;
             String[] split = latex.split(" ", 2);
             Transcoder use = transcoder;
@@ -57,13 +57,21 @@ public class LaTeXResolver extends MessageResolver {
                 Elements errors = document.getElementsByAttribute("data-mjx-error");
                 if (errors.size() > 0)
                     throw new IOException(errors.get(0).attr("data-mjx-error"));
-                TranscoderInput input = new TranscoderInput(new ReaderInputStream(new StringReader(data), StandardCharsets.UTF_8));
-                File temp = File.createTempFile("latex", ".png");
-                try (FileOutputStream os = new FileOutputStream(temp)) {
-                    TranscoderOutput output = new TranscoderOutput(os);
-                    use.transcode(input, output);
-                }
-                environment.getMessageSender().sendMessageRecallable(context, environment.newImage(temp.toURI().toURL()));
+                Transcoder finalUse = use;
+                // The SVG is fetched in the latex bulkhead, transcoding it only needs a processor
+                AsyncUtil.execute(AsyncUtil.CPU, context, environment, () -> {
+                    try {
+                        TranscoderInput input = new TranscoderInput(new ReaderInputStream(new StringReader(data), StandardCharsets.UTF_8));
+                        File temp = File.createTempFile("latex", ".png");
+                        try (FileOutputStream os = new FileOutputStream(temp)) {
+                            TranscoderOutput output = new TranscoderOutput(os);
+                            finalUse.transcode(input, output);
+                        }
+                        environment.getMessageSender().sendMessageRecallable(context, environment.newImage(temp.toURI().toURL()));
+                    } catch (Exception e) {
+                        environment.getMessageSender().onError(e, "latex", context, true);
+                    }
+                });
             } catch (Exception e) {
                 environment.getMessageSender().onError(e, "latex", context, true);
             }
@@ -41,6 +41,7 @@ public class ModrinthResolver extends MessageResolver {
     public static final Pattern SEARCH_PAGE_PATTERN = Pattern.compile("\\d*(,\\d+)?:.+");
 
     public static final String MODRINTH_API_URL = "https://api.modrinth.com/v2";
+    public static final long CACHE_TTL = 600_000;
 
     public ModrinthResolver() {
         super(MOD_SEARCH_PATTERN, MOD_FILES_PATTERN, MOD_PATTERN);
@@ -48,7 +49,7 @@ public class ModrinthResolver extends MessageResolver {
 
     @Override
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("modrinth", context, environment, () -> {
             try {
                 if (resolvedArguments == MOD_SEARCH_PATTERN)
                     displaySearch(key.substring(12, key.length() - 1), context, environment);
@@ -87,8 +88,8 @@ public class ModrinthResolver extends MessageResolver {
         if (versions.size() > 15)
             builder.append("(仅显示前15文件)\n");
         for (int i = versions.size() - 1, j = 0; j < 15 && i >= 0; i--, j++) {
-            JsonElement element = WebUtil.fetchDataInJson(new HttpGet(MODRINTH_API_URL + "/project/" + slug
-                    + "/version?game_versions=" + WebUtil.encode("[\"" + versions.get(i) + "\"]")));
+            JsonElement element = WebUtil.fetchDataInJsonCached(new HttpGet(MODRINTH_API_URL + "/project/" + slug
+                    + "/version?game_versions=" + WebUtil.encode("[\"" + versions.get(i) + "\"]")), CACHE_TTL);
             JsonArray array = element.getAsJsonArray();
             JsonObject object = array.get(0).getAsJsonObject();
             builder.append(versions.get(i)).append(": ").append(
@@ -202,10 +203,10 @@ public class ModrinthResolver extends MessageResolver {
             filter = keySplit[1];
         }
 
-        JsonElement e = WebUtil.fetchDataInJson(new HttpGet(MODRINTH_API_URL + "/search?query="
+        JsonElement e = WebUtil.fetchDataInJsonCached(new HttpGet(MODRINTH_API_URL + "/search?query="
                 + WebUtil.encode(key) + "&offset=" + offset + "&limit=" + limit
                 + (filter == null ? "" : ("&filters=" + WebUtil.encode(filter)))
-        ));
+        ), CACHE_TTL);
 
         if (e == null || e instanceof JsonNull)
             throw new IOException("未查找到此模组，请矫正拼写");
@@ -30,7 +30,7 @@ public class NbnhhshResolver extends MessageResolver {
     public boolean resolveInternal(String key, MessageContext context, Object resolvedArguments, DelegateEnvironment environment) {
         if (key.isEmpty())
             return false;
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("nbnhhsh", context, environment, () -> {
             HttpPost post = new HttpPost("https://lab.magiconch.com/api/nbnhhsh/guess");
             JsonObject object = new JsonObject();
             object.addProperty("text", key);
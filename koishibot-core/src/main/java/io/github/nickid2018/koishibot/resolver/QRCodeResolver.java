@@ -58,7 +58,7 @@ public class QRCodeResolver extends MessageResolver {
     }
 
     private void encode(String message, MessageContext context, DelegateEnvironment environment) {
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute(AsyncUtil.CPU, context, environment, () -> {
             try {
                 BitMatrix matrix = WRITER.encode(message, BarcodeFormat.QR_CODE, 200, 200, HINTS);
                 BufferedImage image = new BufferedImage(matrix.getWidth(), matrix.getHeight(), BufferedImage.TYPE_INT_BGR);
@@ -90,7 +90,7 @@ public class QRCodeResolver extends MessageResolver {
         if (image == null)
             return false;
         ImageMessage finalImage = image;
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute(AsyncUtil.CPU, context, environment, () -> {
             try {
                 BufferedImage qrcode = ImageIO.read(finalImage.getImage());
                 RGBLuminanceSource source = new RGBLuminanceSource(qrcode.getWidth(), qrcode.getHeight(),
@@ -16,6 +16,7 @@ import org.apache.hc.client5.http.classic.methods.HttpGet;
 public class UrbanDictResolver extends MessageResolver {
 
     public static final String URBAN_API = "https://api.urbandictionary.com/v0/define?term=";
+    public static final long CACHE_TTL = 3600_000;
 
     public UrbanDictResolver() {
         super("~urban");
@@ -26,10 +27,10 @@ public class UrbanDictResolver extends MessageResolver {
         String term = key.trim();
         if (term.isEmpty())
             return false;
-        AsyncUtil.execute(() -> {
+        AsyncUtil.execute("urban", context, environment, () -> {
             try {
-                JsonArray object = WebUtil.fetchDataInJson(
-                        new HttpGet(URBAN_API + WebUtil.encode(term))).getAsJsonObject().getAsJsonArray("list");
+                JsonArray object = WebUtil.fetchDataInJsonCached(
+                        new HttpGet(URBAN_API + WebUtil.encode(term)), CACHE_TTL).getAsJsonObject().getAsJsonArray("list");
                 if (object.size() == 0)
                     environment.getMessageSender().sendMessage(context, environment.newChain(
                             environment.newQuote(context.message()),
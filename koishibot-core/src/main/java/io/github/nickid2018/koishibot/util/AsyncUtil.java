@@ -1,34 +1,148 @@
 package io.github.nickid2018.koishibot.util;
 
+import com.google.gson.JsonObject;
 import io.github.nickid2018.koishibot.core.ErrorRecord;
+import io.github.nickid2018.koishibot.message.DelegateEnvironment;
+import io.github.nickid2018.koishibot.message.api.MessageContext;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.*;
+import java.util.concurrent.*;
 
+// Tasks run in named bulkheads, so a slow upstream fills its own queue and not the workers of every other command.
+// I/O bulkheads use virtual threads when the runtime has them, the CPU bulkhead is sized to the processors.
 public class AsyncUtil {
 
-    private static ExecutorService executor;
+    public static final Logger ASYNC_LOGGER = LoggerFactory.getLogger("Async");
+
+    public static final String DEFAULT = "default";
+    public static final String CPU = "cpu";
+    public static final String BUSY_MESSAGE = "当前请求过多，请稍后再试";
+
+    private static final ThreadFactory VIRTUAL_FACTORY = virtualThreadFactory();
+    private static final Map<String, Bulkhead> BULKHEADS = new ConcurrentHashMap<>();
+    private static final Map<String, int[]> SETTINGS = new ConcurrentHashMap<>();
+
+    private static volatile boolean running;
+
+    public static void loadAsyncSettings(JsonObject settingsRoot) {
+        JsonObject async = JsonUtil.getData(settingsRoot, "async", JsonObject.class).orElseGet(JsonObject::new);
+        SETTINGS.clear();
+        JsonUtil.getData(async, "bulkheads", JsonObject.class).ifPresent(bulkheads -> bulkheads.entrySet().forEach(
+                entry -> {
+                    if (!entry.getValue().isJsonObject())
+                        return;
+                    JsonObject setting = entry.getValue().getAsJsonObject();
+                    int[] defaults = defaultSetting(entry.getKey());
+                    SETTINGS.put(entry.getKey(), new int[]{
+                            Math.max(1, JsonUtil.getIntOrElse(setting, "concurrency", defaults[0])),
+                            Math.max(0, JsonUtil.getIntOrElse(setting, "queue", defaults[1]))
+                    });
+                }));
+        BULKHEADS.forEach((name, bulkhead) -> {
+            int[] setting = settingOf(name);
+            bulkhead.setConcurrency(setting[0]);
+            if (setting[1] != bulkhead.getQueueCapacity())
+                ASYNC_LOGGER.warn("Bulkhead {} is already running, the new queue size applies after a restart.", name);
+        });
+    }
 
     public static void start() {
-        executor = Executors.newCachedThreadPool(new BasicThreadFactory.Builder().uncaughtExceptionHandler(
-                (th, t) -> ErrorRecord.enqueueError("concurrent", t)
-        ).daemon(true).namingPattern("Async Worker %d").build());
+        running = true;
+        ASYNC_LOGGER.info("Async workers started, I/O tasks run on {} threads.",
+                VIRTUAL_FACTORY != null ? "virtual" : "platform");
+    }
+
+    public static boolean execute(Runnable runnable) {
+        return execute(DEFAULT, runnable);
     }
 
-    public static void execute(Runnable runnable) {
-        if (executor != null)
-            executor.execute(runnable);
+    public static boolean execute(String bulkhead, Runnable runnable) {
+        return running && getBulkhead(bulkhead).execute(runnable);
+    }
+
+    public static boolean execute(MessageContext context, DelegateEnvironment environment, Runnable runnable) {
+        return execute(DEFAULT, context, environment, runnable);
+    }
+
+    // Tells the user the bot is busy when the bulkhead is full, instead of dropping the request silently
+    public static boolean execute(String bulkhead, MessageContext context, DelegateEnvironment environment,
+                                  Runnable runnable) {
+        if (execute(bulkhead, runnable))
+            return true;
+        if (running)
+            environment.getMessageSender().sendMessage(context, environment.newText(BUSY_MESSAGE));
+        return false;
     }
 
     public static <V> Future<V> submit(Callable<V> callable) {
-        return executor != null ? executor.submit(callable) : null;
+        return submit(DEFAULT, callable);
+    }
+
+    public static <V> Future<V> submit(String bulkhead, Callable<V> callable) {
+        return running ? getBulkhead(bulkhead).submit(callable) : null;
+    }
+
+    public static Bulkhead getBulkhead(String name) {
+        return BULKHEADS.computeIfAbsent(name, AsyncUtil::createBulkhead);
+    }
+
+    public static List<Bulkhead> getBulkheads() {
+        List<Bulkhead> bulkheads = new ArrayList<>(BULKHEADS.values());
+        bulkheads.sort(Comparator.comparing(Bulkhead::getName));
+        return bulkheads;
     }
 
     public static void terminate() {
-        executor.shutdown();
-        executor = null;
+        running = false;
+        BULKHEADS.values().forEach(Bulkhead::shutdown);
+        for (Bulkhead bulkhead : BULKHEADS.values()) {
+            try {
+                if (!bulkhead.awaitTermination(5, TimeUnit.SECONDS))
+                    ASYNC_LOGGER.warn("Bulkhead {} still has tasks running.", bulkhead.getName());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        BULKHEADS.clear();
+    }
+
+    private static Bulkhead createBulkhead(String name) {
+        int[] setting = settingOf(name);
+        ThreadFactory factory = !name.equals(CPU) && VIRTUAL_FACTORY != null ? VIRTUAL_FACTORY :
+                new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                        (th, t) -> ErrorRecord.enqueueError("concurrent", t)
+                ).daemon(true).namingPattern("Async " + name + " %d").build();
+        return new Bulkhead(name, setting[0], setting[1], factory);
+    }
+
+    private static int[] settingOf(String name) {
+        int[] setting = SETTINGS.get(name);
+        return setting != null ? setting : defaultSetting(name);
+    }
+
+    private static int[] defaultSetting(String name) {
+        return switch (name) {
+            case CPU -> new int[]{Runtime.getRuntime().availableProcessors(), 32};
+            case DEFAULT -> new int[]{32, 256};
+            default -> new int[]{8, 64};
+        };
+    }
+
+    // Thread.ofVirtual() only exists from Java 21, older runtimes fall back to platform threads
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "Async Virtual ", 0L);
+            builder = builderClass.getMethod("uncaughtExceptionHandler", Thread.UncaughtExceptionHandler.class)
+                    .invoke(builder, (Thread.UncaughtExceptionHandler) (th, t) -> ErrorRecord.enqueueError("concurrent", t));
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
     }
 }
@@ -0,0 +1,69 @@
+package io.github.nickid2018.koishibot.util;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+// Audio split into files that become ready one by one, so the first can be sent before the last is encoded
+public class AudioChunks {
+
+    private final List<CompletableFuture<File>> chunks = new ArrayList<>();
+    private int produced;
+    private boolean finished;
+    private Throwable failure;
+
+    // Blocks until the chunk is ready, null after the last chunk
+    public File get(int index) throws InterruptedException, ExecutionException {
+        return getFuture(index).get();
+    }
+
+    public List<File> getAll() throws InterruptedException, ExecutionException {
+        List<File> files = new ArrayList<>();
+        File file;
+        while ((file = get(files.size())) != null)
+            files.add(file);
+        return files;
+    }
+
+    public void set(int index, CompletableFuture<File> file) {
+        CompletableFuture<File> chunk;
+        synchronized (this) {
+            produced = Math.max(produced, index + 1);
+            chunk = getFuture(index);
+        }
+        file.whenComplete((result, t) -> {
+            if (t != null)
+                chunk.completeExceptionally(t);
+            else
+                chunk.complete(result);
+        });
+    }
+
+    public synchronized void finish() {
+        finished = true;
+        for (int i = produced; i < chunks.size(); i++)
+            chunks.get(i).complete(null);
+    }
+
+    // Chunks already handed over still complete, everything after them fails
+    public synchronized void fail(Throwable t) {
+        failure = t;
+        for (int i = produced; i < chunks.size(); i++)
+            chunks.get(i).completeExceptionally(t);
+    }
+
+    public synchronized CompletableFuture<File> getFuture(int index) {
+        while (chunks.size() <= index)
+            chunks.add(new CompletableFuture<>());
+        CompletableFuture<File> chunk = chunks.get(index);
+        if (index >= produced) {
+            if (failure != null)
+                chunk.completeExceptionally(failure);
+            else if (finished)
+                chunk.complete(null);
+        }
+        return chunk;
+    }
+}
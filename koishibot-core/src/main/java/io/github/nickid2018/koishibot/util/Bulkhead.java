@@ -0,0 +1,128 @@
+package io.github.nickid2018.koishibot.util;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// A bounded slice of the async workers: at most `concurrency` tasks run and at most `queue` wait, the rest are rejected
+public class Bulkhead {
+
+    private final String name;
+    private final int queueCapacity;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder runNanos = new LongAdder();
+    private final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+
+    public Bulkhead(String name, int concurrency, int queueCapacity, ThreadFactory factory) {
+        this.name = name;
+        this.queueCapacity = queueCapacity;
+        executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS,
+                queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : new SynchronousQueue<>(),
+                factory, new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    public boolean execute(Runnable runnable) {
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long start = System.nanoTime();
+                waitNanos.add(start - queued);
+                try {
+                    runnable.run();
+                } finally {
+                    long run = System.nanoTime() - start;
+                    runNanos.add(run);
+                    maxRunNanos.accumulate(run);
+                    completed.increment();
+                }
+            });
+            submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return false;
+        }
+    }
+
+    public <V> Future<V> submit(Callable<V> callable) {
+        FutureTask<V> task = new FutureTask<>(callable);
+        return execute(task) ? task : null;
+    }
+
+    public void setConcurrency(int concurrency) {
+        if (concurrency > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(concurrency);
+            executor.setCorePoolSize(concurrency);
+        } else {
+            executor.setCorePoolSize(concurrency);
+            executor.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getConcurrency() {
+        return executor.getMaximumPoolSize();
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getSubmittedCount() {
+        return submitted.sum();
+    }
+
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long count = completed.sum();
+        return count == 0 ? 0 : waitNanos.sum() / 1e6 / count;
+    }
+
+    public double getAverageRunMillis() {
+        long count = completed.sum();
+        return count == 0 ? 0 : runNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxRunMillis() {
+        return maxRunNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return "%s: %d/%d running, %d/%d queued, %d done, %d rejected, wait %.1fms, run %.1fms (max %.1fms)".formatted(
+                name, getActiveCount(), getConcurrency(), getQueueDepth(), queueCapacity, getCompletedCount(),
+                getRejectedCount(), getAverageWaitMillis(), getAverageRunMillis(), getMaxRunMillis());
+    }
+}
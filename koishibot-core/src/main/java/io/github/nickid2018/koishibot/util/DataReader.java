@@ -1,34 +1,44 @@
 package io.github.nickid2018.koishibot.util;
 
 import io.github.nickid2018.koishibot.core.ErrorRecord;
+import io.github.nickid2018.koishibot.util.storage.Codec;
+import io.github.nickid2018.koishibot.util.storage.DataStorage;
+import io.github.nickid2018.koishibot.util.storage.StorageMigrator;
 
 import java.io.*;
 import java.util.function.Supplier;
 
+// The whole object lives under one key named after the file it used to be stored in
 public class DataReader<E> {
 
     private final File file;
+    private final String key;
+    private final Codec<E> codec;
     private final Supplier<E> empty;
 
     private E data;
 
     public DataReader(File file, Supplier<E> empty) {
+        this(file, Codec.serializable(), empty);
+    }
+
+    public DataReader(File file, Codec<E> codec, Supplier<E> empty) {
         this.file = file.getAbsoluteFile();
+        this.key = DataStorage.keyOf(file);
+        this.codec = codec;
         this.empty = empty;
     }
 
-    @SuppressWarnings("unchecked")
     public E getData() throws IOException {
         if (data != null)
             return data;
-        if (!file.exists()) {
-            if (!file.getParentFile().isDirectory())
-                file.getParentFile().mkdirs();
-            file.createNewFile();
+        byte[] bytes = DataStorage.read(key);
+        if (bytes == null)
+            bytes = StorageMigrator.importFile(DataStorage.getEngine(), key, file);
+        if (bytes == null)
             return data = empty.get();
-        }
-        try (ObjectInputStream is = new ObjectInputStream(new FileInputStream(file))) {
-            return data = (E) is.readObject();
+        try {
+            return data = codec.decode(bytes);
         } catch (Exception e) {
             ErrorRecord.enqueueError("data." + file.getName(), e);
             data = empty.get();
@@ -46,8 +56,11 @@ public class DataReader<E> {
     }
 
     public void saveData() throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(file))) {
-            oos.writeObject(data);
-        }
+        DataStorage.write(key, codec.encode(data));
+    }
+
+    public void deleteData() {
+        data = null;
+        DataStorage.write(key, null);
     }
 }
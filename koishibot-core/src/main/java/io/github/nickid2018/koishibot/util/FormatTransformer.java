@@ -1,16 +1,23 @@
 package io.github.nickid2018.koishibot.util;
 
 import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.core.TempFileSystem;
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.*;
 
 // CAN'T BE TESTED IN PRODUCTION ENVIRONMENT(aka IDE)!
 // PROCESS CAN'T RUN WITHOUT AN ACTUAL CONSOLE, EVEN THOUGH IDE CONSOLES!
@@ -21,115 +28,205 @@ public class FormatTransformer {
     public static final int QQ_VOICE_TRANSFORM_MAX_LENGTH = 110;
     public static final int QQ_VOICE_SAMPLE_RATE = 44100;
     public static final int TELEGRAM_VOICE_MAX_SIZE = 50 * 1024 * 1024;
+    public static final int MP3_BITRATE = 128_000;
+
+    // Containers that keep their index at the end can't be decoded from a pipe
+    public static final Set<String> NEED_SEEK = Set.of("mp4", "m4a", "m4b", "mov", "3gp");
+
+    private static final boolean STDIN_INPUT = new File("/dev/stdin").exists();
 
     public static String FFMPEG_LOCATION;
     public static String ENCODER_LOCATION;
 
+    private static final ThreadPoolExecutor TRANSCODERS = newPool("Audio Transcoder #%d", 2);
+    private static final ThreadPoolExecutor ENCODERS = newPool(
+            "Audio Encoder #%d", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    private static final ExecutorService FEEDERS = Executors.newCachedThreadPool(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (t, e) -> ErrorRecord.enqueueError("audio.feed", e)
+            ).daemon(true).namingPattern("Audio Feeder #%d").build());
+
     public static void loadFFmpeg(JsonObject settingsRoot) {
         JsonUtil.getData(settingsRoot, "audio", JsonObject.class).ifPresent(audio -> {
             FFMPEG_LOCATION = JsonUtil.getStringOrNull(audio, "ffmpeg");
             ENCODER_LOCATION = JsonUtil.getStringOrNull(audio, "encoder");
+            resize(TRANSCODERS, JsonUtil.getIntOrElse(audio, "transcoders", 2));
+            resize(ENCODERS, JsonUtil.getIntOrElse(audio, "encoders",
+                    Math.max(1, Runtime.getRuntime().availableProcessors() / 2)));
         });
     }
 
-    public static File[] transformWebAudioToSilks(String suffix, URL source) throws Exception {
+    public static AudioChunks transformWebAudioToSilks(String suffix, URL source) {
+        return transformWebAudioToSilks(suffix, source, source.toString());
+    }
+
+    // The cache key identifies the audio when its URL does not, like signed links that change per request
+    public static AudioChunks transformWebAudioToSilks(String suffix, URL source, String cacheKey) {
         if (FFMPEG_LOCATION == null)
             return null;
-        File sourceFile = TempFileSystem.createTmpFileAndCreate("as", suffix);
-        IOUtils.copy(source, sourceFile);
-        return transformAsSilk(sourceFile);
+        return TranscodeCache.chunks(cacheKey, "silk", () -> {
+            AudioChunks chunks = new AudioChunks();
+            TRANSCODERS.execute(() -> {
+                try {
+                    streamToSilks(suffix, source, chunks);
+                } catch (Throwable t) {
+                    chunks.fail(t);
+                }
+            });
+            return chunks;
+        });
     }
 
-    public static File[] transformWebAudioToMP3(String suffix, URL source) throws Exception {
+    public static AudioChunks transformWebAudioToMP3(String suffix, URL source) {
+        return transformWebAudioToMP3(suffix, source, source.toString());
+    }
+
+    public static AudioChunks transformWebAudioToMP3(String suffix, URL source, String cacheKey) {
         if (FFMPEG_LOCATION == null)
             return null;
-        File sourceFile = TempFileSystem.createTmpFileAndCreate("as", suffix);
-        IOUtils.copy(source, sourceFile);
-        int length = getAudioLength(sourceFile);
-        int offset = 0;
-        TRANSFORMER_LOGGER.info("Start transforming {} to mp3 files, length = {}s.", sourceFile, length);
-        File mp3 = TempFileSystem.createTmpFile("out", "mp3");
-        executeCommand(null, FFMPEG_LOCATION, "-i", sourceFile.getAbsolutePath(), mp3.getAbsolutePath());
-        TempFileSystem.unlockFileAndDelete(sourceFile);
-        if (mp3.length() > TELEGRAM_VOICE_MAX_SIZE) {
-            int count = (int) Math.ceil((double) mp3.length() / TELEGRAM_VOICE_MAX_SIZE);
-            int audioLength = (int) Math.ceil((double)length / count);
-            List<File> files = new ArrayList<>();
-            for (int i = 0; i < count; i++) {
-                File file = TempFileSystem.createTmpFile("out", "mp3");
-                executeCommand(null, FFMPEG_LOCATION,
-                        "-i", sourceFile.getAbsolutePath(),
-                        "-ss", String.valueOf(offset),
-                        "-t", String.valueOf(audioLength),
-                        "-y", file.getAbsolutePath());
-                files.add(file);
-                offset += audioLength;
+        return TranscodeCache.chunks(cacheKey, "mp3", () -> {
+            AudioChunks chunks = new AudioChunks();
+            TRANSCODERS.execute(() -> {
+                try {
+                    streamToMP3s(suffix, source, chunks);
+                } catch (Throwable t) {
+                    chunks.fail(t);
+                }
+            });
+            return chunks;
+        });
+    }
+
+    // Decodes once to PCM and cuts the stream by sample count, each cut is encoded while decoding goes on
+    private static void streamToSilks(String suffix, URL source, AudioChunks chunks) throws Exception {
+        int chunkBytes = QQ_VOICE_TRANSFORM_MAX_LENGTH * QQ_VOICE_SAMPLE_RATE * 2;
+        // Cuts wait for an encoder in memory, this bounds how many of them a single source holds
+        Semaphore buffered = new Semaphore(ENCODERS.getMaximumPoolSize() + 1);
+        TRANSFORMER_LOGGER.info("Start transforming {} to silk files.", source);
+        try (Decoder decoder = new Decoder(suffix, source,
+                "-vn", "-f", "s16le", "-ar", String.valueOf(QQ_VOICE_SAMPLE_RATE),
+                "-ac", "1", "-acodec", "pcm_s16le", "pipe:1")) {
+            InputStream pcmStream = decoder.process.getInputStream();
+            int index = 0;
+            byte[] pcm;
+            do {
+                buffered.acquire();
+                pcm = pcmStream.readNBytes(chunkBytes);
+                if (pcm.length == 0) {
+                    buffered.release();
+                    break;
+                }
+                CompletableFuture<File> silk = encodeSilk(pcm);
+                silk.whenComplete((file, t) -> buffered.release());
+                chunks.set(index++, silk);
+            } while (pcm.length == chunkBytes);
+            decoder.finish();
+            chunks.finish();
+            TRANSFORMER_LOGGER.info("Decoded {} into {} silk chunks.", source, index);
+        }
+    }
+
+    // The segment muxer reports each finished file on stdout, so parts are handed out as they close
+    private static void streamToMP3s(String suffix, URL source, AudioChunks chunks) throws Exception {
+        long segmentTime = TELEGRAM_VOICE_MAX_SIZE * 8L / MP3_BITRATE * 9 / 10;
+        File placeholder = TempFileSystem.createTmpFile("out", "mp3");
+        TempFileSystem.unlockFileAndDelete(placeholder);
+        String name = placeholder.getName();
+        String pattern = new File(TempFileSystem.TEMP_DIR,
+                name.substring(0, name.length() - 4) + "_%03d.mp3").getAbsolutePath();
+        TRANSFORMER_LOGGER.info("Start transforming {} to mp3 files.", source);
+        try (Decoder decoder = new Decoder(suffix, source,
+                "-vn", "-b:a", String.valueOf(MP3_BITRATE), "-f", "segment", "-segment_format", "mp3",
+                "-segment_time", String.valueOf(segmentTime), "-reset_timestamps", "1",
+                "-segment_list", "pipe:1", "-segment_list_type", "flat", pattern)) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(decoder.process.getInputStream(), StandardCharsets.UTF_8));
+            int index = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank())
+                    continue;
+                File file = TempFileSystem.lockFile(
+                        new File(TempFileSystem.TEMP_DIR, new File(line.trim()).getName()));
+                chunks.set(index++, CompletableFuture.completedFuture(file));
             }
-            TempFileSystem.unlockFileAndDelete(mp3);
-            return files.toArray(new File[0]);
-        } else return new File[]{mp3};
-    }
-
-    public static int getAudioLength(File source) throws Exception {
-        ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
-        executeCommand(dataStream, FFMPEG_LOCATION, "-i", source.getAbsolutePath());
-        String buffer = IOUtils.toString(dataStream.toByteArray(), "UTF-8");
-        int offset = buffer.indexOf("Duration:") + 10;
-        String str = buffer.substring(offset).split(",")[0];
-        String[] times = str.split("[.:]");
-        int hours = Integer.parseInt(times[0]);
-        int minutes = Integer.parseInt(times[1]);
-        int secs = Integer.parseInt(times[2]);
-        return hours * 3600 + minutes * 60 + secs;
-    }
-
-    public static File[] transformAsSilk(File sourceFile) throws Exception {
-        List<File> silks = new ArrayList<>();
-        int length = getAudioLength(sourceFile);
-        int offset = 0;
-        TRANSFORMER_LOGGER.info("Start transforming {} to silk files, length = {}s.", sourceFile, length);
-        while (length > QQ_VOICE_TRANSFORM_MAX_LENGTH) {
-            File pcm = TempFileSystem.createTmpFile("tmp", "pcm");
-            executeCommand(null, FFMPEG_LOCATION,
-                    "-i", sourceFile.getAbsolutePath(),
-                    "-ss", String.valueOf(offset),
-                    "-t", String.valueOf(QQ_VOICE_TRANSFORM_MAX_LENGTH),
-                    "-f", "s16le",
-                    "-ar", String.valueOf(QQ_VOICE_SAMPLE_RATE),
-                    "-ac", "1",
-                    "-acodec", "pcm_s16le",
-                    "-y", pcm.getAbsolutePath());
-            silks.add(transformPCMtoSILK(pcm));
-            offset += QQ_VOICE_TRANSFORM_MAX_LENGTH;
-            length -= QQ_VOICE_TRANSFORM_MAX_LENGTH;
+            decoder.finish();
+            chunks.finish();
+            TRANSFORMER_LOGGER.info("Transformed {} into {} mp3 files.", source, index);
         }
-        File pcm = TempFileSystem.createTmpFile("tmp", "pcm");
-        executeCommand(null, FFMPEG_LOCATION,
-                "-i", sourceFile.getAbsolutePath(),
-                "-ss", String.valueOf(offset),
-                "-f", "s16le",
-                "-ar", String.valueOf(QQ_VOICE_SAMPLE_RATE),
-                "-ac", "1",
-                "-acodec", "pcm_s16le",
-                "-y", pcm.getAbsolutePath());
-        silks.add(transformPCMtoSILK(pcm));
-        TempFileSystem.unlockFileAndDelete(sourceFile);
-        TRANSFORMER_LOGGER.info("Transformed {} to silk files.", sourceFile);
-        return silks.toArray(new File[0]);
-    }
-
-    public static File transformPCMtoSILK(File sourceFile) throws Exception {
-        File silk = TempFileSystem.createTmpFile("slk", "silk");
-        executeCommand(null, ENCODER_LOCATION,
-                sourceFile.getAbsolutePath(), silk.getAbsolutePath(),
-                "-Fs_API", String.valueOf(QQ_VOICE_SAMPLE_RATE), "-tencent");
-        TempFileSystem.unlockFileAndDelete(sourceFile);
-        return silk;
+    }
+
+    // The encoder reads its input front to back, so where /dev/stdin exists the PCM is piped in instead of written out
+    private static CompletableFuture<File> encodeSilk(byte[] pcm) {
+        CompletableFuture<File> future = new CompletableFuture<>();
+        ENCODERS.execute(() -> {
+            File input = null;
+            File silk = null;
+            try {
+                if (!STDIN_INPUT) {
+                    input = TempFileSystem.createTmpFile("tmp", "pcm");
+                    Files.write(input.toPath(), pcm);
+                }
+                silk = TempFileSystem.createTmpFile("slk", "silk");
+                Process process = new ProcessBuilder(ENCODER_LOCATION,
+                        input == null ? "/dev/stdin" : input.getAbsolutePath(), silk.getAbsolutePath(),
+                        "-Fs_API", String.valueOf(QQ_VOICE_SAMPLE_RATE), "-tencent")
+                        .redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+                try (OutputStream stdin = process.getOutputStream()) {
+                    if (input == null)
+                        stdin.write(pcm);
+                }
+                int code = process.waitFor();
+                if (code != 0 || !silk.isFile())
+                    throw new IOException("SILK encoder exited with code " + code + ".");
+                future.complete(silk);
+            } catch (Throwable t) {
+                if (silk != null)
+                    TempFileSystem.unlockFileAndDelete(silk);
+                future.completeExceptionally(t);
+            } finally {
+                if (input != null)
+                    TempFileSystem.unlockFileAndDelete(input);
+            }
+        });
+        return future;
+    }
+
+    private static ThreadPoolExecutor newPool(String name, int size) {
+        return new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                        (t, e) -> ErrorRecord.enqueueError("audio.transform", e)
+                ).daemon(true).namingPattern(name).build());
+    }
+
+    private static void resize(ThreadPoolExecutor executor, int size) {
+        size = Math.max(1, size);
+        if (size > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(size);
+            executor.setCorePoolSize(size);
+        } else {
+            executor.setCorePoolSize(size);
+            executor.setMaximumPoolSize(size);
+        }
+    }
+
+    public static URL transformImageToPNG(URL source, String format) throws Exception {
+        if (FFMPEG_LOCATION == null)
+            return null;
+        return TranscodeCache.file(source.toString(), "png", () -> {
+            try (InputStream input = source.openStream()) {
+                return transformImage(input, format);
+            }
+        }).toURI().toURL();
     }
 
     public static URL transformImageToPNG(InputStream input, String format) throws Exception {
         if (FFMPEG_LOCATION == null)
             return null;
+        return transformImage(input, format).toURI().toURL();
+    }
+
+    private static File transformImage(InputStream input, String format) throws Exception {
         File inputImage = TempFileSystem.createTmpFile("image", format);
         try (FileOutputStream fos = new FileOutputStream(inputImage)) {
             IOUtils.copy(input, fos);
@@ -139,7 +236,7 @@ public class FormatTransformer {
                 "-i", inputImage.getAbsolutePath(), output.getAbsolutePath());
         TempFileSystem.unlockFileAndDelete(inputImage);
         TRANSFORMER_LOGGER.info("Transformed a {} image to PNG.", format);
-        return output.toURI().toURL();
+        return output;
     }
 
     public static void executeCommand(OutputStream output, String... commandStr) throws Exception {
@@ -162,6 +259,88 @@ public class FormatTransformer {
                 output.write(buffer, 0, length);
     }
 
+    // One ffmpeg process reading the source once, fed from Java so that the bot proxy settings apply
+    private static class Decoder implements AutoCloseable {
+
+        private final Process process;
+        private final File log;
+        private final File downloaded;
+        private final Future<?> feeder;
+
+        private Decoder(String suffix, URL source, String... output) throws IOException {
+            List<String> command = new ArrayList<>(List.of(FFMPEG_LOCATION, "-hide_banner", "-loglevel", "error"));
+            File downloaded = null;
+            File log = null;
+            Process process = null;
+            // Nothing owns the temp files until the constructor returns, so a failure here releases them
+            try {
+                if (NEED_SEEK.contains(suffix.toLowerCase(Locale.ROOT))) {
+                    downloaded = TempFileSystem.createTmpFileAndCreate("as", suffix);
+                    IOUtils.copy(source, downloaded);
+                    command.add("-i");
+                    command.add(downloaded.getAbsolutePath());
+                } else {
+                    command.add("-i");
+                    command.add("pipe:0");
+                }
+                command.addAll(List.of(output));
+                log = TempFileSystem.createTmpFile("ffmpeg", "log");
+                TRANSFORMER_LOGGER.debug("Execute Command: {}", String.join(" ", command));
+                process = new ProcessBuilder(command).redirectError(log).start();
+                if (downloaded != null)
+                    process.getOutputStream().close();
+            } catch (IOException | RuntimeException e) {
+                if (process != null)
+                    process.destroyForcibly();
+                if (log != null)
+                    TempFileSystem.unlockFileAndDelete(log);
+                if (downloaded != null)
+                    TempFileSystem.unlockFileAndDelete(downloaded);
+                throw e;
+            }
+            this.downloaded = downloaded;
+            this.log = log;
+            this.process = process;
+            if (downloaded == null)
+                feeder = FEEDERS.submit(() -> {
+                    try (InputStream input = source.openStream(); OutputStream stdin = this.process.getOutputStream()) {
+                        IOUtils.copy(input, stdin);
+                    }
+                    return null;
+                });
+            else
+                feeder = null;
+        }
+
+        // Chunks handed out before a failure still play, but the failure is raised so the output is never cached
+        private void finish() throws Exception {
+            int code = process.waitFor();
+            Exception feedError = null;
+            if (feeder != null)
+                try {
+                    feeder.get();
+                } catch (ExecutionException e) {
+                    feedError = e.getCause() instanceof Exception cause ? cause : e;
+                }
+            if (feedError != null)
+                throw new IOException("Cannot read audio source.", feedError);
+            if (code != 0)
+                throw new IOException("FFmpeg exited with code " + code + ": " +
+                        IOUtils.toString(log.toURI(), StandardCharsets.UTF_8).trim());
+        }
+
+        @Override
+        public void close() {
+            if (process.isAlive())
+                process.destroyForcibly();
+            if (feeder != null)
+                feeder.cancel(true);
+            TempFileSystem.unlockFileAndDelete(log);
+            if (downloaded != null)
+                TempFileSystem.unlockFileAndDelete(downloaded);
+        }
+    }
+
     private static class DeleteStream extends FileInputStream {
 
         private final File source;
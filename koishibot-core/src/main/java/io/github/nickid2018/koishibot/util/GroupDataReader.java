@@ -1,73 +1,35 @@
 package io.github.nickid2018.koishibot.util;
 
-import io.github.nickid2018.koishibot.core.ErrorRecord;
-import io.github.nickid2018.koishibot.util.func.BiConsumerNE;
-import io.github.nickid2018.koishibot.util.func.FunctionNE;
+import io.github.nickid2018.koishibot.util.storage.Codec;
+import io.github.nickid2018.koishibot.util.storage.DataStorage;
+import io.github.nickid2018.koishibot.util.storage.StorageMigrator;
 import org.apache.commons.io.filefilter.SuffixFileFilter;
 
-import java.io.*;
-import java.util.HashSet;
-import java.util.Map;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.function.Function;
 import java.util.function.Supplier;
 
-public class GroupDataReader<E> {
+public class GroupDataReader<E> extends KeyedDataReader<E> {
 
-    private final String name;
-    private final FunctionNE<InputStream, E> reader;
-    private final BiConsumerNE<OutputStream, E> writer;
-    private final Supplier<E> empty;
+    // Only holds data from before the storage engine, and whole-object files named after it
     protected final File folder;
 
-    protected final Map<String, E> data = new ConcurrentHashMap<>();
-
-    public GroupDataReader(String name, FunctionNE<InputStream, E> reader,
-                           BiConsumerNE<OutputStream, E> writer, Supplier<E> empty) {
-       this.name = name;
-       this.reader = reader;
-       this.writer = writer;
-       this.empty = empty;
-       folder = new File("data", name);
-       if (!folder.isDirectory())
-           folder.mkdirs();
+    public GroupDataReader(String name, Codec<E> codec, Supplier<E> empty) {
+        super(StorageMigrator.groupNamespace(name), codec, empty);
+        folder = new File("data", name);
     }
 
+    @Override
     public void loadAll() {
-        File[] files = folder.listFiles((FileFilter) new SuffixFileFilter("gpd"));
-        if (files == null)
-            return;
-        for (File file : files) {
-            String name = file.getName();
-            getData(name.substring(0, name.lastIndexOf('.')));
-        }
-    }
-
-    public E getData(String group) {
-        return data.computeIfAbsent(group, g -> {
-            File file = new File(folder, g + ".gpd");
-            if (!file.exists())
-                return empty.get();
-            try (InputStream is = new FileInputStream(file)) {
-                return reader.apply(is);
-            } catch (Exception e) {
-                ErrorRecord.enqueueError("group.data." + name, e);
-                return empty.get();
+        File[] files = folder.listFiles((FileFilter) new SuffixFileFilter(StorageMigrator.GROUP_SUFFIX));
+        if (files != null)
+            for (File file : files) {
+                String name = file.getName();
+                getData(name.substring(0, name.lastIndexOf('.')));
             }
-        });
-    }
-
-    public void putData(String group, E data) throws Exception {
-        this.data.put(group, data);
-        File file = new File(folder, group + ".gpd");
-        if (!file.exists())
-            file.createNewFile();
-        writer.accept(new FileOutputStream(file), data);
-    }
-
-    public void updateData(String group, Function<E, E> changer) throws Exception {
-        putData(group, changer.apply(getData(group)));
+        super.loadAll();
     }
 
     public File getFolder() {
@@ -75,6 +37,14 @@ public class GroupDataReader<E> {
     }
 
     public Set<String> getGroups() {
-        return new HashSet<>(data.keySet());
+        return getKeys();
+    }
+
+    // Groups still in the old layout are imported the first time they are read
+    @Override
+    protected byte[] load(String group) throws IOException {
+        byte[] bytes = super.load(group);
+        return bytes != null ? bytes : StorageMigrator.importFile(DataStorage.getEngine(),
+                DataStorage.keyOf(namespace, group), new File(folder, group + StorageMigrator.GROUP_SUFFIX));
     }
 }
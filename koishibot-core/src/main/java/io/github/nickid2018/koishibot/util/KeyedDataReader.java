@@ -0,0 +1,74 @@
+package io.github.nickid2018.koishibot.util;
+
+import io.github.nickid2018.koishibot.core.ErrorRecord;
+import io.github.nickid2018.koishibot.util.storage.Codec;
+import io.github.nickid2018.koishibot.util.storage.DataStorage;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Every key is stored on its own, so a change only writes the value that changed
+public class KeyedDataReader<E> {
+
+    protected final String namespace;
+    private final Codec<E> codec;
+    private final Supplier<E> empty;
+
+    protected final Map<String, E> data = new ConcurrentHashMap<>();
+
+    public KeyedDataReader(String namespace, Codec<E> codec, Supplier<E> empty) {
+        this.namespace = namespace;
+        this.codec = codec;
+        this.empty = empty;
+    }
+
+    public void loadAll() {
+        String prefix = DataStorage.keyOf(namespace, "");
+        try {
+            for (String key : DataStorage.keys(prefix))
+                getData(key.substring(prefix.length()));
+        } catch (IOException e) {
+            ErrorRecord.enqueueError("data." + namespace, e);
+        }
+    }
+
+    public E getData(String key) {
+        return data.computeIfAbsent(key, k -> {
+            try {
+                byte[] bytes = load(k);
+                return bytes == null ? empty.get() : codec.decode(bytes);
+            } catch (Exception e) {
+                ErrorRecord.enqueueError("data." + namespace, e);
+                return empty.get();
+            }
+        });
+    }
+
+    // Served from memory right away, written to the storage with the next flush
+    public void putData(String key, E value) throws IOException {
+        data.put(key, value);
+        DataStorage.write(DataStorage.keyOf(namespace, key), codec.encode(value));
+    }
+
+    public void removeData(String key) {
+        data.remove(key);
+        DataStorage.write(DataStorage.keyOf(namespace, key), null);
+    }
+
+    public void updateData(String key, Function<E, E> changer) throws IOException {
+        putData(key, changer.apply(getData(key)));
+    }
+
+    public Set<String> getKeys() {
+        return new HashSet<>(data.keySet());
+    }
+
+    protected byte[] load(String key) throws IOException {
+        return DataStorage.read(DataStorage.keyOf(namespace, key));
+    }
+}
@@ -0,0 +1,210 @@
+package io.github.nickid2018.koishibot.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// W-TinyLFU: a small LRU window admits into a segmented LRU main space, guarded by a frequency sketch
+public class TinyLfuCache<K, V> {
+
+    private int maximumSize;
+    private int windowCapacity;
+    private int protectedCapacity;
+    private int mainCapacity;
+
+    private final LinkedHashMap<K, V> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, V> protectedSpace = new LinkedHashMap<>(16, 0.75f, true);
+    private FrequencySketch sketch;
+
+    private BiConsumer<K, V> evictionListener = (k, v) -> {};
+
+    public TinyLfuCache(int maximumSize) {
+        configure(maximumSize);
+    }
+
+    public synchronized void setEvictionListener(BiConsumer<K, V> evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    public synchronized V get(K key) {
+        sketch.increment(key);
+        V value = window.get(key);
+        if (value != null)
+            return value;
+        value = protectedSpace.get(key);
+        if (value != null)
+            return value;
+        value = probation.remove(key);
+        if (value != null) {
+            protectedSpace.put(key, value);
+            demoteProtected();
+        }
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (window.containsKey(key)) {
+            window.put(key, value);
+            return;
+        }
+        if (protectedSpace.containsKey(key)) {
+            protectedSpace.put(key, value);
+            return;
+        }
+        if (probation.containsKey(key)) {
+            probation.put(key, value);
+            return;
+        }
+        sketch.increment(key);
+        window.put(key, value);
+        if (window.size() > windowCapacity) {
+            Map.Entry<K, V> candidate = removeEldest(window);
+            admit(candidate.getKey(), candidate.getValue());
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        if (window.remove(key) == null && protectedSpace.remove(key) == null)
+            probation.remove(key);
+    }
+
+    public synchronized void clear() {
+        window.clear();
+        probation.clear();
+        protectedSpace.clear();
+    }
+
+    // Keeps the entries, a smaller size evicts from the cold end of each space
+    public synchronized void setMaximumSize(int maximumSize) {
+        if (maximumSize == this.maximumSize)
+            return;
+        configure(maximumSize);
+        while (window.size() > windowCapacity) {
+            Map.Entry<K, V> eldest = removeEldest(window);
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+        demoteProtected();
+        while (probation.size() + protectedSpace.size() > mainCapacity) {
+            Map.Entry<K, V> victim = removeEldest(probation.isEmpty() ? protectedSpace : probation);
+            evictionListener.accept(victim.getKey(), victim.getValue());
+        }
+    }
+
+    public synchronized int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized int size() {
+        return window.size() + probation.size() + protectedSpace.size();
+    }
+
+    private void configure(int maximumSize) {
+        this.maximumSize = maximumSize;
+        int capacity = Math.max(2, maximumSize);
+        windowCapacity = Math.max(1, capacity / 100);
+        mainCapacity = capacity - windowCapacity;
+        protectedCapacity = (int) (mainCapacity * 0.8);
+        sketch = new FrequencySketch(capacity);
+    }
+
+    private void admit(K key, V value) {
+        if (probation.size() + protectedSpace.size() < mainCapacity) {
+            probation.put(key, value);
+            return;
+        }
+        LinkedHashMap<K, V> victimSpace = probation.isEmpty() ? protectedSpace : probation;
+        K victim = victimSpace.keySet().iterator().next();
+        if (sketch.frequency(key) > sketch.frequency(victim)) {
+            V victimValue = victimSpace.remove(victim);
+            probation.put(key, value);
+            evictionListener.accept(victim, victimValue);
+        } else
+            evictionListener.accept(key, value);
+    }
+
+    private void demoteProtected() {
+        while (protectedSpace.size() > protectedCapacity) {
+            Map.Entry<K, V> eldest = removeEldest(protectedSpace);
+            probation.put(eldest.getKey(), eldest.getValue());
+        }
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> map) {
+        Iterator<Map.Entry<K, V>> iterator = map.entrySet().iterator();
+        Map.Entry<K, V> next = iterator.next();
+        Map.Entry<K, V> eldest = Map.entry(next.getKey(), next.getValue());
+        iterator.remove();
+        return eldest;
+    }
+
+    // Count-min sketch with 4-bit counters, halved periodically so that old popularity fades
+    private static class FrequencySketch {
+
+        private final long[] table;
+        private final int mask;
+        private final int sampleSize;
+        private int size;
+
+        private FrequencySketch(int capacity) {
+            int length = Integer.highestOneBit(Math.max(8, capacity - 1) << 1);
+            table = new long[length];
+            mask = length - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        private int frequency(Object key) {
+            int hash = spread(key.hashCode());
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++)
+                frequency = Math.min(frequency, counter(hash, i));
+            return frequency;
+        }
+
+        private void increment(Object key) {
+            int hash = spread(key.hashCode());
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int offset = counterOffset(hash, i);
+                if (((table[index] >>> offset) & 0xF) != 0xF) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++size >= sampleSize)
+                reset();
+        }
+
+        private int counter(int hash, int i) {
+            return (int) ((table[indexOf(hash, i)] >>> counterOffset(hash, i)) & 0xF);
+        }
+
+        private int indexOf(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+
+        private int counterOffset(int hash, int i) {
+            return (((hash >>> (i << 3)) & 3) << 2) + (i << 4);
+        }
+
+        private void reset() {
+            for (int i = 0; i < table.length; i++)
+                table[i] = (table[i] >>> 1) & 0x7777_7777_7777_7777L;
+            size >>>= 1;
+        }
+
+        private static int spread(int x) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+
+        private static final long[] SEEDS = {
+                0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+    }
+}
@@ -0,0 +1,27 @@
+package io.github.nickid2018.koishibot.util;
+
+import java.util.concurrent.TimeUnit;
+
+public class TokenBucket {
+
+    private final long nanosPerToken;
+    private final long burstTolerance;
+    private long theoreticalArrival;
+
+    public TokenBucket(long interval, TimeUnit unit, int burst) {
+        nanosPerToken = Math.max(1, unit.toNanos(interval));
+        burstTolerance = nanosPerToken * (Math.max(1, burst) - 1);
+        theoreticalArrival = System.nanoTime();
+    }
+
+    public synchronized long delayNanos(long now) {
+        return Math.max(0, theoreticalArrival - burstTolerance - now);
+    }
+
+    public synchronized boolean tryAcquire(long now) {
+        if (delayNanos(now) > 0)
+            return false;
+        theoreticalArrival = Math.max(theoreticalArrival, now) + nanosPerToken;
+        return true;
+    }
+}
@@ -0,0 +1,339 @@
+package io.github.nickid2018.koishibot.util;
+
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.core.TempFileSystem;
+import io.github.nickid2018.koishibot.util.func.SupplierE;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+// Transcoded outputs kept on disk by source and target format, every requester gets its own temp copies
+public class TranscodeCache {
+
+    public static final Logger TRANSCODE_CACHE_LOGGER = LoggerFactory.getLogger("Transcode Cache");
+
+    // Written last with the chunk count, an entry without it was interrupted
+    private static final String DONE = "done";
+
+    private static final LinkedHashMap<String, Long> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Map<String, Flight> IN_FLIGHT = new HashMap<>();
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder SHARED = new LongAdder();
+
+    private static Path directory;
+    private static long maxSize = 1L << 30;
+    private static long size;
+
+    public static synchronized void loadTranscodeCache(JsonObject settingsRoot) {
+        JsonObject cache = JsonUtil.getData(settingsRoot, "transcode_cache", JsonObject.class)
+                .orElseGet(JsonObject::new);
+        maxSize = JsonUtil.getLongOrElse(cache, "max_size", 1L << 30);
+        directory = Path.of(JsonUtil.getStringOrElse(cache, "dir", "transcode_cache"));
+        ENTRIES.clear();
+        size = 0;
+        try {
+            Files.createDirectories(directory);
+            List<Path> entries;
+            try (Stream<Path> stream = Files.list(directory)) {
+                entries = new ArrayList<>(stream.toList());
+            }
+            entries.removeIf(path -> {
+                if (Files.isRegularFile(path.resolve(DONE)))
+                    return false;
+                FileUtils.deleteQuietly(path.toFile());
+                return true;
+            });
+            entries.sort(Comparator.comparing(path -> modifiedTime(path.resolve(DONE))));
+            for (Path entry : entries) {
+                long length = FileUtils.sizeOfDirectory(entry.toFile());
+                ENTRIES.put(entry.getFileName().toString(), length);
+                size += length;
+            }
+            trim();
+            TRANSCODE_CACHE_LOGGER.info("Transcode cache loaded, {} entries, {} bytes.", ENTRIES.size(), size);
+        } catch (IOException e) {
+            directory = null;
+            TRANSCODE_CACHE_LOGGER.error("Cannot open transcode cache, transcoding without cache.", e);
+        }
+    }
+
+    // Concurrent requests for the same source and format share one transcode
+    public static AudioChunks chunks(String source, String format, Supplier<AudioChunks> transcode) {
+        String key = key(source, format);
+        Path cached;
+        synchronized (TranscodeCache.class) {
+            if (directory == null)
+                return transcode.get();
+            // The get also moves the entry to the young end of the LRU order
+            cached = ENTRIES.get(key) != null ? directory.resolve(key) : null;
+        }
+        AudioChunks result = new AudioChunks();
+        // Copied without the lock, a large hit must not hold up every other request
+        if (cached != null && replay(key, cached, format, result)) {
+            HITS.increment();
+            return result;
+        }
+        Flight flight;
+        synchronized (TranscodeCache.class) {
+            if (directory == null)
+                return transcode.get();
+            flight = IN_FLIGHT.get(key);
+            if (flight != null)
+                SHARED.increment();
+            else {
+                MISSES.increment();
+                flight = new Flight(key, format, directory.resolve(key));
+                IN_FLIGHT.put(key, flight);
+            }
+        }
+        flight.subscribe(result);
+        if (flight.start()) {
+            try {
+                AudioChunks output = transcode.get();
+                if (output == null)
+                    throw new IOException("Transcoder is not available.");
+                collect(output, flight, 0);
+            } catch (Exception e) {
+                flight.fail(e);
+            }
+        }
+        return result;
+    }
+
+    public static File file(String source, String format, SupplierE<File, Exception> transcode) throws Exception {
+        AudioChunks chunks = chunks(source, format, () -> {
+            AudioChunks single = new AudioChunks();
+            try {
+                single.set(0, CompletableFuture.completedFuture(transcode.get()));
+                single.finish();
+            } catch (Exception e) {
+                single.fail(e);
+            }
+            return single;
+        });
+        try {
+            return chunks.get(0);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    public static long getHitCount() {
+        return HITS.sum();
+    }
+
+    public static long getMissCount() {
+        return MISSES.sum();
+    }
+
+    public static long getSharedCount() {
+        return SHARED.sum();
+    }
+
+    public static synchronized long getSize() {
+        return size;
+    }
+
+    private static void collect(AudioChunks output, Flight flight, int index) {
+        output.getFuture(index).whenComplete((file, t) -> {
+            if (t != null)
+                flight.fail(t);
+            else if (file == null)
+                flight.finish();
+            else {
+                flight.add(file);
+                collect(output, flight, index + 1);
+            }
+        });
+    }
+
+    private static boolean replay(String key, Path entry, String format, AudioChunks result) {
+        List<File> files = new ArrayList<>();
+        try {
+            int count = Integer.parseInt(Files.readString(entry.resolve(DONE)).trim());
+            for (int i = 0; i < count; i++)
+                files.add(copyOut(entry.resolve(i + "." + format), format));
+            Files.setLastModifiedTime(entry.resolve(DONE), FileTime.fromMillis(System.currentTimeMillis()));
+            for (int i = 0; i < count; i++)
+                result.set(i, CompletableFuture.completedFuture(files.get(i)));
+            result.finish();
+            return true;
+        } catch (IOException | NumberFormatException e) {
+            files.forEach(TempFileSystem::unlockFileAndDelete);
+            drop(key, e);
+            return false;
+        }
+    }
+
+    // An entry evicted while it was being copied is already gone, only one still listed is broken
+    private static synchronized void drop(String key, Exception e) {
+        Long length = ENTRIES.remove(key);
+        if (length == null)
+            return;
+        TRANSCODE_CACHE_LOGGER.warn("Broken transcode cache entry {}, dropping it.", key, e);
+        size -= length;
+        FileUtils.deleteQuietly(directory.resolve(key).toFile());
+    }
+
+    private static synchronized void store(Flight flight, int count) {
+        IN_FLIGHT.remove(flight.key, flight);
+        try {
+            Files.writeString(flight.entry.resolve(DONE), String.valueOf(count), StandardCharsets.UTF_8);
+            long length = FileUtils.sizeOfDirectory(flight.entry.toFile());
+            ENTRIES.put(flight.key, length);
+            size += length;
+            trim();
+        } catch (IOException | IllegalArgumentException e) {
+            TRANSCODE_CACHE_LOGGER.warn("Cannot store transcode result {}.", flight.key, e);
+            FileUtils.deleteQuietly(flight.entry.toFile());
+        }
+    }
+
+    private static synchronized void discard(Flight flight) {
+        IN_FLIGHT.remove(flight.key, flight);
+        FileUtils.deleteQuietly(flight.entry.toFile());
+    }
+
+    private static void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = ENTRIES.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            FileUtils.deleteQuietly(directory.resolve(eldest.getKey()).toFile());
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static File copyOut(Path path, String format) throws IOException {
+        File file = TempFileSystem.createTmpFile("tc", format);
+        try {
+            Files.copy(path, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            TempFileSystem.unlockFileAndDelete(file);
+            throw e;
+        }
+        return file;
+    }
+
+    private static String key(String source, String format) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(format.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(source.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static FileTime modifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static class Flight {
+
+        private final String key;
+        private final String format;
+        private final Path entry;
+        private final List<Path> stored = new ArrayList<>();
+        private final List<AudioChunks> subscribers = new ArrayList<>();
+        private boolean started;
+        private boolean finished;
+        private boolean cacheable = true;
+        private Throwable failure;
+
+        private Flight(String key, String format, Path entry) {
+            this.key = key;
+            this.format = format;
+            this.entry = entry;
+        }
+
+        private synchronized boolean start() {
+            if (started)
+                return false;
+            started = true;
+            return true;
+        }
+
+        // Late subscribers catch up on what is already stored
+        private synchronized void subscribe(AudioChunks chunks) {
+            for (int i = 0; i < stored.size(); i++)
+                chunks.set(i, copy(stored.get(i)));
+            if (finished)
+                chunks.finish();
+            else if (failure != null)
+                chunks.fail(failure);
+            else
+                subscribers.add(chunks);
+        }
+
+        private synchronized void add(File file) {
+            Path path = entry.resolve(stored.size() + "." + format);
+            try {
+                Files.createDirectories(entry);
+                Files.move(file.toPath(), path, StandardCopyOption.REPLACE_EXISTING);
+                TempFileSystem.unlockFileAndDelete(file);
+            } catch (IOException e) {
+                TRANSCODE_CACHE_LOGGER.warn("Cannot move transcode output into the cache.", e);
+                cacheable = false;
+                path = file.toPath();
+            }
+            stored.add(path);
+            for (AudioChunks chunks : subscribers)
+                chunks.set(stored.size() - 1, copy(path));
+        }
+
+        private synchronized void finish() {
+            finished = true;
+            subscribers.forEach(AudioChunks::finish);
+            subscribers.clear();
+            if (cacheable && !stored.isEmpty())
+                store(this, stored.size());
+            else
+                cleanUp();
+        }
+
+        private synchronized void fail(Throwable t) {
+            failure = t;
+            subscribers.forEach(chunks -> chunks.fail(t));
+            subscribers.clear();
+            cleanUp();
+        }
+
+        private void cleanUp() {
+            for (Path path : stored)
+                if (!path.startsWith(entry))
+                    TempFileSystem.unlockFileAndDelete(path.toFile());
+            discard(this);
+        }
+
+        private CompletableFuture<File> copy(Path path) {
+            try {
+                return CompletableFuture.completedFuture(copyOut(path, format));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+    }
+}
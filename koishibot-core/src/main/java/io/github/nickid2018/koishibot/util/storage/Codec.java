@@ -0,0 +1,130 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import io.github.nickid2018.koishibot.util.func.BiConsumerNE;
+import io.github.nickid2018.koishibot.util.func.FunctionNE;
+
+import java.io.*;
+import java.util.*;
+
+// Values written by a codec start with CODEC_TAG, anything starting with the Java serialization magic is legacy data
+public interface Codec<E> {
+
+    byte CODEC_TAG = 1;
+
+    Codec<String> STRING = of(DataOutput::writeUTF, DataInput::readUTF);
+    Codec<Integer> INT = of(DataOutput::writeInt, DataInput::readInt);
+    Codec<Long> LONG = of(DataOutput::writeLong, DataInput::readLong);
+
+    void write(DataOutput output, E value) throws IOException;
+
+    E read(DataInput input) throws IOException;
+
+    default byte[] encode(E value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(CODEC_TAG);
+        write(output, value);
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    default E decode(byte[] bytes) throws IOException {
+        if (bytes.length > 0 && bytes[0] == CODEC_TAG)
+            return read(new DataInputStream(new ByteArrayInputStream(bytes, 1, bytes.length - 1)));
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (E) input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static <E> Codec<E> of(BiConsumerNE<DataOutput, E> writer, FunctionNE<DataInput, E> reader) {
+        return new Codec<>() {
+            @Override
+            public void write(DataOutput output, E value) throws IOException {
+                try {
+                    writer.accept(output, value);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+
+            @Override
+            public E read(DataInput input) throws IOException {
+                try {
+                    return reader.apply(input);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+    static <E> Codec<Set<E>> setOf(Codec<E> element) {
+        return of((output, set) -> {
+            output.writeInt(set.size());
+            for (E e : set)
+                element.write(output, e);
+        }, input -> {
+            int size = input.readInt();
+            Set<E> set = new HashSet<>();
+            for (int i = 0; i < size; i++)
+                set.add(element.read(input));
+            return set;
+        });
+    }
+
+    static <E> Codec<List<E>> listOf(Codec<E> element) {
+        return of((output, list) -> {
+            output.writeInt(list.size());
+            for (E e : list)
+                element.write(output, e);
+        }, input -> {
+            int size = input.readInt();
+            List<E> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(element.read(input));
+            return list;
+        });
+    }
+
+    static <K, V> Codec<Map<K, V>> mapOf(Codec<K> key, Codec<V> value) {
+        return of((output, map) -> {
+            output.writeInt(map.size());
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                key.write(output, entry.getKey());
+                value.write(output, entry.getValue());
+            }
+        }, input -> {
+            int size = input.readInt();
+            Map<K, V> map = new HashMap<>();
+            for (int i = 0; i < size; i++)
+                map.put(key.read(input), value.read(input));
+            return map;
+        });
+    }
+
+    // For values without a dedicated codec, still length prefixed so it can sit inside other codecs
+    @SuppressWarnings("unchecked")
+    static <E> Codec<E> serializable() {
+        return of((output, value) -> {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream stream = new ObjectOutputStream(bytes)) {
+                stream.writeObject(value);
+            }
+            output.writeInt(bytes.size());
+            output.write(bytes.toByteArray());
+        }, input -> {
+            byte[] bytes = new byte[input.readInt()];
+            input.readFully(bytes);
+            try (ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                return (E) stream.readObject();
+            }
+        });
+    }
+}
@@ -0,0 +1,215 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import io.github.nickid2018.koishibot.core.ErrorRecord;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// The engine opens on first use, so engine settings only take effect if they are loaded before any data is read.
+// Writes are write-behind: the latest value of each key waits in memory and is committed in batches.
+public class DataStorage {
+
+    public static final Logger STORAGE_LOGGER = LoggerFactory.getLogger("Data Storage");
+
+    // Marks a pending removal, compared by identity
+    private static final byte[] REMOVED = new byte[0];
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+            new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (t, e) -> ErrorRecord.enqueueError("storage.flush", e)
+            ).daemon(true).namingPattern("Storage Flusher").build());
+    private static final Object FLUSH_LOCK = new Object();
+
+    private static final LongAdder WRITES = new LongAdder();
+    private static final LongAdder COMMITTED = new LongAdder();
+    private static final LongAdder FLUSHES = new LongAdder();
+
+    private static String engineName = "log";
+    private static Path directory = Path.of("data", "store");
+    private static boolean sync = true;
+    private static long compactMin = 4L << 20;
+    private static StorageEngine engine;
+
+    private static Map<String, byte[]> dirty = new LinkedHashMap<>();
+    // The batch being committed, still visible to reads until the engine has it
+    private static Map<String, byte[]> flushing = Map.of();
+    private static int flushSize = 256;
+    private static boolean flushQueued;
+    private static ScheduledFuture<?> flushTask;
+
+    static {
+        scheduleFlush(1000);
+    }
+
+    public static synchronized void loadStorageSettings(JsonObject settingsRoot) {
+        JsonObject storage = JsonUtil.getData(settingsRoot, "storage", JsonObject.class).orElseGet(JsonObject::new);
+        flushSize = Math.max(1, JsonUtil.getIntOrElse(storage, "flush_size", 256));
+        scheduleFlush(Math.max(10, JsonUtil.getLongOrElse(storage, "flush_interval", 1000)));
+        String name = JsonUtil.getStringOrElse(storage, "engine", "log");
+        Path dir = Path.of(JsonUtil.getStringOrElse(storage, "dir", "data/store"));
+        if (engine != null) {
+            if (!name.equals(engineName) || !dir.equals(directory))
+                STORAGE_LOGGER.warn("Storage is already open, the new engine settings apply after a restart.");
+            return;
+        }
+        engineName = name;
+        directory = dir;
+        sync = JsonUtil.getData(storage, "sync", JsonPrimitive.class).map(JsonPrimitive::getAsBoolean).orElse(true);
+        compactMin = JsonUtil.getLongOrElse(storage, "compact_min", 4L << 20);
+    }
+
+    public static synchronized StorageEngine getEngine() throws IOException {
+        if (engine == null) {
+            engine = switch (engineName) {
+                case "file" -> new FileStore(directory);
+                case "log" -> new LogStore(directory, sync, compactMin);
+                default -> throw new IOException("Unknown storage engine: " + engineName);
+            };
+            STORAGE_LOGGER.info("Opened {} storage at {}.", engineName, directory);
+        }
+        return engine;
+    }
+
+    public static byte[] read(String key) throws IOException {
+        synchronized (DataStorage.class) {
+            byte[] pending = dirty.containsKey(key) ? dirty.get(key) : flushing.get(key);
+            if (pending != null)
+                return pending == REMOVED ? null : pending;
+        }
+        return getEngine().get(key);
+    }
+
+    // Only replaces what is pending for the key, the disk sees it with the next flush
+    public static synchronized void write(String key, byte[] value) {
+        WRITES.increment();
+        dirty.put(key, value == null ? REMOVED : value);
+        if (dirty.size() >= flushSize && !flushQueued && !FLUSHER.isShutdown()) {
+            flushQueued = true;
+            FLUSHER.execute(DataStorage::flushQuietly);
+        }
+    }
+
+    public static Set<String> keys(String prefix) throws IOException {
+        Set<String> keys = getEngine().keys(prefix);
+        synchronized (DataStorage.class) {
+            for (Map<String, byte[]> pending : List.of(flushing, dirty))
+                pending.forEach((key, value) -> {
+                    if (!key.startsWith(prefix))
+                        return;
+                    if (value == REMOVED)
+                        keys.remove(key);
+                    else
+                        keys.add(key);
+                });
+        }
+        return keys;
+    }
+
+    public static void flush() throws IOException {
+        synchronized (FLUSH_LOCK) {
+            Map<String, byte[]> batch;
+            synchronized (DataStorage.class) {
+                flushQueued = false;
+                if (dirty.isEmpty())
+                    return;
+                batch = dirty;
+                flushing = batch;
+                dirty = new LinkedHashMap<>();
+            }
+            Map<String, byte[]> changes = new HashMap<>();
+            batch.forEach((key, value) -> changes.put(key, value == REMOVED ? null : value));
+            try {
+                getEngine().write(changes);
+                COMMITTED.add(batch.size());
+                FLUSHES.increment();
+            } catch (IOException e) {
+                // Keep what failed unless it was overwritten meanwhile, the next flush tries again
+                synchronized (DataStorage.class) {
+                    Map<String, byte[]> retry = new LinkedHashMap<>(batch);
+                    retry.putAll(dirty);
+                    dirty = retry;
+                }
+                throw e;
+            } finally {
+                synchronized (DataStorage.class) {
+                    flushing = Map.of();
+                }
+            }
+        }
+    }
+
+    public static synchronized int getPendingCount() {
+        return dirty.size() + flushing.size();
+    }
+
+    public static long getWriteCount() {
+        return WRITES.sum();
+    }
+
+    public static long getCommittedCount() {
+        return COMMITTED.sum();
+    }
+
+    public static long getFlushCount() {
+        return FLUSHES.sum();
+    }
+
+    // Whole-object data is keyed by the path the file used to have
+    public static String keyOf(File file) {
+        Path path = Path.of("").toAbsolutePath().relativize(file.getAbsoluteFile().toPath()).normalize();
+        return "file/" + path.toString().replace(File.separatorChar, '/');
+    }
+
+    public static String keyOf(String namespace, String key) {
+        return namespace + "/" + key;
+    }
+
+    public static synchronized Path getDirectory() {
+        return directory;
+    }
+
+    public static void close() throws IOException {
+        FLUSHER.shutdown();
+        try {
+            FLUSHER.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        synchronized (DataStorage.class) {
+            if (engine != null) {
+                engine.close();
+                engine = null;
+            }
+        }
+        STORAGE_LOGGER.info("Storage closed, {} writes coalesced into {} commits of {} values.",
+                WRITES.sum(), FLUSHES.sum(), COMMITTED.sum());
+    }
+
+    private static void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            ErrorRecord.enqueueError("storage.flush", e);
+        }
+    }
+
+    private static synchronized void scheduleFlush(long interval) {
+        if (flushTask != null)
+            flushTask.cancel(false);
+        flushTask = FLUSHER.scheduleWithFixedDelay(DataStorage::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+}
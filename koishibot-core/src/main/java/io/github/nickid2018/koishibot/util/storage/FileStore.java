@@ -0,0 +1,74 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// One file per key, for setups that want to look at the data by hand. Batches are only atomic per key.
+public class FileStore implements StorageEngine {
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+
+    public FileStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        Path path = pathOf(key);
+        return Files.isRegularFile(path) ? Files.readAllBytes(path) : null;
+    }
+
+    @Override
+    public void write(Map<String, byte[]> changes) throws IOException {
+        for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+            Path path = pathOf(change.getKey());
+            if (change.getValue() == null) {
+                Files.deleteIfExists(path);
+                continue;
+            }
+            Path temp = path.resolveSibling(path.getFileName() + TEMP_SUFFIX);
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(change.getValue());
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                channel.force(true);
+            }
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public Set<String> keys(String prefix) throws IOException {
+        try (Stream<Path> stream = Files.list(directory)) {
+            return stream.map(path -> path.getFileName().toString())
+                    .filter(name -> !name.endsWith(TEMP_SUFFIX))
+                    .map(name -> URLDecoder.decode(name, StandardCharsets.UTF_8))
+                    .filter(key -> key.startsWith(prefix))
+                    .collect(Collectors.toSet());
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Path pathOf(String key) {
+        return directory.resolve(URLEncoder.encode(key, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import static io.github.nickid2018.koishibot.util.storage.DataStorage.STORAGE_LOGGER;
+
+// Append-only log of checksummed batches, the log is its own write-ahead log.
+// Only value positions are kept in memory, writers arriving together share one write and one fsync.
+public class LogStore implements StorageEngine {
+
+    public static final String LOG = "store.log";
+    public static final String COMPACT = "store.log.compact";
+
+    // Frame length and CRC32 of the frame body
+    private static final int HEADER = 8;
+    private static final int COMPACT_BATCH = 256;
+
+    private final Path directory;
+    private final boolean sync;
+    private final long compactMin;
+    private final Map<String, Location> index = new ConcurrentHashMap<>();
+    // Held exclusively only while compaction swaps the log
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    private final List<Batch> pending = new ArrayList<>();
+
+    private FileChannel channel;
+    private long end;
+    private long garbage;
+    private boolean flushing;
+    private boolean closed;
+
+    public LogStore(Path directory, boolean sync, long compactMin) throws IOException {
+        this.directory = directory;
+        this.sync = sync;
+        this.compactMin = compactMin;
+        Files.createDirectories(directory);
+        // A compaction that did not reach its rename never replaced anything
+        Files.deleteIfExists(directory.resolve(COMPACT));
+        channel = FileChannel.open(directory.resolve(LOG),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        recover();
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        swapLock.readLock().lock();
+        try {
+            Location location = index.get(key);
+            if (location == null)
+                return null;
+            ByteBuffer buffer = ByteBuffer.allocate(location.length);
+            readFully(channel, buffer, location.offset);
+            return buffer.array();
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<String> keys(String prefix) {
+        return index.keySet().stream().filter(key -> key.startsWith(prefix)).collect(Collectors.toSet());
+    }
+
+    @Override
+    public void write(Map<String, byte[]> changes) throws IOException {
+        if (changes.isEmpty())
+            return;
+        Batch batch = new Batch(changes);
+        List<Batch> group;
+        synchronized (this) {
+            if (closed)
+                throw new IOException("Storage is closed.");
+            pending.add(batch);
+            while (true) {
+                if (batch.done) {
+                    if (batch.failure != null)
+                        throw new IOException("Storage write failed.", batch.failure);
+                    return;
+                }
+                if (!flushing)
+                    break;
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            // Whoever finds no flush running commits everything queued so far, its own batch included
+            flushing = true;
+            group = new ArrayList<>(pending);
+            pending.clear();
+        }
+        IOException failure = flush(group);
+        if (failure == null && garbage > compactMin && garbage > end / 2) {
+            try {
+                compact();
+            } catch (IOException e) {
+                STORAGE_LOGGER.error("Cannot compact storage log, keeping the old one.", e);
+            }
+        }
+        synchronized (this) {
+            for (Batch committed : group) {
+                committed.failure = failure;
+                committed.done = true;
+            }
+            flushing = false;
+            notifyAll();
+        }
+        if (failure != null)
+            throw new IOException("Storage write failed.", failure);
+    }
+
+    public int getKeyCount() {
+        return index.size();
+    }
+
+    public synchronized long getLogSize() {
+        return end;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            while (flushing) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            closed = true;
+        }
+        swapLock.writeLock().lock();
+        try {
+            channel.force(true);
+            channel.close();
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    private IOException flush(List<Batch> group) {
+        long position = end;
+        int total = 0;
+        for (Batch batch : group)
+            total += batch.frame.length;
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for (Batch batch : group)
+            buffer.put(batch.frame);
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining())
+                channel.write(buffer, position + buffer.position());
+            if (sync)
+                channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(position);
+            } catch (IOException ignored) {
+            }
+            return e;
+        }
+        for (Batch batch : group) {
+            for (Entry entry : batch.entries)
+                apply(entry.key, position + entry.offset, entry.length, entry.size);
+            position += batch.frame.length;
+        }
+        end = position;
+        return null;
+    }
+
+    private void apply(String key, long offset, int length, int size) {
+        Location old = length < 0 ? index.remove(key) : index.put(key, new Location(offset, length, size));
+        if (old != null)
+            garbage += old.size;
+        if (length < 0)
+            garbage += size;
+    }
+
+    private void recover() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (position + HEADER <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            if (length < 4 || position + HEADER + length > size)
+                break;
+            ByteBuffer body = ByteBuffer.allocate(length);
+            readFully(channel, body, position + HEADER);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != header.getInt(4))
+                break;
+            replay(body.array(), position + HEADER);
+            position += HEADER + length;
+        }
+        // Anything after the last intact frame is a write that never completed
+        if (position < size) {
+            STORAGE_LOGGER.warn("Storage log has a torn tail, dropping {} bytes after offset {}.", size - position, position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+        end = position;
+        STORAGE_LOGGER.info("Storage log recovered, {} keys in {} bytes.", index.size(), end);
+    }
+
+    private void replay(byte[] body, long bodyOffset) throws IOException {
+        ByteArrayInputStream bytes = new ByteArrayInputStream(body);
+        DataInputStream input = new DataInputStream(bytes);
+        int count = input.readInt();
+        for (int i = 0; i < count; i++) {
+            int start = body.length - bytes.available();
+            String key = input.readUTF();
+            int length = input.readInt();
+            int offset = body.length - bytes.available();
+            if (length > 0)
+                input.skipNBytes(length);
+            apply(key, bodyOffset + offset, length, offset - start + Math.max(length, 0));
+        }
+    }
+
+    // Runs with the flush slot held, so nothing is appended meanwhile and readers only wait for the swap
+    private void compact() throws IOException {
+        Path target = directory.resolve(COMPACT);
+        Map<String, Location> moved = new HashMap<>();
+        long position = 0;
+        try (FileChannel output = FileChannel.open(target,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            List<String> keys = new ArrayList<>(index.keySet());
+            for (int i = 0; i < keys.size(); i += COMPACT_BATCH) {
+                Map<String, byte[]> chunk = new LinkedHashMap<>();
+                for (String key : keys.subList(i, Math.min(keys.size(), i + COMPACT_BATCH))) {
+                    byte[] value = get(key);
+                    if (value != null)
+                        chunk.put(key, value);
+                }
+                Batch batch = new Batch(chunk);
+                ByteBuffer buffer = ByteBuffer.wrap(batch.frame);
+                while (buffer.hasRemaining())
+                    output.write(buffer, position + buffer.position());
+                for (Entry entry : batch.entries)
+                    moved.put(entry.key, new Location(position + entry.offset, entry.length, entry.size));
+                position += batch.frame.length;
+            }
+            output.force(true);
+        }
+        Path log = directory.resolve(LOG);
+        swapLock.writeLock().lock();
+        try {
+            channel.close();
+            try {
+                Files.move(target, log, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                channel = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            long before = end;
+            index.clear();
+            index.putAll(moved);
+            end = position;
+            garbage = 0;
+            STORAGE_LOGGER.info("Compacted storage log from {} to {} bytes.", before, end);
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException();
+        }
+    }
+
+    private record Location(long offset, int length, int size) {
+    }
+
+    private record Entry(String key, int offset, int length, int size) {
+    }
+
+    private static class Batch {
+
+        private final byte[] frame;
+        private final List<Entry> entries = new ArrayList<>();
+        private boolean done;
+        private IOException failure;
+
+        private Batch(Map<String, byte[]> changes) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeLong(0);
+            output.writeInt(changes.size());
+            for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+                int start = output.size();
+                byte[] value = change.getValue();
+                output.writeUTF(change.getKey());
+                output.writeInt(value == null ? -1 : value.length);
+                int offset = output.size();
+                if (value != null)
+                    output.write(value);
+                entries.add(new Entry(change.getKey(), offset, value == null ? -1 : value.length, output.size() - start));
+            }
+            frame = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(frame, HEADER, frame.length - HEADER);
+            ByteBuffer.wrap(frame).putInt(0, frame.length - HEADER).putInt(4, (int) crc.getValue());
+        }
+    }
+}
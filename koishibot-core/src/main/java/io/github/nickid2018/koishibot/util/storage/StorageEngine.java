@@ -0,0 +1,27 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public interface StorageEngine extends Closeable {
+
+    byte[] get(String key) throws IOException;
+
+    // A null value removes the key, the whole batch is durable once this returns
+    void write(Map<String, byte[]> changes) throws IOException;
+
+    Set<String> keys(String prefix) throws IOException;
+
+    default void put(String key, byte[] value) throws IOException {
+        write(Map.of(key, value));
+    }
+
+    default void remove(String key) throws IOException {
+        Map<String, byte[]> changes = new HashMap<>();
+        changes.put(key, null);
+        write(changes);
+    }
+}
@@ -0,0 +1,102 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static io.github.nickid2018.koishibot.util.storage.DataStorage.STORAGE_LOGGER;
+
+// Moves the old one-file-per-object layout into the storage engine, imported files are renamed to *.migrated.
+// Readers import what they touch on their own, running this up front saves those file opens on the first start:
+//   java -cp <bot classpath> io.github.nickid2018.koishibot.util.storage.StorageMigrator [data folder] [data files...]
+public class StorageMigrator {
+
+    public static final String GROUP_SUFFIX = ".gpd";
+    public static final String MIGRATED_SUFFIX = ".migrated";
+
+    public static void main(String[] args) throws IOException {
+        File settings = new File("botKoishi.json");
+        if (settings.isFile())
+            DataStorage.loadStorageSettings(
+                    JsonParser.parseString(Files.readString(settings.toPath())).getAsJsonObject());
+        File data = new File(args.length > 0 ? args[0] : "data");
+        List<File> files = new ArrayList<>();
+        if (args.length > 1)
+            Arrays.stream(args, 1, args.length).map(File::new).forEach(files::add);
+        else {
+            files.add(new File("permission.dat"));
+            File[] tokens = new File("oauth2").listFiles(File::isFile);
+            if (tokens != null)
+                files.addAll(Arrays.asList(tokens));
+        }
+        try {
+            StorageEngine engine = DataStorage.getEngine();
+            int count = migrateFolder(engine, data);
+            for (File file : files)
+                if (importFile(engine, DataStorage.keyOf(file), file) != null)
+                    count++;
+            STORAGE_LOGGER.info("Migrated {} files into the storage.", count);
+        } finally {
+            DataStorage.close();
+        }
+    }
+
+    // data/<module>/<group>.gpd become group keys, other files in module folders are whole-object data
+    public static int migrateFolder(StorageEngine engine, File data) throws IOException {
+        File store = DataStorage.getDirectory().toFile().getAbsoluteFile();
+        File[] modules = data.listFiles(File::isDirectory);
+        if (modules == null)
+            return 0;
+        int count = 0;
+        for (File module : modules) {
+            if (module.getAbsoluteFile().equals(store))
+                continue;
+            File[] files = module.listFiles(file -> file.isFile() && !file.getName().endsWith(MIGRATED_SUFFIX));
+            if (files == null)
+                continue;
+            // One commit per module, the engine never sees a module half imported
+            Map<String, byte[]> batch = new HashMap<>();
+            for (File file : files) {
+                String name = file.getName();
+                String key = name.endsWith(GROUP_SUFFIX) ? DataStorage.keyOf(groupNamespace(module.getName()),
+                        name.substring(0, name.length() - GROUP_SUFFIX.length())) : DataStorage.keyOf(file);
+                byte[] bytes = Files.readAllBytes(file.toPath());
+                if (bytes.length > 0 && engine.get(key) == null)
+                    batch.put(key, bytes);
+            }
+            engine.write(batch);
+            for (File file : files)
+                markMigrated(file);
+            count += batch.size();
+        }
+        return count;
+    }
+
+    // Returns the imported bytes, or null if there was nothing to import
+    public static byte[] importFile(StorageEngine engine, String key, File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        if (bytes.length > 0)
+            engine.put(key, bytes);
+        markMigrated(file);
+        return bytes.length > 0 ? bytes : null;
+    }
+
+    public static String groupNamespace(String module) {
+        return "group/" + module;
+    }
+
+    private static void markMigrated(File file) {
+        try {
+            Files.move(file.toPath(), file.toPath().resolveSibling(file.getName() + MIGRATED_SUFFIX),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            STORAGE_LOGGER.warn("Cannot rename migrated file {}, it stays ignored anyway.", file, e);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+@InternalStack
+package io.github.nickid2018.koishibot.util.storage;
+
+import io.github.nickid2018.koishibot.util.InternalStack;
\ No newline at end of file
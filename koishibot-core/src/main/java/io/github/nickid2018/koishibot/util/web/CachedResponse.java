@@ -0,0 +1,17 @@
+package io.github.nickid2018.koishibot.util.web;
+
+public record CachedResponse(int status, String contentType, byte[] body,
+                             String etag, String lastModified, long expireTime) {
+
+    public boolean isFresh(long now) {
+        return now < expireTime;
+    }
+
+    public boolean canRevalidate() {
+        return etag != null || lastModified != null;
+    }
+
+    public CachedResponse withExpireTime(long expireTime) {
+        return new CachedResponse(status, contentType, body, etag, lastModified, expireTime);
+    }
+}
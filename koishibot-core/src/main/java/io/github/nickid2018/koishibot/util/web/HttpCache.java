@@ -0,0 +1,396 @@
+package io.github.nickid2018.koishibot.util.web;
+
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import io.github.nickid2018.koishibot.util.TinyLfuCache;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.apache.hc.core5.http.ClassicHttpResponse;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.core5.http.io.support.ClassicRequestBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+// GET response cache: heap W-TinyLFU tier, optional disk tier, conditional revalidation and single-flight loads
+public class HttpCache {
+
+    public static final Logger CACHE_LOGGER = LoggerFactory.getLogger("HTTP Cache");
+
+    // Headers that change the response and so take part in the key
+    private static final String[] VARY_HEADERS = {
+            HttpHeaders.ACCEPT, HttpHeaders.ACCEPT_LANGUAGE, HttpHeaders.AUTHORIZATION
+    };
+
+    private static final Map<String, CompletableFuture<CachedResponse>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+    private static final LongAdder REVALIDATED = new LongAdder();
+
+    private static volatile TinyLfuCache<String, CachedResponse> memory = new TinyLfuCache<>(1024);
+    private static volatile DiskTier disk;
+
+    public static void loadCacheSettings(JsonObject settingsRoot) {
+        JsonObject cache = JsonUtil.getData(settingsRoot, "http_cache", JsonObject.class).orElseGet(JsonObject::new);
+        int memorySize = JsonUtil.getIntOrElse(cache, "memory_size", 1024);
+        // A reload with the same size keeps what is already cached
+        if (memory.getMaximumSize() != memorySize)
+            memory = new TinyLfuCache<>(memorySize);
+        String diskDir = JsonUtil.getStringOrNull(cache, "disk_dir");
+        if (diskDir == null) {
+            disk = null;
+            return;
+        }
+        Path directory = Path.of(diskDir);
+        long diskSize = JsonUtil.getLongOrElse(cache, "disk_size", 64L << 20);
+        DiskTier diskTier = disk;
+        if (diskTier != null && diskTier.directory.equals(directory) && diskTier.maxSize == diskSize)
+            return;
+        try {
+            disk = new DiskTier(directory, diskSize);
+        } catch (IOException e) {
+            disk = null;
+            CACHE_LOGGER.error("Cannot open disk cache at {}, using memory only.", diskDir, e);
+        }
+    }
+
+    // ttl >= 0 overrides the freshness given by the response headers
+    public static CachedResponse fetch(HttpUriRequest request, long ttl) throws IOException {
+        String key = keyOf(request);
+        if (key == null)
+            return load(request, null, ttl, System.currentTimeMillis());
+
+        long now = System.currentTimeMillis();
+        CachedResponse cached = lookup(key);
+        if (cached != null && cached.isFresh(now)) {
+            HITS.increment();
+            return cached;
+        }
+
+        CompletableFuture<CachedResponse> mine = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> flight = IN_FLIGHT.putIfAbsent(key, mine);
+        if (flight != null)
+            return join(flight);
+        try {
+            MISSES.increment();
+            CachedResponse response = load(request, cached, ttl, now);
+            if (response.expireTime() >= 0)
+                store(key, response);
+            mine.complete(response);
+            return response;
+        } catch (IOException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            IN_FLIGHT.remove(key, mine);
+        }
+    }
+
+    public static void invalidate(HttpUriRequest request) {
+        String key = keyOf(request);
+        if (key == null)
+            return;
+        memory.invalidate(key);
+        DiskTier diskTier = disk;
+        if (diskTier != null)
+            diskTier.remove(key);
+    }
+
+    public static long getHitCount() {
+        return HITS.sum();
+    }
+
+    public static long getMissCount() {
+        return MISSES.sum();
+    }
+
+    public static long getRevalidatedCount() {
+        return REVALIDATED.sum();
+    }
+
+    private static CachedResponse lookup(String key) {
+        CachedResponse cached = memory.get(key);
+        if (cached != null)
+            return cached;
+        DiskTier diskTier = disk;
+        if (diskTier == null)
+            return null;
+        cached = diskTier.read(key);
+        if (cached != null)
+            memory.put(key, cached);
+        return cached;
+    }
+
+    private static void store(String key, CachedResponse response) {
+        memory.put(key, response);
+        DiskTier diskTier = disk;
+        if (diskTier != null)
+            diskTier.write(key, response);
+    }
+
+    private static CachedResponse join(CompletableFuture<CachedResponse> flight) throws IOException {
+        try {
+            return flight.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException io)
+                throw io;
+            if (e.getCause() instanceof RuntimeException re)
+                throw re;
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static CachedResponse load(HttpUriRequest request, CachedResponse stale, long ttl, long now) throws IOException {
+        boolean conditional = stale != null && stale.canRevalidate();
+        ClassicHttpRequest sent = request;
+        if (conditional) {
+            // Validators go on a copy, the caller may send its request again
+            sent = ClassicRequestBuilder.copy(request).build();
+            if (stale.etag() != null)
+                sent.setHeader(HttpHeaders.IF_NONE_MATCH, stale.etag());
+            if (stale.lastModified() != null)
+                sent.setHeader(HttpHeaders.IF_MODIFIED_SINCE, stale.lastModified());
+        }
+        return WebClients.classic().execute(sent, WebClients.newContext(), response -> {
+            int status = response.getCode();
+            if (status == 304 && conditional) {
+                EntityUtils.consume(response.getEntity());
+                REVALIDATED.increment();
+                return stale.withExpireTime(Math.max(now, expireTime(response, ttl, now)));
+            }
+            if (status / 100 != 2) {
+                EntityUtils.consume(response.getEntity());
+                WebUtil.WEB_LOGGER.debug("Incorrect return code in requesting {}: {}", request.getRequestUri(), status);
+                throw new ErrorCodeException(status);
+            }
+            byte[] body = response.getEntity() == null ? new byte[0] : EntityUtils.toByteArray(response.getEntity());
+            return new CachedResponse(status, headerValue(response, HttpHeaders.CONTENT_TYPE), body,
+                    headerValue(response, HttpHeaders.ETAG), headerValue(response, HttpHeaders.LAST_MODIFIED),
+                    expireTime(response, ttl, now));
+        });
+    }
+
+    // -1 means the response must not be stored
+    private static long expireTime(ClassicHttpResponse response, long ttl, long now) {
+        if (ttl >= 0)
+            return now + ttl;
+        boolean validators = response.containsHeader(HttpHeaders.ETAG) || response.containsHeader(HttpHeaders.LAST_MODIFIED);
+        String cacheControl = headerValue(response, HttpHeaders.CACHE_CONTROL);
+        if (cacheControl != null) {
+            long maxAge = -1;
+            for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store") || directive.equals("private"))
+                    return -1;
+                if (directive.equals("no-cache"))
+                    return validators ? now : -1;
+                if (directive.startsWith("max-age=") || directive.startsWith("s-maxage=")) {
+                    try {
+                        maxAge = Math.max(maxAge, Long.parseLong(directive.substring(directive.indexOf('=') + 1)));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+            }
+            if (maxAge >= 0)
+                return now + maxAge * 1000;
+        }
+        String expires = headerValue(response, HttpHeaders.EXPIRES);
+        if (expires != null) {
+            Instant instant = DateUtils.parseStandardDate(expires);
+            if (instant != null)
+                return Math.max(now, instant.toEpochMilli());
+        }
+        return validators ? now : -1;
+    }
+
+    private static String headerValue(ClassicHttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static String keyOf(HttpUriRequest request) {
+        if (!"GET".equals(request.getMethod()))
+            return null;
+        StringBuilder builder = new StringBuilder();
+        try {
+            builder.append(request.getUri());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        for (String name : VARY_HEADERS) {
+            Header header = request.getFirstHeader(name);
+            if (header != null)
+                builder.append('\n').append(name).append(':').append(header.getValue());
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(builder.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    private static class DiskTier {
+
+        private static final int MAGIC = 0x4B424843;
+        private static final String TEMP_SUFFIX = ".tmp";
+
+        private final Path directory;
+        private final long maxSize;
+        private long size;
+
+        private DiskTier(Path directory, long maxSize) throws IOException {
+            this.directory = directory;
+            this.maxSize = maxSize;
+            Files.createDirectories(directory);
+            // Half written entries from a previous run are never read, so they are dropped instead of counted
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    if (isTemp(file))
+                        Files.deleteIfExists(file);
+                    else
+                        size += sizeOf(file);
+                }
+            }
+        }
+
+        private synchronized CachedResponse read(String key) {
+            Path file = directory.resolve(key);
+            if (!Files.isRegularFile(file))
+                return null;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.getInt() != MAGIC)
+                    throw new IOException("Bad cache file");
+                int status = buffer.getInt();
+                String contentType = readString(buffer);
+                String etag = readString(buffer);
+                String lastModified = readString(buffer);
+                long expireTime = buffer.getLong();
+                byte[] body = new byte[buffer.getInt()];
+                buffer.get(body);
+                return new CachedResponse(status, contentType, body, etag, lastModified, expireTime);
+            } catch (Exception e) {
+                remove(key);
+                return null;
+            }
+        }
+
+        private synchronized void write(String key, CachedResponse response) {
+            Path file = directory.resolve(key);
+            Path temp = directory.resolve(key + TEMP_SUFFIX);
+            try {
+                try (DataOutputStream output = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                    output.writeInt(MAGIC);
+                    output.writeInt(response.status());
+                    writeString(output, response.contentType());
+                    writeString(output, response.etag());
+                    writeString(output, response.lastModified());
+                    output.writeLong(response.expireTime());
+                    output.writeInt(response.body().length);
+                    output.write(response.body());
+                }
+                size -= sizeOf(file);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                size += sizeOf(file);
+                if (size > maxSize)
+                    trim();
+            } catch (IOException e) {
+                CACHE_LOGGER.debug("Cannot write disk cache entry {}", key, e);
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private synchronized void remove(String key) {
+            Path file = directory.resolve(key);
+            long length = sizeOf(file);
+            try {
+                if (Files.deleteIfExists(file))
+                    size -= length;
+            } catch (IOException ignored) {
+            }
+        }
+
+        // Oldest written entries leave first, down to three quarters of the limit
+        private void trim() throws IOException {
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(directory)) {
+                files = new ArrayList<>(stream.filter(file -> !isTemp(file)).toList());
+            }
+            files.sort(Comparator.comparing(DiskTier::modifiedTime));
+            for (Path file : files) {
+                if (size <= maxSize / 4 * 3)
+                    break;
+                long length = sizeOf(file);
+                if (Files.deleteIfExists(file))
+                    size -= length;
+            }
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0)
+                return null;
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static void writeString(DataOutputStream output, String str) throws IOException {
+            if (str == null) {
+                output.writeInt(-1);
+                return;
+            }
+            byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+            output.writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        private static boolean isTemp(Path file) {
+            return file.getFileName().toString().endsWith(TEMP_SUFFIX);
+        }
+
+        private static long sizeOf(Path file) {
+            try {
+                return Files.isRegularFile(file) ? Files.size(file) : 0;
+            } catch (IOException e) {
+                return 0;
+            }
+        }
+
+        private static FileTime modifiedTime(Path file) {
+            try {
+                return Files.getLastModifiedTime(file);
+            } catch (IOException e) {
+                return FileTime.fromMillis(0);
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package io.github.nickid2018.koishibot.util.web;
 
 import com.google.gson.JsonObject;
 import io.github.nickid2018.koishibot.core.TempFileSystem;
+import io.github.nickid2018.koishibot.util.AsyncUtil;
 import io.github.nickid2018.koishibot.util.func.ConsumerNE;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.core5.http.io.entity.StringEntity;
@@ -17,6 +18,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.Consumer;
 
 public class MarkdownRenderer {
@@ -43,14 +45,32 @@ public class MarkdownRenderer {
     public static void render(String markdown, ConsumerNE<File> additional, Consumer<Exception> exception) throws IOException {
         File tmp = TempFileSystem.createTmpFileAndCreate("md", "png");
         render(markdown, tmp, () -> {
-            additional.accept(tmp);
-            TempFileSystem.unlockFileAndDelete(tmp);
+            try {
+                additional.accept(tmp);
+            } finally {
+                TempFileSystem.unlockFileAndDelete(tmp);
+            }
             return null;
-        }, exception);
+        }, e -> {
+            TempFileSystem.unlockFileAndDelete(tmp);
+            exception.accept(e);
+        });
     }
 
     public static void render(String markdown, File buffered, Callable<Void> additional, Consumer<Exception> exception) {
-        WebPageRenderer.getExecutor().execute(() -> {
+        boolean accepted = AsyncUtil.execute(() -> {
+            // Keyed by the source, so a hit skips the GitHub conversion as well as the browser
+            String key = RenderCache.key(DOC_HEAD, markdown, DOC_END);
+            if (RenderCache.fetch(key, buffered)) {
+                try {
+                    additional.call();
+                } catch (Exception e) {
+                    exception.accept(e);
+                }
+                return;
+            }
+
+            File tmpHTML;
             try {
                 JsonObject object = new JsonObject();
                 object.addProperty("text", markdown);
@@ -59,26 +79,40 @@ public class MarkdownRenderer {
                 post.setEntity(new StringEntity(object.toString(), StandardCharsets.UTF_8));
 
                 String convert = WebUtil.fetchDataInText(post);
-                File tmpHTML = TempFileSystem.createTmpFileAndCreate("help", "html");
+                tmpHTML = TempFileSystem.createTmpFileAndCreate("help", "html");
                 FileWriter fileWriter = new FileWriter(tmpHTML);
                 fileWriter.write(DOC_HEAD);
                 fileWriter.write(convert);
                 fileWriter.write(DOC_END);
                 fileWriter.close();
-
-                WebPageRenderer.getDriver().manage().window().setSize(new Dimension(10000, 10000));
-                WebPageRenderer.getDriver().get(tmpHTML.toURI().toURL().toString());
-                byte[] imageData = WebPageRenderer.getDriver().findElement(By.className("markdown-body"))
-                        .getScreenshotAs(OutputType.BYTES);
-                TempFileSystem.unlockFileAndDelete(tmpHTML);
-
-                BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
-                ImageIO.write(image, "png", buffered);
-
-                additional.call();
             } catch (Exception e) {
                 exception.accept(e);
+                return;
             }
+
+            WebPageRenderer.submit(WebPageRenderer.Priority.NORMAL, driver -> {
+                driver.manage().window().setSize(new Dimension(10000, 10000));
+                driver.get(tmpHTML.toURI().toURL().toString());
+                WebPageRenderer.waitForReady(driver);
+                return driver.findElement(By.className("markdown-body")).getScreenshotAs(OutputType.BYTES);
+            }, () -> TempFileSystem.unlockFileAndDelete(tmpHTML)).whenComplete((imageData, t) -> {
+                boolean finishing = AsyncUtil.execute(() -> {
+                    try {
+                        if (t != null)
+                            throw t instanceof Exception e ? e : new RuntimeException(t);
+                        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+                        ImageIO.write(image, "png", buffered);
+                        RenderCache.store(key, buffered);
+                        additional.call();
+                    } catch (Exception e) {
+                        exception.accept(e);
+                    }
+                });
+                if (!finishing)
+                    exception.accept(new RejectedExecutionException(AsyncUtil.BUSY_MESSAGE));
+            });
         });
+        if (!accepted)
+            exception.accept(new RejectedExecutionException(AsyncUtil.BUSY_MESSAGE));
     }
 }
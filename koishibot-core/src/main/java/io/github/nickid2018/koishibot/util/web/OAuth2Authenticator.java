@@ -64,8 +64,9 @@ public class OAuth2Authenticator implements HttpHandler {
         return refreshTokenEnabled && dataReader.getDataSilently().containsKey(user);
     }
 
-    public void authenticate(String user, Consumer<String> authURLSender, Consumer<String> operation,
-                             List<String> scopes, Map<String, String> extraParameters) {
+    // False when the async workers are too busy to take the operation
+    public boolean authenticate(String user, Consumer<String> authURLSender, Consumer<String> operation,
+                                List<String> scopes, Map<String, String> extraParameters) {
         if (Settings.OPEN_PORT == -1)
             throw new RuntimeException("bot未配置开放端口，未能成功创建授权上下文");
 
@@ -86,28 +87,27 @@ public class OAuth2Authenticator implements HttpHandler {
 
             if (usable) {
                 List<String> finalScopes = scopes;
-                AsyncUtil.execute(() -> {
+                return AsyncUtil.execute(() -> {
+                    String accessToken;
                     try {
-                        String accessToken = token.accessToken();
-                        if (token.isExpired())
-                            accessToken = authenticateRefresh(user);
-                        String finalAccessToken = accessToken;
-                        AsyncUtil.execute(() -> operation.accept(finalAccessToken));
+                        accessToken = token.isExpired() ? authenticateRefresh(user) : token.accessToken();
                     } catch (IOException e) {
                         OAUTH2_LOGGER.error("Can't refresh access token. Name = " + oauthName + ", User = " + user, e);
                         authenticateCode(user, authURLSender, operation, finalScopes, extraParameters);
+                        return;
                     }
+                    operation.accept(accessToken);
                 });
-            } else
-                authenticateCode(user, authURLSender, operation, scopes, extraParameters);
-        } else
-            authenticateCode(user, authURLSender, operation, scopes, extraParameters);
+            }
+        }
+        authenticateCode(user, authURLSender, operation, scopes, extraParameters);
+        return true;
     }
 
-    public void revoke(String user) {
+    public boolean revoke(String user) {
         if (revokeURL == null)
-            return;
-        AsyncUtil.execute(() -> {
+            return true;
+        return AsyncUtil.execute(() -> {
             AuthenticateToken token = dataReader.getDataSilently().get(user);
             HttpPost post = new HttpPost(revokeURL);
 
@@ -0,0 +1,164 @@
+package io.github.nickid2018.koishibot.util.web;
+
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+// Rendered images addressed by a hash of what was rendered, kept across restarts and trimmed by total size
+public class RenderCache {
+
+    public static final Logger RENDER_CACHE_LOGGER = LoggerFactory.getLogger("Render Cache");
+
+    private static final String SUFFIX = ".png";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private static final LinkedHashMap<String, Long> ENTRIES = new LinkedHashMap<>(16, 0.75f, true);
+    private static Path directory;
+    private static long maxSize = 256L << 20;
+    private static long size;
+
+    public static synchronized void loadRenderCache(JsonObject settingsRoot) {
+        JsonObject cache = JsonUtil.getData(settingsRoot, "render_cache", JsonObject.class).orElseGet(JsonObject::new);
+        maxSize = JsonUtil.getLongOrElse(cache, "max_size", 256L << 20);
+        directory = Path.of(JsonUtil.getStringOrElse(cache, "dir", "render_cache"));
+        ENTRIES.clear();
+        size = 0;
+        try {
+            Files.createDirectories(directory);
+            List<Path> files;
+            try (Stream<Path> stream = Files.list(directory)) {
+                files = new ArrayList<>(stream.toList());
+            }
+            // Copies cut short by a crash never made it into the cache
+            files.removeIf(path -> {
+                if (path.toString().endsWith(SUFFIX))
+                    return false;
+                if (path.toString().endsWith(TEMP_SUFFIX))
+                    FileUtils.deleteQuietly(path.toFile());
+                return true;
+            });
+            // Oldest access first, so the rebuilt LRU order matches the last run
+            files.sort(Comparator.comparing(RenderCache::modifiedTime));
+            for (Path file : files) {
+                long length = Files.size(file);
+                String name = file.getFileName().toString();
+                ENTRIES.put(name.substring(0, name.length() - SUFFIX.length()), length);
+                size += length;
+            }
+            trim();
+            RENDER_CACHE_LOGGER.info("Render cache loaded, {} entries, {} bytes.", ENTRIES.size(), size);
+        } catch (IOException e) {
+            directory = null;
+            RENDER_CACHE_LOGGER.error("Cannot open render cache, rendering without cache.", e);
+        }
+    }
+
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Copies a cached image to the target, false on a miss
+    public static boolean fetch(String key, File target) {
+        Path file;
+        synchronized (RenderCache.class) {
+            // The get also moves the entry to the young end of the LRU order
+            if (directory == null || ENTRIES.get(key) == null)
+                return false;
+            file = directory.resolve(key + SUFFIX);
+        }
+        // Copied without the lock, a large hit must not hold up every other render
+        try {
+            Files.copy(file, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (IOException e) {
+            drop(key, e);
+            return false;
+        }
+    }
+
+    public static void store(String key, File image) {
+        Path now;
+        synchronized (RenderCache.class) {
+            now = directory;
+        }
+        if (now == null || !image.isFile())
+            return;
+        Path temp = null;
+        try {
+            // Each store copies to its own file, only the rename into place happens under the lock
+            temp = Files.createTempFile(now, key, TEMP_SUFFIX);
+            Files.copy(image.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+            synchronized (RenderCache.class) {
+                if (directory != now)
+                    return;
+                Path file = directory.resolve(key + SUFFIX);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                temp = null;
+                long length = Files.size(file);
+                Long old = ENTRIES.put(key, length);
+                size += length - (old == null ? 0 : old);
+                trim();
+            }
+        } catch (IOException e) {
+            RENDER_CACHE_LOGGER.warn("Cannot store render result {}.", key, e);
+        } finally {
+            if (temp != null)
+                FileUtils.deleteQuietly(temp.toFile());
+        }
+    }
+
+    // An entry evicted while it was being copied is already gone, only one still listed is broken
+    private static synchronized void drop(String key, IOException e) {
+        Long length = ENTRIES.remove(key);
+        if (length == null)
+            return;
+        RENDER_CACHE_LOGGER.warn("Broken render cache entry {}, dropping it.", key, e);
+        size -= length;
+        FileUtils.deleteQuietly(directory.resolve(key + SUFFIX).toFile());
+    }
+
+    private static void trim() {
+        Iterator<Map.Entry<String, Long>> iterator = ENTRIES.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            try {
+                Files.deleteIfExists(directory.resolve(eldest.getKey() + SUFFIX));
+            } catch (IOException e) {
+                RENDER_CACHE_LOGGER.warn("Cannot evict render result {}.", eldest.getKey(), e);
+                continue;
+            }
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private static FileTime modifiedTime(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.nickid2018.koishibot.util.web;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.util.JsonUtil;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Long-lived clients shared by every web request, limits and timeouts are applied on settings reload
+public class WebClients {
+
+    private static volatile HttpSettings settings = new HttpSettings(
+            64, 8, 10_000, 30_000, 60_000, Map.of());
+
+    private static volatile Clients clients;
+
+    public static void loadHttpSettings(JsonObject settingsRoot) {
+        JsonObject http = JsonUtil.getData(settingsRoot, "http", JsonObject.class).orElseGet(JsonObject::new);
+        Map<String, Integer> perHost = new HashMap<>();
+        JsonUtil.getData(http, "per_host", JsonObject.class).ifPresent(hosts -> {
+            for (Map.Entry<String, JsonElement> en : hosts.entrySet())
+                perHost.put(en.getKey(), en.getValue().getAsInt());
+        });
+        settings = new HttpSettings(
+                JsonUtil.getIntOrElse(http, "max_total", 64),
+                JsonUtil.getIntOrElse(http, "max_per_route", 8),
+                JsonUtil.getLongOrElse(http, "connect_timeout", 10_000),
+                JsonUtil.getLongOrElse(http, "response_timeout", 30_000),
+                JsonUtil.getLongOrElse(http, "idle_time", 60_000),
+                perHost
+        );
+        Clients now = clients;
+        if (now != null)
+            now.apply(settings);
+    }
+
+    public static CloseableHttpClient classic() {
+        return clients().classic;
+    }
+
+    public static CloseableHttpClient classicNoRedirect() {
+        return clients().classicNoRedirect;
+    }
+
+    public static CloseableHttpAsyncClient async() {
+        return clients().async;
+    }
+
+    // Request timeouts live in the context so that reloads take effect without rebuilding the clients
+    public static HttpClientContext newContext() {
+        HttpSettings now = settings;
+        HttpClientContext context = HttpClientContext.create();
+        context.setRequestConfig(RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.ofMilliseconds(now.connectTimeout()))
+                .setResponseTimeout(Timeout.ofMilliseconds(now.responseTimeout()))
+                .build());
+        return context;
+    }
+
+    public static synchronized void close() {
+        if (clients == null)
+            return;
+        clients.classicNoRedirect.close(CloseMode.GRACEFUL);
+        clients.classic.close(CloseMode.GRACEFUL);
+        clients.async.close(CloseMode.GRACEFUL);
+        clients = null;
+    }
+
+    private static Clients clients() {
+        Clients now = clients;
+        if (now == null) {
+            synchronized (WebClients.class) {
+                if (clients == null)
+                    clients = new Clients(settings);
+                now = clients;
+            }
+        }
+        return now;
+    }
+
+    private record HttpSettings(int maxTotal, int maxPerRoute, long connectTimeout, long responseTimeout,
+                                long idleTime, Map<String, Integer> perHost) {
+
+        private ConnectionConfig connectionConfig() {
+            return ConnectionConfig.custom()
+                    .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout))
+                    .setSocketTimeout(Timeout.ofMilliseconds(responseTimeout))
+                    .build();
+        }
+    }
+
+    private static class Clients {
+
+        private final PoolingHttpClientConnectionManager classicManager;
+        private final PoolingAsyncClientConnectionManager asyncManager;
+        private final CloseableHttpClient classic;
+        private final CloseableHttpClient classicNoRedirect;
+        private final CloseableHttpAsyncClient async;
+
+        private Clients(HttpSettings settings) {
+            classicManager = PoolingHttpClientConnectionManagerBuilder.create()
+                    .useSystemProperties()
+                    .build();
+            asyncManager = PoolingAsyncClientConnectionManagerBuilder.create()
+                    .useSystemProperties()
+                    .setDefaultTlsConfig(TlsConfig.custom().setVersionPolicy(HttpVersionPolicy.NEGOTIATE).build())
+                    .build();
+            apply(settings);
+
+            classic = HttpClients.custom()
+                    .setConnectionManager(classicManager)
+                    .disableCookieManagement()
+                    .useSystemProperties()
+                    .evictExpiredConnections()
+                    .evictIdleConnections(TimeValue.ofMilliseconds(settings.idleTime()))
+                    .build();
+            classicNoRedirect = HttpClients.custom()
+                    .setConnectionManager(classicManager)
+                    .setConnectionManagerShared(true)
+                    .disableRedirectHandling()
+                    .disableCookieManagement()
+                    .useSystemProperties()
+                    .build();
+            async = HttpAsyncClients.custom()
+                    .setConnectionManager(asyncManager)
+                    .disableCookieManagement()
+                    .useSystemProperties()
+                    .evictExpiredConnections()
+                    .evictIdleConnections(TimeValue.ofMilliseconds(settings.idleTime()))
+                    .build();
+            async.start();
+        }
+
+        private void apply(HttpSettings settings) {
+            ConnectionConfig connectionConfig = settings.connectionConfig();
+            classicManager.setMaxTotal(settings.maxTotal());
+            classicManager.setDefaultMaxPerRoute(settings.maxPerRoute());
+            classicManager.setDefaultConnectionConfig(connectionConfig);
+            asyncManager.setMaxTotal(settings.maxTotal());
+            asyncManager.setDefaultMaxPerRoute(settings.maxPerRoute());
+            asyncManager.setDefaultConnectionConfig(connectionConfig);
+            for (Map.Entry<String, Integer> en : settings.perHost().entrySet()) {
+                for (HttpRoute route : new HttpRoute[] {
+                        new HttpRoute(new HttpHost("https", en.getKey(), 443), null, true),
+                        new HttpRoute(new HttpHost("http", en.getKey(), 80), null, false)
+                }) {
+                    classicManager.setMaxPerRoute(route, en.getValue());
+                    asyncManager.setMaxPerRoute(route, en.getValue());
+                }
+            }
+        }
+    }
+}
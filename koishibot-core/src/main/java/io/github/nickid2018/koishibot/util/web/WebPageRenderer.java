@@ -3,61 +3,267 @@ package io.github.nickid2018.koishibot.util.web;
 import com.google.gson.JsonObject;
 import io.github.nickid2018.koishibot.core.ErrorRecord;
 import io.github.nickid2018.koishibot.util.JsonUtil;
+import io.github.nickid2018.koishibot.util.func.FunctionNE;
 import org.apache.commons.lang3.concurrent.BasicThreadFactory;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class WebPageRenderer {
 
     public static final Logger WEB_RENDERER_LOGGER = LoggerFactory.getLogger("Web Renderer");
-    private static FirefoxDriver driver;
-    private static ExecutorService executor;
 
-    public static void loadWebDriver(JsonObject settingsRoot) {
+    // Document loaded, images decoded, fonts ready
+    private static final String READY_SCRIPT = """
+            return document.readyState === 'complete'
+                && Array.from(document.images).every(i => i.complete)
+                && (!document.fonts || document.fonts.status === 'loaded')
+                ? performance.getEntriesByType('resource').length : -1;
+            """;
+    private static final long READY_POLL = 100;
+    private static final long NETWORK_QUIET = 300;
+
+    public enum Priority {
+        HIGH, NORMAL, LOW
+    }
+
+    private static volatile RendererPool pool;
+
+    public static synchronized void loadWebDriver(JsonObject settingsRoot) {
         close();
         JsonUtil.getString(settingsRoot, "webdriver").ifPresent(web -> {
             System.setProperty("webdriver.gecko.driver", web);
-            FirefoxOptions firefoxOptions = new FirefoxOptions();
-            firefoxOptions.addArguments("--headless");
-            firefoxOptions.addArguments("--no-sandbox");
-
-            driver = new FirefoxDriver(firefoxOptions);
-            executor = Executors.newSingleThreadExecutor(new BasicThreadFactory.Builder().uncaughtExceptionHandler(
-                    (t, e) -> ErrorRecord.enqueueError("web.renderer", e)
-            ).daemon(true).namingPattern("Web Page Renderer").build());
+            JsonObject renderer = JsonUtil.getData(settingsRoot, "renderer", JsonObject.class).orElseGet(JsonObject::new);
+            pool = new RendererPool(
+                    Math.max(1, JsonUtil.getIntOrElse(renderer, "instances", 2)),
+                    Math.max(1, JsonUtil.getIntOrElse(renderer, "max_renders", 200)),
+                    JsonUtil.getLongOrElse(renderer, "job_timeout", 60_000),
+                    JsonUtil.getLongOrElse(renderer, "ready_timeout", 10_000)
+            );
             WEB_RENDERER_LOGGER.info("Web page renderer initialized.");
         });
     }
 
-    public static FirefoxDriver getDriver() {
-        return driver;
+    public static boolean isAvailable() {
+        return pool != null;
     }
 
-    public static ExecutorService getExecutor() {
-        return executor;
+    public static <T> CompletableFuture<T> submit(Priority priority, FunctionNE<WebDriver, T> job) {
+        return submit(priority, job, () -> {});
     }
 
-    public static void close() {
-        if (executor != null)
-            executor.shutdownNow();
-        if (driver != null)
-            try {
-                driver.quit();
-            } catch (Exception e) {
-                WEB_RENDERER_LOGGER.error("Error occurred when closing web driver.", e);
-            }
-        if (executor != null || driver != null)
+    public static <T> CompletableFuture<T> submit(Priority priority, long timeout, FunctionNE<WebDriver, T> job) {
+        return submit(priority, timeout, job, () -> {});
+    }
+
+    // The release runs exactly once, after the job ran or when it was dropped without running
+    public static <T> CompletableFuture<T> submit(Priority priority, FunctionNE<WebDriver, T> job, Runnable release) {
+        RendererPool now = pool;
+        if (now == null) {
+            release.run();
+            return CompletableFuture.failedFuture(new IllegalStateException("Web page renderer is not available"));
+        }
+        return now.submit(priority, now.jobTimeout, job, release);
+    }
+
+    public static <T> CompletableFuture<T> submit(Priority priority, long timeout, FunctionNE<WebDriver, T> job,
+                                                  Runnable release) {
+        RendererPool now = pool;
+        if (now == null) {
+            release.run();
+            return CompletableFuture.failedFuture(new IllegalStateException("Web page renderer is not available"));
+        }
+        return now.submit(priority, timeout, job, release);
+    }
+
+    // Waits for the page to load and for resource fetching to go quiet, gives up silently at the ready timeout
+    public static void waitForReady(WebDriver driver) throws InterruptedException {
+        RendererPool now = pool;
+        long deadline = System.currentTimeMillis() + (now == null ? 10_000 : now.readyTimeout);
+        JavascriptExecutor executor = (JavascriptExecutor) driver;
+        long lastCount = -1;
+        long quietSince = 0;
+        while (System.currentTimeMillis() < deadline) {
+            Object result = executor.executeScript(READY_SCRIPT);
+            long count = result instanceof Number number ? number.longValue() : -1;
+            long time = System.currentTimeMillis();
+            if (count < 0 || count != lastCount) {
+                lastCount = count;
+                quietSince = time;
+            } else if (time - quietSince >= NETWORK_QUIET)
+                return;
+            Thread.sleep(READY_POLL);
+        }
+        WEB_RENDERER_LOGGER.debug("Page did not become ready in time, rendering anyway.");
+    }
+
+    public static synchronized void close() {
+        if (pool != null) {
+            pool.close();
             WEB_RENDERER_LOGGER.info("Web Page Renderer closed.");
-        executor = null;
-        driver = null;
+        }
+        pool = null;
     }
 
     static {
         Runtime.getRuntime().addShutdownHook(new Thread(WebPageRenderer::close));
     }
+
+    private record Job<T>(Priority priority, long sequence, FunctionNE<WebDriver, T> task,
+                          CompletableFuture<T> future, Runnable release) implements Comparable<Job<?>> {
+
+        @Override
+        public int compareTo(Job<?> o) {
+            int compare = priority.compareTo(o.priority);
+            return compare != 0 ? compare : Long.compare(sequence, o.sequence);
+        }
+
+        private void run(WebDriver driver) {
+            try {
+                future.complete(task.apply(driver));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                finish();
+            }
+        }
+
+        // Timed out in the queue, cancelled by close or no browser to run on
+        private void drop(Throwable cause) {
+            if (cause == null)
+                future.cancel(false);
+            else
+                future.completeExceptionally(cause);
+            finish();
+        }
+
+        private void finish() {
+            try {
+                release.run();
+            } catch (Throwable t) {
+                WEB_RENDERER_LOGGER.error("Error occurred when releasing a render job.", t);
+            }
+        }
+    }
+
+    private static class RendererPool {
+
+        private final PriorityBlockingQueue<Job<?>> queue = new PriorityBlockingQueue<>();
+        private final AtomicLong sequence = new AtomicLong();
+        private final List<Worker> workers = new ArrayList<>();
+        private final ExecutorService threads;
+        private final int maxRenders;
+        private final long jobTimeout;
+        private final long readyTimeout;
+
+        private RendererPool(int instances, int maxRenders, long jobTimeout, long readyTimeout) {
+            this.maxRenders = maxRenders;
+            this.jobTimeout = jobTimeout;
+            this.readyTimeout = readyTimeout;
+            threads = Executors.newFixedThreadPool(instances, new BasicThreadFactory.Builder().uncaughtExceptionHandler(
+                    (t, e) -> ErrorRecord.enqueueError("web.renderer", e)
+            ).daemon(true).namingPattern("Web Page Renderer #%d").build());
+            for (int i = 0; i < instances; i++) {
+                Worker worker = new Worker();
+                workers.add(worker);
+                threads.execute(worker);
+            }
+        }
+
+        private <T> CompletableFuture<T> submit(Priority priority, long timeout, FunctionNE<WebDriver, T> task,
+                                                Runnable release) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            queue.offer(new Job<>(priority, sequence.getAndIncrement(), task, future, release));
+            return future.orTimeout(timeout, TimeUnit.MILLISECONDS);
+        }
+
+        private void close() {
+            threads.shutdownNow();
+            List<Job<?>> dropped = new ArrayList<>();
+            queue.drainTo(dropped);
+            dropped.forEach(job -> job.drop(null));
+            workers.forEach(Worker::quit);
+        }
+
+        private class Worker implements Runnable {
+
+            // Started on the first job taken, so idle slots cost no browser
+            private volatile FirefoxDriver driver;
+            private int renders;
+
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Job<?> job;
+                    try {
+                        job = queue.take();
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    if (job.future().isDone()) {
+                        job.drop(null);
+                        continue;
+                    }
+                    WebDriver now;
+                    try {
+                        now = acquire();
+                    } catch (Exception e) {
+                        job.drop(e);
+                        quit();
+                        continue;
+                    }
+                    job.run(now);
+                    renders++;
+                    // The job ran past its deadline, the browser may be wedged
+                    boolean timedOut = job.future().isCompletedExceptionally() &&
+                            job.future().handle((r, t) -> t instanceof TimeoutException).join();
+                    if (timedOut || renders >= maxRenders)
+                        quit();
+                }
+                quit();
+            }
+
+            private WebDriver acquire() {
+                if (driver != null) {
+                    try {
+                        driver.getWindowHandle();
+                    } catch (Exception e) {
+                        WEB_RENDERER_LOGGER.warn("Web driver is unhealthy, restarting it.", e);
+                        quit();
+                    }
+                }
+                if (driver == null) {
+                    FirefoxOptions firefoxOptions = new FirefoxOptions();
+                    firefoxOptions.addArguments("--headless");
+                    firefoxOptions.addArguments("--no-sandbox");
+                    driver = new FirefoxDriver(firefoxOptions);
+                    driver.manage().timeouts().pageLoadTimeout(Duration.ofMillis(jobTimeout));
+                    driver.manage().timeouts().scriptTimeout(Duration.ofMillis(jobTimeout));
+                    renders = 0;
+                    WEB_RENDERER_LOGGER.info("Started a web driver for {}.", Thread.currentThread().getName());
+                }
+                return driver;
+            }
+
+            private void quit() {
+                FirefoxDriver now = driver;
+                driver = null;
+                if (now != null)
+                    try {
+                        now.quit();
+                    } catch (Exception e) {
+                        WEB_RENDERER_LOGGER.error("Error occurred when closing web driver.", e);
+                    }
+            }
+        }
+    }
 }
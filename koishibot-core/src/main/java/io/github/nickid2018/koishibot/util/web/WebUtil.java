@@ -2,26 +2,35 @@ package io.github.nickid2018.koishibot.util.web;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
-import com.google.gson.JsonSyntaxException;
 import io.github.nickid2018.koishibot.util.JsonUtil;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
+import org.apache.hc.core5.http.HttpHeaders;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
 
 public class WebUtil {
 
@@ -52,52 +61,150 @@ public class WebUtil {
     }
 
     public static JsonElement fetchDataInJson(HttpUriRequest request, String UA, boolean check) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
-                .disableCookieManagement()
-                .useSystemProperties()
-                .setUserAgent(UA)
-                .build()) {
-            return httpClient.execute(request, response -> {
-                int status = response.getCode();
-                if (status / 100 != 2) {
-                    WEB_LOGGER.debug("Incorrect return code in requesting {}: {}", request.getRequestUri(), status);
-                    throw new ErrorCodeException(status);
-                }
-                if (check) {
-                    Header[] headers = response.getHeaders("Content-Type");
-                    if (headers.length > 0 && headers[0] != null && !headers[0].getValue()
-                            .startsWith(ContentType.APPLICATION_JSON.getMimeType()))
-                        throw new IOException("Return a non-JSON Content.");
-                }
-                HttpEntity httpEntity = response.getEntity();
-                String json = EntityUtils.toString(httpEntity, "UTF-8");
-                try {
-                    return JsonParser.parseString(json);
-                } catch (JsonSyntaxException jse) {
-                    if (json != null)
-                        WEB_LOGGER.debug("Incorrect JSON data in requesting {}: {}", request.getRequestUri(), json);
-                    throw jse;
-                }
-            });
+        withUserAgent(request, UA);
+        return WebClients.classic().execute(request, WebClients.newContext(), response -> {
+            int status = response.getCode();
+            if (status / 100 != 2) {
+                WEB_LOGGER.debug("Incorrect return code in requesting {}: {}", request.getRequestUri(), status);
+                throw new ErrorCodeException(status);
+            }
+            if (check)
+                checkJsonContent(response.getFirstHeader("Content-Type"));
+            HttpEntity httpEntity = response.getEntity();
+            if (httpEntity == null)
+                throw new IOException("Return an empty content.");
+            try (Reader reader = new InputStreamReader(httpEntity.getContent(), StandardCharsets.UTF_8)) {
+                return parseJson(reader, request.getRequestUri());
+            }
+        });
+    }
+
+    public static JsonElement fetchDataInJsonCached(HttpUriRequest request, long ttl) throws IOException {
+        withUserAgent(request, chooseRandomUA());
+        CachedResponse response = HttpCache.fetch(request, ttl);
+        String contentType = response.contentType();
+        if (contentType != null && !contentType.startsWith(ContentType.APPLICATION_JSON.getMimeType()))
+            throw new IOException("Return a non-JSON Content.");
+        return parseJson(new InputStreamReader(
+                new ByteArrayInputStream(response.body()), StandardCharsets.UTF_8), request.getRequestUri());
+    }
+
+    public static CompletableFuture<JsonElement> fetchDataInJsonAsync(SimpleHttpRequest request) {
+        return fetchDataInJsonAsync(request, chooseRandomUA(), true);
+    }
+
+    public static CompletableFuture<JsonElement> fetchDataInJsonAsync(SimpleHttpRequest request, String UA, boolean check) {
+        if (!request.containsHeader(HttpHeaders.USER_AGENT))
+            request.setHeader(HttpHeaders.USER_AGENT, UA);
+        CompletableFuture<JsonElement> future = new CompletableFuture<>();
+        Future<SimpleHttpResponse> exchange = WebClients.async().execute(SimpleRequestProducer.create(request), SimpleResponseConsumer.create(),
+                null, WebClients.newContext(), new FutureCallback<>() {
+                    @Override
+                    public void completed(SimpleHttpResponse response) {
+                        try {
+                            int status = response.getCode();
+                            if (status / 100 != 2) {
+                                WEB_LOGGER.debug("Incorrect return code in requesting {}: {}", request.getRequestUri(), status);
+                                throw new ErrorCodeException(status);
+                            }
+                            if (check)
+                                checkJsonContent(response.getFirstHeader("Content-Type"));
+                            byte[] body = response.getBodyBytes();
+                            if (body == null)
+                                throw new IOException("Return an empty content.");
+                            future.complete(parseJson(new InputStreamReader(
+                                    new ByteArrayInputStream(body), StandardCharsets.UTF_8), request.getRequestUri()));
+                        } catch (Throwable t) {
+                            future.completeExceptionally(t);
+                        }
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        future.completeExceptionally(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        future.cancel(false);
+                    }
+                });
+        abortOnCancel(future, exchange);
+        return future;
+    }
+
+    public static CompletableFuture<byte[]> fetchDataInBytesAsync(SimpleHttpRequest request) {
+        if (!request.containsHeader(HttpHeaders.USER_AGENT))
+            request.setHeader(HttpHeaders.USER_AGENT, chooseRandomUA());
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        Future<SimpleHttpResponse> exchange = WebClients.async().execute(SimpleRequestProducer.create(request), SimpleResponseConsumer.create(),
+                null, WebClients.newContext(), new FutureCallback<>() {
+                    @Override
+                    public void completed(SimpleHttpResponse response) {
+                        int status = response.getCode();
+                        byte[] body = response.getBodyBytes();
+                        if (status / 100 != 2) {
+                            WEB_LOGGER.debug("Incorrect return code in requesting {}: {}", request.getRequestUri(), status);
+                            future.completeExceptionally(new ErrorCodeException(status));
+                        } else if (body == null)
+                            future.completeExceptionally(new IOException("Return an empty content."));
+                        else
+                            future.complete(body);
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        future.completeExceptionally(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        future.cancel(false);
+                    }
+                });
+        abortOnCancel(future, exchange);
+        return future;
+    }
+
+    // Cancelling the returned future aborts the exchange instead of letting the download run on
+    private static void abortOnCancel(CompletableFuture<?> future, Future<?> exchange) {
+        future.whenComplete((result, t) -> {
+            if (future.isCancelled())
+                exchange.cancel(true);
+        });
+    }
+
+    private static void checkJsonContent(Header header) throws IOException {
+        if (header != null && !header.getValue().startsWith(ContentType.APPLICATION_JSON.getMimeType()))
+            throw new IOException("Return a non-JSON Content.");
+    }
+
+    private static JsonElement parseJson(Reader reader, String uri) {
+        try {
+            return JsonParser.parseReader(reader);
+        } catch (JsonParseException jpe) {
+            WEB_LOGGER.debug("Incorrect JSON data in requesting {}: {}", uri, jpe.getMessage());
+            throw jpe;
         }
     }
 
+    private static void withUserAgent(HttpUriRequest request, String UA) {
+        if (!request.containsHeader(HttpHeaders.USER_AGENT))
+            request.setHeader(HttpHeaders.USER_AGENT, UA);
+    }
+
     public static void sendNeedCode(HttpUriRequest request, int code) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
-                .disableCookieManagement()
-                .useSystemProperties()
-                .setUserAgent(chooseRandomUA())
-                .build()) {
-            httpClient.execute(request, httpResponse -> {
-                int status = httpResponse.getCode();
-                if (status != code) {
-                    WEB_LOGGER.debug("Incorrect return code in requesting {}: {}, required {}.",
-                            request.getRequestUri(), status, code);
-                    throw new ErrorCodeException(status);
-                }
-                return null;
-            });
-        }
+        withUserAgent(request, chooseRandomUA());
+        WebClients.classic().execute(request, WebClients.newContext(), httpResponse -> {
+            int status = httpResponse.getCode();
+            if (status != code) {
+                WEB_LOGGER.debug("Incorrect return code in requesting {}: {}, required {}.",
+                        request.getRequestUri(), status, code);
+                throw new ErrorCodeException(status);
+            }
+            EntityUtils.consume(httpResponse.getEntity());
+            return null;
+        });
     }
 
     public static void sendReturnNoContent(HttpUriRequest request) throws IOException {
@@ -109,33 +216,23 @@ public class WebUtil {
     }
 
     public static String fetchDataInText(HttpUriRequest request, boolean ignoreErrorCode) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
-                .disableCookieManagement()
-                .useSystemProperties()
-                .setUserAgent(chooseRandomUA())
-                .build()) {
-            return httpClient.execute(request, httpResponse -> {
-                int status = httpResponse.getCode();
-                if (status / 100 != 2 && !ignoreErrorCode)
-                    throw new ErrorCodeException(status);
-                return EntityUtils.toString(httpResponse.getEntity(), "UTF-8");
-            });
-        }
+        withUserAgent(request, chooseRandomUA());
+        return WebClients.classic().execute(request, WebClients.newContext(), httpResponse -> {
+            int status = httpResponse.getCode();
+            if (status / 100 != 2 && !ignoreErrorCode)
+                throw new ErrorCodeException(status);
+            return EntityUtils.toString(httpResponse.getEntity(), "UTF-8");
+        });
     }
 
     public static String getRedirected(HttpUriRequest request) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClientBuilder.create()
-                .disableRedirectHandling()
-                .disableCookieManagement()
-                .useSystemProperties()
-                .setUserAgent(chooseRandomUA())
-                .build()) {
-            return httpClient.execute(request, httpResponse -> {
-                if (httpResponse.getCode() / 100 != 3)
-                    return null;
-                return httpResponse.getHeaders("location")[0].getValue();
-            });
-        }
+        withUserAgent(request, chooseRandomUA());
+        return WebClients.classicNoRedirect().execute(request, WebClients.newContext(), httpResponse -> {
+            EntityUtils.consume(httpResponse.getEntity());
+            if (httpResponse.getCode() / 100 != 3)
+                return null;
+            return httpResponse.getHeaders("location")[0].getValue();
+        });
     }
 
     public static String mirror(String url) {
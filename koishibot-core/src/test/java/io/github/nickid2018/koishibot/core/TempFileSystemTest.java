@@ -0,0 +1,98 @@
+package io.github.nickid2018.koishibot.core;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TempFileSystemTest {
+
+    @BeforeAll
+    public static void setUp() {
+        TempFileSystem.init();
+        JsonObject temp = new JsonObject();
+        temp.addProperty("quota", 1000);
+        temp.addProperty("clean_interval", 3600_000);
+        JsonObject root = new JsonObject();
+        root.add("temp", temp);
+        TempFileSystem.loadTempSettings(root);
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        TempFileSystem.cleanCache();
+        TempFileSystem.loadTempSettings(new JsonObject());
+    }
+
+    @Test
+    public void quotaOnlyEvictsReleasedFiles() throws IOException {
+        File released = TempFileSystem.createTmpFileBuffered("test.quota", "released", "q", "bin", true);
+        Files.write(released.toPath(), new byte[800]);
+        TempFileSystem.unlockFile(released);
+
+        File leased = TempFileSystem.createTmpFileBuffered("test.quota", "leased", "q", "bin", true);
+        Files.write(leased.toPath(), new byte[800]);
+        // Lock and unlock once more only to make the index see the new size, the creation lease stays
+        TempFileSystem.lockFile(leased);
+        TempFileSystem.unlockFile(leased);
+
+        assertFalse(released.exists());
+        assertTrue(leased.exists());
+        assertNull(TempFileSystem.getTmpFileBuffered("test.quota", "released"));
+        assertTrue(TempFileSystem.getDiskUsage() <= 1000);
+
+        assertEquals(leased, TempFileSystem.getTmpFileBuffered("test.quota", "leased"));
+        TempFileSystem.unlockFile(leased);
+        TempFileSystem.unlockFile(leased);
+        TempFileSystem.cleanCache();
+        assertFalse(leased.exists());
+    }
+
+    @Test
+    public void bufferedHitTakesLease() throws IOException {
+        File file = TempFileSystem.createTmpFileBuffered("test.hit", "page", "h", "bin", true);
+        Files.write(file.toPath(), new byte[10]);
+        TempFileSystem.unlockFile(file);
+
+        long hits = TempFileSystem.getHitCount();
+        assertEquals(file, TempFileSystem.getTmpFileBuffered("test.hit", "page"));
+        assertEquals(hits + 1, TempFileSystem.getHitCount());
+
+        // Leased files survive a clean but are no longer handed out
+        TempFileSystem.cleanCache();
+        assertTrue(file.exists());
+        assertNull(TempFileSystem.getTmpFileBuffered("test.hit", "page"));
+
+        TempFileSystem.unlockFile(file);
+        TempFileSystem.cleanCache();
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void missingFileIsMiss() throws IOException {
+        File file = TempFileSystem.createTmpFileBuffered("test.miss", "gone", "m", "bin", true);
+        TempFileSystem.unlockFile(file);
+        assertTrue(file.delete());
+
+        long misses = TempFileSystem.getMissCount();
+        assertNull(TempFileSystem.getTmpFileBuffered("test.miss", "gone"));
+        assertEquals(misses + 1, TempFileSystem.getMissCount());
+    }
+
+    @Test
+    public void unlockAndDeleteForgetsFile() throws IOException {
+        int count = TempFileSystem.getFileCount();
+        File file = TempFileSystem.createTmpFileAndCreate("d", "bin");
+        assertEquals(count + 1, TempFileSystem.getFileCount());
+
+        TempFileSystem.unlockFileAndDelete(file);
+        assertFalse(file.exists());
+        assertEquals(count, TempFileSystem.getFileCount());
+    }
+}
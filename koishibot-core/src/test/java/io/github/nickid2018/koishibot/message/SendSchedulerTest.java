@@ -0,0 +1,118 @@
+package io.github.nickid2018.koishibot.message;
+
+import com.google.gson.JsonObject;
+import io.github.nickid2018.koishibot.message.api.AbstractMessage;
+import io.github.nickid2018.koishibot.message.api.GroupInfo;
+import io.github.nickid2018.koishibot.message.api.MessageSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SendSchedulerTest {
+
+    // Timer wakeups are never early, the slack only covers clock granularity
+    private static final long SLACK = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final List<Long> sent = new ArrayList<>();
+
+    @AfterEach
+    public void resetSettings() {
+        SendScheduler.loadSendSettings(new JsonObject());
+    }
+
+    @Test
+    public void destinationInterval() {
+        loadSettings(1, 100, 200, 1);
+        SendScheduler scheduler = new SendScheduler();
+        GroupInfo group = new RecordingGroup("1");
+        sendAll(scheduler, group, group, group);
+
+        assertEquals(3, sent.size());
+        assertTrue(sent.get(1) - sent.get(0) >= TimeUnit.MILLISECONDS.toNanos(200) - SLACK);
+        assertTrue(sent.get(2) - sent.get(1) >= TimeUnit.MILLISECONDS.toNanos(200) - SLACK);
+    }
+
+    @Test
+    public void destinationsDoNotWaitForEachOther() {
+        loadSettings(1, 100, 1000, 1);
+        SendScheduler scheduler = new SendScheduler();
+        sendAll(scheduler, new RecordingGroup("1"), new RecordingGroup("2"), new RecordingGroup("3"));
+
+        assertEquals(3, sent.size());
+        assertTrue(sent.get(2) - sent.get(0) < TimeUnit.MILLISECONDS.toNanos(500));
+    }
+
+    @Test
+    public void environmentBurst() {
+        loadSettings(200, 2, 1, 1);
+        SendScheduler scheduler = new SendScheduler();
+        sendAll(scheduler, new RecordingGroup("1"), new RecordingGroup("2"),
+                new RecordingGroup("3"), new RecordingGroup("4"));
+
+        assertEquals(4, sent.size());
+        assertTrue(sent.get(1) - sent.get(0) < TimeUnit.MILLISECONDS.toNanos(100));
+        assertTrue(sent.get(2) - sent.get(0) >= TimeUnit.MILLISECONDS.toNanos(200) - SLACK);
+        assertTrue(sent.get(3) - sent.get(0) >= TimeUnit.MILLISECONDS.toNanos(400) - SLACK);
+    }
+
+    @Test
+    public void failedSendReleasesDestination() {
+        loadSettings(1, 100, 1, 1);
+        SendScheduler scheduler = new SendScheduler();
+        GroupInfo failing = new RecordingGroup("1") {
+            @Override
+            public CompletableFuture<MessageSource> sendAsync(AbstractMessage message) {
+                super.sendAsync(message);
+                return CompletableFuture.failedFuture(new IllegalStateException("offline"));
+            }
+        };
+        CompletableFuture<AbstractMessage> first = scheduler.submit(failing, null);
+        CompletableFuture<AbstractMessage> second = scheduler.submit(failing, null);
+
+        assertThrows(Exception.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertThrows(Exception.class, () -> second.get(5, TimeUnit.SECONDS));
+        assertEquals(2, sent.size());
+        assertEquals(0, scheduler.getPendingCount());
+    }
+
+    private void sendAll(SendScheduler scheduler, GroupInfo... targets) {
+        List<CompletableFuture<AbstractMessage>> futures = new ArrayList<>();
+        for (GroupInfo target : targets)
+            futures.add(scheduler.submit(target, null));
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).orTimeout(10, TimeUnit.SECONDS).join();
+    }
+
+    private static void loadSettings(long environmentInterval, int environmentBurst,
+                                     long destinationInterval, int destinationBurst) {
+        JsonObject send = new JsonObject();
+        send.addProperty("environment_interval", environmentInterval);
+        send.addProperty("environment_burst", environmentBurst);
+        send.addProperty("destination_interval", destinationInterval);
+        send.addProperty("destination_burst", destinationBurst);
+        JsonObject root = new JsonObject();
+        root.add("send", send);
+        SendScheduler.loadSendSettings(root);
+    }
+
+    private class RecordingGroup extends GroupInfo {
+
+        private RecordingGroup(String id) {
+            super(null);
+            groupId = id;
+        }
+
+        @Override
+        public CompletableFuture<MessageSource> sendAsync(AbstractMessage message) {
+            synchronized (sent) {
+                sent.add(System.nanoTime());
+            }
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package io.github.nickid2018.koishibot.module;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ModuleManagerTest {
+
+    private final List<String> events = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void dependenciesStartFirst() throws Exception {
+        Map<String, KoishiBotModule> modules = modules(
+                new TestModule("order.top", List.of("order.mid", "order.base")),
+                new TestModule("order.mid", List.of("order.base")),
+                new TestModule("order.free", List.of()),
+                new TestModule("order.base", List.of()) {
+                    @Override
+                    public void onStartInternal() throws Exception {
+                        Thread.sleep(100);
+                        super.onStartInternal();
+                    }
+                });
+        ModuleManager.startModules(modules).get(10, TimeUnit.SECONDS);
+
+        assertEquals(8, events.size());
+        assertTrue(events.indexOf("end:order.base") < events.indexOf("start:order.mid"));
+        assertTrue(events.indexOf("end:order.mid") < events.indexOf("start:order.top"));
+        for (KoishiBotModule module : modules.values()) {
+            assertEquals(ModuleStatus.INITIALIZED, module.getStatus());
+            assertTrue(ModuleManager.getStartTime(module.getName()) >= 0);
+        }
+    }
+
+    @Test
+    public void independentModulesStartTogether() throws Exception {
+        CountDownLatch both = new CountDownLatch(2);
+        Map<String, KoishiBotModule> modules = new LinkedHashMap<>();
+        for (String name : List.of("parallel.a", "parallel.b"))
+            modules.put(name, new TestModule(name, List.of()) {
+                @Override
+                public void onStartInternal() throws Exception {
+                    both.countDown();
+                    // Only returns if the other module is starting at the same time
+                    if (!both.await(5, TimeUnit.SECONDS))
+                        throw new IllegalStateException("started one after another");
+                }
+            });
+        ModuleManager.startModules(modules).get(10, TimeUnit.SECONDS);
+
+        for (KoishiBotModule module : modules.values())
+            assertEquals(ModuleStatus.INITIALIZED, module.getStatus());
+    }
+
+    @Test
+    public void failedDependencyKeepsDependentsStopped() throws Exception {
+        Map<String, KoishiBotModule> modules = modules(
+                new TestModule("fail.dependent", List.of("fail.broken")),
+                new TestModule("fail.broken", List.of()) {
+                    @Override
+                    public void onStartInternal() {
+                        throw new IllegalStateException("broken");
+                    }
+                },
+                new TestModule("fail.missing", List.of("fail.nothing")),
+                new TestModule("fail.cycle.a", List.of("fail.cycle.b")),
+                new TestModule("fail.cycle.b", List.of("fail.cycle.a")),
+                new TestModule("fail.healthy", List.of()));
+        ModuleManager.startModules(modules).get(10, TimeUnit.SECONDS);
+
+        for (String name : List.of("fail.dependent", "fail.broken", "fail.missing", "fail.cycle.a", "fail.cycle.b"))
+            assertEquals(ModuleStatus.ERROR, modules.get(name).getStatus(), name);
+        assertEquals(ModuleStatus.INITIALIZED, modules.get("fail.healthy").getStatus());
+        assertFalse(events.contains("start:fail.dependent"));
+        assertFalse(events.contains("start:fail.missing"));
+        assertFalse(events.contains("start:fail.cycle.a"));
+    }
+
+    private static Map<String, KoishiBotModule> modules(KoishiBotModule... modules) {
+        Map<String, KoishiBotModule> map = new LinkedHashMap<>();
+        for (KoishiBotModule module : modules)
+            map.put(module.getName(), module);
+        return map;
+    }
+
+    private class TestModule extends KoishiBotModule {
+
+        private final List<String> dependencies;
+
+        private TestModule(String name, List<String> dependencies) {
+            super(name, List.of(), true);
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+
+        @Override
+        public void onStart() throws Exception {
+            events.add("start:" + getName());
+            super.onStart();
+            events.add("end:" + getName());
+        }
+
+        @Override
+        public void onStartInternal() throws Exception {
+        }
+
+        @Override
+        public void onSettingReloadInternal(JsonObject settingRoot) {
+        }
+
+        @Override
+        public void onTerminateInternal() {
+        }
+
+        @Override
+        public String getDescription() {
+            return getName();
+        }
+
+        @Override
+        public String getSummary() {
+            return getName();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package io.github.nickid2018.koishibot.module.wiki;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+import io.github.nickid2018.koishibot.util.ImageRenderer;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InfoBoxRendererTest {
+
+    private static HttpServer server;
+    private static String base;
+
+    @BeforeAll
+    public static void setUp() throws IOException {
+        ImageRenderer.loadImageSettings(new JsonObject());
+        BufferedImage image = new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        byte[] data = png.toByteArray();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/image.png", exchange -> {
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            exchange.sendResponseHeaders(200, data.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(data);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort() + "/wiki/Page";
+    }
+
+    @AfterAll
+    public static void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void plainTableIsDrawn() {
+        BufferedImage image = render("""
+                <div class="infobox"><table>
+                  <caption>Title</caption>
+                  <tr><th>Key</th><td>Value</td></tr>
+                  <tbody><tr><th>Other</th><td><b>Bold</b> and <a href="/x">link</a><br>next line</td></tr></tbody>
+                </table></div>
+                """);
+        assertNotNull(image);
+        assertTrue(image.getWidth() > 0 && image.getWidth() <= 641);
+        assertTrue(image.getHeight() > 0);
+    }
+
+    @Test
+    public void unsupportedMarkupFallsBackToBrowser() {
+        assertNull(render("<div class=\"infobox\"><p>not a table</p><p>at all</p></div>"));
+        assertNull(render("<table class=\"infobox\"><tr><td><video></video></td></tr></table>"));
+        assertNull(render("<table class=\"infobox\"><tr><td rowspan=\"2\">a</td><td>b</td></tr><tr><td>c</td></tr></table>"));
+        assertNull(render("<table class=\"infobox\"><tr><td><img src=\"data:image/png;base64,AA==\"></td></tr></table>"));
+        assertNull(render("<table class=\"infobox\"><tr><td>1</td><td>2</td><td>3</td><td>4</td><td>5</td></tr></table>"));
+    }
+
+    @Test
+    public void hiddenRowsAreSkipped() {
+        BufferedImage shown = render("<table class=\"infobox\"><tr><td>a</td></tr></table>");
+        BufferedImage hidden = render("""
+                <table class="infobox"><tr><td>a</td></tr>
+                <tr style="display: none"><td><video></video></td></tr></table>
+                """);
+        assertNotNull(shown);
+        assertNotNull(hidden);
+        assertEquals(shown.getHeight(), hidden.getHeight());
+    }
+
+    @Test
+    public void longTextWrapsWithinMaximumWidth() {
+        BufferedImage short_ = render("<table class=\"infobox\"><tr><th>Key</th><td>word</td></tr></table>");
+        BufferedImage long_ = render("<table class=\"infobox\"><tr><th>Key</th><td>" + "word ".repeat(300) +
+                "</td></tr></table>");
+        assertNotNull(short_);
+        assertNotNull(long_);
+        assertTrue(long_.getWidth() <= 641);
+        assertTrue(long_.getWidth() > short_.getWidth());
+        // Several lines, so clearly taller than one
+        assertTrue(long_.getHeight() > short_.getHeight() * 3);
+    }
+
+    @Test
+    public void captionSpansAllColumns() {
+        BufferedImage image = render("""
+                <table class="infobox"><caption>A caption wider than both columns together</caption>
+                <tr><td>a</td><td>b</td><td>c</td></tr></table>
+                """);
+        BufferedImage columns = render("<table class=\"infobox\"><tr><td>a</td><td>b</td><td>c</td></tr></table>");
+        assertNotNull(image);
+        assertNotNull(columns);
+        assertTrue(image.getWidth() > columns.getWidth());
+    }
+
+    @Test
+    public void picturesUseDeclaredSize() {
+        BufferedImage declared = render("<table class=\"infobox\"><tr><td><img src=\"/image.png\" width=\"100\" height=\"50\"></td></tr></table>");
+        BufferedImage natural = render("<table class=\"infobox\"><tr><td><img src=\"/image.png\"></td></tr></table>");
+        BufferedImage oversized = render("<table class=\"infobox\"><tr><td><img src=\"/image.png\" width=\"2000\"></td></tr></table>");
+        assertNotNull(declared);
+        assertNotNull(natural);
+        assertNotNull(oversized);
+        assertTrue(declared.getWidth() >= 100 && declared.getHeight() >= 50);
+        assertTrue(natural.getWidth() >= 200 && natural.getHeight() >= 100);
+        assertTrue(natural.getHeight() > declared.getHeight());
+        // Shrunk to the cell, keeping the aspect ratio of the data
+        assertTrue(oversized.getWidth() <= 641);
+    }
+
+    @Test
+    public void missingPictureFallsBackToBrowser() {
+        assertNull(render("<table class=\"infobox\"><tr><td><img src=\"/missing.png\"></td></tr></table>"));
+    }
+
+    @Test
+    public void stalledPictureIsAbortedAtTimeout() throws Exception {
+        try (ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // Reads the request, never answers and reports how the client let go of the connection
+            CompletableFuture<String> peer = CompletableFuture.supplyAsync(() -> {
+                try (Socket socket = stalled.accept()) {
+                    socket.setSoTimeout(15_000);
+                    InputStream input = socket.getInputStream();
+                    while (true) {
+                        if (input.read() < 0)
+                            return "closed";
+                    }
+                } catch (SocketTimeoutException e) {
+                    return "open";
+                } catch (SocketException e) {
+                    return "closed";
+                } catch (IOException e) {
+                    return e.toString();
+                }
+            });
+            long start = System.currentTimeMillis();
+            assertNull(render("<table class=\"infobox\"><tr><td><img src=\"http://127.0.0.1:" +
+                    stalled.getLocalPort() + "/slow.png\"></td></tr></table>"));
+            assertTrue(System.currentTimeMillis() - start < 10_000);
+            assertEquals("closed", peer.get(20, TimeUnit.SECONDS));
+        }
+    }
+
+    private static BufferedImage render(String html) {
+        Element infobox = Jsoup.parse(html, base).selectFirst(".infobox");
+        assertNotNull(infobox);
+        return InfoBoxRenderer.render(infobox, base, Map.of());
+    }
+}
@@ -0,0 +1,88 @@
+package io.github.nickid2018.koishibot.permission;
+
+import io.github.nickid2018.koishibot.util.storage.DataStorage;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PermissionManagerTest {
+
+    // Loading the timer and opening the storage would otherwise eat into the first deadline
+    @BeforeAll
+    public static void warmUp() throws IOException {
+        PermissionManager.getLevel("test.warmup");
+        DataStorage.getEngine();
+    }
+
+    @Test
+    public void timerDropsExpiredEntry() throws Exception {
+        String user = "test.expire";
+        PermissionManager.setLevel(user, PermissionLevel.BANNED, System.currentTimeMillis() + 1000, false);
+        assertEquals(PermissionLevel.BANNED, PermissionManager.getLevel(user));
+        assertNotNull(stored(user));
+
+        assertTrue(waitForRemoval(user, 5000));
+        assertEquals(PermissionLevel.TRUSTED, PermissionManager.getLevel(user));
+    }
+
+    @Test
+    public void replacedEntryKeepsItsOwnTimer() throws Exception {
+        String user = "test.extend";
+        long now = System.currentTimeMillis();
+        PermissionManager.setLevel(user, PermissionLevel.BANNED, now + 1000, false);
+        PermissionManager.setLevel(user, PermissionLevel.BANNED, now + 4000, false);
+
+        // Well past the first deadline, the old timeout must not have removed the new entry
+        Thread.sleep(2500);
+        assertEquals(PermissionLevel.BANNED, PermissionManager.getLevel(user));
+        assertNotNull(stored(user));
+
+        assertTrue(waitForRemoval(user, 5000));
+        assertEquals(PermissionLevel.TRUSTED, PermissionManager.getLevel(user));
+    }
+
+    @Test
+    public void shorterAutomaticBanDoesNotReplaceLonger() throws Exception {
+        String user = "test.shorter";
+        long now = System.currentTimeMillis();
+        PermissionManager.setLevel(user, PermissionLevel.BANNED, now + 60_000, false);
+        PermissionManager.setLevel(user, PermissionLevel.BANNED, now + 1000, false);
+
+        Thread.sleep(2500);
+        assertEquals(PermissionLevel.BANNED, PermissionManager.getLevel(user));
+        assertEquals(now + 60_000, PermissionManager.getPermissionEntry(user).expired());
+
+        PermissionManager.setLevel(user, PermissionLevel.TRUSTED, 0, true);
+        assertNull(stored(user));
+    }
+
+    @Test
+    public void trustedRemovesEntryAtOnce() throws IOException {
+        String user = "test.trusted";
+        PermissionManager.setLevel(user, PermissionLevel.UNTRUSTED, Long.MAX_VALUE, true);
+        assertEquals(PermissionLevel.UNTRUSTED, PermissionManager.getLevel(user));
+        assertNotNull(stored(user));
+
+        PermissionManager.setLevel(user, PermissionLevel.TRUSTED, 0, true);
+        assertEquals(PermissionLevel.TRUSTED, PermissionManager.getLevel(user));
+        assertNull(stored(user));
+    }
+
+    private static byte[] stored(String user) throws IOException {
+        return DataStorage.read(DataStorage.keyOf("permission", user));
+    }
+
+    // The timer ticks once a second, so removal lags the deadline by up to a tick
+    private static boolean waitForRemoval(String user, long timeout) throws Exception {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (System.currentTimeMillis() < deadline) {
+            if (stored(user) == null)
+                return true;
+            Thread.sleep(50);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,122 @@
+package io.github.nickid2018.koishibot.util;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BulkheadTest {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Bulkhead> bulkheads = new ArrayList<>();
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        release.countDown();
+        for (Bulkhead bulkhead : bulkheads) {
+            bulkhead.shutdown();
+            bulkhead.awaitTermination(5, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void rejectsBeyondConcurrencyAndQueue() throws Exception {
+        Bulkhead bulkhead = bulkhead(1, 1);
+        CountDownLatch running = new CountDownLatch(1);
+        assertTrue(bulkhead.execute(() -> {
+            running.countDown();
+            await();
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+        assertTrue(bulkhead.execute(this::await));
+        assertFalse(bulkhead.execute(this::await));
+
+        assertEquals(1, bulkhead.getActiveCount());
+        assertEquals(1, bulkhead.getQueueDepth());
+        assertEquals(2, bulkhead.getSubmittedCount());
+        assertEquals(1, bulkhead.getRejectedCount());
+
+        release.countDown();
+        bulkhead.shutdown();
+        assertTrue(bulkhead.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, bulkhead.getCompletedCount());
+    }
+
+    @Test
+    public void noQueueRejectsWhileBusy() throws Exception {
+        Bulkhead bulkhead = bulkhead(1, 0);
+        assertNotNull(bulkhead.submit(() -> {
+            await();
+            return 1;
+        }));
+        assertNull(bulkhead.submit(() -> 2));
+        assertEquals(1, bulkhead.getRejectedCount());
+
+        // Accepted again once the worker is back waiting for work
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        Future<Integer> future;
+        while ((future = bulkhead.submit(() -> 3)) == null && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertNotNull(future);
+        assertEquals(3, future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void raisedConcurrencyAppliesToRunningBulkhead() throws Exception {
+        Bulkhead bulkhead = bulkhead(1, 0);
+        bulkhead.setConcurrency(2);
+        CountDownLatch both = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++)
+            assertTrue(bulkhead.execute(() -> {
+                both.countDown();
+                await();
+            }));
+        assertTrue(both.await(5, TimeUnit.SECONDS));
+        assertEquals(2, bulkhead.getConcurrency());
+        assertFalse(bulkhead.execute(this::await));
+    }
+
+    @Test
+    public void asyncUtilUsesConfiguredBulkhead() {
+        JsonObject setting = new JsonObject();
+        setting.addProperty("concurrency", 1);
+        setting.addProperty("queue", 0);
+        JsonObject bulkheadSettings = new JsonObject();
+        bulkheadSettings.add("test.full", setting);
+        JsonObject async = new JsonObject();
+        async.add("bulkheads", bulkheadSettings);
+        JsonObject root = new JsonObject();
+        root.add("async", async);
+        AsyncUtil.loadAsyncSettings(root);
+        AsyncUtil.start();
+
+        assertTrue(AsyncUtil.execute("test.full", this::await));
+        assertFalse(AsyncUtil.execute("test.full", this::await));
+        assertNull(AsyncUtil.submit("test.full", () -> 1));
+        assertEquals(2, AsyncUtil.getBulkhead("test.full").getRejectedCount());
+        AsyncUtil.loadAsyncSettings(new JsonObject());
+    }
+
+    private Bulkhead bulkhead(int concurrency, int queue) {
+        Bulkhead bulkhead = new Bulkhead("test", concurrency, queue, Executors.defaultThreadFactory());
+        bulkheads.add(bulkhead);
+        return bulkhead;
+    }
+
+    private void await() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package io.github.nickid2018.koishibot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    public void frequentKeySurvivesScan() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(100);
+        cache.put("hot", 0);
+        for (int i = 0; i < 20; i++)
+            cache.get("hot");
+        for (int i = 0; i < 1000; i++)
+            cache.put("scan" + i, i);
+
+        assertEquals(0, cache.get("hot"));
+        assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    public void admitsOnlyKeysMoreFrequentThanVictim() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(100);
+        List<String> evicted = new ArrayList<>();
+        cache.setEvictionListener((key, value) -> evicted.add(key));
+        for (int i = 0; i < 100; i++)
+            cache.put("fill" + i, i);
+        assertEquals(100, cache.size());
+        assertTrue(evicted.isEmpty());
+
+        // Seen once, so no better than the victim, each key leaving the window leaves the cache
+        cache.put("rare", 0);
+        cache.put("push1", 0);
+        assertEquals(List.of("fill99", "rare"), evicted);
+
+        for (int i = 0; i < 5; i++)
+            cache.get("popular");
+        cache.put("popular", 1);
+        cache.put("push2", 0);
+        assertEquals(4, evicted.size());
+        assertEquals("push1", evicted.get(2));
+        assertTrue(evicted.get(3).startsWith("fill"));
+        assertEquals(1, cache.get("popular"));
+        assertNull(cache.get("rare"));
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void putReplacesAndInvalidateRemoves() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(10);
+        for (int i = 0; i < 10; i++)
+            cache.put("key" + i, i);
+        cache.put("key5", 50);
+        assertEquals(50, cache.get("key5"));
+        assertEquals(10, cache.size());
+
+        cache.invalidate("key5");
+        assertNull(cache.get("key5"));
+        assertEquals(9, cache.size());
+        assertEquals(10, cache.getMaximumSize());
+    }
+
+    @Test
+    public void resizeKeepsEntries() {
+        TinyLfuCache<String, Integer> cache = new TinyLfuCache<>(100);
+        List<String> evicted = new ArrayList<>();
+        cache.setEvictionListener((key, value) -> evicted.add(key));
+        for (int i = 0; i < 100; i++)
+            cache.put("key" + i, i);
+        for (int i = 0; i < 5; i++)
+            cache.get("key0");
+
+        cache.setMaximumSize(200);
+        assertEquals(200, cache.getMaximumSize());
+        assertEquals(100, cache.size());
+        for (int i = 100; i < 200; i++)
+            cache.put("key" + i, i);
+        assertEquals(200, cache.size());
+        assertTrue(evicted.isEmpty());
+
+        // Protected entries outlive the probation ones when shrinking
+        cache.setMaximumSize(10);
+        assertEquals(10, cache.size());
+        assertEquals(190, evicted.size());
+        assertEquals(0, cache.get("key0"));
+    }
+}
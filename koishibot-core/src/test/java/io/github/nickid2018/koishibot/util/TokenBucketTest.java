@@ -0,0 +1,36 @@
+package io.github.nickid2018.koishibot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenBucketTest {
+
+    private static final long INTERVAL = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void burstThenInterval() {
+        TokenBucket bucket = new TokenBucket(100, TimeUnit.MILLISECONDS, 3);
+        long now = System.nanoTime();
+        for (int i = 0; i < 3; i++)
+            assertTrue(bucket.tryAcquire(now));
+        assertFalse(bucket.tryAcquire(now));
+        assertEquals(INTERVAL, bucket.delayNanos(now));
+
+        assertFalse(bucket.tryAcquire(now + INTERVAL - 1));
+        assertTrue(bucket.tryAcquire(now + INTERVAL));
+        assertFalse(bucket.tryAcquire(now + INTERVAL));
+    }
+
+    @Test
+    public void idleRefillsOnlyUpToBurst() {
+        TokenBucket bucket = new TokenBucket(100, TimeUnit.MILLISECONDS, 2);
+        long later = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        assertEquals(0, bucket.delayNanos(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertTrue(bucket.tryAcquire(later));
+        assertFalse(bucket.tryAcquire(later));
+    }
+}
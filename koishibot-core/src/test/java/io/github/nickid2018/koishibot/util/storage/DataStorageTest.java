@@ -0,0 +1,98 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DataStorageTest {
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        // Only an explicit flush commits, unless a test lowers the flush size
+        loadSettings(1000);
+        DataStorage.flush();
+    }
+
+    @AfterAll
+    public static void tearDown() throws IOException {
+        DataStorage.loadStorageSettings(new JsonObject());
+        DataStorage.flush();
+    }
+
+    @Test
+    public void writesToOneKeyCoalesce() throws IOException {
+        long writes = DataStorage.getWriteCount();
+        long flushes = DataStorage.getFlushCount();
+        long committed = DataStorage.getCommittedCount();
+        for (int i = 0; i < 100; i++)
+            DataStorage.write("test.coalesce/a", bytes("a" + i));
+        DataStorage.write("test.coalesce/b", bytes("b"));
+
+        assertEquals(2, DataStorage.getPendingCount());
+        assertEquals("a99", string(DataStorage.read("test.coalesce/a")));
+        assertNull(DataStorage.getEngine().get("test.coalesce/a"));
+
+        DataStorage.flush();
+        assertEquals(0, DataStorage.getPendingCount());
+        assertEquals(writes + 101, DataStorage.getWriteCount());
+        assertEquals(flushes + 1, DataStorage.getFlushCount());
+        assertEquals(committed + 2, DataStorage.getCommittedCount());
+        assertEquals("a99", string(DataStorage.getEngine().get("test.coalesce/a")));
+        assertEquals("b", string(DataStorage.getEngine().get("test.coalesce/b")));
+    }
+
+    @Test
+    public void pendingRemovalHidesStoredValue() throws IOException {
+        DataStorage.write("test.remove/a", bytes("a"));
+        DataStorage.write("test.remove/b", bytes("b"));
+        DataStorage.flush();
+
+        DataStorage.write("test.remove/a", null);
+        assertNull(DataStorage.read("test.remove/a"));
+        assertEquals(Set.of("test.remove/b"), DataStorage.keys("test.remove/"));
+        assertEquals("a", string(DataStorage.getEngine().get("test.remove/a")));
+
+        DataStorage.flush();
+        assertNull(DataStorage.getEngine().get("test.remove/a"));
+        assertEquals(Set.of("test.remove/b"), DataStorage.keys("test.remove/"));
+    }
+
+    @Test
+    public void fullBatchFlushesInBackground() throws Exception {
+        loadSettings(10);
+        long flushes = DataStorage.getFlushCount();
+        for (int i = 0; i < 10; i++)
+            DataStorage.write("test.size/" + i, bytes(String.valueOf(i)));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (DataStorage.getPendingCount() > 0 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(0, DataStorage.getPendingCount());
+        assertEquals(flushes + 1, DataStorage.getFlushCount());
+        assertEquals("9", string(DataStorage.getEngine().get("test.size/9")));
+    }
+
+    private static void loadSettings(int flushSize) {
+        JsonObject storage = new JsonObject();
+        storage.addProperty("flush_size", flushSize);
+        storage.addProperty("flush_interval", 3600_000);
+        JsonObject root = new JsonObject();
+        root.add("storage", storage);
+        DataStorage.loadStorageSettings(root);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
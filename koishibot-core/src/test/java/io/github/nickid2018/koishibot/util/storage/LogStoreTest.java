@@ -0,0 +1,154 @@
+package io.github.nickid2018.koishibot.util.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void valuesSurviveReopen() throws IOException {
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            store.write(changes("a", "1", "b", "2"));
+            store.write(changes("a", "3", "b", null));
+            assertEquals("3", string(store.get("a")));
+            assertNull(store.get("b"));
+        }
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            assertEquals("3", string(store.get("a")));
+            assertNull(store.get("b"));
+            assertEquals(Set.of("a"), store.keys(""));
+        }
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        long size;
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            store.write(changes("a", "1"));
+            store.write(changes("b", "2"));
+            size = store.getLogSize();
+        }
+        Files.write(directory.resolve(LogStore.LOG), new byte[]{0, 0, 1, 0, 42}, StandardOpenOption.APPEND);
+
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            assertEquals(size, store.getLogSize());
+            assertEquals("1", string(store.get("a")));
+            assertEquals("2", string(store.get("b")));
+        }
+        assertEquals(size, Files.size(directory.resolve(LogStore.LOG)));
+    }
+
+    @Test
+    public void badChecksumEndsRecovery() throws IOException {
+        long intact;
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            store.write(changes("a", "1"));
+            intact = store.getLogSize();
+            store.write(changes("b", "2", "c", "3"));
+        }
+        try (RandomAccessFile file = new RandomAccessFile(directory.resolve(LogStore.LOG).toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int last = file.read();
+            file.seek(file.length() - 1);
+            file.write(last ^ 0xFF);
+        }
+
+        // The whole damaged batch is gone, not just the value that was hit
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            assertEquals(intact, store.getLogSize());
+            assertEquals("1", string(store.get("a")));
+            assertNull(store.get("b"));
+            assertNull(store.get("c"));
+            store.write(changes("d", "4"));
+        }
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            assertEquals(Set.of("a", "d"), store.keys(""));
+        }
+    }
+
+    @Test
+    public void compactionDropsOverwrittenValues() throws IOException {
+        // Twenty one frames of about the same size are written, two live values remain
+        long limit;
+        try (LogStore store = new LogStore(directory, false, 0)) {
+            store.write(changes("other", "kept"));
+            limit = store.getLogSize() * 4;
+            for (int i = 0; i < 20; i++)
+                store.write(changes("key", "value" + i));
+            assertEquals("value19", string(store.get("key")));
+            assertEquals("kept", string(store.get("other")));
+            assertTrue(store.getLogSize() < limit);
+            assertFalse(Files.exists(directory.resolve(LogStore.COMPACT)));
+        }
+        try (LogStore store = new LogStore(directory, false, 0)) {
+            assertEquals("value19", string(store.get("key")));
+            assertEquals("kept", string(store.get("other")));
+            assertEquals(2, store.getKeyCount());
+            assertTrue(store.getLogSize() < limit);
+        }
+    }
+
+    @Test
+    public void unfinishedCompactionIsIgnored() throws IOException {
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            store.write(changes("a", "1"));
+        }
+        Files.write(directory.resolve(LogStore.COMPACT), new byte[]{1, 2, 3});
+
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            assertFalse(Files.exists(directory.resolve(LogStore.COMPACT)));
+            assertEquals("1", string(store.get("a")));
+        }
+    }
+
+    @Test
+    public void concurrentWritersAllCommit() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String key = "key" + i;
+                futures.add(executor.submit(() -> {
+                    store.write(changes(key, key));
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            assertEquals(200, store.getKeyCount());
+        } finally {
+            executor.shutdown();
+        }
+        try (LogStore store = new LogStore(directory, true, Long.MAX_VALUE)) {
+            for (int i = 0; i < 200; i++)
+                assertEquals("key" + i, string(store.get("key" + i)));
+        }
+    }
+
+    private static Map<String, byte[]> changes(String... pairs) {
+        Map<String, byte[]> changes = new LinkedHashMap<>();
+        for (int i = 0; i < pairs.length; i += 2)
+            changes.put(pairs[i], pairs[i + 1] == null ? null : pairs[i + 1].getBytes(StandardCharsets.UTF_8));
+        return changes;
+    }
+
+    private static String string(byte[] bytes) {
+        return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -2,6 +2,8 @@ package io.github.nickid2018.koishibot.backend;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import io.github.nickid2018.koishibot.network.Connection;
+import io.github.nickid2018.koishibot.network.handler.SplitterHandler;
 import io.github.nickid2018.koishibot.util.JsonUtil;
 import org.apache.commons.io.IOUtils;
 
@@ -19,5 +21,9 @@ public class Settings {
         JsonObject config = JsonParser.parseString(IOUtils.toString(new FileReader(CONFIG_FILE))).getAsJsonObject();
         token = JsonUtil.getStringOrNull(config, "token");
         delegatePort = JsonUtil.getIntOrElse(config, "delegate_port", 52514);
+        SplitterHandler.setMaxFrameLength(JsonUtil.getIntOrElse(
+                config, "max_frame_length", SplitterHandler.DEFAULT_MAX_FRAME_LENGTH));
+        Connection.setCompressionThreshold(JsonUtil.getIntOrElse(
+                config, "compression_threshold", Connection.DEFAULT_COMPRESSION_THRESHOLD));
     }
 }
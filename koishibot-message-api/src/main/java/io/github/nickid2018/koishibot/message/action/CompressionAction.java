@@ -0,0 +1,25 @@
+package io.github.nickid2018.koishibot.message.action;
+
+import io.github.nickid2018.koishibot.message.api.Environment;
+import io.github.nickid2018.koishibot.network.ByteData;
+import io.github.nickid2018.koishibot.network.SerializableData;
+
+public class CompressionAction implements SerializableData {
+
+    private final Environment env;
+    public int threshold;
+
+    public CompressionAction(Environment env) {
+        this.env = env;
+    }
+
+    @Override
+    public void read(ByteData buf) {
+        threshold = buf.readVarInt();
+    }
+
+    @Override
+    public void write(ByteData buf) {
+        buf.writeVarInt(threshold);
+    }
+}
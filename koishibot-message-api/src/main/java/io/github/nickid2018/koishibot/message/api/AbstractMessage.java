@@ -7,6 +7,7 @@ import io.github.nickid2018.koishibot.network.SerializableData;
 import io.github.nickid2018.koishibot.util.Either;
 import io.github.nickid2018.koishibot.util.LogUtils;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 public abstract class AbstractMessage implements SerializableData {
@@ -23,30 +24,37 @@ public abstract class AbstractMessage implements SerializableData {
     }
 
     public void send(UserInfo contact) {
-        SendMessageQuery sendQuery = new SendMessageQuery(env);
-        sendQuery.target = Either.left(contact);
-        sendQuery.message = this;
-        env.getListener().queryData(env.getConnection(), sendQuery);
         try {
-            byte[] data = env.getListener().queryData(env.getConnection(), sendQuery).get(20, TimeUnit.SECONDS);
-            source = SendMessageQuery.fromBytes(env.getConnection(), data);
+            sendAsync(contact).get(DataPacketListener.QUERY_TIMEOUT, TimeUnit.SECONDS);
         } catch (Exception e) {
             LogUtils.error(DataPacketListener.LOGGER, "Failed to send message", e);
         }
     }
 
     public void send(GroupInfo group) {
-        SendMessageQuery sendQuery = new SendMessageQuery(env);
-        sendQuery.target = Either.right(group);
-        sendQuery.message = this;
         try {
-            byte[] data = env.getListener().queryData(env.getConnection(), sendQuery).get(20, TimeUnit.SECONDS);
-            source = SendMessageQuery.fromBytes(env.getConnection(), data);
+            sendAsync(group).get(DataPacketListener.QUERY_TIMEOUT, TimeUnit.SECONDS);
         } catch (Exception e) {
             LogUtils.error(DataPacketListener.LOGGER, "Failed to send message", e);
         }
     }
 
+    public CompletableFuture<MessageSource> sendAsync(UserInfo contact) {
+        return sendAsync(Either.left(contact));
+    }
+
+    public CompletableFuture<MessageSource> sendAsync(GroupInfo group) {
+        return sendAsync(Either.right(group));
+    }
+
+    private CompletableFuture<MessageSource> sendAsync(Either<UserInfo, GroupInfo> target) {
+        SendMessageQuery sendQuery = new SendMessageQuery(env);
+        sendQuery.target = target;
+        sendQuery.message = this;
+        return env.getListener().query(env.getConnection(), sendQuery, SendMessageQuery::fromBytes)
+                .thenApply(sent -> source = sent);
+    }
+
     public void recall() {
         if (source != null)
             source.recall();
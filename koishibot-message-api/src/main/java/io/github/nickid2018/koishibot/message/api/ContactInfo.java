@@ -2,6 +2,8 @@ package io.github.nickid2018.koishibot.message.api;
 
 import io.github.nickid2018.koishibot.network.SerializableData;
 
+import java.util.concurrent.CompletableFuture;
+
 public abstract class ContactInfo implements SerializableData {
 
     protected final Environment env;
@@ -24,4 +26,11 @@ public abstract class ContactInfo implements SerializableData {
         else
             message.send((UserInfo) this);
     }
+
+    public CompletableFuture<MessageSource> sendAsync(AbstractMessage message) {
+        if (this instanceof GroupInfo)
+            return message.sendAsync((GroupInfo) this);
+        else
+            return message.sendAsync((UserInfo) this);
+    }
 }
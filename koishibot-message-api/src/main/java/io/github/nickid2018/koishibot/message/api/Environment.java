@@ -26,36 +26,44 @@ public class Environment implements SerializableData {
     protected boolean quoteSupported;
     protected boolean needAntiFilter;
     protected boolean audioSilk;
+    protected int compressionThreshold;
 
     public Environment(Connection connection) {
         this.connection = connection;
+        compressionThreshold = Connection.getCompressionThreshold();
     }
 
     public UserInfo getUser(String id, boolean isStranger) {
-        UserInfoQuery query = new UserInfoQuery(this);
-        query.id = id;
-        query.isStranger = isStranger;
-        CompletableFuture<byte[]> future = getListener().queryData(connection, query);
         try {
-            return UserInfoQuery.fromBytes(connection, future.get(20, TimeUnit.SECONDS));
+            return getUserAsync(id, isStranger).get(DataPacketListener.QUERY_TIMEOUT, TimeUnit.SECONDS);
         } catch (Exception e) {
             LogUtils.error(DataPacketListener.LOGGER, "Failed to get user info", e);
             return null;
         }
     }
 
-    public GroupInfo getGroup(String id) {
-        GroupInfoQuery query = new GroupInfoQuery(this);
+    public CompletableFuture<UserInfo> getUserAsync(String id, boolean isStranger) {
+        UserInfoQuery query = new UserInfoQuery(this);
         query.id = id;
-        CompletableFuture<byte[]> future = getListener().queryData(connection, query);
+        query.isStranger = isStranger;
+        return getListener().query(connection, query, UserInfoQuery::fromBytes);
+    }
+
+    public GroupInfo getGroup(String id) {
         try {
-            return GroupInfoQuery.fromBytes(connection, future.get(20, TimeUnit.SECONDS));
+            return getGroupAsync(id).get(DataPacketListener.QUERY_TIMEOUT, TimeUnit.SECONDS);
         } catch (Exception e) {
             LogUtils.error(DataPacketListener.LOGGER, "Failed to get group info", e);
             return null;
         }
     }
 
+    public CompletableFuture<GroupInfo> getGroupAsync(String id) {
+        GroupInfoQuery query = new GroupInfoQuery(this);
+        query.id = id;
+        return getListener().query(connection, query, GroupInfoQuery::fromBytes);
+    }
+
     public String getBotId() {
         return botID;
     }
@@ -144,6 +152,7 @@ public class Environment implements SerializableData {
         quoteSupported = buf.readBoolean();
         needAntiFilter = buf.readBoolean();
         audioSilk = buf.readBoolean();
+        compressionThreshold = buf.isReadable() ? buf.readVarInt() : -1;
     }
 
     @Override
@@ -157,5 +166,6 @@ public class Environment implements SerializableData {
         buf.writeBoolean(quoteSupported);
         buf.writeBoolean(needAntiFilter);
         buf.writeBoolean(audioSilk);
+        buf.writeVarInt(compressionThreshold);
     }
 }
@@ -4,6 +4,7 @@ import io.github.nickid2018.koishibot.network.ByteData;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.util.concurrent.CompletableFuture;
 
 public class QuoteMessage extends AbstractMessage {
 
@@ -40,12 +41,14 @@ public class QuoteMessage extends AbstractMessage {
         return quoteFrom;
     }
 
-    public void send(GroupInfo group) {
-        format().send(group);
+    @Override
+    public CompletableFuture<MessageSource> sendAsync(GroupInfo group) {
+        return format().sendAsync(group);
     }
 
-    public void send(UserInfo contact) {
-        format().send(contact);
+    @Override
+    public CompletableFuture<MessageSource> sendAsync(UserInfo contact) {
+        return format().sendAsync(contact);
     }
 
     public ChainMessage format() {
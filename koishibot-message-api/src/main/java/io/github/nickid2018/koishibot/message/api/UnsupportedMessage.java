@@ -3,6 +3,8 @@ package io.github.nickid2018.koishibot.message.api;
 import io.github.nickid2018.koishibot.network.ByteData;
 import io.github.nickid2018.koishibot.network.SerializableData;
 
+import java.util.concurrent.CompletableFuture;
+
 public class UnsupportedMessage extends AbstractMessage implements SerializableData {
 
     public UnsupportedMessage(Environment env) {
@@ -10,11 +12,13 @@ public class UnsupportedMessage extends AbstractMessage implements SerializableD
     }
 
     @Override
-    public void send(UserInfo contact) {
+    public CompletableFuture<MessageSource> sendAsync(UserInfo contact) {
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
-    public void send(GroupInfo group) {
+    public CompletableFuture<MessageSource> sendAsync(GroupInfo group) {
+        return CompletableFuture.completedFuture(null);
     }
 
     @Override
@@ -1,6 +1,7 @@
 package io.github.nickid2018.koishibot.message.api;
 
 import io.github.nickid2018.koishibot.message.action.NudgeAction;
+import io.github.nickid2018.koishibot.message.network.DataPacketListener;
 import io.github.nickid2018.koishibot.message.query.NameInGroupQuery;
 import io.github.nickid2018.koishibot.network.ByteData;
 
@@ -33,20 +34,22 @@ public class UserInfo extends ContactInfo {
     }
 
     public String getNameInGroup(GroupInfo group) {
-        NameInGroupQuery query = new NameInGroupQuery(env);
-        query.group = group;
-        query.user = this;
-        CompletableFuture<byte[]> future = env.getListener().queryData(env.getConnection(), query);
         try {
-            byte[] data = future.get(20, TimeUnit.SECONDS);
-            if (data == null)
-                return "<error>";
-            return new String(data, StandardCharsets.UTF_8);
+            String name = getNameInGroupAsync(group).get(DataPacketListener.QUERY_TIMEOUT, TimeUnit.SECONDS);
+            return name == null ? "<error>" : name;
         } catch (Exception e) {
             return "<error>";
         }
     }
 
+    public CompletableFuture<String> getNameInGroupAsync(GroupInfo group) {
+        NameInGroupQuery query = new NameInGroupQuery(env);
+        query.group = group;
+        query.user = this;
+        return env.getListener().query(env.getConnection(), query,
+                (connection, data) -> data == null ? null : new String(data, StandardCharsets.UTF_8));
+    }
+
     @Override
     public boolean equals(ContactInfo info) {
         return info.getEnvironment().equals(env) && info instanceof UserInfo user && user.getUserId().equals(userId);
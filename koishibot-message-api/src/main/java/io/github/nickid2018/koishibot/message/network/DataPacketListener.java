@@ -1,5 +1,6 @@
 package io.github.nickid2018.koishibot.message.network;
 
+import io.github.nickid2018.koishibot.message.action.CompressionAction;
 import io.github.nickid2018.koishibot.message.action.NudgeAction;
 import io.github.nickid2018.koishibot.message.action.RecallAction;
 import io.github.nickid2018.koishibot.message.action.StopAction;
@@ -10,21 +11,29 @@ import io.github.nickid2018.koishibot.network.Connection;
 import io.github.nickid2018.koishibot.network.DataRegistry;
 import io.github.nickid2018.koishibot.network.NetworkListener;
 import io.github.nickid2018.koishibot.network.SerializableData;
+import io.github.nickid2018.koishibot.util.SimpleThreadFactory;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.*;
 import java.util.function.BiFunction;
 
 public class DataPacketListener implements NetworkListener {
 
-    private ExecutorService queryExecutor;
-    private final Map<UUID, CompletableFuture<byte[]>> queryResults = new ConcurrentHashMap<>();
+    public static final long QUERY_TIMEOUT = 20;
+
+    private static final HashedWheelTimer QUERY_TIMER = new HashedWheelTimer(
+            new SimpleThreadFactory("Query Timer #%d"), 100, TimeUnit.MILLISECONDS);
+    // Unbounded, a dependent stage blocking on another query holds only its own thread
+    private static final ExecutorService QUERY_EXECUTOR = Executors.newCachedThreadPool(
+            new SimpleThreadFactory("Query Callback #%d"));
+
+    private final Map<UUID, PendingQuery> queryResults = new ConcurrentHashMap<>();
 
     protected final DataRegistry registry = new DataRegistry();
 
@@ -64,6 +73,7 @@ public class DataPacketListener implements NetworkListener {
         registry.registerData(NudgeAction.class, dataFactory);
         registry.registerData(RecallAction.class, dataFactory);
         registry.registerData(StopAction.class, (c, cn) -> StopAction.INSTANCE);
+        registry.registerData(CompressionAction.class, dataFactory);
     }
 
     public DataRegistry getRegistry() {
@@ -71,28 +81,74 @@ public class DataPacketListener implements NetworkListener {
     }
 
     public CompletableFuture<byte[]> queryData(Connection connection, Query query) {
-        CompletableFuture<byte[]> future = new CompletableFuture<>();
-        queryResults.put(query.queryId, future);
+        return queryData(connection, query, QUERY_TIMEOUT, TimeUnit.SECONDS);
+    }
+
+    public CompletableFuture<byte[]> queryData(Connection connection, Query query, long timeout, TimeUnit unit) {
+        CompletableFuture<byte[]> future = register(connection, query, timeout, unit);
         connection.sendPacket(query);
         return future;
     }
 
+    public <T> CompletableFuture<T> query(Connection connection, Query query,
+                                          BiFunction<Connection, byte[], T> decoder) {
+        return queryData(connection, query).thenApply(data -> decoder.apply(connection, data));
+    }
+
+    private CompletableFuture<byte[]> register(Connection connection, Query query, long timeout, TimeUnit unit) {
+        UUID queryId = query.queryId;
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        // Completed off the timer thread too, so a blocking dependent cannot hold up other deadlines
+        Timeout deadline = QUERY_TIMER.newTimeout(t -> QUERY_EXECUTOR.execute(() -> future.completeExceptionally(
+                new TimeoutException("Query " + query.getClass().getSimpleName() + " timed out"))), timeout, unit);
+        queryResults.put(queryId, new PendingQuery(connection, future, deadline));
+        future.whenComplete((result, t) -> {
+            deadline.cancel();
+            queryResults.remove(queryId);
+        });
+        return future;
+    }
+
     @Override
     public void connectionOpened(Connection connection) {
-        queryExecutor = Executors.newFixedThreadPool(10);
     }
 
     @Override
     public void receivePacket(Connection connection, SerializableData packet) {
         if (packet instanceof QueryResultEvent queryResultEvent) {
-            UUID queryId = queryResultEvent.queryId;
+            PendingQuery pending = queryResults.remove(queryResultEvent.queryId);
+            if (pending == null) {
+                LOGGER.debug("Dropped result of expired query {}", queryResultEvent.queryId);
+                return;
+            }
             byte[] result = queryResultEvent.payload;
-            queryResults.get(queryId).complete(result);
+            QUERY_EXECUTOR.execute(() -> pending.future().complete(result));
+        } else if (packet instanceof CompressionAction compressionAction)
+            acceptCompression(connection, compressionAction);
+    }
+
+    // Core sends the action and starts compressing, the backend echoes it back before doing the same;
+    // every frame a side receives after the action is compressed
+    private void acceptCompression(Connection connection, CompressionAction action) {
+        connection.enableCompressionInbound();
+        if (!connection.isCompressingOutbound()) {
+            connection.sendPacket(action);
+            connection.enableCompressionOutbound(action.threshold);
         }
+        LOGGER.info("Link compression enabled, threshold {} bytes", action.threshold);
     }
 
     @Override
     public void connectionClosed(Connection connection) {
-        queryExecutor.shutdownNow();
+        IOException closed = new IOException("Connection closed before the query was answered");
+        queryResults.values().removeIf(pending -> {
+            if (pending.connection() != connection)
+                return false;
+            QUERY_EXECUTOR.execute(() -> pending.future().completeExceptionally(closed));
+            return true;
+        });
+    }
+
+    private record PendingQuery(Connection connection, CompletableFuture<byte[]> future, Timeout deadline) {
     }
 }
@@ -1,5 +1,6 @@
 plugins {
     `java-library`
+    id("me.champeau.jmh") version "0.7.0"
 }
 
 repositories {
@@ -16,4 +17,6 @@ dependencies {
 
     api("org.slf4j:slf4j-api:1.7.36")
     testImplementation("ch.qos.logback:logback-classic:1.4.5")
+
+    jmh(project(":koishibot-message-api"))
 }
\ No newline at end of file
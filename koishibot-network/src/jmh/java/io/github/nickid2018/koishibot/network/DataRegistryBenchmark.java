@@ -0,0 +1,101 @@
+package io.github.nickid2018.koishibot.network;
+
+import io.github.nickid2018.koishibot.message.api.*;
+import io.github.nickid2018.koishibot.message.event.OnGroupMessageEvent;
+import io.github.nickid2018.koishibot.message.network.DataPacketListener;
+import io.github.nickid2018.koishibot.util.Constructors;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DataRegistryBenchmark {
+
+    private DataRegistry registry;
+    private Connection connection;
+    private OnGroupMessageEvent event;
+    private ByteBuf buffer;
+    private List<Class<? extends SerializableData>> registeredClasses;
+
+    @Setup
+    public void setup() {
+        ClassValue<Function<Environment, ?>> constructors = new ClassValue<>() {
+            @Override
+            protected Function<Environment, ?> computeValue(Class<?> type) {
+                return Constructors.oneArg(type, Environment.class);
+            }
+        };
+        Environment[] environment = new Environment[1];
+        DataPacketListener listener = new DataPacketListener((c, cn) -> c == Environment.class ? environment[0] :
+                (SerializableData) constructors.get(c).apply(environment[0]));
+        registry = listener.getRegistry();
+        connection = new Connection(registry, listener);
+        environment[0] = new Environment(connection);
+
+        GroupInfo group = new GroupInfo(environment[0]);
+        group.groupId = "group123456789";
+        group.name = "Benchmark Group";
+        UserInfo user = new UserInfo(environment[0]);
+        user.userId = "user987654321";
+        user.name = "Benchmark User";
+
+        AbstractMessage[] parts = new AbstractMessage[10];
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = i % 3 == 0 ? environment[0].newAt(user) : environment[0].newText("message part #" + i);
+        event = new OnGroupMessageEvent(environment[0]);
+        event.group = group;
+        event.user = user;
+        event.message = environment[0].newChain(parts);
+        event.time = System.currentTimeMillis();
+
+        buffer = Unpooled.buffer(1024);
+        registeredClasses = new ArrayList<>();
+        for (int id = 0; registry.getDataClass(id) != null; id++)
+            registeredClasses.add(registry.getDataClass(id));
+    }
+
+    @TearDown
+    public void tearDown() {
+        buffer.release();
+    }
+
+    @Benchmark
+    public SerializableData encodeDecode() {
+        buffer.clear();
+        ByteData buf = new ByteData(buffer);
+        buf.writeVarInt(registry.getPacketId(event.getClass()));
+        event.write(buf);
+
+        int id = buf.readVarInt();
+        SerializableData data = registry.createData(connection, id);
+        data.read(buf);
+        return data;
+    }
+
+    @Benchmark
+    public int lookupIndexed() {
+        int id = registry.getPacketId(TextMessage.class);
+        return registry.getDataClass(id) == TextMessage.class ? id : -1;
+    }
+
+    // The stream scans DataRegistry used before it was frozen into arrays
+    @Benchmark
+    public int lookupLinearScan() {
+        List<Class<? extends SerializableData>> list = registeredClasses.stream()
+                .filter(c -> c.isAssignableFrom(TextMessage.class)).toList();
+        int id = list.isEmpty() ? -1 : registeredClasses.indexOf(list.get(0));
+        int found = id;
+        return registeredClasses.stream().filter(c -> registeredClasses.indexOf(c) == found)
+                .findFirst().orElse(null) == TextMessage.class ? id : -1;
+    }
+}
@@ -63,7 +63,7 @@ public class ByteData extends ByteBuf {
         Class<? extends SerializableData> clazz = connection.getRegistry().getDataClass(i);
         if (clazz == null)
             throw new DecoderException("Unknown data id " + i);
-        SerializableData data = connection.getRegistry().createData(connection, clazz);
+        SerializableData data = connection.getRegistry().createData(connection, i);
         data.read(this);
         return data;
     }
@@ -74,7 +74,7 @@ public class ByteData extends ByteBuf {
         Class<? extends SerializableData> clazzReal = connection.getRegistry().getDataClass(i);
         if (clazz != clazzReal)
             return null;
-        T data = (T) connection.getRegistry().createData(connection, clazzReal);
+        T data = (T) connection.getRegistry().createData(connection, i);
         data.read(this);
         return data;
     }
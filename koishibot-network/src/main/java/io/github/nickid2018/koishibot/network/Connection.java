@@ -1,5 +1,7 @@
 package io.github.nickid2018.koishibot.network;
 
+import io.github.nickid2018.koishibot.network.handler.CompressionDecoder;
+import io.github.nickid2018.koishibot.network.handler.CompressionEncoder;
 import io.github.nickid2018.koishibot.network.handler.PacketDecoder;
 import io.github.nickid2018.koishibot.network.handler.PacketEncoder;
 import io.github.nickid2018.koishibot.network.handler.SizePrepender;
@@ -13,6 +15,7 @@ import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.epoll.EpollSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import io.netty.handler.timeout.TimeoutException;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
@@ -40,6 +43,10 @@ public class Connection extends SimpleChannelInboundHandler<SerializableData> {
 
     public static final Logger NETWORK_LOGGER = LoggerFactory.getLogger("Network");
 
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 256;
+
+    private static volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
     private final DataRegistry registry;
     private final NetworkListener listener;
     private Channel channel;
@@ -59,6 +66,15 @@ public class Connection extends SimpleChannelInboundHandler<SerializableData> {
         return listener;
     }
 
+    public static int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    // Negative values disable link compression
+    public static void setCompressionThreshold(int threshold) {
+        compressionThreshold = threshold;
+    }
+
     public static Connection connectToTcpServer(DataRegistry registry, NetworkListener listener, InetAddress addr, int port) {
         Connection connection = new Connection(registry, listener);
         Class<? extends Channel> clazz;
@@ -78,6 +94,8 @@ public class Connection extends SimpleChannelInboundHandler<SerializableData> {
                 } catch (ChannelException ignored) {
                 }
                 channel.pipeline()
+                        .addLast("flush_consolidation", new FlushConsolidationHandler(
+                                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true))
                         .addLast("splitter", new SplitterHandler())
                         .addLast("decoder", new PacketDecoder(connection))
                         .addLast("prepender", new SizePrepender())
@@ -129,6 +147,31 @@ public class Connection extends SimpleChannelInboundHandler<SerializableData> {
         return channel == null;
     }
 
+    public boolean isCompressingOutbound() {
+        return channel != null && channel.pipeline().get("compress") != null;
+    }
+
+    public void enableCompressionOutbound(int threshold) {
+        runInEventLoop(() -> {
+            if (channel.pipeline().get("compress") == null)
+                channel.pipeline().addAfter("prepender", "compress", new CompressionEncoder(threshold));
+        });
+    }
+
+    public void enableCompressionInbound() {
+        runInEventLoop(() -> {
+            if (channel.pipeline().get("decompress") == null)
+                channel.pipeline().addAfter("splitter", "decompress", new CompressionDecoder());
+        });
+    }
+
+    private void runInEventLoop(Runnable runnable) {
+        if (channel.eventLoop().inEventLoop())
+            runnable.run();
+        else
+            channel.eventLoop().execute(runnable);
+    }
+
     public void disconnect() {
         if (channel.isOpen())
             channel.close().syncUninterruptibly();
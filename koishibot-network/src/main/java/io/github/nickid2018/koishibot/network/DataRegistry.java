@@ -1,54 +1,110 @@
 package io.github.nickid2018.koishibot.network;
 
+import io.github.nickid2018.koishibot.util.Constructors;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
+import java.util.function.Supplier;
 
 public class DataRegistry {
 
     private final Object2IntMap<Class<? extends SerializableData>> dataMap = new Object2IntOpenHashMap<>();
-    private final Map<Class<? extends SerializableData>,
-            BiFunction<Class<? extends SerializableData>, Connection, ? extends SerializableData>> dataFactory = new HashMap<>();
-    private final AtomicInteger id = new AtomicInteger(0);
+    private final List<Class<? extends SerializableData>> dataClassList = new ArrayList<>();
+    private final List<BiFunction<Class<? extends SerializableData>, Connection, ? extends SerializableData>>
+            dataFactoryList = new ArrayList<>();
+
+    // Filled by freeze(), registration is closed afterwards
+    private volatile Class<? extends SerializableData>[] dataClasses;
+    private BiFunction<Class<? extends SerializableData>, Connection, ? extends SerializableData>[] dataFactories;
+
+    private final ClassValue<Integer> packetIds = new ClassValue<>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return findPacketId(type);
+        }
+    };
 
     public DataRegistry() {
+        dataMap.defaultReturnValue(-1);
         registerData(NullData.class, (s, cn) -> NullData.INSTANCE);
         registerData(StringData.class, (s, cn) -> new StringData());
     }
 
     public void registerData(Class<? extends SerializableData> dataClass) {
-        dataMap.put(dataClass, id.getAndIncrement());
-        dataFactory.put(dataClass, DEFAULT_FACTORY);
+        registerData(dataClass, DEFAULT_FACTORY);
     }
 
-    public void registerData(Class<? extends SerializableData> dataClass,
+    public synchronized void registerData(Class<? extends SerializableData> dataClass,
                              BiFunction<Class<? extends SerializableData>, Connection, ? extends SerializableData> factory) {
-        dataMap.put(dataClass, id.getAndIncrement());
-        dataFactory.put(dataClass, factory);
+        if (dataClasses != null)
+            throw new IllegalStateException("Cannot register %s: registry is frozen".formatted(dataClass.getName()));
+        if (dataMap.containsKey(dataClass))
+            throw new IllegalArgumentException("Data class %s is already registered".formatted(dataClass.getName()));
+        dataMap.put(dataClass, dataClassList.size());
+        dataClassList.add(dataClass);
+        dataFactoryList.add(factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized void freeze() {
+        if (dataClasses != null)
+            return;
+        dataFactories = dataFactoryList.toArray(BiFunction[]::new);
+        dataClasses = dataClassList.toArray(Class[]::new);
     }
 
     public int getPacketId(Class<? extends SerializableData> dataClass) {
-        List<Class<? extends SerializableData>> list = dataMap.keySet().stream().filter(c -> c.isAssignableFrom(dataClass)).toList();
-        return list.isEmpty() ? -1 : dataMap.getInt(list.get(0));
+        if (dataClasses == null)
+            freeze();
+        return packetIds.get(dataClass);
     }
 
     public Class<? extends SerializableData> getDataClass(int id) {
-        return dataMap.keySet().stream().filter(c -> dataMap.getInt(c) == id).findFirst().orElse(null);
+        Class<? extends SerializableData>[] classes = dataClasses;
+        if (classes == null) {
+            freeze();
+            classes = dataClasses;
+        }
+        return id >= 0 && id < classes.length ? classes[id] : null;
+    }
+
+    public SerializableData createData(Connection connection, int id) {
+        Class<? extends SerializableData> dataClass = getDataClass(id);
+        return dataClass == null ? null : dataFactories[id].apply(dataClass, connection);
     }
 
     public SerializableData createData(Connection connection, Class<? extends SerializableData> dataClass) {
-        return dataFactory.get(dataClass).apply(dataClass, connection);
+        int id = getPacketId(dataClass);
+        return id < 0 ? null : dataFactories[id].apply(dataClass, connection);
+    }
+
+    // Nearest registered superclass wins; interfaces fall back to registration order
+    private int findPacketId(Class<?> type) {
+        for (Class<?> now = type; now != null; now = now.getSuperclass()) {
+            int id = dataMap.getInt(now);
+            if (id >= 0)
+                return id;
+        }
+        for (int id = 0; id < dataClasses.length; id++)
+            if (dataClasses[id].isAssignableFrom(type))
+                return id;
+        return -1;
     }
 
+    private static final ClassValue<Supplier<?>> NO_ARGS_CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Supplier<?> computeValue(Class<?> type) {
+            return Constructors.noArgs(type);
+        }
+    };
+
     public static final BiFunction<Class<? extends SerializableData>, Connection, ? extends SerializableData> DEFAULT_FACTORY = (c, cn) -> {
         try {
-            return c.newInstance();
-        } catch (InstantiationException | IllegalAccessException e) {
+            return (SerializableData) NO_ARGS_CONSTRUCTORS.get(c).get();
+        } catch (RuntimeException e) {
             return null;
         }
     };
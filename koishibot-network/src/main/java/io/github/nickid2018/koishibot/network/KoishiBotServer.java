@@ -10,6 +10,7 @@ import io.netty.channel.*;
 import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +59,8 @@ public class KoishiBotServer {
                 } catch (ChannelException ignored) {
                 }
                 channel.pipeline()
+                        .addLast("flush_consolidation", new FlushConsolidationHandler(
+                                FlushConsolidationHandler.DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, true))
                         .addLast("splitter", new SplitterHandler())
                         .addLast("decoder", new PacketDecoder(connection))
                         .addLast("prepender", new SizePrepender())
@@ -0,0 +1,50 @@
+package io.github.nickid2018.koishibot.network.handler;
+
+import io.github.nickid2018.koishibot.network.ByteData;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.DecoderException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+public class CompressionDecoder extends MessageToMessageDecoder<ByteBuf> {
+
+    private final Inflater inflater = new Inflater();
+
+    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list)
+            throws DataFormatException {
+        int size = new ByteData(byteBuf).readVarInt();
+        if (size == 0) {
+            list.add(byteBuf.retainedSlice());
+            return;
+        }
+        int limit = SplitterHandler.getMaxFrameLength();
+        if (size < 0 || size > limit)
+            throw new TooLongFrameException("uncompressed length " + size + " exceeds limit " + limit);
+
+        ByteBuf out = channelHandlerContext.alloc().heapBuffer(size, size);
+        try {
+            inflater.setInput(byteBuf.nioBuffer());
+            int length = inflater.inflate(out.array(), out.arrayOffset(), size);
+            if (length != size || !inflater.finished())
+                throw new DecoderException("Badly compressed frame: expected " + size + " bytes, got " + length);
+            out.writerIndex(size);
+            list.add(out);
+            out = null;
+        } finally {
+            inflater.reset();
+            if (out != null)
+                out.release();
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        inflater.end();
+        super.handlerRemoved(ctx);
+    }
+}
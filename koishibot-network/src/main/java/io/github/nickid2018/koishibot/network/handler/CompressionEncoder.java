@@ -0,0 +1,54 @@
+package io.github.nickid2018.koishibot.network.handler;
+
+import io.github.nickid2018.koishibot.network.ByteData;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+public class CompressionEncoder extends MessageToMessageEncoder<ByteBuf> {
+
+    private final int threshold;
+    private final Deflater deflater = new Deflater();
+    private final byte[] deflateBuffer = new byte[8192];
+
+    public CompressionEncoder(int threshold) {
+        this.threshold = threshold;
+    }
+
+    protected void encode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
+        int size = byteBuf.readableBytes();
+        if (size < threshold) {
+            // A zero length marks an uncompressed frame
+            if (byteBuf.readerIndex() > 0 && byteBuf.refCnt() == 1 && !byteBuf.isReadOnly()) {
+                byteBuf.setByte(byteBuf.readerIndex() - 1, 0);
+                byteBuf.readerIndex(byteBuf.readerIndex() - 1);
+                list.add(byteBuf.retain());
+            } else {
+                list.add(channelHandlerContext.alloc().compositeBuffer(2).addComponents(true,
+                        channelHandlerContext.alloc().buffer(1).writeByte(0), byteBuf.retain()));
+            }
+            return;
+        }
+
+        ByteBuf out = channelHandlerContext.alloc().buffer(SizePrepender.RESERVED_HEADER_LENGTH + size / 2);
+        out.writerIndex(SizePrepender.RESERVED_HEADER_LENGTH).readerIndex(SizePrepender.RESERVED_HEADER_LENGTH);
+        new ByteData(out).writeVarInt(size);
+        deflater.setInput(byteBuf.nioBuffer());
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(deflateBuffer);
+            out.writeBytes(deflateBuffer, 0, length);
+        }
+        deflater.reset();
+        list.add(out);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        deflater.end();
+        super.handlerRemoved(ctx);
+    }
+}
@@ -27,7 +27,7 @@ public class PacketDecoder extends ByteToMessageDecoder {
         Class<? extends SerializableData> packetClass = connection.getRegistry().getDataClass(id);
         if (packetClass == null)
             throw new IOException("Bad packet (ID %d) - Unknown ID".formatted(id));
-        SerializableData packet = connection.getRegistry().createData(connection, packetClass);
+        SerializableData packet = connection.getRegistry().createData(connection, id);
         packet.read(buf);
         if (buf.readableBytes() > 0)
             throw new IOException("Bad packet (ID %d, Name: %s) - Unexpected %s byte(s) at the packet tail".formatted(
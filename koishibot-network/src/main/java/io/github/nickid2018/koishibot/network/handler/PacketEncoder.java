@@ -17,6 +17,14 @@ public class PacketEncoder extends MessageToByteEncoder<SerializableData> {
         this.registry = registry;
     }
 
+    @Override
+    protected ByteBuf allocateBuffer(ChannelHandlerContext ctx, SerializableData msg, boolean preferDirect)
+            throws Exception {
+        ByteBuf buf = super.allocateBuffer(ctx, msg, preferDirect);
+        buf.writerIndex(SizePrepender.RESERVED_HEADER_LENGTH).readerIndex(SizePrepender.RESERVED_HEADER_LENGTH);
+        return buf;
+    }
+
     @Override
     protected void encode(ChannelHandlerContext ctx, SerializableData msg, ByteBuf out) throws Exception {
         int packetID = registry.getPacketId(msg.getClass());
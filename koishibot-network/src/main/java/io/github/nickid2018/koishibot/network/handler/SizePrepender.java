@@ -4,24 +4,42 @@ import io.github.nickid2018.koishibot.network.ByteData;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandler.Sharable;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
 
 @Sharable
-public class SizePrepender extends MessageToByteEncoder<ByteBuf> {
+public class SizePrepender extends MessageToMessageEncoder<ByteBuf> {
 
-    private static final int MAX_PREPEND_LENGTH = 3;
+    // PacketEncoder leaves this much headroom so the length can be written in place
+    public static final int RESERVED_HEADER_LENGTH = 5;
 
-    protected void encode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, ByteBuf byteBuf2) {
+    protected void encode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
         int i = byteBuf.readableBytes();
+        int limit = SplitterHandler.getMaxFrameLength();
+        if (i > limit)
+            throw new TooLongFrameException("unable to fit " + i + " into frame limit " + limit);
         int j = ByteData.getVarIntSize(i);
-        if (j > MAX_PREPEND_LENGTH) {
-            throw new IllegalArgumentException("unable to fit " + i + " into 3");
+        int start = byteBuf.readerIndex() - j;
+        if (start >= 0 && byteBuf.refCnt() == 1 && !byteBuf.isReadOnly()) {
+            writeVarInt(byteBuf, start, i);
+            byteBuf.readerIndex(start);
+            list.add(byteBuf.retain());
         } else {
-            ByteData packetByteBuf = new ByteData(byteBuf2);
-            packetByteBuf.ensureWritable(j + i);
-            packetByteBuf.writeVarInt(i);
-            packetByteBuf.writeBytes(byteBuf, byteBuf.readerIndex(), i);
+            ByteBuf header = channelHandlerContext.alloc().buffer(j);
+            writeVarInt(header, 0, i);
+            header.writerIndex(j);
+            list.add(channelHandlerContext.alloc().compositeBuffer(2)
+                    .addComponents(true, header, byteBuf.retain()));
         }
     }
-}
 
+    private static void writeVarInt(ByteBuf buf, int index, int value) {
+        while ((value & -128) != 0) {
+            buf.setByte(index++, value & 127 | 128);
+            value >>>= 7;
+        }
+        buf.setByte(index, value);
+    }
+}
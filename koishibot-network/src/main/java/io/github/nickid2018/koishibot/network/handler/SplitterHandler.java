@@ -2,45 +2,67 @@ package io.github.nickid2018.koishibot.network.handler;
 
 import io.github.nickid2018.koishibot.network.ByteData;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
 
 import java.util.List;
 
 public class SplitterHandler extends ByteToMessageDecoder {
 
-    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
-        byteBuf.markReaderIndex();
-        byte[] bs = new byte[3];
+    public static final int DEFAULT_MAX_FRAME_LENGTH = (1 << 21) - 1;
 
-        for (int i = 0; i < bs.length; ++i) {
-            if (!byteBuf.isReadable()) {
-                byteBuf.resetReaderIndex();
-                return;
-            }
+    private static volatile int maxFrameLength = DEFAULT_MAX_FRAME_LENGTH;
 
-            bs[i] = byteBuf.readByte();
-            if (bs[i] >= 0) {
-                ByteData packetByteBuf = new ByteData(Unpooled.wrappedBuffer(bs));
+    private final int frameLimit;
+    private final int maxHeaderLength;
 
-                try {
-                    int j = packetByteBuf.readVarInt();
-                    if (byteBuf.readableBytes() < j) {
-                        byteBuf.resetReaderIndex();
-                        return;
-                    }
+    public SplitterHandler() {
+        this(maxFrameLength);
+    }
 
-                    list.add(byteBuf.readBytes(j));
-                } finally {
-                    packetByteBuf.release();
-                }
+    public SplitterHandler(int frameLimit) {
+        this.frameLimit = frameLimit;
+        maxHeaderLength = ByteData.getVarIntSize(frameLimit);
+    }
 
-                return;
+    public static int getMaxFrameLength() {
+        return maxFrameLength;
+    }
+
+    public static void setMaxFrameLength(int length) {
+        if (length <= 0)
+            throw new IllegalArgumentException("Frame length limit must be positive");
+        maxFrameLength = length;
+    }
+
+    protected void decode(ChannelHandlerContext channelHandlerContext, ByteBuf byteBuf, List<Object> list) {
+        while (byteBuf.isReadable()) {
+            int start = byteBuf.readerIndex();
+            int available = byteBuf.readableBytes();
+            int length = 0;
+            int headerLength = 0;
+            boolean complete = false;
+            while (headerLength < maxHeaderLength && headerLength < available) {
+                byte b = byteBuf.getByte(start + headerLength);
+                length |= (b & 0x7F) << (headerLength++ * 7);
+                if (b >= 0) {
+                    complete = true;
+                    break;
+                }
+            }
+            if (!complete) {
+                if (headerLength < maxHeaderLength)
+                    return;
+                throw new CorruptedFrameException("length wider than " + maxHeaderLength + " bytes");
             }
+            if (length < 0 || length > frameLimit)
+                throw new TooLongFrameException("frame length " + length + " exceeds limit " + frameLimit);
+            if (available - headerLength < length)
+                return;
+            list.add(byteBuf.retainedSlice(start + headerLength, length));
+            byteBuf.readerIndex(start + headerLength + length);
         }
-
-        throw new CorruptedFrameException("length wider than 21-bit");
     }
 }
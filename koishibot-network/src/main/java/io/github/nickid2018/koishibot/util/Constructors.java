@@ -0,0 +1,59 @@
+package io.github.nickid2018.koishibot.util;
+
+import java.lang.invoke.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+public class Constructors {
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    @SuppressWarnings("unchecked")
+    public static <T> Supplier<T> noArgs(Class<T> clazz) {
+        try {
+            MethodHandle constructor = LOOKUP.findConstructor(clazz, MethodType.methodType(void.class));
+            try {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "get", MethodType.methodType(Supplier.class),
+                        MethodType.methodType(Object.class), constructor, constructor.type());
+                return (Supplier<T>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                return () -> {
+                    try {
+                        return (T) constructor.invoke();
+                    } catch (Throwable t) {
+                        throw new IllegalStateException("Failed to construct " + clazz.getName(), t);
+                    }
+                };
+            }
+        } catch (ReflectiveOperationException e) {
+            return () -> {
+                throw new IllegalArgumentException("No accessible constructor " + clazz.getName() + "()", e);
+            };
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <P, T> Function<P, T> oneArg(Class<T> clazz, Class<? super P> parameter) {
+        try {
+            MethodHandle constructor = LOOKUP.findConstructor(clazz, MethodType.methodType(void.class, parameter));
+            try {
+                CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+                        MethodType.methodType(Object.class, Object.class), constructor, constructor.type());
+                return (Function<P, T>) site.getTarget().invoke();
+            } catch (Throwable e) {
+                return p -> {
+                    try {
+                        return (T) constructor.invoke(p);
+                    } catch (Throwable t) {
+                        throw new IllegalStateException("Failed to construct " + clazz.getName(), t);
+                    }
+                };
+            }
+        } catch (ReflectiveOperationException e) {
+            return p -> {
+                throw new IllegalArgumentException(
+                        "No accessible constructor " + clazz.getName() + "(" + parameter.getName() + ")", e);
+            };
+        }
+    }
+}
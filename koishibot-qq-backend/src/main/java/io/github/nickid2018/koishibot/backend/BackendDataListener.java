@@ -13,6 +13,7 @@ import io.github.nickid2018.koishibot.message.query.NameInGroupQuery;
 import io.github.nickid2018.koishibot.message.query.UserInfoQuery;
 import io.github.nickid2018.koishibot.network.Connection;
 import io.github.nickid2018.koishibot.network.SerializableData;
+import io.github.nickid2018.koishibot.util.Constructors;
 import io.github.nickid2018.koishibot.util.Either;
 import io.github.nickid2018.koishibot.util.LogUtils;
 
@@ -20,6 +21,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class BackendDataListener extends DataPacketListener {
@@ -43,14 +45,21 @@ public class BackendDataListener extends DataPacketListener {
         MAPPING.put(UserInfo.class, QQUser.class);
     }
 
+    private static final ClassValue<Function<QQEnvironment, ?>> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Function<QQEnvironment, ?> computeValue(Class<?> type) {
+            if (MAPPING.containsKey(type))
+                return Constructors.oneArg(MAPPING.get(type), QQEnvironment.class);
+            return Constructors.oneArg(type, Environment.class);
+        }
+    };
+
     public BackendDataListener(Supplier<QQEnvironment> environment, CompletableFuture<Void> disconnectFuture) {
         super((c, cn) -> {
             try {
                 if (c.equals(Environment.class))
                     return null;
-                if (MAPPING.containsKey(c))
-                    return MAPPING.get(c).getConstructor(QQEnvironment.class).newInstance(environment.get());
-                return c.getConstructor(Environment.class).newInstance(environment.get());
+                return (SerializableData) CONSTRUCTORS.get(c).apply(environment.get());
             } catch (Exception e) {
                 LogUtils.error(Main.LOGGER, "Failed to create instance of " + c.getName(), e);
                 return null;
@@ -12,6 +12,7 @@ import io.github.nickid2018.koishibot.message.query.UserInfoQuery;
 import io.github.nickid2018.koishibot.message.telegram.*;
 import io.github.nickid2018.koishibot.network.Connection;
 import io.github.nickid2018.koishibot.network.SerializableData;
+import io.github.nickid2018.koishibot.util.Constructors;
 import io.github.nickid2018.koishibot.util.Either;
 import io.github.nickid2018.koishibot.util.LogUtils;
 
@@ -19,6 +20,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class BackendDataListener extends DataPacketListener {
@@ -40,14 +42,21 @@ public class BackendDataListener extends DataPacketListener {
         MAPPING.put(UserInfo.class, TelegramUser.class);
     }
 
+    private static final ClassValue<Function<TelegramEnvironment, ?>> CONSTRUCTORS = new ClassValue<>() {
+        @Override
+        protected Function<TelegramEnvironment, ?> computeValue(Class<?> type) {
+            if (MAPPING.containsKey(type))
+                return Constructors.oneArg(MAPPING.get(type), TelegramEnvironment.class);
+            return Constructors.oneArg(type, Environment.class);
+        }
+    };
+
     public BackendDataListener(Supplier<TelegramEnvironment> environment, CompletableFuture<Void> disconnectFuture) {
         super((c, cn) -> {
             try {
                 if (c.equals(Environment.class))
                     return null;
-                if (MAPPING.containsKey(c))
-                    return MAPPING.get(c).getConstructor(TelegramEnvironment.class).newInstance(environment.get());
-                return c.getConstructor(Environment.class).newInstance(environment.get());
+                return (SerializableData) CONSTRUCTORS.get(c).apply(environment.get());
             } catch (Exception e) {
                 return null;
             }